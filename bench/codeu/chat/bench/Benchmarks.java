@@ -0,0 +1,78 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.bench;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.regex.Pattern;
+
+// BENCHMARKS
+//
+// Runs the micro-benchmarks (see Harness) and writes their results as JSON.
+//
+// Usage:
+//   python build.py bench [ options ] [ pattern ]
+//
+// Only benchmarks whose names contain a match for "pattern" are run, for
+// example "uuid" or "serializers\.user\.". Options:
+//   -wi <count> : warm-up iterations (default 3)
+//   -i <count>  : measured iterations (default 5)
+//   -t <ms>     : length of each iteration (default 1000)
+//   -o <file>   : where to write the JSON (default bench.json)
+public final class Benchmarks {
+
+  public static void main(String[] args) throws Exception {
+
+    final Harness harness = new Harness();
+
+    String output = "bench.json";
+    Pattern filter = Pattern.compile("");
+
+    for (int i = 0; i < args.length; i++) {
+      if ("-wi".equals(args[i]) && i + 1 < args.length) {
+        harness.warmupIterations(Integer.parseInt(args[++i]));
+      } else if ("-i".equals(args[i]) && i + 1 < args.length) {
+        harness.measureIterations(Integer.parseInt(args[++i]));
+      } else if ("-t".equals(args[i]) && i + 1 < args.length) {
+        harness.iterationMs(Long.parseLong(args[++i]));
+      } else if ("-o".equals(args[i]) && i + 1 < args.length) {
+        output = args[++i];
+      } else {
+        filter = Pattern.compile(args[i]);
+      }
+    }
+
+    SerializerBenchmarks.register(harness);
+    UuidBenchmarks.register(harness);
+    StoreBenchmarks.register(harness);
+    TimelineBenchmarks.register(harness);
+    ReplayBenchmarks.register(harness);
+
+    final List<Harness.Result> results = harness.run(filter);
+
+    try (final Writer writer = new FileWriter(output)) {
+      writer.write(harness.toJson(results));
+    } catch (IOException ex) {
+      System.err.println("Failed to write results to " + output + ": " + ex);
+    }
+
+    System.out.println("Results written to " + output);
+
+    // The timeline's threads never stop on their own, so end the process here.
+    System.exit(0);
+  }
+}
@@ -0,0 +1,256 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+// HARNESS
+//
+// A small stand-in for JMH. Each benchmark is an operation that is called
+// over and over: first for a few warm-up iterations so that the JIT has done
+// its work, then for the measured iterations. Every iteration runs for a
+// fixed length of time and the score is the average time per operation over
+// that iteration. The reported score is the mean of the measured iterations
+// with a 99% confidence interval.
+//
+// Whatever an operation returns is stored in a field so that the JIT cannot
+// decide the work is unused and throw it away. Operations that return a
+// primitive pay for boxing it, which for small numbers is a cache lookup.
+//
+// Results can be printed as a table and written as JSON in the same shape
+// JMH uses ("benchmark", "mode", "primaryMetric" with "score", "scoreError",
+// "scoreConfidence" and "rawData"), so tools that read JMH results can read
+// these too.
+public final class Harness {
+
+  // OPERATION
+  //
+  // One call of the code being measured.
+  public interface Operation {
+    Object run() throws Exception;
+  }
+
+  // RESULT
+  //
+  // The measured iterations of one benchmark, in nanoseconds per operation.
+  public static final class Result {
+
+    public final String name;
+    public final double[] iterations;
+
+    Result(String name, double[] iterations) {
+      this.name = name;
+      this.iterations = iterations;
+    }
+
+    public double mean() {
+      double total = 0;
+      for (final double value : iterations) {
+        total += value;
+      }
+      return total / iterations.length;
+    }
+
+    // Half the width of the 99% confidence interval around the mean. With
+    // the handful of iterations a run has this uses the normal
+    // approximation, which is a little narrower than JMH's Student's t.
+    public double error() {
+      if (iterations.length < 2) {
+        return Double.NaN;
+      }
+      final double mean = mean();
+      double squares = 0;
+      for (final double value : iterations) {
+        squares += (value - mean) * (value - mean);
+      }
+      final double deviation = Math.sqrt(squares / (iterations.length - 1));
+      return 2.576 * deviation / Math.sqrt(iterations.length);
+    }
+  }
+
+  private static final class Entry {
+
+    final String name;
+    final int operationsPerCall;
+    final Operation operation;
+
+    Entry(String name, int operationsPerCall, Operation operation) {
+      this.name = name;
+      this.operationsPerCall = operationsPerCall;
+      this.operation = operation;
+    }
+  }
+
+  private final List<Entry> entries = new ArrayList<>();
+
+  private int warmupIterations = 3;
+  private int measureIterations = 5;
+  private long iterationMs = 1000;
+
+  // Where results go so that they are never dead code. Read once at the end
+  // so that the JIT has to keep it.
+  private Object sink = null;
+
+  public Harness warmupIterations(int count) {
+    this.warmupIterations = count;
+    return this;
+  }
+
+  public Harness measureIterations(int count) {
+    this.measureIterations = count;
+    return this;
+  }
+
+  public Harness iterationMs(long ms) {
+    this.iterationMs = ms;
+    return this;
+  }
+
+  // ADD
+  //
+  // Register a benchmark. Names are dotted, "group.case", so that a run can
+  // be limited to the names that match a pattern.
+  public void add(String name, Operation operation) {
+    add(name, 1, operation);
+  }
+
+  // Same as "add" for an operation that does "operationsPerCall" units of
+  // work each time it is called (for example, scheduling a batch of events
+  // and waiting for them). Scores are per unit.
+  public void add(String name, int operationsPerCall, Operation operation) {
+    entries.add(new Entry(name, operationsPerCall, operation));
+  }
+
+  // RUN
+  //
+  // Run every benchmark whose name contains a match for "filter", printing
+  // each result as it finishes.
+  public List<Result> run(Pattern filter) throws Exception {
+
+    final List<Result> results = new ArrayList<>();
+
+    System.out.format("%-48s %14s %12s\n", "benchmark", "ns/op", "error");
+
+    for (final Entry entry : entries) {
+      if (!filter.matcher(entry.name).find()) {
+        continue;
+      }
+
+      for (int i = 0; i < warmupIterations; i++) {
+        iterate(entry);
+      }
+
+      final double[] iterations = new double[measureIterations];
+      for (int i = 0; i < measureIterations; i++) {
+        iterations[i] = iterate(entry);
+      }
+
+      final Result result = new Result(entry.name, iterations);
+      results.add(result);
+
+      System.out.format("%-48s %14.2f %12.2f\n", result.name, result.mean(), result.error());
+    }
+
+    if (sink == this) {
+      System.out.println();  // never, but the JIT cannot know that
+    }
+
+    return results;
+  }
+
+  // Call the operation until the iteration's time is up and return the
+  // average time per unit of work. Calls are made in batches that double
+  // until a batch takes long enough that reading the clock is noise.
+  private double iterate(Entry entry) throws Exception {
+
+    final long end = System.nanoTime() + iterationMs * 1000000L;
+
+    long calls = 0;
+    long elapsed = 0;
+    int batch = 1;
+
+    while (true) {
+      final long start = System.nanoTime();
+      for (int i = 0; i < batch; i++) {
+        sink = entry.operation.run();
+      }
+      final long now = System.nanoTime();
+
+      calls += batch;
+      elapsed += now - start;
+
+      if (now >= end) {
+        break;
+      }
+      if (now - start < 1000000L) {
+        batch *= 2;
+      }
+    }
+
+    return elapsed / (double) (calls * entry.operationsPerCall);
+  }
+
+  // TO JSON
+  //
+  // Write "results" in the shape JMH uses for its JSON output.
+  public String toJson(List<Result> results) {
+
+    final StringBuilder json = new StringBuilder("[\n");
+
+    for (int i = 0; i < results.size(); i++) {
+      final Result result = results.get(i);
+      final double mean = result.mean();
+      final double error = result.error();
+
+      json.append("  {\n");
+      json.append("    \"benchmark\" : ").append(quote(result.name)).append(",\n");
+      json.append("    \"mode\" : \"avgt\",\n");
+      json.append("    \"warmupIterations\" : ").append(warmupIterations).append(",\n");
+      json.append("    \"warmupTime\" : ").append(quote(iterationMs + " ms")).append(",\n");
+      json.append("    \"measurementIterations\" : ").append(measureIterations).append(",\n");
+      json.append("    \"measurementTime\" : ").append(quote(iterationMs + " ms")).append(",\n");
+      json.append("    \"primaryMetric\" : {\n");
+      json.append("      \"score\" : ").append(number(mean)).append(",\n");
+      json.append("      \"scoreError\" : ").append(number(error)).append(",\n");
+      json.append("      \"scoreConfidence\" : [ ")
+          .append(number(mean - error)).append(", ")
+          .append(number(mean + error)).append(" ],\n");
+      json.append("      \"scoreUnit\" : \"ns/op\",\n");
+      json.append("      \"rawData\" : [ [ ");
+      for (int j = 0; j < result.iterations.length; j++) {
+        json.append(j == 0 ? "" : ", ").append(number(result.iterations[j]));
+      }
+      json.append(" ] ]\n");
+      json.append("    }\n");
+      json.append(i + 1 < results.size() ? "  },\n" : "  }\n");
+    }
+
+    return json.append("]\n").toString();
+  }
+
+  private static String number(double value) {
+    // JSON has no NaN, which is what a single iteration's error is.
+    return Double.isNaN(value) || Double.isInfinite(value) ?
+        "\"NaN\"" :
+        String.format(Locale.ROOT, "%.3f", value);
+  }
+
+  private static String quote(String value) {
+    return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+  }
+}
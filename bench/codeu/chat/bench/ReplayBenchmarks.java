@@ -0,0 +1,103 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.User;
+import codeu.chat.server.Controller;
+import codeu.chat.server.LogReplay;
+import codeu.chat.server.Model;
+import codeu.chat.server.WriteAheadLog;
+import codeu.chat.util.Uuid;
+
+// REPLAY BENCHMARKS
+//
+// What a server does with its transaction log when it starts: every record
+// is read back with WriteAheadLog.read and applied to a new Model through
+// LogReplay, indexes and all.
+//
+//   replay : a log of REPLAY_MESSAGES messages from USERS users spread over
+//            CONVERSATIONS conversations, where one message in ten says
+//            "ok". The log is written on the first call. Scores are per
+//            message.
+final class ReplayBenchmarks {
+
+  private static final int USERS = 100;
+  private static final int CONVERSATIONS = 1000;
+  private static final int REPLAY_MESSAGES = 200000;
+
+  private static final int THREADS = Runtime.getRuntime().availableProcessors();
+
+  private ReplayBenchmarks() { }
+
+  static void register(Harness harness) {
+
+    harness.add("model.replay", REPLAY_MESSAGES, new Harness.Operation() {
+
+      private File log;
+
+      @Override
+      public Object run() throws Exception {
+
+        if (log == null) {
+          log = writeLog();
+        }
+
+        final Model model = new Model();
+        LogReplay.replay(log, model, THREADS);
+        return model;
+      }
+    });
+  }
+
+  private static File writeLog() throws IOException {
+
+    final File file = File.createTempFile("replay", ".log");
+    file.deleteOnExit();
+
+    final Random random = new Random(3);
+    final Model model = new Model();
+    final Controller controller = new Controller(Uuid.NULL, model);
+
+    try (final WriteAheadLog log = new WriteAheadLog(file, WriteAheadLog.Sync.NONE, 0)) {
+
+      controller.setLog(log);
+
+      final User[] users = new User[USERS];
+      for (int i = 0; i < USERS; i++) {
+        users[i] = controller.newUser("user " + i);
+      }
+
+      final ConversationHeader[] conversations = new ConversationHeader[CONVERSATIONS];
+      for (int i = 0; i < CONVERSATIONS; i++) {
+        conversations[i] = controller.newConversation("conversation " + i, users[i % USERS].id);
+      }
+
+      for (int i = 0; i < REPLAY_MESSAGES; i++) {
+        controller.newMessage(
+            users[random.nextInt(USERS)].id,
+            conversations[random.nextInt(CONVERSATIONS)].id,
+            random.nextInt(10) == 0 ? "ok" : "message " + i);
+      }
+    }
+
+    return file;
+  }
+}
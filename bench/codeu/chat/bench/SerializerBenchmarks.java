@@ -0,0 +1,117 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.Message;
+import codeu.chat.common.User;
+import codeu.chat.util.Serializer;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+// SERIALIZER BENCHMARKS
+//
+// Writing and reading the basic serializers and each entity's serializer,
+// through both streams and buffers. Stream writes go to one reused
+// ByteArrayOutputStream and buffer writes to one reused heap buffer, so that
+// what is measured is the serializer rather than growing arrays.
+final class SerializerBenchmarks {
+
+  private SerializerBenchmarks() { }
+
+  static void register(Harness harness) throws Exception {
+
+    final Uuid server = new Uuid(new Uuid(100), 101);
+    final Time now = Time.fromMs(1500000000000L);
+
+    final User user = new User(new Uuid(server, 123456), "alice", now);
+    final ConversationHeader conversation =
+        new ConversationHeader(new Uuid(server, 234567), user.id, now, "weekend plans");
+    final Message message = new Message(
+        new Uuid(server, 345678),
+        Uuid.NULL,
+        new Uuid(server, 345677),
+        now,
+        user.id,
+        "The quick brown fox jumps over the lazy dog.");
+
+    final List<User> users = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      users.add(new User(new Uuid(server, 1000 + i), "user" + i, Time.fromMs(now.inMs() + i)));
+    }
+
+    add(harness, "serializers.integer", Serializers.INTEGER, 123456789);
+    add(harness, "serializers.long", Serializers.LONG, 1234567890123L);
+    add(harness, "serializers.string", Serializers.STRING, "The quick brown fox jumps over the lazy dog.");
+    add(harness, "serializers.uuid", Uuid.SERIALIZER, user.id);
+    add(harness, "serializers.time", Time.SERIALIZER, now);
+    add(harness, "serializers.user", User.SERIALIZER, user);
+    add(harness, "serializers.conversationHeader", ConversationHeader.SERIALIZER, conversation);
+    add(harness, "serializers.message", Message.SERIALIZER, message);
+    add(harness, "serializers.users100", Serializers.collection(User.SERIALIZER), (Collection<User>) users);
+  }
+
+  private static <T> void add(Harness harness, String name, final Serializer<T> serializer, final T value)
+      throws Exception {
+
+    final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    serializer.write(stream, value);
+    final byte[] bytes = stream.toByteArray();
+
+    final ByteBuffer buffer = ByteBuffer.allocate(serializer.maxSize(value));
+    final ByteBuffer encoded = ByteBuffer.wrap(bytes);
+
+    harness.add(name + ".writeStream", new Harness.Operation() {
+      @Override
+      public Object run() throws Exception {
+        stream.reset();
+        serializer.write(stream, value);
+        return stream;
+      }
+    });
+
+    harness.add(name + ".readStream", new Harness.Operation() {
+      @Override
+      public Object run() throws Exception {
+        return serializer.read(new ByteArrayInputStream(bytes));
+      }
+    });
+
+    harness.add(name + ".writeBuffer", new Harness.Operation() {
+      @Override
+      public Object run() throws Exception {
+        buffer.clear();
+        serializer.write(buffer, value);
+        return buffer;
+      }
+    });
+
+    harness.add(name + ".readBuffer", new Harness.Operation() {
+      @Override
+      public Object run() throws Exception {
+        encoded.rewind();
+        return serializer.read(encoded);
+      }
+    });
+  }
+}
@@ -0,0 +1,325 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.bench;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import codeu.chat.client.core.Context;
+import codeu.chat.client.core.ConversationContext;
+import codeu.chat.client.core.UserContext;
+import codeu.chat.common.NetworkCode;
+import codeu.chat.common.Secret;
+import codeu.chat.server.NoOpRelay;
+import codeu.chat.server.Server;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Uuid;
+import codeu.chat.util.connections.Connection;
+import codeu.chat.util.connections.FramedClientConnectionSource;
+import codeu.chat.util.connections.NioServerConnectionSource;
+import codeu.chat.util.connections.ThreadPerConnectionServer;
+
+// SERVER MODE BENCHMARK
+//
+// Compares the two ways ServerMain can serve clients (see ServerMain.MODE):
+//   nio     : one selector thread, requests queued on the server's pools.
+//   threads : one thread per client, requests run on that thread.
+//
+// For each mode and each client count, a server is started in this process
+// and that many clients connect to it. Every client keeps exactly one request
+// in flight for the length of the run: nine in ten are reads of the latest
+// page of a conversation and one in ten adds a message to it. The results
+// are the number of requests answered per second and the time clients waited
+// for their answers.
+//
+// Usage:
+//   python build.py run codeu.chat.bench.ServerModeBenchmark [clients,...] [seconds]
+//
+// The defaults are 1000 and 10000 clients for 10 seconds each. Both ends of
+// every socket are in this process, so 10000 clients needs an open file limit
+// (ulimit -n) well above 20000.
+public final class ServerModeBenchmark {
+
+  private static final String[] MODES = { "nio", "threads" };
+
+  // The number of threads that drive the clients. Each drives its share of
+  // the sockets in turn, so the clients do not need a thread each.
+  private static final int DRIVERS = 32;
+
+  private static final int PAGE_SIZE = 10;
+
+  private static final class Result {
+
+    public long requests = 0;
+    public long failures = 0;
+    public long[] latencies = new long[1024];  // nanoseconds, first "requests" are used
+
+    public void add(long latency) {
+      if (requests == latencies.length) {
+        latencies = Arrays.copyOf(latencies, latencies.length * 2);
+      }
+      latencies[(int) requests++] = latency;
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+
+    final int[] clientCounts = args.length > 0 ? parseCounts(args[0]) : new int[] { 1000, 10000 };
+    final int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+    System.out.format("%-8s %8s %12s %10s %10s %10s %9s\n",
+        "mode", "clients", "requests/s", "p50 ms", "p99 ms", "max ms", "failures");
+
+    for (final int clients : clientCounts) {
+      for (final String mode : MODES) {
+        run(mode, clients, seconds);
+      }
+    }
+
+    // The servers' own threads never stop, so end the process here.
+    System.exit(0);
+  }
+
+  private static void run(String mode, int clients, int seconds) throws Exception {
+
+    final Server server = new Server(Uuid.parse("100.101"), Secret.parse("ABABAB"), new NoOpRelay());
+
+    final int port;
+    final ServingThread serving;
+
+    if ("threads".equals(mode)) {
+      final ThreadPerConnectionServer source = ThreadPerConnectionServer.forPort(
+          0,
+          new ThreadPerConnectionServer.Handler() {
+            @Override
+            public void handle(Connection connection) {
+              server.serveConnection(connection);
+            }
+          });
+      port = source.port();
+      serving = new ServingThread(source) {
+        @Override
+        public void run() {
+          source.run();
+        }
+      };
+    } else {
+      final NioServerConnectionSource source = NioServerConnectionSource.forPort(0);
+      port = source.port();
+      serving = new ServingThread(source) {
+        @Override
+        public void run() {
+          try {
+            while (true) {
+              server.handleConnection(source.connect());
+            }
+          } catch (IOException ex) {
+            // The source was closed.
+          }
+        }
+      };
+    }
+
+    serving.start();
+
+    try (final FramedClientConnectionSource setup = new FramedClientConnectionSource("localhost", port)) {
+
+      final UserContext user = new Context(setup).create("bench");
+      final ConversationContext conversation = user.start("bench");
+
+      final byte[] read = pageRequest(conversation.conversation.id);
+      final byte[] write = messageRequest(user.user.id, conversation.conversation.id);
+
+      final List<List<Socket>> shares = new ArrayList<>();
+      for (int i = 0; i < DRIVERS; i++) {
+        shares.add(new ArrayList<Socket>());
+      }
+      for (int i = 0; i < clients; i++) {
+        final Socket socket = new Socket("localhost", port);
+        socket.setTcpNoDelay(true);
+        shares.get(i % DRIVERS).add(socket);
+      }
+
+      final long deadline = System.nanoTime() + seconds * 1000000000L;
+      final Result[] results = new Result[DRIVERS];
+      final Thread[] drivers = new Thread[DRIVERS];
+
+      for (int i = 0; i < DRIVERS; i++) {
+        final List<Socket> share = shares.get(i);
+        final Result result = results[i] = new Result();
+        drivers[i] = new Thread() {
+          @Override
+          public void run() {
+            drive(share, read, write, deadline, result);
+          }
+        };
+        drivers[i].start();
+      }
+
+      final Result total = new Result();
+      for (int i = 0; i < DRIVERS; i++) {
+        drivers[i].join();
+        for (int j = 0; j < results[i].requests; j++) {
+          total.add(results[i].latencies[j]);
+        }
+        total.failures += results[i].failures;
+      }
+
+      for (final List<Socket> share : shares) {
+        for (final Socket socket : share) {
+          socket.close();
+        }
+      }
+
+      report(mode, clients, seconds, total);
+
+    } finally {
+      serving.close();
+    }
+  }
+
+  // Send one request on every socket in the share, then read every response,
+  // and repeat until the deadline. Every client always has one request in
+  // flight while its driver waits on the others.
+  private static void drive(List<Socket> share, byte[] read, byte[] write, long deadline, Result result) {
+
+    final long[] sent = new long[share.size()];
+    final DataOutputStream[] outs = new DataOutputStream[share.size()];
+    final DataInputStream[] ins = new DataInputStream[share.size()];
+
+    try {
+      for (int i = 0; i < share.size(); i++) {
+        outs[i] = new DataOutputStream(new BufferedOutputStream(share.get(i).getOutputStream()));
+        ins[i] = new DataInputStream(new BufferedInputStream(share.get(i).getInputStream()));
+      }
+
+      int request = 0;
+
+      while (System.nanoTime() < deadline) {
+
+        for (int i = 0; i < share.size(); i++) {
+          request += 1;
+          sent[i] = System.nanoTime();
+          writeFrame(outs[i], request, request % 10 == 0 ? write : read);
+        }
+
+        for (int i = 0; i < share.size(); i++) {
+          final int length = ins[i].readInt();
+          ins[i].readInt();  // request id
+          final byte[] payload = new byte[length];
+          ins[i].readFully(payload);
+
+          final int code = Serializers.INTEGER.read(new ByteArrayInputStream(payload));
+          if (code == NetworkCode.SERVER_BUSY || code == NetworkCode.NO_MESSAGE) {
+            result.failures += 1;
+          } else {
+            result.add(System.nanoTime() - sent[i]);
+          }
+        }
+      }
+    } catch (IOException ex) {
+      System.err.println("Client failed: " + ex);
+      result.failures += 1;
+    }
+  }
+
+  private static void writeFrame(DataOutputStream out, int id, byte[] payload) throws IOException {
+    out.writeInt(payload.length);
+    out.writeInt(id);
+    out.write(payload);
+    out.flush();
+  }
+
+  private static byte[] pageRequest(Uuid conversation) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Serializers.INTEGER.write(out, NetworkCode.GET_MESSAGE_PAGE_REQUEST);
+    Uuid.SERIALIZER.write(out, conversation);
+    Uuid.SERIALIZER.write(out, Uuid.NULL);
+    Serializers.BOOLEAN.write(out, false);
+    Serializers.INTEGER.write(out, PAGE_SIZE);
+    return out.toByteArray();
+  }
+
+  private static byte[] messageRequest(Uuid author, Uuid conversation) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Serializers.INTEGER.write(out, NetworkCode.NEW_MESSAGE_REQUEST);
+    Uuid.SERIALIZER.write(out, author);
+    Uuid.SERIALIZER.write(out, conversation);
+    Serializers.STRING.write(out, "The quick brown fox jumps over the lazy dog.");
+    return out.toByteArray();
+  }
+
+  private static void report(String mode, int clients, int seconds, Result total) {
+    final long[] latencies = Arrays.copyOf(total.latencies, (int) total.requests);
+    Arrays.sort(latencies);
+
+    System.out.format("%-8s %8d %12.0f %10.2f %10.2f %10.2f %9d\n",
+        mode,
+        clients,
+        total.requests / (double) seconds,
+        percentile(latencies, 0.50),
+        percentile(latencies, 0.99),
+        latencies.length == 0 ? 0.0 : latencies[latencies.length - 1] / 1e6,
+        total.failures);
+  }
+
+  private static double percentile(long[] sorted, double fraction) {
+    if (sorted.length == 0) {
+      return 0.0;
+    }
+    final int index = Math.min(sorted.length - 1, (int) (sorted.length * fraction));
+    return sorted[index] / 1e6;
+  }
+
+  private static int[] parseCounts(String value) {
+    final String[] parts = value.split(",");
+    final int[] counts = new int[parts.length];
+    for (int i = 0; i < parts.length; i++) {
+      counts[i] = Integer.parseInt(parts[i].trim());
+    }
+    return counts;
+  }
+
+  // A thread that serves one of the sources, stopped by closing the source.
+  private abstract static class ServingThread extends Thread implements Closeable {
+
+    private final Closeable source;
+
+    public ServingThread(Closeable source) {
+      this.source = source;
+      setDaemon(true);
+    }
+
+    @Override
+    public void close() throws IOException {
+      source.close();
+      try {
+        join();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+}
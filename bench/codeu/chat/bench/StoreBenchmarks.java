@@ -0,0 +1,280 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.bench;
+
+import java.util.Comparator;
+import java.util.Random;
+
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+import codeu.chat.util.store.ConcurrentStore;
+import codeu.chat.util.store.HashStore;
+import codeu.chat.util.store.Store;
+
+// STORE BENCHMARKS
+//
+// The Store with many values under each key, which is how the server used it
+// (messages indexed by time, where a busy second has many messages).
+//
+//   insert : build a store of INSERTS values spread over KEYS keys. Scores
+//            are per value inserted.
+//   first  : look up the first value of a key.
+//   range  : walk every value between two keys, a tenth of the store.
+//
+// Each is run against Store and against ConcurrentStore.
+//
+//   byId   : look up entities by Uuid, the way the model's id indexes are
+//            used, in a ConcurrentStore ordered by the model's comparator
+//            and in a HashStore.
+//
+//   replay : what replaying a long transaction log does to the message
+//            indexes. REPLAY_MESSAGES messages are added to a by-time index
+//            and a by-text index, where many messages share a millisecond
+//            and one in ten says "ok". Scores are per message. The server's
+//            model uses ConcurrentStore, not Store, so for what a real
+//            replay costs see model.replay (ReplayBenchmarks).
+final class StoreBenchmarks {
+
+  private static final int KEYS = 100;
+  private static final int INSERTS = 10000;
+
+  private static final int REPLAY_MESSAGES = 1000000;
+  private static final int MESSAGES_PER_MS = 100;
+
+  private static final Comparator<Integer> COMPARATOR = new Comparator<Integer>() {
+    @Override
+    public int compare(Integer a, Integer b) {
+      return Integer.compare(a, b);
+    }
+  };
+
+  private static final Comparator<Time> TIME_COMPARATOR = new Comparator<Time>() {
+    @Override
+    public int compare(Time a, Time b) {
+      return a.compareTo(b);
+    }
+  };
+
+  // The same order as the model's Uuid comparator.
+  private static final Comparator<Uuid> UUID_COMPARATOR = new Comparator<Uuid>() {
+    @Override
+    public int compare(Uuid a, Uuid b) {
+      if (a == b) { return 0; }
+      if (a == null) { return -1; }
+      if (b == null) { return 1; }
+      final int order = Integer.compare(a.id(), b.id());
+      return order == 0 ? compare(a.root(), b.root()) : order;
+    }
+  };
+
+  private static final int IDS = 100000;
+
+  private StoreBenchmarks() { }
+
+  static void register(Harness harness) {
+
+    final Random random = new Random(1);
+
+    // Keys that mostly arrive in order, as times do, and keys in any order.
+    final Integer[] ordered = new Integer[INSERTS];
+    final Integer[] shuffled = new Integer[INSERTS];
+    for (int i = 0; i < INSERTS; i++) {
+      ordered[i] = i * KEYS / INSERTS;
+      shuffled[i] = random.nextInt(KEYS);
+    }
+
+    final Store<Integer, Integer> store = fill(shuffled);
+    final ConcurrentStore<Integer, Integer> concurrent = fillConcurrent(shuffled);
+
+    harness.add("store.insert.ordered", INSERTS, new Harness.Operation() {
+      @Override
+      public Object run() {
+        return fill(ordered);
+      }
+    });
+
+    harness.add("store.insert.shuffled", INSERTS, new Harness.Operation() {
+      @Override
+      public Object run() {
+        return fill(shuffled);
+      }
+    });
+
+    harness.add("store.first", KEYS, new Harness.Operation() {
+      @Override
+      public Object run() {
+        int total = 0;
+        for (int key = 0; key < KEYS; key++) {
+          total += store.first(key);
+        }
+        return total;
+      }
+    });
+
+    harness.add("store.range", new Harness.Operation() {
+      @Override
+      public Object run() {
+        int total = 0;
+        for (final Integer value : store.range(KEYS / 2, KEYS / 2 + KEYS / 10 - 1)) {
+          total += value;
+        }
+        return total;
+      }
+    });
+
+    registerConcurrent(harness, ordered, shuffled, concurrent);
+    registerReplay(harness);
+    registerById(harness);
+  }
+
+  private static void registerById(Harness harness) {
+
+    final Uuid server = new Uuid(new Uuid(100), 101);
+
+    final ConcurrentStore<Uuid, Uuid> ordered = new ConcurrentStore<>(UUID_COMPARATOR);
+    final HashStore<Uuid, Uuid> hashed = new HashStore<>();
+
+    // Look-ups use copies of the ids, as ids read from requests would be.
+    final Uuid[] lookups = new Uuid[1024];
+
+    for (int i = 0; i < IDS; i++) {
+      // Multiplying by an odd number scatters the ids without repeating any.
+      final Uuid id = new Uuid(server, i * 0x9E3779B1);
+      ordered.insert(id, id);
+      hashed.insert(id, id);
+      if (i < lookups.length) {
+        lookups[i] = new Uuid(new Uuid(new Uuid(100), 101), id.id());
+      }
+    }
+
+    harness.add("concurrentStore.byId", lookups.length, new Harness.Operation() {
+      @Override
+      public Object run() {
+        int found = 0;
+        for (final Uuid id : lookups) {
+          found += ordered.first(id) == null ? 0 : 1;
+        }
+        return found;
+      }
+    });
+
+    harness.add("hashStore.byId", lookups.length, new Harness.Operation() {
+      @Override
+      public Object run() {
+        int found = 0;
+        for (final Uuid id : lookups) {
+          found += hashed.first(id) == null ? 0 : 1;
+        }
+        return found;
+      }
+    });
+  }
+
+  private static void registerReplay(Harness harness) {
+
+    final Random random = new Random(2);
+
+    final Time[] times = new Time[REPLAY_MESSAGES];
+    final String[] texts = new String[REPLAY_MESSAGES];
+    for (int i = 0; i < REPLAY_MESSAGES; i++) {
+      times[i] = Time.fromMs(1500000000000L + i / MESSAGES_PER_MS);
+      texts[i] = random.nextInt(10) == 0 ? "ok" : "message " + random.nextInt(REPLAY_MESSAGES);
+    }
+
+    harness.add("store.replay", REPLAY_MESSAGES, new Harness.Operation() {
+      @Override
+      public Object run() {
+        final Store<Time, Integer> byTime = new Store<>(TIME_COMPARATOR);
+        final Store<String, Integer> byText = new Store<>(String.CASE_INSENSITIVE_ORDER);
+        for (int i = 0; i < REPLAY_MESSAGES; i++) {
+          byTime.insert(times[i], i);
+          byText.insert(texts[i], i);
+        }
+        return byText;
+      }
+    });
+
+    harness.add("concurrentStore.replay", REPLAY_MESSAGES, new Harness.Operation() {
+      @Override
+      public Object run() {
+        final ConcurrentStore<Time, Integer> byTime = new ConcurrentStore<>(TIME_COMPARATOR);
+        final ConcurrentStore<String, Integer> byText = new ConcurrentStore<>(String.CASE_INSENSITIVE_ORDER);
+        for (int i = 0; i < REPLAY_MESSAGES; i++) {
+          byTime.insert(times[i], i);
+          byText.insert(texts[i], i);
+        }
+        return byText;
+      }
+    });
+  }
+
+  private static void registerConcurrent(Harness harness,
+                                         final Integer[] ordered,
+                                         final Integer[] shuffled,
+                                         final ConcurrentStore<Integer, Integer> store) {
+
+    harness.add("concurrentStore.insert.ordered", INSERTS, new Harness.Operation() {
+      @Override
+      public Object run() {
+        return fillConcurrent(ordered);
+      }
+    });
+
+    harness.add("concurrentStore.insert.shuffled", INSERTS, new Harness.Operation() {
+      @Override
+      public Object run() {
+        return fillConcurrent(shuffled);
+      }
+    });
+
+    harness.add("concurrentStore.first", KEYS, new Harness.Operation() {
+      @Override
+      public Object run() {
+        int total = 0;
+        for (int key = 0; key < KEYS; key++) {
+          total += store.first(key);
+        }
+        return total;
+      }
+    });
+
+    harness.add("concurrentStore.range", new Harness.Operation() {
+      @Override
+      public Object run() {
+        int total = 0;
+        for (final Integer value : store.range(KEYS / 2, KEYS / 2 + KEYS / 10 - 1)) {
+          total += value;
+        }
+        return total;
+      }
+    });
+  }
+
+  private static ConcurrentStore<Integer, Integer> fillConcurrent(Integer[] keys) {
+    final ConcurrentStore<Integer, Integer> store = new ConcurrentStore<>(COMPARATOR);
+    for (int i = 0; i < keys.length; i++) {
+      store.insert(keys[i], i);
+    }
+    return store;
+  }
+
+  private static Store<Integer, Integer> fill(Integer[] keys) {
+    final Store<Integer, Integer> store = new Store<>(COMPARATOR);
+    for (int i = 0; i < keys.length; i++) {
+      store.insert(keys[i], i);
+    }
+    return store;
+  }
+}
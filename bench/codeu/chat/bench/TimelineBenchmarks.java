@@ -0,0 +1,82 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.bench;
+
+import java.util.concurrent.CountDownLatch;
+
+import codeu.chat.util.Timeline;
+
+// TIMELINE BENCHMARKS
+//
+// How quickly events get through a Timeline: each call schedules a batch of
+// events and waits for the last of them to run. Scores are per event, from
+// being scheduled to having run.
+//
+//   unkeyed : events with no ordering key, on four executors.
+//   keyed   : events spread over sixteen keys, on four executors, so each
+//             key's events run in order.
+final class TimelineBenchmarks {
+
+  private static final int BATCH = 1000;
+  private static final int KEYS = 16;
+  private static final int EXECUTORS = 4;
+
+  private TimelineBenchmarks() { }
+
+  static void register(Harness harness) {
+
+    final Timeline timeline = new Timeline(Integer.MAX_VALUE, EXECUTORS);
+    final Object[] keys = new Object[KEYS];
+    for (int i = 0; i < KEYS; i++) {
+      keys[i] = "key-" + i;
+    }
+
+    harness.add("timeline.scheduleNow.unkeyed", BATCH, new Harness.Operation() {
+      @Override
+      public Object run() throws Exception {
+        final CountDownLatch done = new CountDownLatch(BATCH);
+        final Runnable event = new Runnable() {
+          @Override
+          public void run() {
+            done.countDown();
+          }
+        };
+        for (int i = 0; i < BATCH; i++) {
+          timeline.scheduleNow(event);
+        }
+        done.await();
+        return done;
+      }
+    });
+
+    harness.add("timeline.scheduleNow.keyed", BATCH, new Harness.Operation() {
+      @Override
+      public Object run() throws Exception {
+        final CountDownLatch done = new CountDownLatch(BATCH);
+        final Runnable event = new Runnable() {
+          @Override
+          public void run() {
+            done.countDown();
+          }
+        };
+        for (int i = 0; i < BATCH; i++) {
+          timeline.scheduleNow(keys[i % KEYS], event);
+        }
+        done.await();
+        return done;
+      }
+    });
+  }
+}
@@ -0,0 +1,100 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.bench;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import codeu.chat.util.Uuid;
+
+// UUID BENCHMARKS
+//
+// Parsing, hashing and comparing Uuids of the depths the server makes (two
+// links for users, conversations and messages) and a deeper one, plus the
+// HashMap lookup that every model and client context does with them.
+final class UuidBenchmarks {
+
+  private UuidBenchmarks() { }
+
+  static void register(Harness harness) throws Exception {
+
+    final String text = "100.101.3038288607";
+    final Uuid id = Uuid.parse(text);
+    final Uuid same = new Uuid(new Uuid(new Uuid(100), 101), (int) 3038288607L);
+    final Uuid other = new Uuid(new Uuid(new Uuid(100), 101), 7);
+    final Uuid deep = Uuid.parse("1.2.3.4.5.6");
+    final Uuid deepSame = Uuid.parse("1.2.3.4.5.6");
+
+    final Map<Uuid, Integer> map = new HashMap<>();
+    final Uuid[] keys = new Uuid[1024];
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = new Uuid(new Uuid(new Uuid(100), 101), i * 7919);
+      map.put(keys[i], i);
+    }
+
+    harness.add("uuid.parse", new Harness.Operation() {
+      @Override
+      public Object run() throws Exception {
+        return Uuid.parse(text);
+      }
+    });
+
+    harness.add("uuid.toString", new Harness.Operation() {
+      @Override
+      public Object run() {
+        return id.toString();
+      }
+    });
+
+    harness.add("uuid.hashCode", new Harness.Operation() {
+      @Override
+      public Object run() {
+        return id.hashCode();
+      }
+    });
+
+    harness.add("uuid.equals.same", new Harness.Operation() {
+      @Override
+      public Object run() {
+        return id.equals(same);
+      }
+    });
+
+    harness.add("uuid.equals.different", new Harness.Operation() {
+      @Override
+      public Object run() {
+        return id.equals(other);
+      }
+    });
+
+    harness.add("uuid.equals.deep", new Harness.Operation() {
+      @Override
+      public Object run() {
+        return deep.equals(deepSame);
+      }
+    });
+
+    harness.add("uuid.hashMapGet", keys.length, new Harness.Operation() {
+      @Override
+      public Object run() {
+        int total = 0;
+        for (final Uuid key : keys) {
+          total += map.get(key);
+        }
+        return total;
+      }
+    });
+  }
+}
@@ -31,6 +31,13 @@
 #   run <class path> [ arguments ... ] : Run the specified class. All arguments
 #                                        after the class path will be passed to
 #                                        the java class when it runs.
+#
+#   bench [ arguments ... ] : Build the project and run the micro-benchmarks
+#                             found in the bench directory. Results are
+#                             printed and written as JSON to bench.json. All
+#                             arguments are passed to the benchmark runner.
+#                             The benchmarks are built into their own output
+#                             directory and are never part of a normal build.
 ###############################################################################
 
 import os
@@ -43,6 +50,10 @@ import sys
 CONFIG = {
   'out' : 'bin',
   'src' : [ 'src', 'test' ],
+  'bench' : {
+    'out' : 'bench_bin',
+    'src' : [ 'bench' ]
+  },
   'libraries' : [
     'third_party/junit4-4.11.jar',
     'third_party/hamcrest-core-1.3.jar'
@@ -59,13 +70,15 @@ CONFIG = {
 # Remove all files from the build output directory.
 #
 def clean(config) :
-  out = config['out']
+  for out in [ config['out'], config['bench']['out'] ] :
+    if not os.path.isdir(out) :
+      continue
 
-  for entry in [ os.path.join(out, name) for name in os.listdir(out) ] :
-    if os.path.isdir(entry) :
-      shutil.rmtree(entry)
-    else :
-      os.remove(entry)
+    for entry in [ os.path.join(out, name) for name in os.listdir(out) ] :
+      if os.path.isdir(entry) :
+        shutil.rmtree(entry)
+      else :
+        os.remove(entry)
 
   print('Clean PASSED')
 
@@ -77,10 +90,17 @@ def clean(config) :
 # all output to the out directory.
 #
 def build(config) :
+  return compile_src(config, config['src'], config['out'], [ ])
+
+
+# COMPILE
+#
+# Compile every java file in the given source directories into "out". The
+# classes in "classes" and the configured libraries are on the class path.
+#
+def compile_src(config, src, out, classes) :
   libraries = config['libraries']
-  out = config['out']
   separator = config['separators'][os.name]
-  src = config['src']
 
   # Find all the java source files in the given source directories.
   # Non-java source files are ignored.
@@ -89,30 +109,35 @@ def build(config) :
     for root, dirs, files in os.walk(src_path) :
       src_files += [ os.path.join(root, file) for file in files if file.endswith('.java') ]
 
+  if not os.path.isdir(out) :
+    os.makedirs(out)
+
   # Take everything so far and construct a single command to build the project.
   command = [ ]
   command += [ 'javac' ]
   command += [ '-d', out ]
-  command += [ '-cp', separator.join([ out ] + libraries) ]
+  command += [ '-cp', separator.join([ out ] + classes + libraries) ]
   command += [ '-Xlint' ]
   command += src_files
 
   print('running : %s' % command)
-  print('Build %s' % ('PASSED' if subprocess.call(command) == 0 else 'FAILED'))
+  passed = subprocess.call(command) == 0
+  print('Build %s' % ('PASSED' if passed else 'FAILED'))
+  return passed
 
 
 # RUN
 #
 # Run a class from within the project.
 #
-def run(config, start_class_path, arguments):
+def run(config, start_class_path, arguments, classes=[ ]):
   libraries = config['libraries']
   out = config['out']
   separator = config['separators'][os.name]
 
   command = [ ]
   command += [ 'java' ]
-  command += [ '-cp', separator.join([ out ] + libraries) ]
+  command += [ '-cp', separator.join(classes + [ out ] + libraries) ]
   command += [ start_class_path ]
   command += arguments
 
@@ -123,12 +148,24 @@ def run(config, start_class_path, arguments):
   print('Run %s' % ('PASSED' if subprocess.call(command) == 0 else 'FAILED'))
 
 
+# BENCH
+#
+# Build the project, then build the micro-benchmarks against it into their
+# own output directory and run them. See bench/codeu/chat/bench/Benchmarks.java
+# for the arguments it takes.
+#
+def bench(config, arguments):
+  bench_out = config['bench']['out']
+  if build(config) and compile_src(config, config['bench']['src'], bench_out, [ config['out'] ]) :
+    run(config, 'codeu.chat.bench.Benchmarks', arguments, [ bench_out ])
+
+
 # USAGE
 #
 # Print basic usage info.
 #
 def usage() :
-  print('Usage: python build.py clean | build | rebuild | run | help')
+  print('Usage: python build.py clean | build | rebuild | run | bench | help')
   print('  clean   : Remove all files in the output directory.')
   print('            This does not remove the root of the output tree.')
   print('  build   : Build the full project. This will build all java files')
@@ -137,6 +174,10 @@ def usage() :
   print('  run <class path> [ arguments ... ] : Run the specified class.')
   print('            All arguments after the class path will be passed to')
   print('            the java class when it runs.')
+  print('  bench [ arguments ... ] : Build the project and run the')
+  print('            micro-benchmarks. Results are written as JSON to')
+  print('            bench.json. Pass a pattern to run only the matching')
+  print('            benchmarks, or -o <file> to write the JSON elsewhere.')
   print('  help    : Print this helpful message.')
 
 
@@ -153,6 +194,8 @@ def main(args) :
     elif 'rebuild' == command :
       clean(CONFIG)
       build(CONFIG)
+    elif 'bench' == command :
+      bench(CONFIG, args[2:])
     elif 'run' == command :
       if len(args) > 2 :
         java_class = args[2]
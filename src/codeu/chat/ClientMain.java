@@ -15,19 +15,22 @@
 package codeu.chat;
 
 import java.io.*;
+import java.util.function.IntPredicate;
 
 import codeu.chat.client.commandline.Chat;
 import codeu.chat.client.core.Context;
+import codeu.chat.common.NetworkCode;
 import codeu.chat.util.*;
-import codeu.chat.util.connections.ClientConnectionSource;
+import codeu.chat.util.connections.FramedClientConnectionSource;
 import codeu.chat.util.connections.ConnectionSource;
 
 final class ClientMain {
 
   private static final Logger.Log LOG = Logger.newLog(ClientMain.class);
 
-  private static Time lastLogBackup;
-  private static final long BACKUP_RATE_IN_MS = 30000;
+  // The number of decoded names and titles the client keeps so that refreshing
+  // the user and conversation lists does not fill the heap with copies.
+  private static final int STRING_TABLE_SIZE = 4096;
 
   private static Chat chat;
 
@@ -43,9 +46,21 @@ final class ClientMain {
 
     LOG.info("Starting chat client...");
 
+    Serializers.internStrings(new StringTable(STRING_TABLE_SIZE));
+
     final RemoteAddress address = RemoteAddress.parse(args[0]);
 
-    final ConnectionSource source = new ClientConnectionSource(address.host, address.port);
+    // Only reads are sent again if a pooled socket fails after the request
+    // was written, since the server may already have made a change.
+    final ConnectionSource source = new FramedClientConnectionSource(
+        address.host,
+        address.port,
+        new IntPredicate() {
+          @Override
+          public boolean test(int type) {
+            return NetworkCode.isRead(type);
+          }
+        });
 
     LOG.info("Creating client...");
 
@@ -57,20 +72,10 @@ final class ClientMain {
 
     boolean keepRunning = true;
 
-    lastLogBackup = Time.now();
-
     try (final BufferedReader input = new BufferedReader(new InputStreamReader(System.in))) {
       while (keepRunning) {
         System.out.print(">>> ");
 
-        // Evaluate if it is time to transfer data from queue to disk, then call the transferQueueToLog() method defined
-        // above and update the last backup time
-        Time currentTime = Time.now();
-        if(currentTime.inMs() - lastLogBackup.inMs() >= BACKUP_RATE_IN_MS){
-          chat.transferQueueToLog();
-          lastLogBackup = currentTime;
-        }
-
         keepRunning = chat.handleCommand(input.readLine().trim());
       }
     } catch (IOException ex) {
@@ -22,6 +22,8 @@ import codeu.chat.common.Secret;
 import codeu.chat.relay.Server;
 import codeu.chat.relay.ServerFrontEnd;
 import codeu.chat.util.Logger;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.StringTable;
 import codeu.chat.util.Timeline;
 import codeu.chat.util.Uuid;
 import codeu.chat.util.connections.Connection;
@@ -32,6 +34,10 @@ final class RelayMain {
 
   private static final Logger.Log LOG = Logger.newLog(RelayMain.class);
 
+  // Every bundle carries its user's name and its conversation's title, which
+  // are the same for many bundles. Decode each one once.
+  private static final int STRING_TABLE_SIZE = 4096;
+
   public static void main(String[] args) {
 
     Logger.enableConsoleOutput();
@@ -44,6 +50,8 @@ final class RelayMain {
 
     LOG.info("============================= START OF LOG =============================");
 
+    Serializers.internStrings(new StringTable(STRING_TABLE_SIZE));
+
     final int myPort = Integer.parseInt(args[0]);
 
     try (final ConnectionSource source = ServerConnectionSource.forPort(myPort)) {
@@ -73,18 +81,19 @@ final class RelayMain {
     final Timeline timeline = new Timeline();
     LOG.info("Relay timeline created.");
 
-    timeline.scheduleNow(new Runnable() {
+    final Runnable loadTeams = new Runnable() {
       @Override
       public void run() {
         LOG.info("Loading team data...");
         loadTeamInfo(relay, teamFile);
         LOG.info("Done loading team data.");
-
-        // Add this again in 1 minute so that new team entries will be added to
-        // the relay. This won't support updating entries.
-        timeline.scheduleIn(60000, this);
       }
-    });
+    };
+
+    // Load the teams now and again every minute so that new team entries will
+    // be added to the relay. This won't support updating entries.
+    timeline.scheduleNow(loadTeams);
+    timeline.scheduleEvery(60000, loadTeams);
 
     LOG.info("Starting relay main loop...");
 
@@ -29,12 +29,22 @@ import codeu.chat.util.Uuid;
 import codeu.chat.util.connections.ClientConnectionSource;
 import codeu.chat.util.connections.Connection;
 import codeu.chat.util.connections.ConnectionSource;
-import codeu.chat.util.connections.ServerConnectionSource;
+import codeu.chat.util.connections.NioServerConnectionSource;
+import codeu.chat.util.connections.ThreadPerConnectionServer;
 
 final class ServerMain {
 
   private static final Logger.Log LOG = Logger.newLog(ServerMain.class);
 
+  // SERVER MODE
+  //
+  // Set with "-Dcodeu.chat.serverMode=<mode>".
+  //   nio     : (default) One selector thread reads every request and the
+  //             server queues them on its reader pool and timeline.
+  //   threads : Every client gets a thread of its own (a virtual thread if
+  //             the JVM has them) and its requests run right on that thread.
+  private static final String MODE = System.getProperty("codeu.chat.serverMode", "nio");
+
   public static void main(String[] args) {
 
     Logger.enableConsoleOutput();
@@ -71,13 +81,24 @@ final class ServerMain {
       System.exit(1);
     }
 
+    if (!"nio".equals(MODE) && !"threads".equals(MODE)) {
+      LOG.error("Unknown server mode %s", MODE);
+      System.exit(1);
+    }
+
     try (
-        final ConnectionSource serverSource = ServerConnectionSource.forPort(port);
         final ConnectionSource relaySource = relayAddress == null ? null : new ClientConnectionSource(relayAddress.host, relayAddress.port)
     ) {
 
-      LOG.info("Starting server...");
-      runServer(id, secret, serverSource, relaySource);
+      LOG.info("Starting server in %s mode...", MODE);
+
+      if ("threads".equals(MODE)) {
+        runThreadPerConnectionServer(id, secret, port, relaySource, persistentPath);
+      } else {
+        try (final ConnectionSource serverSource = NioServerConnectionSource.forPort(port)) {
+          runServer(id, secret, serverSource, relaySource, persistentPath);
+        }
+      }
 
     } catch (IOException ex) {
 
@@ -89,28 +110,79 @@ final class ServerMain {
   private static void runServer(Uuid id,
                                 Secret secret,
                                 ConnectionSource serverSource,
-                                ConnectionSource relaySource) {
+                                ConnectionSource relaySource,
+                                File persistentPath) throws IOException {
 
-    final Relay relay = relaySource == null ?
-                        new NoOpRelay() :
-                        new RemoteRelay(relaySource);
-
-    final Server server = new Server(id, secret, relay);
+    final Server server = new Server(id, secret, relayFor(relaySource), persistentPath);
 
     LOG.info("Created server.");
 
+    recover(server);
+
     while (true) {
 
       try {
-        LOG.info("Established connection...");
+        // Connections from the NIO source are complete requests - all reading
+        // and writing on the sockets happens on the source's selector thread.
         final Connection connection = serverSource.connect();
-        LOG.info("Connection established.");
 
         server.handleConnection(connection);
 
       } catch (IOException ex) {
-        LOG.error(ex, "Failed to establish connection.");
+        LOG.error(ex, "Failed to receive request.");
       }
     }
   }
+
+  private static void runThreadPerConnectionServer(Uuid id,
+                                                   Secret secret,
+                                                   int port,
+                                                   ConnectionSource relaySource,
+                                                   File persistentPath) throws IOException {
+
+    final Server server = new Server(id, secret, relayFor(relaySource), persistentPath);
+
+    LOG.info("Created server.");
+
+    recover(server);
+
+    try (final ThreadPerConnectionServer threads = ThreadPerConnectionServer.forPort(
+        port,
+        new ThreadPerConnectionServer.Handler() {
+          @Override
+          public void handle(Connection connection) {
+            server.serveConnection(connection);
+          }
+        })) {
+
+      threads.run();
+    }
+  }
+
+  // RECOVER
+  //
+  // Load the server's data on a thread of its own so that clients can connect
+  // (and read what is loaded so far) straight away. A server that cannot load
+  // its data would lose it by recording new changes, so it stops instead.
+  private static void recover(final Server server) {
+    final Thread recovery = new Thread("recovery") {
+      @Override
+      public void run() {
+        try {
+          server.recover();
+          LOG.info("Recovered server.");
+        } catch (Exception ex) {
+          LOG.error(ex, "Failed to recover server data.");
+          System.exit(1);
+        }
+      }
+    };
+    recovery.start();
+  }
+
+  private static Relay relayFor(ConnectionSource relaySource) {
+    return relaySource == null ?
+           new NoOpRelay() :
+           new RemoteRelay(relaySource);
+  }
 }
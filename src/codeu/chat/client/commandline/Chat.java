@@ -14,13 +14,13 @@
 
 package codeu.chat.client.commandline;
 
-import java.io.*;
 import java.util.*;
 
 import codeu.chat.client.core.Context;
 import codeu.chat.client.core.ConversationContext;
 import codeu.chat.client.core.MessageContext;
 import codeu.chat.client.core.UserContext;
+import codeu.chat.client.core.View;
 import codeu.chat.common.*;
 import codeu.chat.util.Time;
 import codeu.chat.util.Tokenizer;
@@ -28,21 +28,14 @@ import codeu.chat.util.Uuid;
 
 public final class Chat {
 
-  private static File logFile;
-  private static PrintWriter pw_log;
-
   //used to access Chat's users from the user panel for interest system feature
   private Context rootPanelContext;
   //used to access Chat's conversations from outside the user panel
   private UserContext userPanelContext;
   private ConversationContext conversationPanelContext;
 
-  /**
-   * ArrayDeque is a double-ended, self-resizing queue, used
-   * to keep track of commands for the transaction log and chat
-   * rebuilding.
-   */
-  private final ArrayDeque<String> transactionLog = new ArrayDeque<>();
+  // The number of messages "m-list" asks the server for at a time.
+  private static final int MESSAGE_PAGE_SIZE = 100;
 
   // PANELS
   //
@@ -54,33 +47,7 @@ public final class Chat {
   private final Stack<Panel> panels = new Stack<>();
 
   public Chat(Context context){
-
-    this.panels.push(createRootPanel(context));
-    logFile = new File("data/transaction_log.txt");
-
-    try {
-      // Create a new transaction_log.txt file if needed - if not, this command does nothing
-      logFile.createNewFile();
-
-      // Open the file as a PrintWriter and set file writing options to append
-      pw_log = new PrintWriter(new BufferedWriter(new FileWriter(logFile, true)));
-    }
-    catch (Exception ex){
-      System.out.println("Unable to load transaction log.");
-    }
-  }
-
-  public Chat(Context context, StringWriter stringWriter) {
     this.panels.push(createRootPanel(context));
-    pw_log = new PrintWriter(stringWriter);
-  }
-
-  // Transfers all data in the Queue to write to the log
-  public void transferQueueToLog(){
-    while(!transactionLog.isEmpty()){
-      pw_log.println(transactionLog.pop());
-    }
-    pw_log.flush();
   }
 
   // HANDLE COMMAND
@@ -108,16 +75,17 @@ public final class Chat {
 
     if ("exit".equals(command)) {
       // The user does not want to process any more commands
-      transferQueueToLog();
-
-      // Flush out the buffer contents and close file
-      pw_log.close();
       return false;
     }
 
     // Do not allow the root panel to be removed.
     if ("back".equals(command) && panels.size() > 1) {
       panels.pop();
+
+      // Leaving the user panel signs the user out, so stop their updates.
+      if (panels.size() == 1 && userPanelContext != null) {
+        userPanelContext.unsubscribe();
+      }
       return true;
     }
 
@@ -201,12 +169,6 @@ public final class Chat {
         if (name.length() > 0) {
           if (user == null) {
             System.out.println("ERROR: Failed to create new user");
-          } else {
-            transactionLog.add(String.format("ADD-USER %s \"%s\" %s",
-                    user.user.id,
-                    user.user.name,
-                    user.user.creation.inMs()
-            ));
           }
         } else {
           System.out.println("ERROR: Missing <username>");
@@ -233,6 +195,7 @@ public final class Chat {
 //            Set<Uuid> updatedConversations = new HashSet<>();
 //            updatedConversationsMap.put(user.user.id, updatedConversations);
             panels.push(createUserPanel(user));
+            subscribe(user);
           }
         } else {
           System.out.println("ERROR: Missing <username>");
@@ -261,6 +224,41 @@ public final class Chat {
     return panel;
   }
 
+  // SUBSCRIBE
+  //
+  // Ask the server to push the user's new activity as it happens so that it
+  // shows up without waiting for "status-update".
+  private void subscribe(final UserContext user) {
+    final boolean subscribed = user.subscribe(new View.Subscriber() {
+      @Override
+      public void onNewMessage(Uuid conversation, Message message) {
+        System.out.format(
+            "\nNEW MESSAGE in %s from %s: %s\n",
+            conversation,
+            message.author,
+            message.content);
+      }
+
+      @Override
+      public void onNewConversation(ConversationHeader conversation) {
+        System.out.format(
+            "\nNEW CONVERSATION %s (UUID: %s) from %s\n",
+            conversation.title,
+            conversation.id,
+            conversation.owner);
+      }
+
+      @Override
+      public void onClose() {
+        System.out.println("\nLost connection to server, use \"status-update\" to check for updates.");
+      }
+    });
+
+    if (!subscribed) {
+      System.out.println("Live updates are not available, use \"status-update\" to check for updates.");
+    }
+  }
+
   private Panel createUserPanel(final UserContext user) {
 
     final Panel panel = new Panel();
@@ -341,20 +339,7 @@ public final class Chat {
             for(Uuid u : rootPanelContext.allUsers().keySet())
               conversation.setUnseenMessagesCount(u, 0);
 
-            transactionLog.add(String.format("ADD-CONVERSATION %s %s \"%s\" %s",
-                    conversation.conversation.id,
-                    conversation.conversation.owner,
-                    conversation.conversation.title,
-                    conversation.conversation.creation.inMs()
-            ));
-
             conversation.toggleCreatorBit(user.user.id, true);
-
-            transactionLog.add(String.format("ADD-CONVO-CREATOR %s %s",
-                    conversation.conversation.id,
-                    user.user.id
-            ));
-
           }
         } else {
           System.out.println("ERROR: Missing <title>");
@@ -440,11 +425,6 @@ public final class Chat {
           } else {
               user.addConversationInterest(conversation.conversation.id);
               conversation.setUnseenMessagesCount(user.user.id, 0);
-
-              transactionLog.add(String.format("ADD-INTEREST-CONVERSATION %s %s",
-                      user.user.id,
-                      conversation.conversation.id
-              ));
           }
         } else {
           System.out.println("ERROR: Missing <title>");
@@ -481,11 +461,6 @@ public final class Chat {
             System.out.println("ERROR: This conversation isn't in the interest list!");
           } else {
             user.removeConversationInterest(conversation.conversation.id);
-
-            transactionLog.add(String.format("REMOVE-INTEREST-CONVERSATION %s %s",
-                    user.user.id,
-                    conversation.conversation.id
-            ));
           }
         } else {
           System.out.println("ERROR: Missing <title>");
@@ -530,11 +505,6 @@ public final class Chat {
             System.out.format("ERROR: User '%s' does not exist.\n", name);
           } else {
               user.addUserInterest(interestUser.user.id);
-
-              transactionLog.add(String.format("ADD-INTEREST-USER %s %s",
-                      user.user.id,
-                      interestUser.user.id
-              ));
           }
         } else {
           System.out.println("ERROR: Missing <username>");
@@ -559,11 +529,6 @@ public final class Chat {
             System.out.println("ERROR: This user isn't in the interest list!");
           } else {
             user.removeUserInterest(interestUser.user.id);
-
-            transactionLog.add(String.format("REMOVE-INTEREST-USER %s %s",
-                    user.user.id,
-                    interestUser.user.id
-            ));
           }
         } else {
           System.out.println("ERROR: Missing <username>");
@@ -720,15 +685,17 @@ public final class Chat {
       @Override
       public void invoke(List<String> args) {
         System.out.println("--- start of conversation ---");
-        for (MessageContext message = conversation.firstMessage();
-                            message != null;
-                            message = message.next()) {
-          System.out.println();
-          System.out.format("USER : %s\n", message.message.author);
-          System.out.format("SENT : %s\n", message.message.creation);
-          System.out.println();
-          System.out.println(message.message.content);
-          System.out.println();
+        for (List<Message> page = conversation.messagesAfter(Uuid.NULL, MESSAGE_PAGE_SIZE);
+                           !page.isEmpty();
+                           page = conversation.messagesAfter(page.get(page.size() - 1).id, MESSAGE_PAGE_SIZE)) {
+          for (final Message message : page) {
+            System.out.println();
+            System.out.format("USER : %s\n", message.author);
+            System.out.format("SENT : %s\n", message.creation);
+            System.out.println();
+            System.out.println(message.content);
+            System.out.println();
+          }
         }
         System.out.println("---  end of conversation  ---");
       }
@@ -750,14 +717,6 @@ public final class Chat {
             for(Uuid u : rootPanelContext.allUsers().keySet())
               if(userPanelContext.user.id.id() != u.id())
                 conversation.setUnseenMessagesCount(u, 1);
-
-            transactionLog.add(String.format("ADD-MESSAGE %s %s %s \"%s\" %s",
-                    messageContext.message.id,
-                    messageContext.message.author,
-                    conversation.conversation.id,
-                    messageContext.message.content,
-                    messageContext.message.creation.inMs()
-            )); //command message-id message-author message-content creation-time
           } else {
             System.out.println("ERROR: Messages must contain text");
           }
@@ -775,9 +734,10 @@ public final class Chat {
       panel.register("u-member-list", new Panel.Command() {
         @Override
         public void invoke(List<String> args) {
-          for(Uuid u : rootPanelContext.allUsers().keySet()){
-            if(isMember(conversation.conversation.id, u)) {
-              UserContext user = findUser(u);
+          final Map<Uuid, UserContext> users = rootPanelContext.allUsers();
+          final Map<Uuid, Integer> access = conversation.getUserAccessControls(users.keySet());
+          for(UserContext user : users.values()){
+            if((access.get(user.user.id) & ConversationHeader.MEMBER) != 0) {
               System.out.format("Name: %s  (UUID: %s)\n", user.user.name, user.user.id);
             }
           }
@@ -806,11 +766,6 @@ public final class Chat {
                       }
                       else {
                           conversation.toggleMemberBit(removeUser.user.id, true);
-
-                          transactionLog.add(String.format("ADD-CONVO-MEMBER %s %s",
-                                  conversation.conversation.id,
-                                  removeUser.user.id
-                          ));
                       }
                   } else {
                       System.out.println("ERROR: Missing <username>");
@@ -843,19 +798,9 @@ public final class Chat {
             else {
               conversation.toggleMemberBit(removeUser.user.id, false);
 
-              transactionLog.add(String.format("REMOVE-CONVO-MEMBER %s %s",
-                      conversation.conversation.id,
-                      removeUser.user.id
-              ));
-
               //the removed flag should only be toggled once, when the user is first removed
               if (!hasBeenRemoved(conversation.conversation.id, removeUser.user.id)) {
                 conversation.toggleRemovedBit(removeUser.user.id);
-
-                transactionLog.add(String.format("REMOVE-CONVO-MEMBER-TOGGLE %s %s",
-                        conversation.conversation.id,
-                        removeUser.user.id
-                ));
               }
             }
           } else {
@@ -875,9 +820,10 @@ public final class Chat {
     panel.register("u-owner-list", new Panel.Command() {
       @Override
       public void invoke(List<String> args) {
-        for(Uuid u : rootPanelContext.allUsers().keySet()){
-          if(isOwner(conversation.conversation.id, u)) {
-            UserContext user = findUser(u);
+        final Map<Uuid, UserContext> users = rootPanelContext.allUsers();
+        final Map<Uuid, Integer> access = conversation.getUserAccessControls(users.keySet());
+        for(UserContext user : users.values()){
+          if((access.get(user.user.id) & ConversationHeader.OWNER) != 0) {
             System.out.format("Name: %s  (UUID: %s)\n", user.user.name, user.user.id);
           }
         }
@@ -901,11 +847,6 @@ public final class Chat {
               System.out.format("ERROR: User '%s' does not exist.\n", name);
             } else {
               conversation.toggleOwnerBit(removedOwner.user.id, false);
-
-              transactionLog.add(String.format("REMOVE-CONVO-OWNER %s %s",
-                      conversation.conversation.id,
-                      removedOwner.user.id
-              ));
             }
           } else {
             System.out.println("ERROR: Missing <username>");
@@ -934,11 +875,6 @@ public final class Chat {
               System.out.format("ERROR: User '%s' does not exist.\n", name);
             } else {
               conversation.toggleOwnerBit(addedOwner.user.id, true);
-
-              transactionLog.add(String.format("ADD-CONVO-OWNER %s %s",
-                      conversation.conversation.id,
-                      addedOwner.user.id
-              ));
             }
           } else {
             System.out.println("ERROR: Missing <username>");
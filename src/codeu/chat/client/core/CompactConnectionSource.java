@@ -0,0 +1,126 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.client.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.CompletableFuture;
+
+import codeu.chat.common.NetworkCode;
+import codeu.chat.util.Compact;
+import codeu.chat.util.Logger;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.connections.Connection;
+import codeu.chat.util.connections.ConnectionSource;
+import codeu.chat.util.connections.PushListener;
+
+// COMPACT CONNECTION SOURCE
+//
+// Wraps another source so that every connection it hands out uses the compact
+// encoding (see codeu.chat.util.Compact), as long as the server supports it.
+// Callers keep using the Serializers exactly as before.
+//
+// The first call to "connect" asks the server which encodings it supports.
+// Servers that do not know the question answer NO_MESSAGE, and from then on
+// connections are passed through untouched. If the question could not be
+// asked at all (the server was down) it is asked again next time.
+//
+// Requests made with "send" and "subscribe" are already encoded by the caller
+// and are passed straight through.
+final class CompactConnectionSource implements ConnectionSource {
+
+  private final static Logger.Log LOG = Logger.newLog(CompactConnectionSource.class);
+
+  private final ConnectionSource source;
+
+  private Boolean compact;  // null until the server has answered, guarded by "this"
+
+  public CompactConnectionSource(ConnectionSource source) {
+    this.source = source;
+  }
+
+  @Override
+  public Connection connect() throws IOException {
+    return supportsCompact() ? compact(source.connect()) : source.connect();
+  }
+
+  @Override
+  public CompletableFuture<InputStream> send(byte[] request) {
+    return source.send(request);
+  }
+
+  @Override
+  public CompletableFuture<InputStream> subscribe(byte[] request, PushListener listener) {
+    return source.subscribe(request, listener);
+  }
+
+  @Override
+  public void close() throws IOException {
+    source.close();
+  }
+
+  private synchronized boolean supportsCompact() {
+
+    if (compact == null) {
+      try (final Connection connection = source.connect()) {
+
+        Serializers.INTEGER.write(connection.out(), NetworkCode.GET_ENCODINGS_REQUEST);
+
+        final int type = Serializers.INTEGER.read(connection.in());
+        compact = type == NetworkCode.GET_ENCODINGS_RESPONSE &&
+                  (Serializers.INTEGER.read(connection.in()) & NetworkCode.ENCODING_COMPACT) != 0;
+
+        LOG.info("Server %s the compact encoding.", compact ? "supports" : "does not support");
+
+      } catch (IOException ex) {
+        LOG.warning("Could not ask server for its encodings (%s)", ex.toString());
+        return false;
+      }
+    }
+
+    return compact;
+  }
+
+  private static Connection compact(final Connection connection) {
+
+    return new Connection() {
+
+      private InputStream in;
+      private OutputStream out;
+
+      @Override
+      public InputStream in() throws IOException {
+        if (in == null) {
+          in = Compact.input(connection.in(), false);
+        }
+        return in;
+      }
+
+      @Override
+      public OutputStream out() throws IOException {
+        if (out == null) {
+          out = Compact.output(connection.out(), NetworkCode.COMPACT_ENCODING);
+        }
+        return out;
+      }
+
+      @Override
+      public void close() throws IOException {
+        connection.close();
+      }
+    };
+  }
+}
@@ -18,7 +18,6 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 
-import codeu.chat.common.BasicView;
 import codeu.chat.common.ServerInfo;
 import codeu.chat.common.User;
 import codeu.chat.util.Uuid;
@@ -26,12 +25,14 @@ import codeu.chat.util.connections.ConnectionSource;
 
 public class Context {
 
-  private final BasicView view;
+  private final View view;
   private final Controller controller;
 
   public Context(ConnectionSource source) {
-    this.view = new View(source);
-    this.controller = new Controller(source);
+    // Use the compact encoding whenever the server supports it.
+    final ConnectionSource negotiated = new CompactConnectionSource(source);
+    this.view = new View(negotiated);
+    this.controller = new Controller(negotiated);
   }
 
   public UserContext create(String name) {
@@ -41,6 +41,31 @@ public class Controller implements BasicController {
     this.source = source;
   }
 
+  // RESPONSE FAILED
+  //
+  // Report a response that was not the one asked for. The codes that a
+  // server may answer any change with get a message of their own, so the
+  // user knows whether trying again later could help.
+  private static void responseFailed(int code) {
+    switch (code) {
+      case NetworkCode.RECOVERING:
+        System.out.println("ERROR: The server is still loading its data. Try again in a moment.");
+        LOG.warning("Server is recovering, change not made.");
+        break;
+      case NetworkCode.SERVER_BUSY:
+        System.out.println("ERROR: The server is busy. Try again in a moment.");
+        LOG.warning("Server is busy, change not made.");
+        break;
+      case NetworkCode.SERVER_ERROR:
+        System.out.println("ERROR: The server could not record the change.");
+        LOG.error("Server could not record the change.");
+        break;
+      default:
+        LOG.error("Response from server failed (code=%d).", code);
+        break;
+    }
+  }
+
   private Integer toggleAccessControlBit(Uuid convo, Uuid user, Boolean flag, int request, int response){
     Integer accessControl = 0;
 
@@ -51,10 +76,11 @@ public class Controller implements BasicController {
       Uuid.SERIALIZER.write(connection.out(), user);
       Serializers.BOOLEAN.write(connection.out(), flag);
 
-      if(Serializers.INTEGER.read(connection.in()) == response){
+      final int code = Serializers.INTEGER.read(connection.in());
+      if(code == response){
         accessControl = Serializers.INTEGER.read(connection.in());
       } else {
-        LOG.error("Response from server failed.");
+        responseFailed(code);
       }
     } catch (Exception ex){
       System.out.println("ERROR: Exception during call on server. Check log for details.");
@@ -74,10 +100,11 @@ public class Controller implements BasicController {
       Uuid.SERIALIZER.write(connection.out(), convo);
       Uuid.SERIALIZER.write(connection.out(), user);
 
-      if(Serializers.INTEGER.read(connection.in()) == NetworkCode.TOGGLE_REMOVED_BIT_RESPONSE){
+      final int code = Serializers.INTEGER.read(connection.in());
+      if(code == NetworkCode.TOGGLE_REMOVED_BIT_RESPONSE){
         response = Serializers.INTEGER.read(connection.in());
       } else {
-        LOG.error("Response from server failed.");
+        responseFailed(code);
       }
     } catch (Exception ex){
       System.out.println("ERROR: Exception during call on server. Check log for details.");
@@ -113,10 +140,11 @@ public class Controller implements BasicController {
       Uuid.SERIALIZER.write(connection.out(), convo);
       Serializers.INTEGER.write(connection.out(), count);
 
-      if(Serializers.INTEGER.read(connection.in()) == NetworkCode.UPDATE_USER_MESSAGE_COUNT_RESPONSE){
+      final int code = Serializers.INTEGER.read(connection.in());
+      if(code == NetworkCode.UPDATE_USER_MESSAGE_COUNT_RESPONSE){
         response = Serializers.INTEGER.read(connection.in());
       } else {
-        LOG.error("Response from server failed.");
+        responseFailed(code);
       }
     } catch (Exception ex){
       System.out.println("ERROR: Exception during call on server. Check log for details.");
@@ -136,10 +164,11 @@ public class Controller implements BasicController {
       Uuid.SERIALIZER.write(connection.out(), user);
       Time.SERIALIZER.write(connection.out(), time);
 
-      if(Serializers.INTEGER.read(connection.in()) == NetworkCode.UPDATE_USER_LAST_STATUS_UPDATE_RESPONSE){
+      final int code = Serializers.INTEGER.read(connection.in());
+      if(code == NetworkCode.UPDATE_USER_LAST_STATUS_UPDATE_RESPONSE){
         response = Time.SERIALIZER.read(connection.in());
       } else {
-        LOG.error("Response from server failed.");
+        responseFailed(code);
       }
     } catch (Exception ex){
       System.out.println("ERROR: Exception during call on server. Check log for details.");
@@ -160,10 +189,11 @@ public class Controller implements BasicController {
       Uuid.SERIALIZER.write(connection.out(), convo);
       Time.SERIALIZER.write(connection.out(), time);
 
-      if(Serializers.INTEGER.read(connection.in()) == NetworkCode.NEW_UPDATED_CONVERSATION_RESPONSE){
+      final int code = Serializers.INTEGER.read(connection.in());
+      if(code == NetworkCode.NEW_UPDATED_CONVERSATION_RESPONSE){
         response = Serializers.map(Uuid.SERIALIZER, Time.SERIALIZER).read(connection.in());
       } else {
-        LOG.error("Response from server failed.");
+        responseFailed(code);
       }
     } catch (Exception ex){
       System.out.println("ERROR: Exception during call on server. Check log for details.");
@@ -183,10 +213,11 @@ public class Controller implements BasicController {
       Uuid.SERIALIZER.write(connection.out(), user1);
       Uuid.SERIALIZER.write(connection.out(), user2);
 
-      if(Serializers.INTEGER.read(connection.in()) == NetworkCode.NEW_USER_INTEREST_RESPONSE){
+      final int code = Serializers.INTEGER.read(connection.in());
+      if(code == NetworkCode.NEW_USER_INTEREST_RESPONSE){
         response = Serializers.collection(Uuid.SERIALIZER).read(connection.in());
       } else {
-        LOG.error("Response from server failed.");
+        responseFailed(code);
       }
     } catch (Exception ex){
       System.out.println("ERROR: Exception during call on server. Check log for details.");
@@ -206,10 +237,11 @@ public class Controller implements BasicController {
       Uuid.SERIALIZER.write(connection.out(), user1);
       Uuid.SERIALIZER.write(connection.out(), user2);
 
-      if(Serializers.INTEGER.read(connection.in()) == NetworkCode.REMOVE_USER_INTEREST_RESPONSE){
+      final int code = Serializers.INTEGER.read(connection.in());
+      if(code == NetworkCode.REMOVE_USER_INTEREST_RESPONSE){
         response = Serializers.collection(Uuid.SERIALIZER).read(connection.in());
       } else {
-        LOG.error("Response from server failed.");
+        responseFailed(code);
       }
     } catch (Exception ex){
       System.out.println("ERROR: Exception during call on server. Check log for details.");
@@ -229,10 +261,11 @@ public class Controller implements BasicController {
       Uuid.SERIALIZER.write(connection.out(), user);
       Uuid.SERIALIZER.write(connection.out(), convo);
 
-      if(Serializers.INTEGER.read(connection.in()) == NetworkCode.NEW_CONVERSATION_INTEREST_RESPONSE){
+      final int code = Serializers.INTEGER.read(connection.in());
+      if(code == NetworkCode.NEW_CONVERSATION_INTEREST_RESPONSE){
         response = Serializers.collection(Uuid.SERIALIZER).read(connection.in());
       } else {
-        LOG.error("Response from server failed.");
+        responseFailed(code);
       }
     } catch (Exception ex){
       System.out.println("ERROR: Exception during call on server. Check log for details.");
@@ -252,10 +285,11 @@ public class Controller implements BasicController {
       Uuid.SERIALIZER.write(connection.out(), user);
       Uuid.SERIALIZER.write(connection.out(), convo);
 
-      if(Serializers.INTEGER.read(connection.in()) == NetworkCode.REMOVE_CONVERSATION_INTEREST_RESPONSE){
+      final int code = Serializers.INTEGER.read(connection.in());
+      if(code == NetworkCode.REMOVE_CONVERSATION_INTEREST_RESPONSE){
         response = Serializers.collection(Uuid.SERIALIZER).read(connection.in());
       } else {
-        LOG.error("Response from server failed.");
+        responseFailed(code);
       }
     } catch (Exception ex){
       System.out.println("ERROR: Exception during call on server. Check log for details.");
@@ -277,10 +311,11 @@ public class Controller implements BasicController {
       Uuid.SERIALIZER.write(connection.out(), conversation);
       Serializers.STRING.write(connection.out(), body);
 
-      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.NEW_MESSAGE_RESPONSE) {
+      final int code = Serializers.INTEGER.read(connection.in());
+      if (code == NetworkCode.NEW_MESSAGE_RESPONSE) {
         response = Serializers.nullable(Message.SERIALIZER).read(connection.in());
       } else {
-        LOG.error("Response from server failed.");
+        responseFailed(code);
       }
     } catch (Exception ex) {
       System.out.println("ERROR: Exception during call on server. Check log for details.");
@@ -301,11 +336,12 @@ public class Controller implements BasicController {
       Serializers.STRING.write(connection.out(), name);
       LOG.info("newUser: Request completed.");
 
-      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.NEW_USER_RESPONSE) {
+      final int code = Serializers.INTEGER.read(connection.in());
+      if (code == NetworkCode.NEW_USER_RESPONSE) {
         response = Serializers.nullable(User.SERIALIZER).read(connection.in());
         LOG.info("newUser: Response completed.");
       } else {
-        LOG.error("Response from server failed.");
+        responseFailed(code);
       }
     } catch (Exception ex) {
       System.out.println("ERROR: Exception during call on server. Check log for details.");
@@ -326,10 +362,11 @@ public class Controller implements BasicController {
       Serializers.STRING.write(connection.out(), title);
       Uuid.SERIALIZER.write(connection.out(), owner);
 
-      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.NEW_CONVERSATION_RESPONSE) {
+      final int code = Serializers.INTEGER.read(connection.in());
+      if (code == NetworkCode.NEW_CONVERSATION_RESPONSE) {
         response = Serializers.nullable(ConversationHeader.SERIALIZER).read(connection.in());
       } else {
-        LOG.error("Response from server failed.");
+        responseFailed(code);
       }
     } catch (Exception ex) {
       System.out.println("ERROR: Exception during call on server. Check log for details.");
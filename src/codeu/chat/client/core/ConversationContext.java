@@ -16,27 +16,33 @@ package codeu.chat.client.core;
 
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import codeu.chat.common.BasicController;
-import codeu.chat.common.BasicView;
 import codeu.chat.common.ConversationHeader;
 import codeu.chat.common.ConversationPayload;
 import codeu.chat.common.Message;
 import codeu.chat.common.User;
+import codeu.chat.util.Logger;
 import codeu.chat.util.Uuid;
 
 public final class ConversationContext {
 
+  private final static Logger.Log LOG = Logger.newLog(ConversationContext.class);
+
   public final User user;
   public final ConversationHeader conversation;
 
-  private final BasicView view;
+  private final View view;
   private final BasicController controller;
 
   public ConversationContext(User user,
                              ConversationHeader conversation,
-                             BasicView view,
+                             View view,
                              BasicController controller) {
 
     this.user = user;
@@ -78,10 +84,51 @@ public final class ConversationContext {
         getMessage(updated.lastMessage);
   }
 
+  // MESSAGES AFTER
+  //
+  // Get up to "limit" messages that come after the given message in one call
+  // to the server. Pass Uuid.NULL to start from the first message.
+  public List<Message> messagesAfter(Uuid cursor, int limit) {
+    return view.getMessagePage(conversation.id, cursor, true, limit);
+  }
+
+  // MESSAGES BEFORE
+  //
+  // Get up to "limit" messages that come before the given message in one call
+  // to the server, newest first. Pass Uuid.NULL to start from the last message.
+  public List<Message> messagesBefore(Uuid cursor, int limit) {
+    return view.getMessagePage(conversation.id, cursor, false, limit);
+  }
+
   public Integer getUserAccessControl(Uuid user){
     return view.getUserAccessControl(this.conversation.id, user);
   }
 
+  // GET USER ACCESS CONTROLS
+  //
+  // Get the access controls of many users at once. Every request is sent
+  // before waiting for any response so the whole batch costs about one round
+  // trip. Users whose access could not be read are given no access.
+  public Map<Uuid, Integer> getUserAccessControls(Collection<Uuid> users) {
+
+    final Map<Uuid, CompletableFuture<Integer>> pending = new HashMap<>();
+    for (final Uuid user : users) {
+      pending.put(user, view.getUserAccessControlAsync(this.conversation.id, user));
+    }
+
+    final Map<Uuid, Integer> access = new HashMap<>();
+    for (final Map.Entry<Uuid, CompletableFuture<Integer>> entry : pending.entrySet()) {
+      try {
+        access.put(entry.getKey(), entry.getValue().get());
+      } catch (Exception ex) {
+        LOG.error(ex, "Failed to get access control for %s", entry.getKey());
+        access.put(entry.getKey(), 0);
+      }
+    }
+
+    return access;
+  }
+
   public Integer toggleMemberBit(Uuid user, Boolean flag){
     return controller.toggleMemberBit(this.conversation.id, user, flag);
   }
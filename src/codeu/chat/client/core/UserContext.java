@@ -17,7 +17,6 @@ package codeu.chat.client.core;
 import java.util.*;
 
 import codeu.chat.common.BasicController;
-import codeu.chat.common.BasicView;
 import codeu.chat.common.ConversationHeader;
 import codeu.chat.common.User;
 import codeu.chat.util.Time;
@@ -26,10 +25,10 @@ import codeu.chat.util.Uuid;
 public final class UserContext {
 
   public final User user;
-  private final BasicView view;
+  private final View view;
   private final BasicController controller;
 
-  public UserContext(User user, BasicView view, BasicController controller) {
+  public UserContext(User user, View view, BasicController controller) {
     this.user = user;
     this.view = view;
     this.controller = controller;
@@ -44,6 +43,18 @@ public final class UserContext {
     return null;
   }
 
+  // SUBSCRIBE
+  //
+  // Have the server push new activity for this user to the subscriber.
+  // Returns false if the server did not accept the subscription.
+  public boolean subscribe(View.Subscriber subscriber) {
+    return view.subscribe(this.user.id, subscriber);
+  }
+
+  public void unsubscribe() {
+    view.unsubscribe();
+  }
+
   public Time setStatusUpdate(Time time){ return controller.updateUsersLastStatusUpdate(this.user.id, time); }
 
   public Time getLastStatusUpdate(){ return view.getLastStatusUpdate(this.user.id); }
@@ -14,28 +14,49 @@
 
 package codeu.chat.client.core;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import codeu.chat.common.*;
 import codeu.chat.util.Logger;
+import codeu.chat.util.Serializer;
 import codeu.chat.util.Serializers;
 import codeu.chat.util.Time;
 import codeu.chat.util.Uuid;
 import codeu.chat.util.connections.Connection;
 import codeu.chat.util.connections.ConnectionSource;
+import codeu.chat.util.connections.PushListener;
 
 // VIEW
 //
 // This is the view component of the Model-View-Controller pattern used by the
 // the client to retrieve readonly data from the server. All methods are blocking
-// calls.
+// calls except for the "Async" methods. Those send their request right away
+// and return a future, so many of them can be in flight at once (see
+// ConnectionSource.send).
 public class View implements BasicView {
 
   private final static Logger.Log LOG = Logger.newLog(View.class);
 
+  // SUBSCRIBER
+  //
+  // Told about the events the server pushes after a call to "subscribe". The
+  // methods are called on the thread that reads from the server, so they must
+  // return quickly and must not make calls to the server.
+  public interface Subscriber {
+    void onNewMessage(Uuid conversation, Message message);
+    void onNewConversation(ConversationHeader conversation);
+    void onClose();
+  }
+
   private final ConnectionSource source;
 
   public View(ConnectionSource source) {
@@ -268,6 +289,32 @@ public class View implements BasicView {
     return messages;
   }
 
+  @Override
+  public List<Message> getMessagePage(Uuid conversation, Uuid cursor, boolean forward, int limit) {
+
+    final List<Message> messages = new ArrayList<>();
+
+    try (final Connection connection = source.connect()) {
+
+      Serializers.INTEGER.write(connection.out(), NetworkCode.GET_MESSAGE_PAGE_REQUEST);
+      Uuid.SERIALIZER.write(connection.out(), conversation);
+      Uuid.SERIALIZER.write(connection.out(), cursor);
+      Serializers.BOOLEAN.write(connection.out(), forward);
+      Serializers.INTEGER.write(connection.out(), limit);
+
+      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.GET_MESSAGE_PAGE_RESPONSE) {
+        messages.addAll(Serializers.collection(Message.SERIALIZER).read(connection.in()));
+      } else {
+        LOG.error("Response from server failed.");
+      }
+    } catch (Exception ex) {
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex, "Exception during call on server.");
+    }
+
+    return messages;
+  }
+
   public ServerInfo getInfo() {
 
     try (final Connection connection = this.source.connect()) {
@@ -291,4 +338,116 @@ public class View implements BasicView {
     // If we get here it means something went wrong and null should be returned
     return null;
   }
+
+  // GET USER ACCESS CONTROL (ASYNC)
+  //
+  // Pipelined version of getUserAccessControl. The future fails if the call
+  // to the server fails.
+  public CompletableFuture<Integer> getUserAccessControlAsync(Uuid convo, Uuid user) {
+    try {
+      final ByteArrayOutputStream request = new ByteArrayOutputStream();
+      Serializers.INTEGER.write(request, NetworkCode.GET_USER_ACCESS_CONTROL_REQUEST);
+      Uuid.SERIALIZER.write(request, convo);
+      Uuid.SERIALIZER.write(request, user);
+
+      return send(request, NetworkCode.GET_USER_ACCESS_CONTROL_RESPONSE, Serializers.INTEGER);
+    } catch (IOException ex) {
+      return failed(ex);
+    }
+  }
+
+  // SUBSCRIBE
+  //
+  // Ask the server to push new messages and conversations that the user is
+  // interested in (see User.conversationInterests and User.userInterests) to
+  // the subscriber. A client has one subscription at a time, so this replaces
+  // any earlier one. Returns true if the server accepted the subscription.
+  public boolean subscribe(Uuid user, final Subscriber subscriber) {
+    return subscribe(user, new PushListener() {
+      @Override
+      public void onPush(InputStream event) {
+        try {
+          final int type = Serializers.INTEGER.read(event);
+          if (type == NetworkCode.NEW_MESSAGE_EVENT) {
+            final Uuid conversation = Uuid.SERIALIZER.read(event);
+            subscriber.onNewMessage(conversation, Message.SERIALIZER.read(event));
+          } else if (type == NetworkCode.NEW_CONVERSATION_EVENT) {
+            subscriber.onNewConversation(ConversationHeader.SERIALIZER.read(event));
+          } else {
+            LOG.warning("Ignoring unknown event %d", type);
+          }
+        } catch (IOException ex) {
+          LOG.error(ex, "Failed to read event from server.");
+        }
+      }
+
+      @Override
+      public void onClose() {
+        subscriber.onClose();
+      }
+    });
+  }
+
+  // UNSUBSCRIBE
+  //
+  // Stop the server from pushing events to this client.
+  public void unsubscribe() {
+    subscribe(Uuid.NULL, (PushListener) null);
+  }
+
+  private boolean subscribe(Uuid user, PushListener listener) {
+    try {
+      final ByteArrayOutputStream request = new ByteArrayOutputStream();
+      Serializers.INTEGER.write(request, NetworkCode.SUBSCRIBE_REQUEST);
+      Uuid.SERIALIZER.write(request, user);
+
+      final InputStream in = source.subscribe(request.toByteArray(), listener).get();
+
+      if (Serializers.INTEGER.read(in) == NetworkCode.SUBSCRIBE_RESPONSE) {
+        return Serializers.BOOLEAN.read(in);
+      } else {
+        LOG.error("Response from server failed.");
+      }
+
+    } catch (Exception ex) {
+      LOG.error(ex, "Exception during call on server.");
+    }
+
+    return false;
+  }
+
+  private <T> CompletableFuture<T> send(ByteArrayOutputStream request,
+                                        final int expectedResponse,
+                                        final Serializer<T> serializer) {
+
+    return source.send(request.toByteArray()).thenApply(in -> {
+      try {
+        final int response = Serializers.INTEGER.read(in);
+        if (response == NetworkCode.SERVER_BUSY) {
+          throw new IOException("Server is busy");
+        }
+        if (response == NetworkCode.RECOVERING) {
+          throw new IOException("Server is still loading its data");
+        }
+        if (response == NetworkCode.SERVER_ERROR) {
+          throw new IOException("Server could not record the change");
+        }
+        if (response != expectedResponse) {
+          throw new IOException(String.format(
+              "Expected response %d from server but got %d",
+              expectedResponse,
+              response));
+        }
+        return serializer.read(in);
+      } catch (IOException ex) {
+        throw new UncheckedIOException(ex);
+      }
+    });
+  }
+
+  private static <T> CompletableFuture<T> failed(Exception ex) {
+    final CompletableFuture<T> future = new CompletableFuture<>();
+    future.completeExceptionally(ex);
+    return future;
+  }
 }
@@ -15,6 +15,7 @@
 package codeu.chat.common;
 
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 
 import codeu.chat.common.ConversationHeader;
@@ -54,6 +55,16 @@ public interface BasicView {
   //   Return all messages whose id is found in the given collection.
   Collection<Message> getMessages(Collection<Uuid> ids);
 
+  // GET MESSAGE PAGE
+  //
+  //   Return up to "limit" messages from a conversation in the order they are
+  //   walked. When "cursor" is Uuid.NULL the walk starts at the first message
+  //   (forward) or the last message (backward). Otherwise it starts with the
+  //   message after (forward) or before (backward) the cursor, so the last
+  //   message of one page is the cursor for the next. An empty page means
+  //   there are no more messages in that direction.
+  List<Message> getMessagePage(Uuid conversation, Uuid cursor, boolean forward, int limit);
+
   // GET SERVER INFO
   //
   //  Return the current server information
@@ -18,6 +18,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 
 import codeu.chat.util.Serializer;
@@ -45,7 +46,37 @@ public final class ConversationHeader {
           Uuid.SERIALIZER.read(in),
           Uuid.SERIALIZER.read(in),
           Time.SERIALIZER.read(in),
-          Serializers.STRING.read(in)
+          Serializers.INTERNED_STRING.read(in)
+      );
+
+    }
+
+    @Override
+    public int maxSize(ConversationHeader value) throws IOException {
+
+      return Uuid.SERIALIZER.maxSize(value.id) +
+             Uuid.SERIALIZER.maxSize(value.owner) +
+             Time.SERIALIZER.maxSize(value.creation) +
+             Serializers.STRING.maxSize(value.title);
+    }
+
+    @Override
+    public void write(ByteBuffer out, ConversationHeader value) throws IOException {
+
+      Uuid.SERIALIZER.write(out, value.id);
+      Uuid.SERIALIZER.write(out, value.owner);
+      Time.SERIALIZER.write(out, value.creation);
+      Serializers.STRING.write(out, value.title);
+    }
+
+    @Override
+    public ConversationHeader read(ByteBuffer in) throws IOException {
+
+      return new ConversationHeader(
+          Uuid.SERIALIZER.read(in),
+          Uuid.SERIALIZER.read(in),
+          Time.SERIALIZER.read(in),
+          Serializers.INTERNED_STRING.read(in)
       );
 
     }
@@ -17,6 +17,7 @@ package codeu.chat.common;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 import codeu.chat.util.Serializer;
 import codeu.chat.util.Serializers;
@@ -44,6 +45,34 @@ public final class ConversationPayload {
           Uuid.SERIALIZER.read(in));
 
     }
+
+    @Override
+    public int maxSize(ConversationPayload value) throws IOException {
+
+      return Uuid.SERIALIZER.maxSize(value.id) +
+             Uuid.SERIALIZER.maxSize(value.firstMessage) +
+             Uuid.SERIALIZER.maxSize(value.lastMessage);
+
+    }
+
+    @Override
+    public void write(ByteBuffer out, ConversationPayload value) throws IOException {
+
+      Uuid.SERIALIZER.write(out, value.id);
+      Uuid.SERIALIZER.write(out, value.firstMessage);
+      Uuid.SERIALIZER.write(out, value.lastMessage);
+
+    }
+
+    @Override
+    public ConversationPayload read(ByteBuffer in) throws IOException {
+
+      return new ConversationPayload(
+          Uuid.SERIALIZER.read(in),
+          Uuid.SERIALIZER.read(in),
+          Uuid.SERIALIZER.read(in));
+
+    }
   };
 
   public final Uuid id;
@@ -17,6 +17,7 @@ package codeu.chat.common;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.Comparator;
 
 import codeu.chat.util.Serializer;
@@ -53,6 +54,44 @@ public final class Message {
       );
 
     }
+
+    @Override
+    public int maxSize(Message value) throws IOException {
+
+      return Uuid.SERIALIZER.maxSize(value.id) +
+             Uuid.SERIALIZER.maxSize(value.next) +
+             Uuid.SERIALIZER.maxSize(value.previous) +
+             Time.SERIALIZER.maxSize(value.creation) +
+             Uuid.SERIALIZER.maxSize(value.author) +
+             Serializers.STRING.maxSize(value.content);
+
+    }
+
+    @Override
+    public void write(ByteBuffer out, Message value) throws IOException {
+
+      Uuid.SERIALIZER.write(out, value.id);
+      Uuid.SERIALIZER.write(out, value.next);
+      Uuid.SERIALIZER.write(out, value.previous);
+      Time.SERIALIZER.write(out, value.creation);
+      Uuid.SERIALIZER.write(out, value.author);
+      Serializers.STRING.write(out, value.content);
+
+    }
+
+    @Override
+    public Message read(ByteBuffer in) throws IOException {
+
+      return new Message(
+          Uuid.SERIALIZER.read(in),
+          Uuid.SERIALIZER.read(in),
+          Uuid.SERIALIZER.read(in),
+          Time.SERIALIZER.read(in),
+          Uuid.SERIALIZER.read(in),
+          Serializers.STRING.read(in)
+      );
+
+    }
   };
 
   public final Uuid id;
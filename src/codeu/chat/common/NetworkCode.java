@@ -14,6 +14,43 @@
 
 package codeu.chat.common;
 
+// NETWORK CODE
+//
+// Every request starts with one of the request codes below and every response
+// starts with the matching response code.
+//
+// On framed connections (see codeu.chat.util.connections.Frames) every request
+// also carries a request id that the server copies into its response. This
+// lets a client write many requests on one connection without waiting and
+// match each response to its request as it arrives, in whatever order the
+// server finishes them. Requests sent this way are independent of each other:
+// a read sent after a write may be answered before the write is applied.
+//
+// A client that sends SUBSCRIBE_REQUEST will also receive event frames on the
+// same connection, without asking for them, whenever something it is
+// interested in happens. Events carry request id 0, which is never used for a
+// request, and start with one of the event codes below.
+//
+// When the server has too much work queued it answers a request with
+// SERVER_BUSY instead of its response code, without running it. The client
+// may try again later.
+//
+// While a server is loading its data after a restart it answers requests
+// that would change anything with RECOVERING, without running them. Reads
+// are answered as usual but only see what has been loaded so far. The
+// client may try the change again later.
+//
+// If a server cannot record a change in its log it answers with SERVER_ERROR
+// instead of its response code, and the change may not survive a restart.
+// From then on the server refuses every change the same way, without running
+// it.
+//
+// Requests and responses normally use the encoding of codeu.chat.util's
+// Serializers. A client may ask which other encodings the server supports
+// with GET_ENCODINGS_REQUEST and then mark each request that uses one with
+// its flag, such as COMPACT_ENCODING. Servers that predate this answer
+// GET_ENCODINGS_REQUEST with NO_MESSAGE, so a client that gets NO_MESSAGE
+// back keeps to the normal encoding. Events are always in the normal encoding.
 public final class NetworkCode {
 
   public static final int
@@ -71,5 +108,53 @@ public final class NetworkCode {
       TOGGLE_REMOVED_BIT_REQUEST = 65,
       TOGGLE_REMOVED_BIT_RESPONSE = 66,
       GET_USER_ACCESS_CONTROL_REQUEST = 67,
-      GET_USER_ACCESS_CONTROL_RESPONSE = 68;
+      GET_USER_ACCESS_CONTROL_RESPONSE = 68,
+      GET_MESSAGE_PAGE_REQUEST = 69,
+      GET_MESSAGE_PAGE_RESPONSE = 70,
+      SUBSCRIBE_REQUEST = 71,
+      SUBSCRIBE_RESPONSE = 72,
+      NEW_MESSAGE_EVENT = 73,
+      NEW_CONVERSATION_EVENT = 74,
+      SERVER_BUSY = 75,
+      GET_ENCODINGS_REQUEST = 76,
+      GET_ENCODINGS_RESPONSE = 77,
+      RECOVERING = 78,
+      SERVER_ERROR = 79;
+
+  // Set in a request code when everything after the code, in the request and
+  // in its response, uses the compact encoding (see codeu.chat.util.Compact).
+  // The response code itself is always written in full.
+  public static final int COMPACT_ENCODING = 0x40000000;
+
+  // Bits in the GET_ENCODINGS_RESPONSE mask, one for each encoding the server
+  // can read besides the normal one.
+  public static final int ENCODING_COMPACT = 0x0001;
+
+  // IS READ
+  //
+  // Whether a request code asks only to read, so that running it more than
+  // once changes nothing. Encoding flags in the code are ignored. The server
+  // uses this to decide which requests run in parallel and clients use it to
+  // decide which requests are safe to resend, so a new read request only
+  // needs to be added here.
+  public static boolean isRead(int code) {
+    switch (code & ~COMPACT_ENCODING) {
+      case GET_USERS_REQUEST:
+      case GET_ALL_CONVERSATIONS_REQUEST:
+      case GET_CONVERSATIONS_BY_ID_REQUEST:
+      case GET_MESSAGES_BY_ID_REQUEST:
+      case GET_MESSAGE_PAGE_REQUEST:
+      case SERVER_INFO_REQUEST:
+      case GET_ENCODINGS_REQUEST:
+      case GET_CONVERSATION_INTERESTS_REQUEST:
+      case GET_USER_INTERESTS_REQUEST:
+      case GET_UPDATED_CONVERSATIONS_REQUEST:
+      case GET_USER_LAST_STATUS_UPDATE_REQUEST:
+      case GET_USER_MESSAGE_COUNT_REQUEST:
+      case GET_USER_ACCESS_CONTROL_REQUEST:
+        return true;
+      default:
+        return false;
+    }
+  }
 }
@@ -17,6 +17,7 @@ package codeu.chat.common;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
@@ -83,6 +84,21 @@ public final class Secret {
     public Secret read(InputStream in) throws IOException {
       return new Secret(Serializers.BYTES.read(in));
     }
+
+    @Override
+    public int maxSize(Secret value) throws IOException {
+      return Serializers.BYTES.maxSize(value.bytes);
+    }
+
+    @Override
+    public void write(ByteBuffer out, Secret value) throws IOException {
+      Serializers.BYTES.write(out, value.bytes);
+    }
+
+    @Override
+    public Secret read(ByteBuffer in) throws IOException {
+      return new Secret(Serializers.BYTES.read(in));
+    }
   };
 
   private final byte[] bytes;
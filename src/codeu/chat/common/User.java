@@ -17,6 +17,7 @@ package codeu.chat.common;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -44,7 +45,33 @@ public final class User {
 
       return new User(
           Uuid.SERIALIZER.read(in),
-          Serializers.STRING.read(in),
+          Serializers.INTERNED_STRING.read(in),
+          Time.SERIALIZER.read(in)
+      );
+    }
+
+    @Override
+    public int maxSize(User value) throws IOException {
+
+      return Uuid.SERIALIZER.maxSize(value.id) +
+             Serializers.STRING.maxSize(value.name) +
+             Time.SERIALIZER.maxSize(value.creation);
+    }
+
+    @Override
+    public void write(ByteBuffer out, User value) throws IOException {
+
+      Uuid.SERIALIZER.write(out, value.id);
+      Serializers.STRING.write(out, value.name);
+      Time.SERIALIZER.write(out, value.creation);
+    }
+
+    @Override
+    public User read(ByteBuffer in) throws IOException {
+
+      return new User(
+          Uuid.SERIALIZER.read(in),
+          Serializers.INTERNED_STRING.read(in),
           Time.SERIALIZER.read(in)
       );
     }
@@ -17,6 +17,7 @@ package codeu.chat.relay;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.Collection;
 
 import codeu.chat.common.NetworkCode;
@@ -40,19 +41,10 @@ public final class ServerFrontEnd {
     public Relay.Bundle.Component read(InputStream in) throws IOException {
 
       final Uuid id = Uuid.SERIALIZER.read(in);
-      final String text = Serializers.STRING.read(in);
+      final String text = Serializers.INTERNED_STRING.read(in);
       final Time time = Time.SERIALIZER.read(in);
 
-      // I could have passed the relay and use its "pack" method but that would
-      // have been more work than just building an object here.
-      return new Relay.Bundle.Component() {
-        @Override
-        public Uuid id() { return id; }
-        @Override
-        public String text() { return text; }
-        @Override
-        public Time time() { return time; }
-      };
+      return component(id, text, time);
     }
 
     @Override
@@ -61,35 +53,57 @@ public final class ServerFrontEnd {
       Serializers.STRING.write(out, value.text());
       Time.SERIALIZER.write(out, value.time());
     }
+
+    @Override
+    public int maxSize(Relay.Bundle.Component value) throws IOException {
+      return Uuid.SERIALIZER.maxSize(value.id()) +
+             Serializers.STRING.maxSize(value.text()) +
+             Time.SERIALIZER.maxSize(value.time());
+    }
+
+    @Override
+    public Relay.Bundle.Component read(ByteBuffer in) throws IOException {
+
+      final Uuid id = Uuid.SERIALIZER.read(in);
+      final String text = Serializers.INTERNED_STRING.read(in);
+      final Time time = Time.SERIALIZER.read(in);
+
+      return component(id, text, time);
+    }
+
+    @Override
+    public void write(ByteBuffer out, Relay.Bundle.Component value) throws IOException {
+      Uuid.SERIALIZER.write(out, value.id());
+      Serializers.STRING.write(out, value.text());
+      Time.SERIALIZER.write(out, value.time());
+    }
   };
 
+  // I could have passed the relay and use its "pack" method but that would
+  // have been more work than just building an object here.
+  private static Relay.Bundle.Component component(final Uuid id, final String text, final Time time) {
+    return new Relay.Bundle.Component() {
+      @Override
+      public Uuid id() { return id; }
+      @Override
+      public String text() { return text; }
+      @Override
+      public Time time() { return time; }
+    };
+  }
+
   private static final Serializer<Relay.Bundle> BUNDLE_SERIALIZER =
       new Serializer<Relay.Bundle>() {
 
     @Override
     public Relay.Bundle read(InputStream in) throws IOException {
-
-      final Uuid id = Uuid.SERIALIZER.read(in);
-      final Time time = Time.SERIALIZER.read(in);
-      final Uuid team = Uuid.SERIALIZER.read(in);
-      final Relay.Bundle.Component user = COMPONENT_SERIALIZER.read(in);
-      final Relay.Bundle.Component conversation = COMPONENT_SERIALIZER.read(in);
-      final Relay.Bundle.Component message = COMPONENT_SERIALIZER.read(in);
-
-      return new Relay.Bundle() {
-        @Override
-        public Uuid id() { return id; }
-        @Override
-        public Time time() { return time; }
-        @Override
-        public Uuid team() { return team; }
-        @Override
-        public Relay.Bundle.Component user() { return user; }
-        @Override
-        public Relay.Bundle.Component conversation() { return conversation; }
-        @Override
-        public Relay.Bundle.Component message() { return message; }
-      };
+      return bundle(
+          Uuid.SERIALIZER.read(in),
+          Time.SERIALIZER.read(in),
+          Uuid.SERIALIZER.read(in),
+          COMPONENT_SERIALIZER.read(in),
+          COMPONENT_SERIALIZER.read(in),
+          COMPONENT_SERIALIZER.read(in));
     }
 
     @Override
@@ -101,8 +115,61 @@ public final class ServerFrontEnd {
       COMPONENT_SERIALIZER.write(out, value.conversation());
       COMPONENT_SERIALIZER.write(out, value.message());
     }
+
+    @Override
+    public int maxSize(Relay.Bundle value) throws IOException {
+      return Uuid.SERIALIZER.maxSize(value.id()) +
+             Time.SERIALIZER.maxSize(value.time()) +
+             Uuid.SERIALIZER.maxSize(value.team()) +
+             COMPONENT_SERIALIZER.maxSize(value.user()) +
+             COMPONENT_SERIALIZER.maxSize(value.conversation()) +
+             COMPONENT_SERIALIZER.maxSize(value.message());
+    }
+
+    @Override
+    public Relay.Bundle read(ByteBuffer in) throws IOException {
+      return bundle(
+          Uuid.SERIALIZER.read(in),
+          Time.SERIALIZER.read(in),
+          Uuid.SERIALIZER.read(in),
+          COMPONENT_SERIALIZER.read(in),
+          COMPONENT_SERIALIZER.read(in),
+          COMPONENT_SERIALIZER.read(in));
+    }
+
+    @Override
+    public void write(ByteBuffer out, Relay.Bundle value) throws IOException {
+      Uuid.SERIALIZER.write(out, value.id());
+      Time.SERIALIZER.write(out, value.time());
+      Uuid.SERIALIZER.write(out, value.team());
+      COMPONENT_SERIALIZER.write(out, value.user());
+      COMPONENT_SERIALIZER.write(out, value.conversation());
+      COMPONENT_SERIALIZER.write(out, value.message());
+    }
   };
 
+  private static Relay.Bundle bundle(final Uuid id,
+                                     final Time time,
+                                     final Uuid team,
+                                     final Relay.Bundle.Component user,
+                                     final Relay.Bundle.Component conversation,
+                                     final Relay.Bundle.Component message) {
+    return new Relay.Bundle() {
+      @Override
+      public Uuid id() { return id; }
+      @Override
+      public Time time() { return time; }
+      @Override
+      public Uuid team() { return team; }
+      @Override
+      public Relay.Bundle.Component user() { return user; }
+      @Override
+      public Relay.Bundle.Component conversation() { return conversation; }
+      @Override
+      public Relay.Bundle.Component message() { return message; }
+    };
+  }
+
   private final Relay backEnd;
 
   public ServerFrontEnd(Relay backEnd) {
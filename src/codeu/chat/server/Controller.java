@@ -35,14 +35,45 @@ public final class Controller implements RawController, BasicController {
 
   private final static Logger.Log LOG = Logger.newLog(Controller.class);
 
+  // LISTENER
+  //
+  // Told about every message and conversation once it has been added to the
+  // model, and about every interest that is added or removed. Listeners are
+  // called by whoever made the change, while the model is still locked and
+  // before the change is committed to the log, so they must not block. The
+  // server's listener holds the new messages and conversations back until
+  // the change is committed (see Server's PENDING EVENTS).
+  public interface Listener {
+    void onNewMessage(Uuid conversation, Message message);
+    void onNewConversation(ConversationHeader conversation);
+    void onConversationInterest(Uuid user, Uuid conversation, boolean interested);
+    void onUserInterest(Uuid user, Uuid followed, boolean interested);
+  }
+
   private final Model model;
   private final Uuid.Generator uuidGenerator;
 
+  private Listener listener;
+  private WriteAheadLog log;
+
   public Controller(Uuid serverId, Model model) {
     this.model = model;
     this.uuidGenerator = new RandomUuidGenerator(serverId, System.currentTimeMillis());
   }
 
+  public void setListener(Listener listener) {
+    this.listener = listener;
+  }
+
+  // SET LOG
+  //
+  // Every change made from now on is recorded in "log" (see LogRecords).
+  // Changes are only recorded once they have been made, so a change that
+  // fails leaves no record.
+  public void setLog(WriteAheadLog log) {
+    this.log = log;
+  }
+
   @Override
   public Message newMessage(Uuid author, Uuid conversation, String body) {
     return newMessage(createId(), author, conversation, body, Time.now());
@@ -74,6 +105,10 @@ public final class Controller implements RawController, BasicController {
 
       foundConvo.accessControls.put(user, newAccess);
 
+      if (log != null) {
+        log.append(LogRecords.toggle(LogRecords.TOGGLE_REMOVED, foundConvo.id, foundUser.id, true));
+      }
+
       LOG.info(
               "toggleRemovedBit success (user.id=%s conversation.id=%s access=%s)",
               foundUser.id,
@@ -112,6 +147,10 @@ public final class Controller implements RawController, BasicController {
       result = newAccess;
       foundConvo.accessControls.put(user, newAccess);
 
+      if (log != null) {
+        log.append(LogRecords.toggle(LogRecords.TOGGLE_CREATOR, foundConvo.id, foundUser.id, flag));
+      }
+
       LOG.info(
               "toggleCreatorBit success (user.id=%s conversation.id=%s access=%s)",
               foundUser.id,
@@ -152,6 +191,10 @@ public final class Controller implements RawController, BasicController {
       result = newAccess;
       foundConvo.accessControls.put(user, newAccess);
 
+      if (log != null) {
+        log.append(LogRecords.toggle(LogRecords.TOGGLE_OWNER, foundConvo.id, foundUser.id, flag));
+      }
+
       LOG.info(
               "toggleOwnerBit success (user.id=%s conversation.id=%s access=%s)",
               foundUser.id,
@@ -190,6 +233,10 @@ public final class Controller implements RawController, BasicController {
       result = newAccess;
       foundConvo.accessControls.put(user, newAccess);
 
+      if (log != null) {
+        log.append(LogRecords.toggle(LogRecords.TOGGLE_MEMBER, foundConvo.id, foundUser.id, flag));
+      }
+
       LOG.info(
               "toggleMemberBit success (user.id=%s conversation.id=%s access=%s)",
               foundUser.id,
@@ -220,6 +267,10 @@ public final class Controller implements RawController, BasicController {
 
       result = foundConvo.unseenMessages.get(foundUser.id);
 
+      if (log != null) {
+        log.append(LogRecords.updateUnseen(foundUser.id, foundConvo.id, count));
+      }
+
       LOG.info(
               "updateUsersUnseenMessagesCount success (user.id=%s conversation.id=%s count=%s)",
               foundUser.id,
@@ -245,6 +296,10 @@ public final class Controller implements RawController, BasicController {
       foundUser.lastStatusUpdate = time;
       update = foundUser.lastStatusUpdate;
 
+      if (log != null) {
+        log.append(LogRecords.updateStatus(foundUser.id, time));
+      }
+
       LOG.info(
               "updateUsersLastStatusUpdate success (user.id=%s time=%s)",
               foundUser.id,
@@ -271,6 +326,10 @@ public final class Controller implements RawController, BasicController {
       foundUser.updatedConversations.put(foundConversation.id, time);
       map = foundUser.updatedConversations;
 
+      if (log != null) {
+        log.append(LogRecords.addUpdatedConversation(foundUser.id, foundConversation.id, time));
+      }
+
       LOG.info(
               "newUpdatedConversation success (user.id=%s conversation.id=%s time=%s)",
               foundUser.id,
@@ -298,6 +357,14 @@ public final class Controller implements RawController, BasicController {
       foundUser.userInterests.add(followedUser.id);
       interests = foundUser.userInterests;
 
+      if (log != null) {
+        log.append(LogRecords.pair(LogRecords.ADD_INTEREST_USER, foundUser.id, followedUser.id));
+      }
+
+      if (listener != null) {
+        listener.onUserInterest(foundUser.id, followedUser.id, true);
+      }
+
       LOG.info(
               "newUserInterest success (user.id=%s user.id=%s)",
               foundUser.id,
@@ -323,6 +390,14 @@ public final class Controller implements RawController, BasicController {
       foundUser.userInterests.remove(followedUser.id);
       interests = foundUser.userInterests;
 
+      if (log != null) {
+        log.append(LogRecords.pair(LogRecords.REMOVE_INTEREST_USER, foundUser.id, followedUser.id));
+      }
+
+      if (listener != null) {
+        listener.onUserInterest(foundUser.id, followedUser.id, false);
+      }
+
       LOG.info(
               "removeUserInterest success (user.id=%s user.id=%s)",
               foundUser.id,
@@ -349,6 +424,14 @@ public final class Controller implements RawController, BasicController {
       foundConvo.unseenMessages.put(foundUser.id, 0);
       interests = foundUser.conversationInterests;
 
+      if (log != null) {
+        log.append(LogRecords.pair(LogRecords.ADD_INTEREST_CONVO, foundUser.id, foundConvo.id));
+      }
+
+      if (listener != null) {
+        listener.onConversationInterest(foundUser.id, foundConvo.id, true);
+      }
+
       LOG.info(
               "newConversationInterest success (user.id=%s conversation.id=%s)",
               foundUser.id,
@@ -374,6 +457,14 @@ public final class Controller implements RawController, BasicController {
       foundUser.conversationInterests.remove(foundConvo.id);
       interests = foundUser.conversationInterests;
 
+      if (log != null) {
+        log.append(LogRecords.pair(LogRecords.REMOVE_INTEREST_CONVO, foundUser.id, foundConvo.id));
+      }
+
+      if (listener != null) {
+        listener.onConversationInterest(foundUser.id, foundConvo.id, false);
+      }
+
       LOG.info(
               "removeConversationInterest success (user.id=%s conversation.id=%s)",
               foundUser.id,
@@ -398,8 +489,10 @@ public final class Controller implements RawController, BasicController {
 
     if (foundUser != null && foundConversation != null && isIdFree(id)) {
 
-      message = new Message(id, Uuid.NULL, Uuid.NULL, creationTime, author, body);
-      model.add(message);
+      // The new message goes at the end of the conversation so the current
+      // last message (which may be NULL) is the message before it.
+      message = new Message(id, Uuid.NULL, foundConversation.lastMessage, creationTime, author, body);
+      model.add(conversation, message);
       LOG.info("Message added: %s", message.id);
 
       // Find and update the previous "last" message so that it's "next" value
@@ -428,6 +521,14 @@ public final class Controller implements RawController, BasicController {
       // Update the conversation to point to the new last message as it has changed.
 
       foundConversation.lastMessage = message.id;
+
+      if (log != null) {
+        log.append(LogRecords.addMessage(conversation, message));
+      }
+
+      if (listener != null) {
+        listener.onNewMessage(conversation, message);
+      }
     }
 
     return message;
@@ -443,6 +544,10 @@ public final class Controller implements RawController, BasicController {
       user = new User(id, name, creationTime);
       model.add(user);
 
+      if (log != null) {
+        log.append(LogRecords.addUser(user));
+      }
+
       LOG.info(
           "newUser success (user.id=%s user.name=%s user.time=%s)",
           id,
@@ -472,6 +577,14 @@ public final class Controller implements RawController, BasicController {
       conversation = new ConversationHeader(id, owner, creationTime, title);
       model.add(conversation);
       LOG.info("Conversation added: " + id);
+
+      if (log != null) {
+        log.append(LogRecords.addConversation(conversation));
+      }
+
+      if (listener != null) {
+        listener.onNewConversation(conversation);
+      }
     }
 
     return conversation;
@@ -0,0 +1,100 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// LOG FILES
+//
+// Names the files that a server keeps in its data directory. The history of
+// the model is split into generations:
+//
+//   transaction.log      the log of generation 0
+//   transaction.N.log    the log of generation N
+//   snapshot.N           the whole model as it was when generation N began
+//
+// So the model can be rebuilt from the newest snapshot plus the logs of its
+// generation and every later one. Once a snapshot is complete, the files of
+// earlier generations are no longer needed.
+final class LogFiles {
+
+  private static final Pattern LOG = Pattern.compile("transaction(?:\\.(\\d+))?\\.log");
+  private static final Pattern SNAPSHOT = Pattern.compile("snapshot\\.(\\d+)");
+
+  private final File directory;
+
+  LogFiles(File directory) {
+    this.directory = directory;
+  }
+
+  File log(long generation) {
+    return new File(directory, generation == 0 ? "transaction.log" : "transaction." + generation + ".log");
+  }
+
+  File snapshot(long generation) {
+    return new File(directory, "snapshot." + generation);
+  }
+
+  // The generations that have a log, oldest first.
+  List<Long> logs() {
+    return generations(LOG, 0);
+  }
+
+  // The generations that have a snapshot, oldest first. Snapshots are only
+  // given their name once they are complete.
+  List<Long> snapshots() {
+    return generations(SNAPSHOT, -1);
+  }
+
+  // DELETE BEFORE
+  //
+  // Remove the logs and snapshots of every generation before "generation".
+  void deleteBefore(long generation) {
+    for (final long old : logs()) {
+      if (old < generation) {
+        log(old).delete();
+      }
+    }
+    for (final long old : snapshots()) {
+      if (old < generation) {
+        snapshot(old).delete();
+      }
+    }
+  }
+
+  // "unnumbered" is the generation of a name with no number in it.
+  private List<Long> generations(Pattern pattern, long unnumbered) {
+
+    final List<Long> found = new ArrayList<>();
+    final String[] names = directory.list();
+
+    if (names != null) {
+      for (final String name : names) {
+        final Matcher matcher = pattern.matcher(name);
+        if (matcher.matches()) {
+          found.add(matcher.group(1) == null ? unnumbered : Long.parseLong(matcher.group(1)));
+        }
+      }
+    }
+
+    Collections.sort(found);
+    return found;
+  }
+}
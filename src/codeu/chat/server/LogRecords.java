@@ -0,0 +1,275 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.Message;
+import codeu.chat.common.User;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+// LOG RECORDS
+//
+// The records that the controller adds to the transaction log (see
+// WriteAheadLog), one per change to the model. Each record is a one byte
+// type followed by the fields of the change, written with the same
+// serializers that send them over the network:
+//
+//   ADD_USER                      User
+//   ADD_CONVERSATION              ConversationHeader
+//   ADD_MESSAGE                   conversation Uuid, Message
+//   ADD/REMOVE_INTEREST_USER      user Uuid, followed user Uuid
+//   ADD/REMOVE_INTEREST_CONVO     user Uuid, conversation Uuid
+//   TOGGLE_CREATOR/OWNER/MEMBER   conversation Uuid, user Uuid, boolean
+//   TOGGLE_REMOVED                conversation Uuid, user Uuid
+//   UPDATE_UNSEEN                 user Uuid, conversation Uuid, integer
+//   UPDATE_STATUS                 user Uuid, Time
+//   ADD_UPDATED_CONVERSATION      user Uuid, conversation Uuid, Time
+//
+// Type values are written to disk and must never be reused or renumbered.
+final class LogRecords {
+
+  static final byte ADD_USER = 1;
+  static final byte ADD_CONVERSATION = 2;
+  static final byte ADD_MESSAGE = 3;
+  static final byte ADD_INTEREST_USER = 4;
+  static final byte REMOVE_INTEREST_USER = 5;
+  static final byte ADD_INTEREST_CONVO = 6;
+  static final byte REMOVE_INTEREST_CONVO = 7;
+  static final byte TOGGLE_CREATOR = 8;
+  static final byte TOGGLE_OWNER = 9;
+  static final byte TOGGLE_MEMBER = 10;
+  static final byte TOGGLE_REMOVED = 11;
+  static final byte UPDATE_UNSEEN = 12;
+  static final byte UPDATE_STATUS = 13;
+  static final byte ADD_UPDATED_CONVERSATION = 14;
+
+  private LogRecords() { }
+
+  static ByteBuffer addUser(User user) {
+    try {
+      final ByteBuffer record = allocate(User.SERIALIZER.maxSize(user));
+      record.put(ADD_USER);
+      User.SERIALIZER.write(record, user);
+      return done(record);
+    } catch (IOException ex) {
+      throw encodingFailed(ex);
+    }
+  }
+
+  static ByteBuffer addConversation(ConversationHeader conversation) {
+    try {
+      final ByteBuffer record = allocate(ConversationHeader.SERIALIZER.maxSize(conversation));
+      record.put(ADD_CONVERSATION);
+      ConversationHeader.SERIALIZER.write(record, conversation);
+      return done(record);
+    } catch (IOException ex) {
+      throw encodingFailed(ex);
+    }
+  }
+
+  static ByteBuffer addMessage(Uuid conversation, Message message) {
+    try {
+      final ByteBuffer record = allocate(
+          Uuid.SERIALIZER.maxSize(conversation) + Message.SERIALIZER.maxSize(message));
+      record.put(ADD_MESSAGE);
+      Uuid.SERIALIZER.write(record, conversation);
+      Message.SERIALIZER.write(record, message);
+      return done(record);
+    } catch (IOException ex) {
+      throw encodingFailed(ex);
+    }
+  }
+
+  // PAIR
+  //
+  // For the interest records, which are only two ids.
+  static ByteBuffer pair(byte type, Uuid first, Uuid second) {
+    try {
+      final ByteBuffer record = allocate(
+          Uuid.SERIALIZER.maxSize(first) + Uuid.SERIALIZER.maxSize(second));
+      record.put(type);
+      Uuid.SERIALIZER.write(record, first);
+      Uuid.SERIALIZER.write(record, second);
+      return done(record);
+    } catch (IOException ex) {
+      throw encodingFailed(ex);
+    }
+  }
+
+  // TOGGLE
+  //
+  // For the access control records. TOGGLE_REMOVED has no flag since the
+  // removed bit can only be set.
+  static ByteBuffer toggle(byte type, Uuid conversation, Uuid user, boolean flag) {
+    try {
+      final ByteBuffer record = allocate(
+          Uuid.SERIALIZER.maxSize(conversation) + Uuid.SERIALIZER.maxSize(user) + 1);
+      record.put(type);
+      Uuid.SERIALIZER.write(record, conversation);
+      Uuid.SERIALIZER.write(record, user);
+      if (type != TOGGLE_REMOVED) {
+        Serializers.BOOLEAN.write(record, flag);
+      }
+      return done(record);
+    } catch (IOException ex) {
+      throw encodingFailed(ex);
+    }
+  }
+
+  static ByteBuffer updateUnseen(Uuid user, Uuid conversation, int count) {
+    try {
+      final ByteBuffer record = allocate(
+          Uuid.SERIALIZER.maxSize(user) + Uuid.SERIALIZER.maxSize(conversation) + Serializers.INTEGER.maxSize(count));
+      record.put(UPDATE_UNSEEN);
+      Uuid.SERIALIZER.write(record, user);
+      Uuid.SERIALIZER.write(record, conversation);
+      Serializers.INTEGER.write(record, count);
+      return done(record);
+    } catch (IOException ex) {
+      throw encodingFailed(ex);
+    }
+  }
+
+  static ByteBuffer updateStatus(Uuid user, Time time) {
+    try {
+      final ByteBuffer record = allocate(Uuid.SERIALIZER.maxSize(user) + Time.SERIALIZER.maxSize(time));
+      record.put(UPDATE_STATUS);
+      Uuid.SERIALIZER.write(record, user);
+      Time.SERIALIZER.write(record, time);
+      return done(record);
+    } catch (IOException ex) {
+      throw encodingFailed(ex);
+    }
+  }
+
+  static ByteBuffer addUpdatedConversation(Uuid user, Uuid conversation, Time time) {
+    try {
+      final ByteBuffer record = allocate(
+          Uuid.SERIALIZER.maxSize(user) + Uuid.SERIALIZER.maxSize(conversation) + Time.SERIALIZER.maxSize(time));
+      record.put(ADD_UPDATED_CONVERSATION);
+      Uuid.SERIALIZER.write(record, user);
+      Uuid.SERIALIZER.write(record, conversation);
+      Time.SERIALIZER.write(record, time);
+      return done(record);
+    } catch (IOException ex) {
+      throw encodingFailed(ex);
+    }
+  }
+
+  // APPLY
+  //
+  // Make the change that "record" describes through "controller". This is
+  // how the model is rebuilt from the log, so the controller should not be
+  // logging at the time or every record would be written a second time.
+  static void apply(ByteBuffer record, Controller controller) throws IOException {
+
+    final byte type = record.get();
+
+    switch (type) {
+
+      case ADD_USER: {
+        final User user = User.SERIALIZER.read(record);
+        controller.newUser(user.id, user.name, user.creation);
+        break;
+      }
+
+      case ADD_CONVERSATION: {
+        final ConversationHeader conversation = ConversationHeader.SERIALIZER.read(record);
+        controller.newConversation(conversation.id, conversation.title, conversation.owner, conversation.creation);
+        break;
+      }
+
+      case ADD_MESSAGE: {
+        final Uuid conversation = Uuid.SERIALIZER.read(record);
+        final Message message = Message.SERIALIZER.read(record);
+        controller.newMessage(message.id, message.author, conversation, message.content, message.creation);
+        break;
+      }
+
+      case ADD_INTEREST_USER:
+        controller.newUserInterest(Uuid.SERIALIZER.read(record), Uuid.SERIALIZER.read(record));
+        break;
+
+      case REMOVE_INTEREST_USER:
+        controller.removeUserInterest(Uuid.SERIALIZER.read(record), Uuid.SERIALIZER.read(record));
+        break;
+
+      case ADD_INTEREST_CONVO:
+        controller.newConversationInterest(Uuid.SERIALIZER.read(record), Uuid.SERIALIZER.read(record));
+        break;
+
+      case REMOVE_INTEREST_CONVO:
+        controller.removeConversationInterest(Uuid.SERIALIZER.read(record), Uuid.SERIALIZER.read(record));
+        break;
+
+      case TOGGLE_CREATOR:
+        controller.toggleCreatorBit(
+            Uuid.SERIALIZER.read(record), Uuid.SERIALIZER.read(record), Serializers.BOOLEAN.read(record));
+        break;
+
+      case TOGGLE_OWNER:
+        controller.toggleOwnerBit(
+            Uuid.SERIALIZER.read(record), Uuid.SERIALIZER.read(record), Serializers.BOOLEAN.read(record));
+        break;
+
+      case TOGGLE_MEMBER:
+        controller.toggleMemberBit(
+            Uuid.SERIALIZER.read(record), Uuid.SERIALIZER.read(record), Serializers.BOOLEAN.read(record));
+        break;
+
+      case TOGGLE_REMOVED:
+        controller.toggleRemovedBit(Uuid.SERIALIZER.read(record), Uuid.SERIALIZER.read(record));
+        break;
+
+      case UPDATE_UNSEEN:
+        controller.updateUsersUnseenMessagesCount(
+            Uuid.SERIALIZER.read(record), Uuid.SERIALIZER.read(record), Serializers.INTEGER.read(record));
+        break;
+
+      case UPDATE_STATUS:
+        controller.updateUsersLastStatusUpdate(Uuid.SERIALIZER.read(record), Time.SERIALIZER.read(record));
+        break;
+
+      case ADD_UPDATED_CONVERSATION:
+        controller.newUpdatedConversation(
+            Uuid.SERIALIZER.read(record), Uuid.SERIALIZER.read(record), Time.SERIALIZER.read(record));
+        break;
+
+      default:
+        throw new IOException(String.format("Unknown log record type %d", type));
+    }
+  }
+
+  // Room for the type and the fields.
+  private static ByteBuffer allocate(int fields) {
+    return ByteBuffer.allocate(1 + fields);
+  }
+
+  private static ByteBuffer done(ByteBuffer record) {
+    record.flip();
+    return record;
+  }
+
+  // The records are written to heap buffers that are always big enough, so
+  // the serializers have no reason to fail.
+  private static IllegalStateException encodingFailed(IOException ex) {
+    return new IllegalStateException("Failed to encode log record", ex);
+  }
+}
@@ -0,0 +1,377 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import codeu.chat.common.ConversationPayload;
+import codeu.chat.common.Message;
+import codeu.chat.util.Logger;
+import codeu.chat.util.Uuid;
+
+// LOG REPLAY
+//
+// Applies the records of one or more logs (see WriteAheadLog and LogRecords)
+// to a model, using more than one thread for the bulk of them. Hand it to
+// WriteAheadLog.read as the reader for each log in order, then call "finish".
+//
+// Records are replayed in batches of up to BATCH_RECORDS held-back records,
+// so however long the logs are, only one batch is waiting at a time. The
+// records held back are the reader's views of the mapped log rather than
+// copies, so a waiting record costs little more than its place in a list.
+// Each batch is replayed in passes:
+//
+//   1. Users and conversations are applied as they are read, on the reading
+//      thread. Everything else refers to them, so they must all be in place
+//      before anything else is applied.
+//   2. Messages and access control changes only touch the conversation they
+//      belong to, so they are split up by conversation and each conversation
+//      is replayed as one task on a fork/join pool. Within a conversation the
+//      records are still applied in the order they were logged. Messages are
+//      added to the model but not linked to each other yet.
+//   3. Each conversation's new messages are linked to each other, and to the
+//      conversation, in the order they were logged. This is also done on the
+//      pool, one task per conversation.
+//
+// The remaining records (interests, unseen counts and status updates) change
+// users and the conversations' unseen counts, which nothing in passes two and
+// three touches. They are applied in the order they were logged on the
+// calling thread while the pool works on pass two.
+//
+// Only changes that succeeded are logged, so every record applied here
+// succeeded once against the same model. Passes can change the order that
+// records of different kinds are applied in but not their outcome.
+//
+// The model's id indexes take each id once (see HashStore). Users and
+// conversations go through the controller, which skips an id that is in use
+// as it does when the change is first made. Messages are added on the pool,
+// where two conversations could each find an id free at the same time, so an
+// id is claimed in "claimed" before its message is added and a message whose
+// id was claimed already is skipped like any other that cannot be added.
+//
+// A batch is finished before the next record is read, so records in
+// different batches are applied in the order they were logged.
+//
+// Every change that can be seen from outside the model's stores is made
+// while holding "lock", one record (or one conversation's links) at a time,
+// so the model can be read under the other side of it while replay goes
+// on. Messages are added to the stores without it. A reader may find one by
+// id, time or text before it is linked, but its conversation does not lead
+// to it until then.
+//
+// The class is public only for "replay", which lets the benchmarks time the
+// server's replay without reaching into the package.
+public final class LogReplay implements WriteAheadLog.Reader {
+
+  private final static Logger.Log LOG = Logger.newLog(LogReplay.class);
+
+  // How many records are held back before the batch is replayed.
+  private static final int BATCH_RECORDS = 100000;
+
+  private final int batchRecords;
+
+  // The records of one conversation that are replayed on the pool, and the
+  // messages that pass two added for it, in the order they were logged.
+  private static final class Partition {
+
+    final Uuid conversation;
+    final List<ByteBuffer> records = new ArrayList<>();
+    final List<Message> messages = new ArrayList<>();
+
+    Partition(Uuid conversation) {
+      this.conversation = conversation;
+    }
+  }
+
+  private final Model model;
+  private final Controller controller;
+  private final int threads;
+  private final Lock lock;
+
+  private final Map<Uuid, Partition> partitions = new HashMap<>();
+  private final List<ByteBuffer> others = new ArrayList<>();
+
+  private final Set<Uuid> claimed = ConcurrentHashMap.newKeySet();
+
+  private final AtomicLong skipped = new AtomicLong();
+  private long records = 0;
+  private int held = 0;
+
+  LogReplay(Model model, Controller controller, int threads, Lock lock) {
+    this(model, controller, threads, lock, BATCH_RECORDS);
+  }
+
+  // Only tests need a batch size of their own.
+  LogReplay(Model model, Controller controller, int threads, Lock lock, int batchRecords) {
+    this.model = model;
+    this.controller = controller;
+    this.threads = threads;
+    this.lock = lock;
+    this.batchRecords = batchRecords;
+  }
+
+  // REPLAY
+  //
+  // Replay a single log into a model that nothing else is using, as the
+  // server does at start up when there is no snapshot. Returns the number of
+  // records replayed.
+  public static long replay(File log, Model model, int threads) throws IOException {
+    final LogReplay replay = new LogReplay(model, new Controller(Uuid.NULL, model), threads, new ReentrantLock());
+    WriteAheadLog.read(log, replay);
+    replay.finish();
+    return replay.records();
+  }
+
+  @Override
+  public void onRecord(ByteBuffer record) throws IOException {
+
+    records += 1;
+
+    switch (record.get(record.position())) {
+
+      case LogRecords.ADD_USER:
+      case LogRecords.ADD_CONVERSATION:
+        apply(record);
+        break;
+
+      case LogRecords.ADD_MESSAGE:
+      case LogRecords.TOGGLE_CREATOR:
+      case LogRecords.TOGGLE_OWNER:
+      case LogRecords.TOGGLE_MEMBER:
+      case LogRecords.TOGGLE_REMOVED: {
+        // Each of these starts with the conversation's id.
+        final ByteBuffer fields = record.duplicate();
+        fields.get();
+        final Uuid conversation = Uuid.SERIALIZER.read(fields);
+
+        Partition partition = partitions.get(conversation);
+        if (partition == null) {
+          partition = new Partition(conversation);
+          partitions.put(conversation, partition);
+        }
+        partition.records.add(record);
+        held += 1;
+        break;
+      }
+
+      default:
+        others.add(record);
+        held += 1;
+        break;
+    }
+
+    if (held >= batchRecords) {
+      replayBatch();
+    }
+  }
+
+  // The number of records read so far.
+  long records() {
+    return records;
+  }
+
+  // FINISH
+  //
+  // Apply everything that was held back while reading. Returns once the
+  // model holds every record that was read.
+  void finish() throws IOException {
+
+    replayBatch();
+
+    if (skipped.get() > 0) {
+      LOG.warning("Skipped %d logged messages that could not be added.", skipped.get());
+    }
+
+  }
+
+  // Passes two and three, and the remaining records, for the records held
+  // back since the last batch.
+  private void replayBatch() throws IOException {
+
+    if (held == 0) {
+      return;
+    }
+
+    final ForkJoinPool pool = new ForkJoinPool(threads);
+
+    try {
+      final List<ForkJoinTask<?>> replaying = new ArrayList<>(partitions.size());
+      for (final Partition partition : partitions.values()) {
+        replaying.add(pool.submit(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              replay(partition);
+            } catch (IOException ex) {
+              throw new UncheckedIOException(ex);
+            }
+          }
+        }));
+      }
+
+      for (final ByteBuffer record : others) {
+        apply(record);
+      }
+
+      join(replaying);
+
+      final List<ForkJoinTask<?>> stitching = new ArrayList<>(partitions.size());
+      for (final Partition partition : partitions.values()) {
+        stitching.add(pool.submit(new Runnable() {
+          @Override
+          public void run() {
+            stitch(partition);
+          }
+        }));
+      }
+
+      join(stitching);
+
+    } finally {
+      pool.shutdown();
+    }
+
+    // Messages from this batch are in the model now, where "isIdInUse"
+    // finds them.
+    partitions.clear();
+    others.clear();
+    claimed.clear();
+    held = 0;
+  }
+
+  // Pass two for one conversation. Messages are made the same way as
+  // Controller.newMessage makes them, with the message logged before them
+  // in this conversation as their previous message, but their "next" and
+  // the conversation's first and last message are left for "stitch".
+  private void replay(Partition partition) throws IOException {
+
+    final ConversationPayload payload = model.conversationPayloadById().first(partition.conversation);
+
+    Uuid previous = payload == null ? Uuid.NULL : payload.lastMessage;
+
+    for (final ByteBuffer record : partition.records) {
+
+      if (record.get(record.position()) != LogRecords.ADD_MESSAGE) {
+        apply(record);
+        continue;
+      }
+
+      record.get();
+      Uuid.SERIALIZER.read(record);
+      final Message logged = Message.SERIALIZER.read(record);
+
+      if (payload == null ||
+          model.userById().first(logged.author) == null ||
+          isIdInUse(logged.id) ||
+          !claimed.add(logged.id)) {
+        skipped.incrementAndGet();
+        continue;
+      }
+
+      final Message message =
+          new Message(logged.id, Uuid.NULL, previous, logged.creation, logged.author, logged.content);
+      model.add(partition.conversation, message);
+
+      partition.messages.add(message);
+      previous = message.id;
+    }
+
+    partition.records.clear();
+  }
+
+  // Pass three for one conversation. Links the messages added by "replay"
+  // after whatever the conversation already held.
+  private void stitch(Partition partition) {
+
+    final List<Message> messages = partition.messages;
+
+    if (messages.isEmpty()) {
+      return;
+    }
+
+    final Message first = messages.get(0);
+    final Message last = messages.get(messages.size() - 1);
+
+    // Nothing leads to the new messages from their conversation until the
+    // payload is changed, so they can be linked to each other before that.
+    for (int i = 1; i < messages.size(); i++) {
+      messages.get(i - 1).next = messages.get(i).id;
+    }
+
+    lock.lock();
+    try {
+      final ConversationPayload payload = model.conversationPayloadById().first(partition.conversation);
+
+      if (!Uuid.equals(payload.lastMessage, Uuid.NULL)) {
+        model.messageById().first(payload.lastMessage).next = first.id;
+      }
+
+      if (Uuid.equals(payload.firstMessage, Uuid.NULL)) {
+        payload.firstMessage = first.id;
+      }
+      payload.lastMessage = last.id;
+    } finally {
+      lock.unlock();
+    }
+
+    messages.clear();
+  }
+
+  private void apply(ByteBuffer record) throws IOException {
+    lock.lock();
+    try {
+      LogRecords.apply(record, controller);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private boolean isIdInUse(Uuid id) {
+    return model.messageById().first(id) != null ||
+           model.conversationById().first(id) != null ||
+           model.userById().first(id) != null;
+  }
+
+  private static void join(List<ForkJoinTask<?>> tasks) throws IOException {
+    for (final ForkJoinTask<?> task : tasks) {
+      try {
+        task.get();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while replaying the log", ex);
+      } catch (ExecutionException ex) {
+        if (ex.getCause() instanceof UncheckedIOException) {
+          throw ((UncheckedIOException) ex.getCause()).getCause();
+        }
+        throw new IOException("Failed to replay the log", ex.getCause());
+      }
+    }
+  }
+}
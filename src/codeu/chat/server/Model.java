@@ -22,9 +22,18 @@ import codeu.chat.common.Message;
 import codeu.chat.common.User;
 import codeu.chat.util.Time;
 import codeu.chat.util.Uuid;
-import codeu.chat.util.store.Store;
+import codeu.chat.util.store.ConcurrentStore;
+import codeu.chat.util.store.HashStore;
 import codeu.chat.util.store.StoreAccessor;
 
+// MODEL
+//
+// Indexes by id are HashStores, as ids are unique and nearly every look-up is
+// by exact id. Those that the views list in full ("all") also keep their ids
+// in order. The other indexes are ConcurrentStores. Either way, lookups are
+// safe while another thread is adding. An "add" puts its entity into each
+// index in turn, so a reader that must see an entity in all of its indexes
+// at once still needs the server's model lock.
 public final class Model {
 
   private static final Comparator<Uuid> UUID_COMPARE = new Comparator<Uuid>() {
@@ -52,27 +61,34 @@ public final class Model {
 
   private static final Comparator<String> STRING_COMPARE = String.CASE_INSENSITIVE_ORDER;
 
-  private final Store<Uuid, User> userById = new Store<>(UUID_COMPARE);
-  private final Store<Time, User> userByTime = new Store<>(TIME_COMPARE);
-  private final Store<String, User> userByText = new Store<>(STRING_COMPARE);
+  private final HashStore<Uuid, User> userById = new HashStore<>(UUID_COMPARE);
+  private final ConcurrentStore<Time, User> userByTime = new ConcurrentStore<>(TIME_COMPARE);
+  private final ConcurrentStore<String, User> userByText = new ConcurrentStore<>(STRING_COMPARE);
 
-  private final Store<Uuid, Collection<Uuid>> userByConversationInterest = new Store<>(UUID_COMPARE);
-  private final Store<Uuid, Collection<Uuid>> userByUserInterest = new Store<>(UUID_COMPARE);
-  private final Store<Uuid, Map<Uuid, Time>> userByUpdatedConversations = new Store<>(UUID_COMPARE);
-  private final Store<Uuid, Time> userByStatusUpdate = new Store<>(UUID_COMPARE);
+  private final HashStore<Uuid, Collection<Uuid>> userByConversationInterest = new HashStore<>();
+  private final HashStore<Uuid, Collection<Uuid>> userByUserInterest = new HashStore<>();
+  private final HashStore<Uuid, Map<Uuid, Time>> userByUpdatedConversations = new HashStore<>();
+  private final HashStore<Uuid, Time> userByStatusUpdate = new HashStore<>();
 
-  private final Store<Uuid, ConversationHeader> conversationById = new Store<>(UUID_COMPARE);
-  private final Store<Time, ConversationHeader> conversationByTime = new Store<>(TIME_COMPARE);
-  private final Store<String, ConversationHeader> conversationByText = new Store<>(STRING_COMPARE);
+  private final HashStore<Uuid, ConversationHeader> conversationById =
+      new HashStore<>(UUID_COMPARE);
+  private final ConcurrentStore<Time, ConversationHeader> conversationByTime =
+      new ConcurrentStore<>(TIME_COMPARE);
+  private final ConcurrentStore<String, ConversationHeader> conversationByText =
+      new ConcurrentStore<>(STRING_COMPARE);
 
-  private final Store<Uuid, HashMap<Uuid, Integer>> conversationByUnseenMessages = new Store<>(UUID_COMPARE);
-  private final Store<Uuid, HashMap<Uuid, Integer>> conversationByAccessControl = new Store<>(UUID_COMPARE);
+  private final HashStore<Uuid, HashMap<Uuid, Integer>> conversationByUnseenMessages =
+      new HashStore<>();
+  private final HashStore<Uuid, HashMap<Uuid, Integer>> conversationByAccessControl =
+      new HashStore<>();
 
-  private final Store<Uuid, ConversationPayload> conversationPayloadById = new Store<>(UUID_COMPARE);
+  private final HashStore<Uuid, ConversationPayload> conversationPayloadById = new HashStore<>();
 
-  private final Store<Uuid, Message> messageById = new Store<>(UUID_COMPARE);
-  private final Store<Time, Message> messageByTime = new Store<>(TIME_COMPARE);
-  private final Store<String, Message> messageByText = new Store<>(STRING_COMPARE);
+  private final HashStore<Uuid, Message> messageById = new HashStore<>();
+  private final ConcurrentStore<Time, Message> messageByTime = new ConcurrentStore<>(TIME_COMPARE);
+  private final ConcurrentStore<String, Message> messageByText =
+      new ConcurrentStore<>(STRING_COMPARE);
+  private final HashStore<Uuid, Uuid> conversationByMessage = new HashStore<>();
 
   public void add(User user) {
     userById.insert(user.id, user);
@@ -97,13 +113,21 @@ public final class Model {
     return userByText;
   }
 
-  public StoreAccessor<Uuid, Collection<Uuid>> userByConversationInterest() { return userByConversationInterest; }
+  public StoreAccessor<Uuid, Collection<Uuid>> userByConversationInterest() {
+    return userByConversationInterest;
+  }
 
-  public StoreAccessor<Uuid, Collection<Uuid>> userbyUserInterest() { return userByUserInterest; }
+  public StoreAccessor<Uuid, Collection<Uuid>> userbyUserInterest() {
+    return userByUserInterest;
+  }
 
-  public StoreAccessor<Uuid, Map<Uuid, Time>> userByUpdatedConversations() { return userByUpdatedConversations; }
+  public StoreAccessor<Uuid, Map<Uuid, Time>> userByUpdatedConversations() {
+    return userByUpdatedConversations;
+  }
 
-  public StoreAccessor<Uuid, Time> userByStatusUpdate() { return userByStatusUpdate; }
+  public StoreAccessor<Uuid, Time> userByStatusUpdate() {
+    return userByStatusUpdate;
+  }
 
   public void add(ConversationHeader conversation) {
     conversationById.insert(conversation.id, conversation);
@@ -132,14 +156,19 @@ public final class Model {
     return conversationPayloadById;
   }
 
-  public StoreAccessor<Uuid, HashMap<Uuid, Integer>> conversationByUnseenMessages() { return conversationByUnseenMessages; }
+  public StoreAccessor<Uuid, HashMap<Uuid, Integer>> conversationByUnseenMessages() {
+    return conversationByUnseenMessages;
+  }
 
-  public StoreAccessor<Uuid, HashMap<Uuid, Integer>> conversationByAccessControl() { return conversationByAccessControl; }
+  public StoreAccessor<Uuid, HashMap<Uuid, Integer>> conversationByAccessControl() {
+    return conversationByAccessControl;
+  }
 
-  public void add(Message message) {
+  public void add(Uuid conversation, Message message) {
     messageById.insert(message.id, message);
     messageByTime.insert(message.creation, message);
     messageByText.insert(message.content, message);
+    conversationByMessage.insert(message.id, conversation);
   }
 
   public StoreAccessor<Uuid, Message> messageById() {
@@ -153,4 +182,9 @@ public final class Model {
   public StoreAccessor<String, Message> messageByText() {
     return messageByText;
   }
+
+  // The id of the conversation that each message is in.
+  public StoreAccessor<Uuid, Uuid> conversationByMessage() {
+    return conversationByMessage;
+  }
 }
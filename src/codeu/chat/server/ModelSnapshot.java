@@ -0,0 +1,321 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.ConversationPayload;
+import codeu.chat.common.Message;
+import codeu.chat.common.User;
+import codeu.chat.util.Serializer;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+// MODEL SNAPSHOT
+//
+// The whole model as it was at one moment, so that a restarting server can
+// load it instead of replaying every change ever made.
+//
+// Taking a snapshot has two steps so that the model is only held still for
+// a short time:
+//
+//   capture : Copies the parts of the model that can change in place (the
+//             interests and access controls kept in maps, the first and last
+//             message of each conversation). The caller must keep the model
+//             from changing while this runs, but readers can carry on.
+//   write   : Writes the capture, along with every message up to the last
+//             one captured for each conversation, to a file. Everything it
+//             reads is either copied or never changes again, so it needs no
+//             lock and the model can change while it runs.
+//
+// Messages are the bulk of the model and only the cheap step looks at more
+// than their number, so the model is held for time in proportion to the
+// number of users and conversations rather than messages.
+//
+// The file holds MAGIC and VERSION, then each user and each conversation
+// (with its messages in order), then the CRC-32 of everything before it.
+// It is written under a temporary name and renamed once it is safely on the
+// disk, so a snapshot that has its real name is complete.
+final class ModelSnapshot {
+
+  static final int MAGIC = 0x43534E50;  // "CSNP"
+  static final int VERSION = 1;
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private static final Serializer<Collection<Uuid>> UUIDS = Serializers.collection(Uuid.SERIALIZER);
+  private static final Serializer<Map<Uuid, Time>> TIMES = Serializers.map(Uuid.SERIALIZER, Time.SERIALIZER);
+  private static final Serializer<Map<Uuid, Integer>> COUNTS = Serializers.map(Uuid.SERIALIZER, Serializers.INTEGER);
+  private static final Serializer<Message> MESSAGES = Serializers.nullable(Message.SERIALIZER);
+
+  private static final class UserState {
+
+    final User user;
+    final Collection<Uuid> conversationInterests;
+    final Collection<Uuid> userInterests;
+    final Map<Uuid, Time> updatedConversations;
+    final Time lastStatusUpdate;
+
+    UserState(User user) {
+      this.user = user;
+      this.conversationInterests = new ArrayList<>(user.conversationInterests);
+      this.userInterests = new ArrayList<>(user.userInterests);
+      this.updatedConversations = new HashMap<>(user.updatedConversations);
+      this.lastStatusUpdate = user.lastStatusUpdate;
+    }
+  }
+
+  private static final class ConversationState {
+
+    final ConversationHeader conversation;
+    final Map<Uuid, Integer> accessControls;
+    final Map<Uuid, Integer> unseenMessages;
+    final Uuid firstMessage;
+    final Uuid lastMessage;
+
+    ConversationState(ConversationHeader conversation, ConversationPayload payload) {
+      this.conversation = conversation;
+      this.accessControls = new HashMap<>(conversation.accessControls);
+      this.unseenMessages = new HashMap<>(conversation.unseenMessages);
+      this.firstMessage = payload.firstMessage;
+      this.lastMessage = payload.lastMessage;
+    }
+  }
+
+  private final Model model;
+  private final List<UserState> users = new ArrayList<>();
+  private final List<ConversationState> conversations = new ArrayList<>();
+
+  private ModelSnapshot(Model model) {
+    this.model = model;
+  }
+
+  // CAPTURE
+  //
+  // Nothing may change the model while this runs.
+  static ModelSnapshot capture(Model model) {
+
+    final ModelSnapshot snapshot = new ModelSnapshot(model);
+
+    for (final User user : model.userById().all()) {
+      snapshot.users.add(new UserState(user));
+    }
+
+    for (final ConversationHeader conversation : model.conversationById().all()) {
+      snapshot.conversations.add(new ConversationState(
+          conversation,
+          model.conversationPayloadById().first(conversation.id)));
+    }
+
+    return snapshot;
+  }
+
+  // WRITE
+  //
+  // Write the snapshot to "file". The model may change while this runs.
+  void write(File file) throws IOException {
+
+    final File partial = new File(file.getPath() + ".partial");
+
+    try (final FileOutputStream raw = new FileOutputStream(partial)) {
+
+      // The checksum is taken as the buffer empties, so that it is worked out
+      // a block at a time rather than a value at a time.
+      final CheckedOutputStream checked = new CheckedOutputStream(raw, new CRC32());
+      final OutputStream out = new BufferedOutputStream(checked, BUFFER_SIZE);
+
+      write(out);
+      out.flush();
+
+      Serializers.INTEGER.write(raw, (int) checked.getChecksum().getValue());
+
+      raw.getFD().sync();
+    }
+
+    if (!partial.renameTo(file)) {
+      partial.delete();
+      throw new IOException("Failed to rename " + partial + " to " + file);
+    }
+  }
+
+  private void write(OutputStream out) throws IOException {
+
+    Serializers.INTEGER.write(out, MAGIC);
+    Serializers.INTEGER.write(out, VERSION);
+
+    Serializers.INTEGER.write(out, users.size());
+    for (final UserState state : users) {
+      User.SERIALIZER.write(out, state.user);
+      UUIDS.write(out, state.conversationInterests);
+      UUIDS.write(out, state.userInterests);
+      TIMES.write(out, state.updatedConversations);
+      Time.SERIALIZER.write(out, state.lastStatusUpdate);
+    }
+
+    Serializers.INTEGER.write(out, conversations.size());
+    for (final ConversationState state : conversations) {
+
+      ConversationHeader.SERIALIZER.write(out, state.conversation);
+      COUNTS.write(out, state.accessControls);
+      COUNTS.write(out, state.unseenMessages);
+
+      // Every "next" before the captured last message was set before the
+      // capture and will never change, so the chain can be followed without
+      // the lock. The last message's "next" may have been set since, which
+      // "read" undoes.
+      if (!Uuid.equals(state.firstMessage, Uuid.NULL)) {
+        Message message = model.messageById().first(state.firstMessage);
+        while (true) {
+          MESSAGES.write(out, message);
+          if (Uuid.equals(message.id, state.lastMessage)) {
+            break;
+          }
+          message = model.messageById().first(message.next);
+        }
+      }
+      MESSAGES.write(out, null);
+    }
+  }
+
+  // READ
+  //
+  // Load the snapshot in "file" into "model", which should be empty. Throws
+  // if the file is not a complete snapshot. Each user and conversation is
+  // added while holding "lock", so that whoever reads the model under the
+  // other side of it can do so while the snapshot loads.
+  static void read(File file, Model model, Lock lock) throws IOException {
+
+    check(file);
+
+    try (final InputStream in = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE)) {
+
+      if (Serializers.INTEGER.read(in) != MAGIC) {
+        throw new IOException(String.format("%s is not a snapshot", file));
+      }
+
+      final int version = Serializers.INTEGER.read(in);
+      if (version != VERSION) {
+        throw new IOException(String.format("%s is version %d, expected %d", file, version, VERSION));
+      }
+
+      read(in, model, lock);
+    }
+  }
+
+  // Make sure the file is whole before anything is loaded from it. Reading
+  // it twice is cheap next to loading a model that is only half there.
+  private static void check(File file) throws IOException {
+
+    try (final InputStream raw = new FileInputStream(file)) {
+
+      final long length = file.length() - 4;
+      if (length < 8) {
+        throw new IOException(String.format("%s is not a snapshot", file));
+      }
+
+      final CheckedInputStream checked = new CheckedInputStream(raw, new CRC32());
+      final byte[] block = new byte[BUFFER_SIZE];
+
+      for (long left = length; left > 0; ) {
+        final int read = checked.read(block, 0, (int) Math.min(block.length, left));
+        if (read < 0) {
+          throw new IOException(String.format("%s ended early", file));
+        }
+        left -= read;
+      }
+
+      if (Serializers.INTEGER.read(raw) != (int) checked.getChecksum().getValue()) {
+        throw new IOException(String.format("%s is damaged (checksum does not match)", file));
+      }
+    }
+  }
+
+  private static void read(InputStream in, Model model, Lock lock) throws IOException {
+
+    final int userCount = Serializers.INTEGER.read(in);
+    for (int i = 0; i < userCount; i++) {
+
+      final User user = User.SERIALIZER.read(in);
+      user.conversationInterests.addAll(UUIDS.read(in));
+      user.userInterests.addAll(UUIDS.read(in));
+      user.updatedConversations.putAll(TIMES.read(in));
+      user.lastStatusUpdate = Time.SERIALIZER.read(in);
+
+      lock.lock();
+      try {
+        model.add(user);
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    final int conversationCount = Serializers.INTEGER.read(in);
+    for (int i = 0; i < conversationCount; i++) {
+
+      final ConversationHeader conversation = ConversationHeader.SERIALIZER.read(in);
+      conversation.accessControls.putAll(COUNTS.read(in));
+      conversation.unseenMessages.putAll(COUNTS.read(in));
+
+      lock.lock();
+      try {
+        model.add(conversation);
+      } finally {
+        lock.unlock();
+      }
+
+      // The messages are added without the lock. The stores can be read
+      // while they are added to, so a reader may find one of them by id,
+      // time or text before this is done, but the conversation only leads
+      // to them once its first and last message are set under the lock.
+      Message first = null;
+      Message last = null;
+      for (Message message = MESSAGES.read(in); message != null; message = MESSAGES.read(in)) {
+        model.add(conversation.id, message);
+        first = first == null ? message : first;
+        last = message;
+      }
+
+      if (last != null) {
+        lock.lock();
+        try {
+          final ConversationPayload payload = model.conversationPayloadById().first(conversation.id);
+          last.next = Uuid.NULL;
+          payload.firstMessage = first.id;
+          payload.lastMessage = last.id;
+        } finally {
+          lock.unlock();
+        }
+      }
+    }
+  }
+}
@@ -19,23 +19,131 @@ import java.io.*;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import codeu.chat.client.core.Context;
 import codeu.chat.common.*;
 import codeu.chat.util.*;
 import codeu.chat.util.connections.Connection;
+import codeu.chat.util.connections.Pusher;
 
 public final class Server {
 
+  // COMMAND
+  //
+  // Handles one type of request. Requests that NetworkCode.isRead says only
+  // read from the model run in parallel on the reader pool while holding the
+  // read side of the model lock. Every other request is treated as a mutation
+  // and runs on the timeline while holding the write side of the model lock.
+  // Clients use the same list to decide which requests are safe to resend, so
+  // it is kept in one place.
   private interface Command {
     void onMessage(InputStream in, OutputStream out) throws IOException;
   }
 
+  // Mutations are all given this ordering key, so the timeline applies them
+  // one at a time in the order they arrived (see Timeline).
+  private static final Object MUTATIONS = new Object();
+
+  // Runs tasks on the calling thread.
+  private static final Executor DIRECT = new Executor() {
+    @Override
+    public void execute(Runnable task) {
+      task.run();
+    }
+  };
+
   private static final Logger.Log LOG = Logger.newLog(Server.class);
 
   private static final int RELAY_REFRESH_MS = 5000;  // 5 seconds
-
-  private final Timeline timeline = new Timeline();
+  private static final int LOAD_REPORT_MS = 60000;  // 1 minute
+
+  // The most mutations and reads that may be waiting to run at once. Once
+  // either queue is full, new requests of that kind are answered right away
+  // with SERVER_BUSY. Both can be changed with system properties, for example
+  // "-Dcodeu.chat.maxQueuedWrites=5000".
+  private static final int MAX_QUEUED_WRITES = Integer.getInteger("codeu.chat.maxQueuedWrites", 10000);
+  private static final int MAX_QUEUED_READS = Integer.getInteger("codeu.chat.maxQueuedReads", 10000);
+
+  // How the transaction log is committed (see WriteAheadLog.Sync), for example
+  // "-Dcodeu.chat.logSync=interval -Dcodeu.chat.logSyncMs=200".
+  private static final WriteAheadLog.Sync LOG_SYNC =
+      WriteAheadLog.Sync.valueOf(System.getProperty("codeu.chat.logSync", "batch").toUpperCase());
+  private static final long LOG_SYNC_MS = Long.getLong("codeu.chat.logSyncMs", 1000);
+
+  // How many changes are recorded between snapshots of the model, and how
+  // often to check. Can be changed with "-Dcodeu.chat.snapshotRecords".
+  private static final long SNAPSHOT_RECORDS = Long.getLong("codeu.chat.snapshotRecords", 100000);
+  private static final int SNAPSHOT_CHECK_MS = 10000;  // 10 seconds
+
+  // How many threads replay the logs when the server starts (see LogReplay).
+  // Can be changed with "-Dcodeu.chat.replayThreads".
+  private static final int REPLAY_THREADS =
+      Integer.getInteger("codeu.chat.replayThreads", Runtime.getRuntime().availableProcessors());
+
+  // Mutations are made here, one at a time. Each one is then handed to the
+  // committer to wait for the log, so the timeline goes straight on to the
+  // next and every mutation made during one log write is committed by the
+  // next. The committer answers the clients in the same order.
+  //
+  // There is one model lock rather than one per conversation or user, so
+  // mutations are made one at a time whatever they touch: many change more
+  // than one entity (interests also change conversations' unseen counts),
+  // readers walk the model's plain HashMaps and HashSets, and snapshots
+  // need the model between mutations.
+  private final Timeline timeline =
+      new Timeline(MAX_QUEUED_WRITES, Runtime.getRuntime().availableProcessors());
+
+  // Once MAX_QUEUED_WRITES mutations are waiting to be committed, the
+  // timeline waits for room rather than making more.
+  private final ThreadPoolExecutor committer = new ThreadPoolExecutor(
+      1,
+      1,
+      0L,
+      TimeUnit.MILLISECONDS,
+      new ArrayBlockingQueue<Runnable>(MAX_QUEUED_WRITES),
+      new RejectedExecutionHandler() {
+        @Override
+        public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+          try {
+            executor.getQueue().put(task);
+          } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            LOG.warning("Interrupted while waiting to commit, change not answered.");
+          }
+        }
+      });
+
+  private final ThreadPoolExecutor readers = new ThreadPoolExecutor(
+      Runtime.getRuntime().availableProcessors(),
+      Runtime.getRuntime().availableProcessors(),
+      0L,
+      TimeUnit.MILLISECONDS,
+      new ArrayBlockingQueue<Runnable>(MAX_QUEUED_READS));
+
+  private final AtomicLong rejectedReads = new AtomicLong();
+
+  // Guards the model. Readers share the read lock so they always see the model
+  // between mutations and never half way through one.
+  private final ReentrantReadWriteLock modelLock = new ReentrantReadWriteLock();
+
+  // Guards the model instead of "modelLock" while "recover" runs (see
+  // "readLock"). It is fair so that recovery, which takes the write lock many
+  // times in a row for a moment each time, lets the readers that queued up in
+  // the meantime in before it takes the lock again. An unfair write lock
+  // could be taken straight back every time and keep them out until it was
+  // done. Only recovery needs that, so the model lock stays unfair and
+  // cheaper for everything else.
+  private final ReentrantReadWriteLock recoveryLock = new ReentrantReadWriteLock(true);
 
   private final Map<Integer, Command> commands = new HashMap<>();
 
@@ -45,24 +153,168 @@ public final class Server {
   private final Model model = new Model();
   private final View view = new View(model);
   private final Controller controller;
+  private final Subscriptions subscriptions = new Subscriptions(model);
+
+  // PENDING EVENTS
+  //
+  // The controller tells its listener about new messages and conversations
+  // while the model is still locked, before the change is committed. The
+  // server's listener only queues them here, on the thread that is making the
+  // change, and "publish" hands them to the subscriptions once the change is
+  // committed. Events for a change that is never committed are dropped.
+  // Interests only change who the subscriptions send to, so they are passed
+  // on as they happen, while the model is locked.
+  private final ThreadLocal<List<Runnable>> pendingEvents = new ThreadLocal<List<Runnable>>() {
+    @Override
+    protected List<Runnable> initialValue() {
+      return new ArrayList<>();
+    }
+  };
+
+  private final Controller.Listener pending = new Controller.Listener() {
+    @Override
+    public void onNewMessage(final Uuid conversation, final Message message) {
+      pendingEvents.get().add(new Runnable() {
+        @Override
+        public void run() {
+          subscriptions.onNewMessage(conversation, message);
+        }
+      });
+    }
+
+    @Override
+    public void onNewConversation(final ConversationHeader conversation) {
+      pendingEvents.get().add(new Runnable() {
+        @Override
+        public void run() {
+          subscriptions.onNewConversation(conversation);
+        }
+      });
+    }
+
+    @Override
+    public void onConversationInterest(Uuid user, Uuid conversation, boolean interested) {
+      subscriptions.onConversationInterest(user, conversation, interested);
+    }
+
+    @Override
+    public void onUserInterest(Uuid user, Uuid followed, boolean interested) {
+      subscriptions.onUserInterest(user, followed, interested);
+    }
+  };
 
   private final Relay relay;
   private Uuid lastSeen = Uuid.NULL;
 
+  // Where every change to the model is recorded, or null if the server keeps
+  // nothing across runs. Set once, by "recover", before any change is let in.
+  private WriteAheadLog log;
+
+  // The files in the data directory, the generation that changes are being
+  // recorded in, and how many records had been appended when that generation
+  // began (see LogFiles). Only used by "recover" and then "snapshot".
+  private File directory;
+  private LogFiles files;
+  private long generation;
+  private long appendedAtSnapshot;
+
+  private final AtomicBoolean snapshotting = new AtomicBoolean(false);
+
+  // True from when a server that keeps its model in a directory is made until
+  // "recover" has loaded it. Until then, requests that would change the model
+  // are answered with RECOVERING, and the relay is not read.
+  private volatile boolean recovering = false;
+
+  // Create a server that keeps its model in "directory". Nothing is loaded
+  // until "recover" is called. Requests can be handled in the meantime, but
+  // reads only see what has been loaded so far and changes are turned away.
+  public Server(final Uuid id, final Secret secret, final Relay relay, final File directory) {
+
+    this(id, secret, relay);
+
+    this.directory = directory;
+    this.files = new LogFiles(directory);
+    this.recovering = true;
+  }
+
+  // RECOVER
+  //
+  // Load the newest snapshot and replay the logs after it, then record every
+  // change in the newest log and take a snapshot every SNAPSHOT_RECORDS
+  // changes. This can take a while, and requests can be handled while it
+  // runs: the recovery lock is only held for one step of loading at a time
+  // (see ModelSnapshot.read and LogReplay) so reads carry on between them.
+  public void recover() throws IOException {
+
+    final Lock step = recoveryLock.writeLock();
+
+    convertTextLog(directory);
+
+    final long start = System.nanoTime();
+
+    long from = 0;
+    final List<Long> snapshots = files.snapshots();
+    if (!snapshots.isEmpty()) {
+      from = snapshots.get(snapshots.size() - 1);
+      ModelSnapshot.read(files.snapshot(from), model, step);
+      LOG.info("Loaded %s in %d ms", files.snapshot(from), (System.nanoTime() - start) / 1000000);
+    }
+
+    // Replay does not use the server's controller so that subscribers are
+    // not told about old changes as if they were new.
+    final LogReplay replay = new LogReplay(model, new Controller(id, model), REPLAY_THREADS, step);
+    generation = from;
+
+    for (final long logged : files.logs()) {
+      if (logged >= from) {
+        WriteAheadLog.read(files.log(logged), replay);
+        generation = logged;
+      }
+    }
+
+    replay.finish();
+
+    final long records = replay.records();
+    LOG.info("Replayed %d records since generation %d in %d ms", records, from, (System.nanoTime() - start) / 1000000);
+
+    // Readers waiting for the recovery lock find that recovery is over once
+    // they get it, and move on to the model lock.
+    recoveryLock.writeLock().lock();
+    modelLock.writeLock().lock();
+    try {
+      this.log = new WriteAheadLog(files.log(generation), LOG_SYNC, LOG_SYNC_MS);
+      this.controller.setLog(log);
+
+      // The records just replayed count towards the next snapshot.
+      this.appendedAtSnapshot = -records;
+
+      this.recovering = false;
+    } finally {
+      modelLock.writeLock().unlock();
+      recoveryLock.writeLock().unlock();
+    }
+
+    LOG.info("Recording changes in %s (sync=%s)", files.log(generation), LOG_SYNC);
+
+    this.timeline.scheduleEvery(SNAPSHOT_CHECK_MS, new Runnable() {
+      @Override
+      public void run() {
+        if (log.appended() - appendedAtSnapshot >= SNAPSHOT_RECORDS) {
+          snapshot();
+        }
+      }
+    });
+  }
+
+  // Create a server that keeps nothing across runs.
   public Server(final Uuid id, final Secret secret, final Relay relay) {
 
     this.id = id;
     this.secret = secret;
     this.controller = new Controller(id, model);
+    this.controller.setListener(pending);
     this.relay = relay;
 
-    // Whenever a new Server starts up, reload the data from the log
-    try {
-      reloadOldData();
-    } catch (Exception e){
-      System.out.println("Could not load transaction log.");
-    }
-
     // New Message - A client wants to add a new message to the back end.
     this.commands.put(NetworkCode.NEW_MESSAGE_REQUEST, new Command() {
       @Override
@@ -164,14 +416,43 @@ public final class Server {
       }
     });
 
+    // Get Message Page - A client wants to read part of a conversation in one call
+    //                    rather than one message at a time.
+    this.commands.put(NetworkCode.GET_MESSAGE_PAGE_REQUEST, new Command() {
+      @Override
+      public void onMessage(InputStream in, OutputStream out) throws IOException {
+
+        final Uuid conversation = Uuid.SERIALIZER.read(in);
+        final Uuid cursor = Uuid.SERIALIZER.read(in);
+        final boolean forward = Serializers.BOOLEAN.read(in);
+        final int limit = Serializers.INTEGER.read(in);
+
+        final Collection<Message> messages = view.getMessagePage(conversation, cursor, forward, limit);
+
+        Serializers.INTEGER.write(out, NetworkCode.GET_MESSAGE_PAGE_RESPONSE);
+        Serializers.collection(Message.SERIALIZER).write(out, messages);
+      }
+    });
+
     // Get Server Info - A client wants to see the current server version.
     this.commands.put(NetworkCode.SERVER_INFO_REQUEST, new Command() {
       @Override
       public void onMessage(InputStream in, OutputStream out) throws IOException {
 
         // Write out server info response
+        final ServerInfo info = view.getInfo();
         Serializers.INTEGER.write(out, NetworkCode.SERVER_INFO_RESPONSE);
-        Uuid.SERIALIZER.write(out, view.getInfo().version);
+        Uuid.SERIALIZER.write(out, info.version);
+        Time.SERIALIZER.write(out, info.startTime);
+      }
+    });
+
+    // Get Encodings - A client wants to know which encodings it may use.
+    this.commands.put(NetworkCode.GET_ENCODINGS_REQUEST, new Command() {
+      @Override
+      public void onMessage(InputStream in, OutputStream out) throws IOException {
+        Serializers.INTEGER.write(out, NetworkCode.GET_ENCODINGS_RESPONSE);
+        Serializers.INTEGER.write(out, NetworkCode.ENCODING_COMPACT);
       }
     });
 
@@ -403,11 +684,25 @@ public final class Server {
       public void run() {
         try {
 
-          LOG.verbose("Reading update from relay...");
+          // Nothing from the relay could be recorded until recovery is done,
+          // or once the log has failed.
+          if (!recovering && !failed()) {
+
+            LOG.verbose("Reading update from relay...");
 
-          for (final Relay.Bundle bundle : relay.read(id, secret, lastSeen, 32)) {
-            onBundle(bundle);
-            lastSeen = bundle.id();
+            pendingEvents.get().clear();
+
+            for (final Relay.Bundle bundle : relay.read(id, secret, lastSeen, 32)) {
+              modelLock.writeLock().lock();
+              try {
+                onBundle(bundle);
+              } finally {
+                modelLock.writeLock().unlock();
+              }
+              lastSeen = bundle.id();
+            }
+
+            publish(takeEvents(), commit(appended()));
           }
 
         } catch (Exception ex) {
@@ -419,153 +714,500 @@ public final class Server {
         timeline.scheduleIn(RELAY_REFRESH_MS, this);
       }
     });
-  }
 
-  private void reloadOldData() throws IOException {
-    // Open the transaction log file for reading
-    FileReader fileReader = new FileReader("data/transaction_log.txt");
-    BufferedReader bufferedReader = new BufferedReader(fileReader);
+    this.timeline.scheduleEvery(LOAD_REPORT_MS, new Runnable() {
+      @Override
+      public void run() {
+        LOG.info(
+            "Load (writes queued=%s peak=%s limit=%s rejected=%s) (reads queued=%s running=%s limit=%s rejected=%s)",
+            timeline.depth(),
+            timeline.peakDepth(),
+            timeline.capacity(),
+            timeline.rejected(),
+            readers.getQueue().size(),
+            readers.getActiveCount(),
+            MAX_QUEUED_READS,
+            rejectedReads.get());
+      }
+    });
+  }
 
-    // Read the header lines of each transaction log
-    String line;
+  // CLOSE
+  //
+  // Stop the server's threads and close the log. Requests that are still
+  // queued are dropped without an answer. Only used by tests.
+  void close() throws IOException {
+    timeline.stop();
+    timeline.join();
+    committer.shutdownNow();
+    readers.shutdownNow();
+    if (log != null) {
+      log.close();
+    }
+  }
 
-    while((line = bufferedReader.readLine()) != null) {
+  // SNAPSHOT
+  //
+  // Start the next generation and write a snapshot of the model as it was
+  // when the generation began (see ModelSnapshot). Holding the read lock
+  // keeps writers out for as long as the capture takes, while readers carry
+  // on as normal. The log is marked before the lock is let go and rotated at
+  // the mark afterwards, so the new generation starts with the first change
+  // made after the capture. The snapshot is written on its own thread, and
+  // once it is complete the earlier generations are deleted.
+  private void snapshot() {
+
+    if (!snapshotting.compareAndSet(false, true)) {
+      return;  // the last one is still being written
+    }
 
-      // Instantiate a Tokenizer to parse through log's data
-      Tokenizer logInfo = new Tokenizer(line);
+    final long began = System.nanoTime();
+    final ModelSnapshot snapshot;
+    final long cut;
 
-      // Three pieces of data applicable to all log elements: it's command type, Uuid, and Time in milliseconds
-      String commandType = logInfo.next();
-      Uuid commandUuid = Uuid.parse(logInfo.next());
+    modelLock.readLock().lock();
+    try {
+      snapshot = ModelSnapshot.capture(model);
+      cut = log.mark();
+    } finally {
+      modelLock.readLock().unlock();
+    }
 
-      // USER reload
-      if (commandType.equals("ADD-USER")) {
-        // For user-related commands 3rd element will be user's chosen name
-        String userName = logInfo.next();
-        Time commandCreation = Time.fromMs(Long.parseLong(logInfo.next()));
+    final long next = generation + 1;
+    generation = next;
+    log.rotate(files.log(next), cut);
+    appendedAtSnapshot = cut;
+    LOG.info("Captured model for generation %d in %d ms", next, (System.nanoTime() - began) / 1000000);
 
-        // Create a new user based on it's unique contents, as well as it's username without quotes
-        controller.newUser(commandUuid, userName, commandCreation);
+    final Thread writer = new Thread("model-snapshot") {
+      @Override
+      public void run() {
+        try {
+          final long start = System.nanoTime();
+          snapshot.write(files.snapshot(next));
+          files.deleteBefore(next);
+          LOG.info("Wrote %s in %d ms", files.snapshot(next), (System.nanoTime() - start) / 1000000);
+        } catch (Exception ex) {
+          LOG.error(ex, "Failed to write snapshot for generation %d.", next);
+        } finally {
+          snapshotting.set(false);
+        }
       }
+    };
+    writer.setDaemon(true);
+    writer.start();
+  }
 
-      // CONVERSATION reload
-      else if (commandType.equals("ADD-CONVERSATION")) {
-        // For convo/message commands 3rd element is creator's NUMERIC ID (UUID not name)
-        Uuid ownerUuid = Uuid.parse(logInfo.next());
+  // CONVERT TEXT LOG
+  //
+  // Servers from before the log was binary kept it as text. If that is all
+  // there is, convert it once. The text file is left where it is but is no
+  // longer used. The new log only takes its real name once it is complete,
+  // so a conversion that is cut short is started over next time.
+  private void convertTextLog(File directory) throws IOException {
 
-        // For convo commands 4th element is convo name, for message commands 4th element is message content
-        String convoTitle = logInfo.next();
-        Time commandCreation = Time.fromMs(Long.parseLong(logInfo.next()));
+    final File textLog = new File(directory, "transaction_log.txt");
 
-        controller.newConversation(commandUuid, convoTitle, ownerUuid, commandCreation);
-      }
+    if (!textLog.exists() || !files.logs().isEmpty() || !files.snapshots().isEmpty()) {
+      return;
+    }
 
-      // MESSAGE reload
-      else if (commandType.equals("ADD-MESSAGE")) {
-        // For convo/message commands 3rd element is creator's NUMERIC ID (UUID not name)
-        Uuid ownerUuid = Uuid.parse(logInfo.next());
-        Uuid convoUuid = Uuid.parse(logInfo.next());
+    final File converting = new File(directory, "transaction.log.converting");
+    LOG.info("Converting %s to %s...", textLog, files.log(0));
+    converting.delete();
+    TextLogConverter.convert(textLog, converting);
+    if (!converting.renameTo(files.log(0))) {
+      throw new IOException("Failed to rename " + converting + " to " + files.log(0));
+    }
+  }
 
-        // For convo commands 5th element is convo name, for message commands 4th element is message content
-        String messageContent = logInfo.next();
-        Time commandCreation = Time.fromMs(Long.parseLong(logInfo.next()));
+  // HANDLE CONNECTION
+  //
+  // The connection must already hold the full request in memory (as the ones
+  // from NioServerConnectionSource do) because the request type is read on the
+  // calling thread to decide where the command will run.
+  public void handleConnection(final Connection raw) {
 
-        controller.newMessage(commandUuid, ownerUuid, convoUuid, messageContent, commandCreation);
-      }
+    final int code;
 
-      // INTEREST SYSTEM
-      else if(commandType.equals("ADD-INTEREST-USER")){
-        Uuid follow = Uuid.parse(logInfo.next());
+    try {
+      code = Serializers.INTEGER.read(raw.in());
+    } catch (Exception ex) {
+      LOG.error(ex, "Exception while reading request type.");
+      close(raw);
+      return;
+    }
 
-        controller.newUserInterest(commandUuid, follow);
-      }
-      else if(commandType.equals("REMOVE-INTEREST-USER")){
-        Uuid follow = Uuid.parse(logInfo.next());
+    final int type = code & ~NetworkCode.COMPACT_ENCODING;
+    final Connection connection = withEncoding(raw, code);
 
-        controller.removeUserInterest(commandUuid, follow);
+    if (type == NetworkCode.SUBSCRIBE_REQUEST) {
+      final boolean accepted = read(new Runnable() {
+        @Override
+        public void run() {
+          subscribe(connection);
+        }
+      });
+      if (!accepted) {
+        rejectBusy(connection);
       }
-      else if(commandType.equals("ADD-INTEREST-CONVERSATION")){
-        Uuid follow = Uuid.parse(logInfo.next());
+      return;
+    }
 
-        controller.newConversationInterest(commandUuid, follow);
-      }
-      else if(commandType.equals("REMOVE-INTEREST-CONVERSATION")){
-        Uuid follow = Uuid.parse(logInfo.next());
+    final Command command = commands.get(type);
 
-        controller.removeConversationInterest(commandUuid, follow);
+    if (recovering && isMutation(type, command)) {
+      rejectRecovering(connection);
+      return;
+    }
+
+    final Runnable task = new Runnable() {
+      @Override
+      public void run() {
+        process(command, connection, code, committer);
       }
+    };
+
+    final boolean accepted = !isMutation(type, command) ?
+        read(task) :
+        timeline.offerNow(MUTATIONS, task) != null;
+
+    if (!accepted) {
+      rejectBusy(connection);
+    }
+  }
 
-      // ACCESS CONTROL
-      if(commandType.equals("ADD-CONVO-CREATOR")){
-        Uuid user = Uuid.parse(logInfo.next());
+  // SERVE CONNECTION
+  //
+  // Handle a request right away on the calling thread, rather than queueing it
+  // like "handleConnection" does. This is for callers that already give each
+  // client a thread of its own (see ThreadPerConnectionServer). Requests are
+  // never turned away as busy since each caller only waits on its own work.
+  public void serveConnection(Connection raw) {
 
-        controller.toggleCreatorBit(commandUuid, user, true);
+    final int code;
+
+    try {
+      code = Serializers.INTEGER.read(raw.in());
+    } catch (Exception ex) {
+      LOG.error(ex, "Exception while reading request type.");
+      close(raw);
+      return;
+    }
+
+    final int type = code & ~NetworkCode.COMPACT_ENCODING;
+    final Connection connection = withEncoding(raw, code);
+
+    final Command command = commands.get(type);
+
+    if (type == NetworkCode.SUBSCRIBE_REQUEST) {
+      subscribe(connection);
+    } else if (recovering && isMutation(type, command)) {
+      rejectRecovering(connection);
+    } else {
+      process(command, connection, code, DIRECT);
+    }
+  }
+
+  // Mutations are committed and answered on "committing", which closes the
+  // connection once it is done.
+  private void process(Command command, Connection connection, int code, Executor committing) {
+    try {
+
+      LOG.info("Handling connection...");
+
+      if (command == null) {
+        // The message type cannot be handled so return a dummy message.
+        Serializers.INTEGER.write(connection.out(), NetworkCode.NO_MESSAGE);
+        LOG.info("Connection rejected");
+      } else if (NetworkCode.isRead(code)) {
+        query(command, connection.in(), connection.out());
+        LOG.info("Connection accepted");
+      } else {
+        mutate(command, connection, code, committing);
+        return;
       }
-      else if(commandType.equals("ADD-CONVO-MEMBER")){
-        Uuid user = Uuid.parse(logInfo.next());
+    } catch (Exception ex) {
+
+      LOG.error(ex, "Exception while handling connection.");
+
+    }
+
+    close(connection);
+  }
+
+  private boolean read(Runnable task) {
+    try {
+      readers.execute(task);
+      return true;
+    } catch (RejectedExecutionException ex) {
+      rejectedReads.incrementAndGet();
+      return false;
+    }
+  }
+
+  // REJECT BUSY
+  //
+  // Answer a request that there is no room to queue. This is done on the
+  // calling thread and touches nothing but the connection, so an overloaded
+  // server can turn requests away as fast as they arrive.
+  private static void rejectBusy(Connection connection) {
+    try {
+      Serializers.INTEGER.write(connection.out(), NetworkCode.SERVER_BUSY);
+    } catch (Exception ex) {
+      LOG.error(ex, "Exception while rejecting request.");
+    }
+
+    LOG.warning("Server busy, request rejected.");
+    close(connection);
+  }
+
+  // REJECT RECOVERING
+  //
+  // Answer a change that cannot be made until recovery is done. Like
+  // "rejectBusy" this is done on the calling thread.
+  private static void rejectRecovering(Connection connection) {
+    try {
+      Serializers.INTEGER.write(connection.out(), NetworkCode.RECOVERING);
+    } catch (Exception ex) {
+      LOG.error(ex, "Exception while rejecting request.");
+    }
+
+    LOG.warning("Server recovering, request rejected.");
+    close(connection);
+  }
+
+  private static boolean isMutation(int type, Command command) {
+    return command != null && !NetworkCode.isRead(type);
+  }
+
+  // SUBSCRIBE
+  //
+  // Unlike the other requests, a subscription needs the connection itself so
+  // that events can be pushed to the client long after the response is sent.
+  // Subscribing as a user that does not exist (such as Uuid.NULL) ends the
+  // client's subscription.
+  private void subscribe(Connection connection) {
+    try {
 
-        controller.toggleMemberBit(commandUuid, user, true);
+      final Uuid user = Uuid.SERIALIZER.read(connection.in());
+      final Pusher pusher = connection.pusher();
+
+      boolean subscribed = false;
+
+      if (pusher == null) {
+        LOG.warning("Connection cannot carry events, ignoring subscription.");
+      } else {
+        final Lock lock = readLock();
+        try {
+          subscribed = subscriptions.subscribe(user, pusher);
+        } finally {
+          lock.unlock();
+        }
       }
-      else if(commandType.equals("REMOVE-CONVO-MEMBER")){
-        Uuid user = Uuid.parse(logInfo.next());
 
-        controller.toggleMemberBit(commandUuid, user, false);
+      LOG.info("Subscription for %s (subscribed=%s clients=%s)", user, subscribed, subscriptions.size());
+
+      Serializers.INTEGER.write(connection.out(), NetworkCode.SUBSCRIBE_RESPONSE);
+      Serializers.BOOLEAN.write(connection.out(), subscribed);
+
+    } catch (Exception ex) {
+
+      LOG.error(ex, "Exception while handling subscription.");
+
+    }
+
+    close(connection);
+  }
+
+  private void query(Command command, InputStream in, OutputStream out) throws IOException {
+    final Lock lock = readLock();
+    try {
+      command.onMessage(in, out);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  // READ LOCK
+  //
+  // Take and return the lock that readers need right now: the read side of
+  // the recovery lock while "recover" runs, and of the model lock after.
+  // Nothing but recovery changes the model until it is done.
+  private Lock readLock() {
+
+    if (recovering) {
+      final Lock lock = recoveryLock.readLock();
+      lock.lock();
+      if (recovering) {
+        return lock;
       }
-      else if(commandType.equals("REMOVE-CONVO-TOGGLE")){
-        Uuid user = Uuid.parse(logInfo.next());
+      lock.unlock();
+    }
 
-        controller.toggleRemovedBit(commandUuid, user);
+    final Lock lock = modelLock.readLock();
+    lock.lock();
+    return lock;
+  }
+
+  // MUTATE
+  //
+  // Make a change, then on "committing" wait for it to be committed to the
+  // log, hand its events to the subscriptions and answer the client. The
+  // response is held back until the change is committed, so a client never
+  // hears about a change that could still be lost.
+  //
+  // Once the log has failed no more changes are made, since none of them
+  // could be recorded, and the client is sent SERVER_ERROR.
+  private void mutate(Command command,
+                      final Connection connection,
+                      int code,
+                      Executor committing) throws IOException {
+
+    final ByteArrayOutputStream response = new ByteArrayOutputStream();
+    final long sequence;
+
+    pendingEvents.get().clear();
+
+    modelLock.writeLock().lock();
+    try {
+      if (failed()) {
+        sequence = -1;
+      } else {
+        command.onMessage(connection.in(), withEncoding(response, code));
+        sequence = appended();
       }
-      else if(commandType.equals("ADD-CONVO-OWNER")){
-        Uuid user = Uuid.parse(logInfo.next());
+    } finally {
+      modelLock.writeLock().unlock();
+    }
+
+    final List<Runnable> events = takeEvents();
 
-        controller.toggleOwnerBit(commandUuid, user, true);
+    committing.execute(new Runnable() {
+      @Override
+      public void run() {
+        final boolean committed = sequence >= 0 && commit(sequence);
+        publish(events, committed);
+        try {
+          if (committed) {
+            response.writeTo(connection.out());
+            LOG.info("Connection accepted");
+          } else {
+            Serializers.INTEGER.write(connection.out(), NetworkCode.SERVER_ERROR);
+            LOG.warning("Change not recorded, request rejected.");
+          }
+        } catch (Exception ex) {
+          LOG.error(ex, "Exception while handling connection.");
+        }
+        close(connection);
       }
-      else if(commandType.equals("REMOVE-CONVO-OWNER")){
-        Uuid user = Uuid.parse(logInfo.next());
+    });
+  }
 
-        controller.toggleOwnerBit(commandUuid, user, false);
+  private long appended() {
+    return log == null ? 0 : log.appended();
+  }
+
+  // COMMIT
+  //
+  // Wait for the log to commit everything up to "sequence". Returns false if
+  // it could not be.
+  private boolean commit(long sequence) {
+    if (log != null) {
+      try {
+        log.await(sequence);
+      } catch (IOException ex) {
+        LOG.error(ex, "Change could not be committed.");
+        return false;
       }
     }
+    return true;
+  }
 
-    LOG.info("Successfully restored last logged server state.");
+  // TAKE EVENTS
+  //
+  // The events queued by this thread's changes since it last took them.
+  private List<Runnable> takeEvents() {
+    final List<Runnable> events = pendingEvents.get();
+    if (events.isEmpty()) {
+      return Collections.emptyList();
+    }
+    final List<Runnable> taken = new ArrayList<>(events);
+    events.clear();
+    return taken;
+  }
 
-    fileReader.close();
-    bufferedReader.close();
+  // PUBLISH
+  //
+  // Hand events to the subscriptions if the changes that made them were
+  // committed, or drop them if not. The subscriptions keep their own index
+  // of who wants what, so no lock is needed.
+  private void publish(List<Runnable> events, boolean committed) {
+    if (committed) {
+      for (final Runnable event : events) {
+        event.run();
+      }
+    }
   }
 
-  public void handleConnection(final Connection connection) {
-    timeline.scheduleNow(new Runnable() {
-      @Override
-      public void run() {
-        try {
+  private boolean failed() {
+    return log != null && log.failed();
+  }
 
-          LOG.info("Handling connection...");
+  // WITH ENCODING
+  //
+  // The request code says which encoding the rest of the request and the
+  // response use (see NetworkCode.COMPACT_ENCODING). The code has already
+  // been read from the connection.
+  private static Connection withEncoding(final Connection raw, int code) {
 
-          final int type = Serializers.INTEGER.read(connection.in());
-          final Command command = commands.get(type);
+    if ((code & NetworkCode.COMPACT_ENCODING) == 0) {
+      return raw;
+    }
 
-          if (command == null) {
-            // The message type cannot be handled so return a dummy message.
-            Serializers.INTEGER.write(connection.out(), NetworkCode.NO_MESSAGE);
-            LOG.info("Connection rejected");
-          } else {
-            command.onMessage(connection.in(), connection.out());
-            LOG.info("Connection accepted");
-          }
-        } catch (Exception ex) {
+    return new Connection() {
 
-          LOG.error(ex, "Exception while handling connection.");
+      private InputStream in;
+      private OutputStream out;
 
+      @Override
+      public InputStream in() throws IOException {
+        if (in == null) {
+          in = Compact.input(raw.in(), true);
         }
+        return in;
+      }
 
-        try {
-          connection.close();
-        } catch (Exception ex) {
-          LOG.error(ex, "Exception while closing connection.");
+      @Override
+      public OutputStream out() throws IOException {
+        if (out == null) {
+          out = withEncoding(raw.out(), code);
         }
+        return out;
       }
-    });
+
+      @Override
+      public Pusher pusher() {
+        return raw.pusher();
+      }
+
+      @Override
+      public void close() throws IOException {
+        raw.close();
+      }
+    };
+  }
+
+  private static OutputStream withEncoding(OutputStream out, int code) {
+    return (code & NetworkCode.COMPACT_ENCODING) == 0 ? out : Compact.output(out, 0);
+  }
+
+  private static void close(Connection connection) {
+    try {
+      connection.close();
+    } catch (Exception ex) {
+      LOG.error(ex, "Exception while closing connection.");
+    }
   }
 
   private void onBundle(Relay.Bundle bundle) {
@@ -610,9 +1252,20 @@ public final class Server {
     return new Runnable() {
       @Override
       public void run() {
-        final User user = view.findUser(userId);
-        final ConversationHeader conversation = view.findConversation(conversationId);
-        final Message message = view.findMessage(messageId);
+        final User user;
+        final ConversationHeader conversation;
+        final Message message;
+
+        // Only hold the lock for the look-ups, not while talking to the relay.
+        modelLock.readLock().lock();
+        try {
+          user = view.findUser(userId);
+          conversation = view.findConversation(conversationId);
+          message = view.findMessage(messageId);
+        } finally {
+          modelLock.readLock().unlock();
+        }
+
         relay.write(id,
                     secret,
                     relay.pack(user.id, user.name, user.creation),
@@ -0,0 +1,278 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.Message;
+import codeu.chat.common.NetworkCode;
+import codeu.chat.common.User;
+import codeu.chat.util.Logger;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Uuid;
+import codeu.chat.util.connections.Pusher;
+
+// SUBSCRIPTIONS
+//
+// Keeps track of the clients that want to be told about new activity and
+// pushes events to them as the controller adds messages and conversations.
+//
+// Each client subscribes as a user and is sent:
+//   - NEW_MESSAGE_EVENT for messages added to a conversation in the user's
+//     conversationInterests or written by someone in the user's userInterests.
+//   - NEW_CONVERSATION_EVENT for conversations created by someone in the
+//     user's userInterests.
+//
+// Subscribers are indexed by the conversations and users they are interested
+// in, so an event only visits the clients that want it. The indexes are
+// filled from the user's interests when the client subscribes and then kept
+// up to date as the controller reports interests being added and removed, so
+// following or unfollowing takes effect right away without subscribing
+// again. Users are not told about their own messages and conversations.
+//
+// Changes to the subscriptions and indexes are made while holding this
+// object's lock. Events are sent without it, and without looking at the
+// model, so they can be sent after the model's lock has been let go.
+final class Subscriptions implements Controller.Listener {
+
+  private final static Logger.Log LOG = Logger.newLog(Subscriptions.class);
+
+  // One client's subscription, with the keys it is indexed under so that it
+  // can be taken out of the indexes again.
+  private static final class Subscriber {
+
+    final Pusher pusher;
+    final Uuid user;
+    final Set<Uuid> conversations = ConcurrentHashMap.newKeySet();
+    final Set<Uuid> followed = ConcurrentHashMap.newKeySet();
+
+    Subscriber(Pusher pusher, Uuid user) {
+      this.pusher = pusher;
+      this.user = user;
+    }
+  }
+
+  private final Model model;
+
+  // A client has one subscription at a time, so subscribing again replaces
+  // the user.
+  private final Map<Pusher, Subscriber> subscribers = new ConcurrentHashMap<>();
+
+  // Only used while holding the lock.
+  private final Map<Uuid, Set<Subscriber>> byUser = new HashMap<>();
+
+  private final Map<Uuid, Set<Subscriber>> byConversation = new ConcurrentHashMap<>();
+  private final Map<Uuid, Set<Subscriber>> byFollowed = new ConcurrentHashMap<>();
+
+  public Subscriptions(Model model) {
+    this.model = model;
+  }
+
+  // SUBSCRIBE
+  //
+  // Start sending events for the user to the client. Returns false, and ends
+  // any earlier subscription for the client, if the user does not exist. The
+  // user's interests are read from the model, so it must not change while
+  // this runs.
+  public synchronized boolean subscribe(Uuid user, Pusher pusher) {
+
+    final Subscriber previous = subscribers.remove(pusher);
+    if (previous != null) {
+      unindex(previous);
+    }
+
+    final User found = model.userById().first(user);
+    if (found == null) {
+      return false;
+    }
+
+    final Subscriber subscriber = new Subscriber(pusher, found.id);
+    add(byUser, found.id, subscriber);
+    for (final Uuid conversation : found.conversationInterests) {
+      subscriber.conversations.add(conversation);
+      add(byConversation, conversation, subscriber);
+    }
+    for (final Uuid followed : found.userInterests) {
+      subscriber.followed.add(followed);
+      add(byFollowed, followed, subscriber);
+    }
+
+    subscribers.put(pusher, subscriber);
+    return true;
+  }
+
+  public int size() {
+    return subscribers.size();
+  }
+
+  @Override
+  public synchronized void onConversationInterest(Uuid user, Uuid conversation, boolean interested) {
+    for (final Subscriber subscriber : byUser.getOrDefault(user, Collections.<Subscriber>emptySet())) {
+      if (interested) {
+        subscriber.conversations.add(conversation);
+        add(byConversation, conversation, subscriber);
+      } else {
+        subscriber.conversations.remove(conversation);
+        remove(byConversation, conversation, subscriber);
+      }
+    }
+  }
+
+  @Override
+  public synchronized void onUserInterest(Uuid user, Uuid followed, boolean interested) {
+    for (final Subscriber subscriber : byUser.getOrDefault(user, Collections.<Subscriber>emptySet())) {
+      if (interested) {
+        subscriber.followed.add(followed);
+        add(byFollowed, followed, subscriber);
+      } else {
+        subscriber.followed.remove(followed);
+        remove(byFollowed, followed, subscriber);
+      }
+    }
+  }
+
+  @Override
+  public void onNewMessage(Uuid conversation, Message message) {
+
+    final Set<Subscriber> inConversation = byConversation.get(conversation);
+    final Set<Subscriber> following = byFollowed.get(message.author);
+
+    byte[] event = null;
+
+    if (inConversation != null) {
+      for (final Subscriber subscriber : inConversation) {
+        if (!Uuid.equals(subscriber.user, message.author)) {
+          // Only build the event once someone wants it, then share it.
+          event = event == null ? newMessageEvent(conversation, message) : event;
+          push(subscriber, event);
+        }
+      }
+    }
+
+    if (following != null) {
+      for (final Subscriber subscriber : following) {
+        // Anyone also interested in the conversation was sent it above.
+        if (!Uuid.equals(subscriber.user, message.author) &&
+            !subscriber.conversations.contains(conversation)) {
+          event = event == null ? newMessageEvent(conversation, message) : event;
+          push(subscriber, event);
+        }
+      }
+    }
+  }
+
+  @Override
+  public void onNewConversation(ConversationHeader conversation) {
+
+    final Set<Subscriber> following = byFollowed.get(conversation.owner);
+
+    if (following == null) {
+      return;
+    }
+
+    byte[] event = null;
+
+    for (final Subscriber subscriber : following) {
+      if (!Uuid.equals(subscriber.user, conversation.owner)) {
+        event = event == null ? newConversationEvent(conversation) : event;
+        push(subscriber, event);
+      }
+    }
+  }
+
+  // Send an event, ending the subscription if the client cannot take it.
+  private void push(Subscriber subscriber, byte[] event) {
+    if (!subscriber.pusher.push(event)) {
+      synchronized (this) {
+        if (subscribers.remove(subscriber.pusher, subscriber)) {
+          unindex(subscriber);
+        }
+      }
+    }
+  }
+
+  private void unindex(Subscriber subscriber) {
+    remove(byUser, subscriber.user, subscriber);
+    for (final Uuid conversation : subscriber.conversations) {
+      remove(byConversation, conversation, subscriber);
+    }
+    for (final Uuid followed : subscriber.followed) {
+      remove(byFollowed, followed, subscriber);
+    }
+  }
+
+  private static void add(Map<Uuid, Set<Subscriber>> index, Uuid key, Subscriber subscriber) {
+    Set<Subscriber> subscribers = index.get(key);
+    if (subscribers == null) {
+      subscribers = ConcurrentHashMap.newKeySet();
+      index.put(key, subscribers);
+    }
+    subscribers.add(subscriber);
+  }
+
+  private static void remove(Map<Uuid, Set<Subscriber>> index, Uuid key, Subscriber subscriber) {
+    final Set<Subscriber> subscribers = index.get(key);
+    if (subscribers != null) {
+      subscribers.remove(subscriber);
+      if (subscribers.isEmpty()) {
+        index.remove(key);
+      }
+    }
+  }
+
+  private static byte[] newMessageEvent(Uuid conversation, Message message) {
+    try {
+      final ByteBuffer out = ByteBuffer.allocate(
+          Serializers.INTEGER.maxSize(NetworkCode.NEW_MESSAGE_EVENT) +
+          Uuid.SERIALIZER.maxSize(conversation) +
+          Message.SERIALIZER.maxSize(message));
+      Serializers.INTEGER.write(out, NetworkCode.NEW_MESSAGE_EVENT);
+      Uuid.SERIALIZER.write(out, conversation);
+      Message.SERIALIZER.write(out, message);
+      return toBytes(out);
+    } catch (IOException ex) {
+      // Writing to memory does not fail.
+      LOG.error(ex, "Failed to write new message event.");
+      return new byte[0];
+    }
+  }
+
+  private static byte[] newConversationEvent(ConversationHeader conversation) {
+    try {
+      final ByteBuffer out = ByteBuffer.allocate(
+          Serializers.INTEGER.maxSize(NetworkCode.NEW_CONVERSATION_EVENT) +
+          ConversationHeader.SERIALIZER.maxSize(conversation));
+      Serializers.INTEGER.write(out, NetworkCode.NEW_CONVERSATION_EVENT);
+      ConversationHeader.SERIALIZER.write(out, conversation);
+      return toBytes(out);
+    } catch (IOException ex) {
+      LOG.error(ex, "Failed to write new conversation event.");
+      return new byte[0];
+    }
+  }
+
+  // The sizes above are upper bounds, so the buffer may have room to spare.
+  private static byte[] toBytes(ByteBuffer buffer) {
+    return buffer.hasRemaining() ? Arrays.copyOf(buffer.array(), buffer.position()) : buffer.array();
+  }
+}
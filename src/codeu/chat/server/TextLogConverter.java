@@ -0,0 +1,197 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.Message;
+import codeu.chat.common.User;
+import codeu.chat.util.Logger;
+import codeu.chat.util.Time;
+import codeu.chat.util.Tokenizer;
+import codeu.chat.util.Uuid;
+
+// TEXT LOG CONVERTER
+//
+// Turns a transaction log from before the log was binary (one change per
+// line, such as 'ADD-USER 100.101.7 "alice" 1497310000000') into the binary
+// records of LogRecords. The server does this by itself the first time it
+// finds only an old log, but it can also be run on its own:
+//
+//   python build.py run codeu.chat.server.TextLogConverter <text log> <binary log>
+//
+// Lines that are not understood are counted and skipped.
+public final class TextLogConverter {
+
+  private static final Logger.Log LOG = Logger.newLog(TextLogConverter.class);
+
+  private TextLogConverter() { }
+
+  public static void main(String[] args) throws IOException {
+
+    if (args.length != 2) {
+      System.out.println("Usage: TextLogConverter <text log> <binary log>");
+      System.exit(1);
+    }
+
+    convert(new File(args[0]), new File(args[1]));
+  }
+
+  // CONVERT
+  //
+  // Add a record to the end of "binary" for each line of "text" and return
+  // how many records were added.
+  public static long convert(File text, File binary) throws IOException {
+
+    long converted = 0;
+    long skipped = 0;
+
+    try (
+        final BufferedReader reader = new BufferedReader(
+            new InputStreamReader(new FileInputStream(text), StandardCharsets.UTF_8));
+        final WriteAheadLog log = new WriteAheadLog(binary, WriteAheadLog.Sync.NONE, 0)
+    ) {
+
+      String line;
+
+      while ((line = reader.readLine()) != null) {
+
+        ByteBuffer record = null;
+
+        try {
+          record = toRecord(line);
+        } catch (Exception ex) {
+          LOG.warning("Failed to convert log line (%s): %s", ex.toString(), line);
+        }
+
+        if (record == null) {
+          skipped += 1;
+        } else {
+          log.append(record);
+          converted += 1;
+        }
+      }
+    }
+
+    LOG.info("Converted %s to %s (%d records, %d lines skipped)", text, binary, converted, skipped);
+
+    return converted;
+  }
+
+  // TO RECORD
+  //
+  // The record for one line of the text log, or null if the line is not a
+  // change that the text log knows about.
+  static ByteBuffer toRecord(String line) throws IOException {
+
+    final Tokenizer tokens = new Tokenizer(line);
+
+    final String type = tokens.next();
+
+    if (type == null) {
+      return null;  // blank line
+    }
+
+    final Uuid id = Uuid.parse(tokens.next());
+
+    switch (type) {
+
+      case "ADD-USER": {
+        final String name = tokens.next();
+        final Time creation = time(tokens.next());
+        return LogRecords.addUser(new User(id, name, creation));
+      }
+
+      case "ADD-CONVERSATION": {
+        final Uuid owner = Uuid.parse(tokens.next());
+        final String title = tokens.next();
+        final Time creation = time(tokens.next());
+        return LogRecords.addConversation(new ConversationHeader(id, owner, creation, title));
+      }
+
+      case "ADD-MESSAGE": {
+        final Uuid author = Uuid.parse(tokens.next());
+        final Uuid conversation = Uuid.parse(tokens.next());
+        final String content = tokens.next();
+        final Time creation = time(tokens.next());
+        // Where the message goes in its conversation is worked out again
+        // when the record is replayed, so the links are left empty.
+        return LogRecords.addMessage(
+            conversation,
+            new Message(id, Uuid.NULL, Uuid.NULL, creation, author, content));
+      }
+
+      case "ADD-INTEREST-USER":
+        return LogRecords.pair(LogRecords.ADD_INTEREST_USER, id, Uuid.parse(tokens.next()));
+
+      case "REMOVE-INTEREST-USER":
+        return LogRecords.pair(LogRecords.REMOVE_INTEREST_USER, id, Uuid.parse(tokens.next()));
+
+      case "ADD-INTEREST-CONVERSATION":
+        return LogRecords.pair(LogRecords.ADD_INTEREST_CONVO, id, Uuid.parse(tokens.next()));
+
+      case "REMOVE-INTEREST-CONVERSATION":
+        return LogRecords.pair(LogRecords.REMOVE_INTEREST_CONVO, id, Uuid.parse(tokens.next()));
+
+      case "ADD-CONVO-CREATOR":
+        return LogRecords.toggle(LogRecords.TOGGLE_CREATOR, id, Uuid.parse(tokens.next()), true);
+
+      case "REMOVE-CONVO-CREATOR":
+        return LogRecords.toggle(LogRecords.TOGGLE_CREATOR, id, Uuid.parse(tokens.next()), false);
+
+      case "ADD-CONVO-OWNER":
+        return LogRecords.toggle(LogRecords.TOGGLE_OWNER, id, Uuid.parse(tokens.next()), true);
+
+      case "REMOVE-CONVO-OWNER":
+        return LogRecords.toggle(LogRecords.TOGGLE_OWNER, id, Uuid.parse(tokens.next()), false);
+
+      case "ADD-CONVO-MEMBER":
+        return LogRecords.toggle(LogRecords.TOGGLE_MEMBER, id, Uuid.parse(tokens.next()), true);
+
+      case "REMOVE-CONVO-MEMBER":
+        return LogRecords.toggle(LogRecords.TOGGLE_MEMBER, id, Uuid.parse(tokens.next()), false);
+
+      case "REMOVE-CONVO-TOGGLE":
+        return LogRecords.toggle(LogRecords.TOGGLE_REMOVED, id, Uuid.parse(tokens.next()), true);
+
+      case "UPDATE-UNSEEN": {
+        final Uuid conversation = Uuid.parse(tokens.next());
+        return LogRecords.updateUnseen(id, conversation, Integer.parseInt(tokens.next()));
+      }
+
+      case "UPDATE-STATUS":
+        return LogRecords.updateStatus(id, time(tokens.next()));
+
+      case "ADD-UPDATED-CONVERSATION": {
+        final Uuid conversation = Uuid.parse(tokens.next());
+        return LogRecords.addUpdatedConversation(id, conversation, time(tokens.next()));
+      }
+
+      default:
+        return null;
+    }
+  }
+
+  private static Time time(String ms) {
+    return Time.fromMs(Long.parseLong(ms));
+  }
+}
@@ -26,6 +26,10 @@ public final class View implements BasicView, SinglesView {
 
   private final static Logger.Log LOG = Logger.newLog(View.class);
 
+  // The most messages that will be returned in a single page, no matter how
+  // many are asked for. This keeps a single response to a reasonable size.
+  private static final int MAX_PAGE_SIZE = 1000;
+
   private final Model model;
 
   private static final ServerInfo info = new ServerInfo();
@@ -54,8 +58,9 @@ public final class View implements BasicView, SinglesView {
 
   @Override
   public Integer getUserAccessControl(Uuid convo, Uuid user){
-    Integer access = model.conversationByAccessControl().first(convo).computeIfAbsent(user, newAccess -> 0);
-    return access;
+    // Views may be called by many readers at once so this must not write to
+    // the map (e.g. with computeIfAbsent).
+    return model.conversationByAccessControl().first(convo).getOrDefault(user, 0);
   }
 
   @Override
@@ -82,6 +87,51 @@ public final class View implements BasicView, SinglesView {
     return intersect(model.messageById(), ids);
   }
 
+  @Override
+  public List<Message> getMessagePage(Uuid conversation, Uuid cursor, boolean forward, int limit) {
+
+    final List<Message> page = new ArrayList<>();
+    final ConversationPayload payload = model.conversationPayloadById().first(conversation);
+
+    if (payload == null) {
+      LOG.warning("Unmapped conversation id %s", conversation);
+      return page;
+    }
+
+    Uuid next;
+
+    if (Uuid.equals(cursor, Uuid.NULL)) {
+      next = forward ? payload.firstMessage : payload.lastMessage;
+    } else {
+      // A cursor from another conversation would page through that one
+      // instead, so it gets an empty page like a cursor that is not found.
+      final Message start = model.messageById().first(cursor);
+      if (start == null || !Uuid.equals(conversation, model.conversationByMessage().first(cursor))) {
+        return page;
+      }
+      next = forward ? start.next : start.previous;
+    }
+
+    // Walk the chain of messages one link at a time. Each step is a single
+    // look-up so a page costs the same no matter where it is in the
+    // conversation.
+    final int size = Math.min(limit, MAX_PAGE_SIZE);
+
+    while (page.size() < size && !Uuid.equals(next, Uuid.NULL)) {
+      final Message message = model.messageById().first(next);
+
+      if (message == null) {
+        LOG.warning("Unmapped id %s", next);
+        break;
+      }
+
+      page.add(message);
+      next = forward ? message.next : message.previous;
+    }
+
+    return page;
+  }
+
   @Override
   public User findUser(Uuid id) { return model.userById().first(id); }
 
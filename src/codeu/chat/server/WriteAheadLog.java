@@ -0,0 +1,524 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import codeu.chat.util.Logger;
+
+// WRITE AHEAD LOG
+//
+// The server's record of every change made to its model, so that the model
+// can be rebuilt when the server restarts. Records are appended by the
+// controller as it makes each change (see LogRecords) and the server waits
+// for them to be committed before it answers the request that made the
+// change.
+//
+// Appending only queues a record. One writer thread takes everything that
+// has been queued since its last write and commits it all at once, so many
+// requests that arrive together share one write (and one sync) rather than
+// taking turns. This is known as group commit.
+//
+// How hard a commit tries is set by its Sync policy:
+//   BATCH    : every commit is forced to the disk before anyone waiting on it
+//              is let go. Nothing that was answered is ever lost.
+//   INTERVAL : commits are handed to the operating system right away and
+//              forced to the disk at most every "intervalMs". A server crash
+//              loses nothing; losing power can lose up to "intervalMs".
+//   NONE     : commits are handed to the operating system and the disk is
+//              left to catch up on its own.
+//
+// The file starts with MAGIC and VERSION (four bytes each). Each record
+// after that is its length and the CRC-32 of its bytes (four bytes each)
+// followed by the bytes themselves. A crash part way through a write leaves
+// a record that is cut short or fails its check; "read" stops at the first
+// such record and cuts it and anything after it from the file, so that new
+// records follow straight on from the last good one.
+public final class WriteAheadLog implements Closeable {
+
+  private static final Logger.Log LOG = Logger.newLog(WriteAheadLog.class);
+
+  public enum Sync { BATCH, INTERVAL, NONE }
+
+  // READER
+  //
+  // Given each record in the log, in order. The buffer holds exactly the
+  // record and is a read-only view of the file mapped into memory, so a
+  // reader that needs a record later can keep the buffer instead of copying
+  // it. The mapping stays for as long as any of its records are kept.
+  public interface Reader {
+    void onRecord(ByteBuffer record) throws IOException;
+  }
+
+  static final int MAGIC = 0x434C4F47;  // "CLOG"
+  static final int VERSION = 1;
+
+  static final int HEADER_SIZE = 8;
+  static final int RECORD_HEADER_SIZE = 8;
+
+  // Anything longer is taken to be damage rather than a real record.
+  static final int MAX_RECORD_SIZE = 16 * 1024 * 1024;
+
+  // How much of the file is mapped at a time. It must hold the largest record
+  // so that every record fits in one mapping.
+  private static final long MAP_SIZE = 256L * 1024 * 1024;
+
+  private static final class Record {
+
+    final long sequence;
+    final ByteBuffer bytes;  // header and record, ready to write
+    final File next;  // for rotations, the file to write to from here on
+
+    Record(long sequence, ByteBuffer bytes, File next) {
+      this.sequence = sequence;
+      this.bytes = bytes;
+      this.next = next;
+    }
+  }
+
+  // Marks the end of the queue when the log is closed.
+  private static final Record END = new Record(-1, null, null);
+
+  // Only used by the writer thread once the constructor is done.
+  private FileChannel channel;
+  private final Sync sync;
+  private final long intervalMs;
+
+  private final BlockingQueue<Record> queue = new LinkedBlockingQueue<>();
+
+  // The sequence number of the last record appended. Guarded by "this".
+  private long appended = 0;
+
+  // Records after this one are held back by the writer until the rotation
+  // that "mark" promised arrives. Long.MAX_VALUE when no rotation is due.
+  private volatile long holdAfter = Long.MAX_VALUE;
+
+  // The sequence number of the last record committed, and the error that
+  // stopped the writer (if it has stopped). Guarded by "committedLock".
+  private final Object committedLock = new Object();
+  private long committed = 0;
+  private IOException failure = null;
+
+  private final Thread writer;
+
+  // How many times the file has been forced to the disk. Only used by tests.
+  private volatile long forces = 0;
+
+  // Open "file" to add records to the end of it, creating it if needed. An
+  // existing file should be given to "read" first so that any damage at the
+  // end is cut off before new records are added after it.
+  public WriteAheadLog(File file, Sync sync, long intervalMs) throws IOException {
+
+    this.channel = open(file);
+    this.sync = sync;
+    this.intervalMs = intervalMs;
+
+    this.writer = new Thread("write-ahead-log") {
+      @Override
+      public void run() {
+        write();
+      }
+    };
+    this.writer.setDaemon(true);
+    this.writer.start();
+  }
+
+  // APPEND
+  //
+  // Queue one record (from the buffer's position to its limit) and return
+  // its sequence number. This never waits for the disk. Once the log has
+  // failed the record is dropped rather than queued, since nothing is left
+  // to write it; waiting for it throws the failure.
+  public long append(ByteBuffer record) {
+
+    final int length = record.remaining();
+    final ByteBuffer bytes = ByteBuffer.allocate(RECORD_HEADER_SIZE + length);
+
+    final CRC32 crc = new CRC32();
+    crc.update(record.duplicate());
+
+    bytes.putInt(length);
+    bytes.putInt((int) crc.getValue());
+    bytes.put(record);
+    bytes.flip();
+
+    synchronized (this) {
+      appended += 1;
+      if (!failed()) {
+        queue.add(new Record(appended, bytes, null));
+      }
+      return appended;
+    }
+  }
+
+  // ROTATE
+  //
+  // Move on to a new file. Records appended before this call are written to
+  // the current file, which is then synced and closed; records appended after
+  // it go to "next". This does not wait for the switch. If "next" cannot be
+  // opened, the log stops as if a write had failed.
+  public synchronized void rotate(File next) {
+    queue.add(new Record(appended, null, next));
+  }
+
+  // MARK
+  //
+  // Return the sequence number of the last record appended so far, to be
+  // given to "rotate(next, after)" later. Records appended after the mark
+  // are queued as usual but not written until that rotation arrives, so the
+  // log is cut at exactly the mark however late the rotation is asked for.
+  // Commits wait in the meantime, so a mark must always be followed by its
+  // rotation, and soon.
+  public synchronized long mark() {
+    holdAfter = appended;
+    return appended;
+  }
+
+  // Move on to a new file after the record numbered "after", which must come
+  // from "mark". Records up to and including it are written to the current
+  // file, and every record after it goes to "next".
+  public synchronized void rotate(File next, long after) {
+    queue.add(new Record(after, null, next));
+  }
+
+  // APPENDED
+  //
+  // The sequence number of the last record appended so far.
+  public synchronized long appended() {
+    return appended;
+  }
+
+  // AWAIT
+  //
+  // Wait until every record up to and including "sequence" has been
+  // committed. Throws if the log could not be written.
+  public void await(long sequence) throws IOException {
+    synchronized (committedLock) {
+      while (committed < sequence && failure == null) {
+        try {
+          committedLock.wait();
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          throw new IOException("Interrupted while waiting for the log", ex);
+        }
+      }
+      if (committed < sequence) {
+        throw failure;
+      }
+    }
+  }
+
+  // FAILED
+  //
+  // Whether the log has stopped because a write failed. Nothing appended
+  // after this will ever be committed.
+  public boolean failed() {
+    synchronized (committedLock) {
+      return failure != null;
+    }
+  }
+
+  // The number of times the log has been forced to the disk. Only used by
+  // tests.
+  long forces() {
+    return forces;
+  }
+
+  // CLOSE
+  //
+  // Commit everything appended so far and close the file.
+  @Override
+  public void close() throws IOException {
+    queue.add(END);
+    try {
+      writer.join();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+    channel.close();
+  }
+
+  // READ
+  //
+  // Give every good record in "file" to "reader" and return how many there
+  // were. If the file ends with a record that is unfinished or damaged, the
+  // record and everything after it is cut from the file. Throws if the file
+  // is not a transaction log at all.
+  public static long read(File file, Reader reader) throws IOException {
+
+    try (final FileChannel channel = FileChannel.open(
+        file.toPath(),
+        StandardOpenOption.READ,
+        StandardOpenOption.WRITE)) {
+
+      if (channel.size() < HEADER_SIZE) {
+        // Cut off while the header was being written, so nothing else can
+        // have been written after it.
+        channel.truncate(0);
+        return 0;
+      }
+
+      checkHeader(channel, file);
+
+      final long size = channel.size();
+      final CRC32 crc = new CRC32();
+
+      long good = HEADER_SIZE;
+      long records = 0;
+
+      MappedByteBuffer mapped = null;
+      long mappedFrom = 0;
+
+      while (size - good >= RECORD_HEADER_SIZE) {
+
+        if (mapped == null || good + RECORD_HEADER_SIZE > mappedFrom + mapped.capacity()) {
+          mappedFrom = good;
+          mapped = channel.map(FileChannel.MapMode.READ_ONLY, mappedFrom, Math.min(MAP_SIZE, size - mappedFrom));
+        }
+
+        final int length = mapped.getInt((int) (good - mappedFrom));
+        final int expected = mapped.getInt((int) (good - mappedFrom) + 4);
+
+        if (length < 0 || length > MAX_RECORD_SIZE || size - good - RECORD_HEADER_SIZE < length) {
+          break;
+        }
+
+        // Start a new mapping at this record if it runs off the end of the
+        // current one.
+        if (good + RECORD_HEADER_SIZE + length > mappedFrom + mapped.capacity()) {
+          mappedFrom = good;
+          mapped = channel.map(FileChannel.MapMode.READ_ONLY, mappedFrom, Math.min(MAP_SIZE, size - mappedFrom));
+        }
+
+        final int start = (int) (good - mappedFrom) + RECORD_HEADER_SIZE;
+
+        final ByteBuffer record = mapped.duplicate();
+        record.position(start).limit(start + length);
+
+        crc.reset();
+        crc.update(record.duplicate());
+
+        if ((int) crc.getValue() != expected) {
+          break;
+        }
+
+        reader.onRecord(record.slice());
+
+        good += RECORD_HEADER_SIZE + length;
+        records += 1;
+      }
+
+      if (channel.size() > good) {
+        LOG.warning(
+            "Cutting %d bytes of unfinished or damaged records from the end of %s (after %d good records)",
+            channel.size() - good,
+            file,
+            records);
+        channel.truncate(good);
+        channel.force(true);
+      }
+
+      return records;
+    }
+  }
+
+  // Open "file" to add to the end of it, writing the header first if the file
+  // is new.
+  private static FileChannel open(File file) throws IOException {
+
+    final FileChannel channel = FileChannel.open(
+        file.toPath(),
+        StandardOpenOption.CREATE,
+        StandardOpenOption.READ,
+        StandardOpenOption.WRITE);
+
+    try {
+      if (channel.size() == 0) {
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).flip();
+        writeFully(channel, header);
+        channel.force(true);
+      } else {
+        checkHeader(channel, file);
+      }
+      channel.position(channel.size());
+    } catch (IOException ex) {
+      channel.close();
+      throw ex;
+    }
+
+    return channel;
+  }
+
+  private static void checkHeader(FileChannel channel, File file) throws IOException {
+
+    final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    while (header.hasRemaining() && channel.read(header, header.position()) >= 0) { }
+    header.flip();
+
+    if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC) {
+      throw new IOException(String.format("%s is not a transaction log", file));
+    }
+
+    final int version = header.getInt();
+    if (version != VERSION) {
+      throw new IOException(String.format("%s is version %d, expected %d", file, version, VERSION));
+    }
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  private void write() {
+
+    final List<Record> batch = new ArrayList<>();
+    final List<ByteBuffer> pending = new ArrayList<>();
+    final List<Record> held = new ArrayList<>();  // waiting for a rotation
+    long lastForce = System.currentTimeMillis();
+    boolean unforced = false;  // written since the last force
+    boolean running = true;
+
+    try {
+      while (running) {
+
+        if (sync == Sync.INTERVAL && unforced) {
+          // Only wait for more records until the interval is up. If none
+          // come, force what has been written rather than leaving it until
+          // the next batch, which may never come.
+          final long remaining = lastForce + intervalMs - System.currentTimeMillis();
+          final Record first = queue.poll(Math.max(0, remaining), TimeUnit.MILLISECONDS);
+          if (first == null) {
+            force();
+            lastForce = System.currentTimeMillis();
+            unforced = false;
+            continue;
+          }
+          batch.add(first);
+        } else {
+          batch.add(queue.take());
+        }
+
+        queue.drainTo(batch);
+
+        long last = -1;
+
+        for (final Record record : batch) {
+          if (record == END) {
+            running = false;
+          } else if (record.next != null) {
+            // Everything before the rotation belongs in the old file, which
+            // must be safely on the disk before it is let go.
+            writeAll(pending);
+            force();
+            channel.close();
+            channel = open(record.next);
+            lastForce = System.currentTimeMillis();
+            unforced = false;
+            if (holdAfter == record.sequence) {
+              holdAfter = Long.MAX_VALUE;
+              last = release(held, pending, last);
+            }
+          } else if (record.sequence > holdAfter) {
+            held.add(record);
+          } else {
+            pending.add(record.bytes);
+            last = record.sequence;
+          }
+        }
+        batch.clear();
+
+        if (!running) {
+          // Closed before the rotation came, so the old file is all there is.
+          last = release(held, pending, last);
+        }
+
+        unforced |= !pending.isEmpty();
+        writeAll(pending);
+
+        final long now = System.currentTimeMillis();
+        if (sync == Sync.BATCH || (sync == Sync.INTERVAL && now - lastForce >= intervalMs) || !running) {
+          force();
+          lastForce = now;
+          unforced = false;
+        }
+
+        if (last >= 0) {
+          synchronized (committedLock) {
+            committed = last;
+            committedLock.notifyAll();
+          }
+        }
+      }
+    } catch (IOException ex) {
+      LOG.error(ex, "Failed to write to the transaction log. Changes are no longer being logged.");
+      synchronized (committedLock) {
+        failure = ex;
+        committedLock.notifyAll();
+      }
+    } catch (InterruptedException ex) {
+      synchronized (committedLock) {
+        failure = new IOException("Transaction log writer was interrupted", ex);
+        committedLock.notifyAll();
+      }
+    }
+  }
+
+  // Move the held records to the end of the records to write, returning the
+  // sequence number of the last one (or "last" if none were held).
+  private static long release(List<Record> held, List<ByteBuffer> pending, long last) {
+    for (final Record record : held) {
+      pending.add(record.bytes);
+      last = record.sequence;
+    }
+    held.clear();
+    return last;
+  }
+
+  private void force() throws IOException {
+    channel.force(false);
+    forces += 1;
+  }
+
+  // A gathering write sends the whole batch without copying it into one
+  // buffer first.
+  private void writeAll(List<ByteBuffer> pending) throws IOException {
+
+    final ByteBuffer[] buffers = pending.toArray(new ByteBuffer[pending.size()]);
+
+    for (int i = 0; i < buffers.length; ) {
+      channel.write(buffers, i, buffers.length - i);
+      while (i < buffers.length && !buffers[i].hasRemaining()) {
+        i += 1;
+      }
+    }
+
+    pending.clear();
+  }
+}
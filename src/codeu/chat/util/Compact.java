@@ -0,0 +1,300 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+// COMPACT
+//
+// A smaller encoding for the same values the Serializers normally write. To
+// use it, wrap a stream with "output" or "input" and hand the wrapped stream
+// to the Serializers as usual. They notice the wrapper and switch encodings,
+// so no serializer built on top of them needs to change.
+//
+// Differences from the normal encoding:
+//   - Integers and longs (including lengths and sizes) are zig-zag varints:
+//     seven bits per byte, smallest magnitudes first, so anything between
+//     -64 and 63 takes one byte.
+//   - Times are varints. Inside a collection or map each time is written as
+//     the difference from the time before it, which for lists of things made
+//     around the same time is usually two or three bytes instead of eight.
+//   - Uuids are written root first. Inside a collection or map a Uuid only
+//     writes the links after those it shares with the Uuid before it, so a
+//     list of ids from the same server does not repeat the server's root.
+//   - Booleans, nulls and the bytes of strings are unchanged.
+//
+// The first integer written to or read from a wrapped stream is the header
+// (the message type) and is always written in full, four bytes, so that the
+// other side can read it before it knows which encoding the rest uses. The
+// output wrapper can OR flags into the header to tell the other side that the
+// rest is compact.
+//
+// The wrappers keep state (the last time and Uuid in each collection), so a
+// wrapped stream must be read in the same order it was written and must not
+// be shared between messages.
+public final class Compact {
+
+  private Compact() { }
+
+  // OUTPUT
+  //
+  // Wrap "out" so that the Serializers write the compact encoding to it. The
+  // header is ORed with "headerFlags".
+  public static OutputStream output(OutputStream out, int headerFlags) {
+    return new Output(out, headerFlags);
+  }
+
+  // INPUT
+  //
+  // Wrap "in" so that the Serializers read the compact encoding from it. If
+  // the header has already been read from "in", pass true for "headerRead".
+  public static InputStream input(InputStream in, boolean headerRead) {
+    return new Input(in, headerRead);
+  }
+
+  static long zigZag(long value) {
+    return (value << 1) ^ (value >> 63);
+  }
+
+  static long unZigZag(long value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  // The state that a collection or map replaces while its elements are
+  // written or read, and puts back afterwards.
+  static final class Scope {
+
+    final boolean inCollection;
+    final long lastTime;
+    final Object lastUuid;  // int[] when writing, Uuid[] when reading
+
+    Scope(boolean inCollection, long lastTime, Object lastUuid) {
+      this.inCollection = inCollection;
+      this.lastTime = lastTime;
+      this.lastUuid = lastUuid;
+    }
+  }
+
+  static final class Output extends FilterOutputStream {
+
+    private final int headerFlags;
+    private final byte[] scratch = new byte[10];
+
+    private boolean headerPending = true;
+
+    private boolean inCollection = false;
+    private long lastTime = 0;
+    private int[] lastChain = null;  // root first
+
+    Output(OutputStream out, int headerFlags) {
+      super(out);
+      this.headerFlags = headerFlags;
+    }
+
+    @Override
+    public void write(byte[] array, int offset, int length) throws IOException {
+      out.write(array, offset, length);
+    }
+
+    void writeInt(int value) throws IOException {
+      if (headerPending) {
+        headerPending = false;
+        final int header = value | headerFlags;
+        scratch[0] = (byte)(header >>> 24);
+        scratch[1] = (byte)(header >>> 16);
+        scratch[2] = (byte)(header >>> 8);
+        scratch[3] = (byte)header;
+        out.write(scratch, 0, 4);
+      } else {
+        writeVarint(zigZag(value));
+      }
+    }
+
+    void writeLong(long value) throws IOException {
+      writeVarint(zigZag(value));
+    }
+
+    void writeTime(long ms) throws IOException {
+      if (inCollection) {
+        writeVarint(zigZag(ms - lastTime));
+        lastTime = ms;
+      } else {
+        writeVarint(zigZag(ms));
+      }
+    }
+
+    void writeUuid(Uuid value) throws IOException {
+
+      int length = 0;
+      for (Uuid current = value; current != null; current = current.root()) {
+        length += 1;
+      }
+
+      if (length > 255) {
+        throw new IOException("Max supported Uuid chain length is 255");
+      }
+
+      final int[] chain = new int[length];
+      int index = length;
+      for (Uuid current = value; current != null; current = current.root()) {
+        chain[--index] = current.id();
+      }
+
+      int shared = 0;
+      if (lastChain != null) {
+        while (shared < length && shared < lastChain.length && chain[shared] == lastChain[shared]) {
+          shared += 1;
+        }
+      }
+
+      writeVarint(shared);
+      writeVarint(length - shared);
+      for (int i = shared; i < length; i++) {
+        writeVarint(chain[i] & 0xFFFFFFFFL);
+      }
+
+      if (inCollection) {
+        lastChain = chain;
+      }
+    }
+
+    Scope enter() {
+      final Scope outer = new Scope(inCollection, lastTime, lastChain);
+      inCollection = true;
+      lastTime = 0;
+      lastChain = null;
+      return outer;
+    }
+
+    void exit(Scope outer) {
+      inCollection = outer.inCollection;
+      lastTime = outer.lastTime;
+      lastChain = (int[]) outer.lastUuid;
+    }
+
+    private void writeVarint(long value) throws IOException {
+      int length = 0;
+      while ((value & ~0x7FL) != 0) {
+        scratch[length++] = (byte)((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      scratch[length++] = (byte)value;
+      out.write(scratch, 0, length);
+    }
+  }
+
+  static final class Input extends FilterInputStream {
+
+    private boolean headerPending;
+
+    private boolean inCollection = false;
+    private long lastTime = 0;
+    private Uuid[] lastLinks = null;  // lastLinks[i] is the Uuid made of the first i + 1 links
+
+    Input(InputStream in, boolean headerRead) {
+      super(in);
+      this.headerPending = !headerRead;
+    }
+
+    int readInt() throws IOException {
+      if (headerPending) {
+        headerPending = false;
+        return (readByte() << 24) | (readByte() << 16) | (readByte() << 8) | readByte();
+      }
+      return (int) unZigZag(readVarint());
+    }
+
+    long readLong() throws IOException {
+      return unZigZag(readVarint());
+    }
+
+    long readTime() throws IOException {
+      final long value = unZigZag(readVarint());
+      if (inCollection) {
+        lastTime += value;
+        return lastTime;
+      }
+      return value;
+    }
+
+    Uuid readUuid() throws IOException {
+
+      final int shared = (int) readVarint();
+      final int added = (int) readVarint();
+
+      if (shared < 0 || added < 0 || shared + added > 255 ||
+          shared > (lastLinks == null ? 0 : lastLinks.length)) {
+        throw new IOException(String.format("Invalid Uuid chain (%d shared, %d new)", shared, added));
+      }
+
+      final Uuid[] links = new Uuid[shared + added];
+
+      Uuid head = null;
+
+      for (int i = 0; i < shared; i++) {
+        head = links[i] = lastLinks[i];
+      }
+
+      for (int i = shared; i < links.length; i++) {
+        head = links[i] = Uuid.intern(head, (int) readVarint());
+      }
+
+      if (inCollection) {
+        lastLinks = links;
+      }
+
+      return head;
+    }
+
+    Scope enter() {
+      final Scope outer = new Scope(inCollection, lastTime, lastLinks);
+      inCollection = true;
+      lastTime = 0;
+      lastLinks = null;
+      return outer;
+    }
+
+    void exit(Scope outer) {
+      inCollection = outer.inCollection;
+      lastTime = outer.lastTime;
+      lastLinks = (Uuid[]) outer.lastUuid;
+    }
+
+    private int readByte() throws IOException {
+      final int value = in.read();
+      if (value < 0) {
+        throw new EOFException("Stream ended in the middle of a value");
+      }
+      return value;
+    }
+
+    private long readVarint() throws IOException {
+      long value = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+        final int b = readByte();
+        value |= (long)(b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          return value;
+        }
+      }
+      throw new IOException("Varint is too long");
+    }
+  }
+}
@@ -17,6 +17,7 @@ package codeu.chat.util;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 public interface Serializer<T> {
 
@@ -24,4 +25,34 @@ public interface Serializer<T> {
 
   T read(InputStream in) throws IOException;
 
+  // BUFFERS
+  //
+  // The same encoding as "write" and "read" above, but written straight into
+  // and read straight out of a ByteBuffer (heap or direct) with no stream in
+  // between. The bytes are exactly the same either way, so a value written
+  // with one may be read with the other.
+  //
+  // These fall back on the stream methods. The serializers for the common
+  // types override them so that encoding a value does not allocate anything
+  // beyond the value itself.
+
+  // MAX SIZE
+  //
+  // The most bytes that writing "value" to a buffer can take. A buffer with
+  // this much room will never overflow.
+  default int maxSize(T value) throws IOException {
+    return Serializers.sizeOf(this, value);
+  }
+
+  // Write "value" at the buffer's position. Throws BufferOverflowException if
+  // the buffer does not have room, see "maxSize".
+  default void write(ByteBuffer out, T value) throws IOException {
+    write(Serializers.asOutputStream(out), value);
+  }
+
+  // Read a value from the buffer's position. Throws EOFException if the
+  // buffer ends part way through the value.
+  default T read(ByteBuffer in) throws IOException {
+    return read(Serializers.asInputStream(in));
+  }
 }
@@ -14,14 +14,34 @@
 
 package codeu.chat.util;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 
+// SERIALIZERS
+//
+// Numbers are written as one array per value and arrays are read with as few
+// calls as the stream allows, so that a serializer pointed straight at a
+// socket makes one system call per field rather than one per byte. Reading
+// past the end of a stream throws EOFException rather than quietly making up
+// a value.
+//
+// Every serializer here also reads and writes ByteBuffers directly (see
+// Serializer) and the serializers built from other serializers pass buffers
+// straight through to them.
+//
+// Streams wrapped by Compact get the compact encoding instead. Buffers always
+// get the normal one.
+//
+// Strings are UTF-8 on every platform (see Utf8).
 public final class Serializers {
 
   public static final Serializer<Boolean> BOOLEAN = new Serializer<Boolean>() {
@@ -33,7 +53,23 @@ public final class Serializers {
 
     @Override
     public Boolean read(InputStream in) throws IOException {
-      return in.read() != 0;
+      return readByte(in) != 0;
+    }
+
+    @Override
+    public int maxSize(Boolean value) {
+      return 1;
+    }
+
+    @Override
+    public void write(ByteBuffer out, Boolean value) {
+      out.put((byte)(value ? 1 : 0));
+    }
+
+    @Override
+    public Boolean read(ByteBuffer in) throws IOException {
+      need(in, 1);
+      return in.get() != 0;
     }
   };
 
@@ -42,24 +78,53 @@ public final class Serializers {
     @Override
     public void write(OutputStream out, Integer value) throws IOException {
 
-      for (int i = 24; i >= 0; i -= 8) {
-        out.write(0xFF & (value >>> i));
+      if (out instanceof Compact.Output) {
+        ((Compact.Output) out).writeInt(value);
+        return;
       }
 
+      final int v = value;
+
+      out.write(new byte[] {
+          (byte)(v >>> 24),
+          (byte)(v >>> 16),
+          (byte)(v >>> 8),
+          (byte)v
+      });
+
     }
 
     @Override
     public Integer read(InputStream in) throws IOException {
 
-      int value = 0;
-
-      for (int i = 0; i < 4; i++) {
-        value = (value << 8) | in.read();
+      if (in instanceof Compact.Input) {
+        return ((Compact.Input) in).readInt();
       }
 
-      return value;
+      final byte[] bytes = readFully(in, 4);
+
+      return ((bytes[0] & 0xFF) << 24) |
+             ((bytes[1] & 0xFF) << 16) |
+             ((bytes[2] & 0xFF) << 8) |
+             (bytes[3] & 0xFF);
 
     }
+
+    @Override
+    public int maxSize(Integer value) {
+      return 4;
+    }
+
+    @Override
+    public void write(ByteBuffer out, Integer value) {
+      out.putInt(value);
+    }
+
+    @Override
+    public Integer read(ByteBuffer in) throws IOException {
+      need(in, 4);
+      return in.getInt();
+    }
   };
 
   public static final Serializer<Long> LONG = new Serializer<Long>() {
@@ -67,24 +132,56 @@ public final class Serializers {
     @Override
     public void write(OutputStream out, Long value) throws IOException {
 
-      for (int i = 56; i >= 0; i -= 8) {
-        out.write((int)(0xFF & (value >>> i)));
+      if (out instanceof Compact.Output) {
+        ((Compact.Output) out).writeLong(value);
+        return;
       }
 
+      final long v = value;
+      final byte[] bytes = new byte[8];
+
+      for (int i = 0; i < 8; i++) {
+        bytes[i] = (byte)(v >>> (56 - 8 * i));
+      }
+
+      out.write(bytes);
+
     }
 
     @Override
     public Long read(InputStream in) throws IOException {
 
+      if (in instanceof Compact.Input) {
+        return ((Compact.Input) in).readLong();
+      }
+
+      final byte[] bytes = readFully(in, 8);
+
       long value = 0;
 
       for (int i = 0; i < 8; i++) {
-        value = (value << 8) | in.read();
+        value = (value << 8) | (bytes[i] & 0xFF);
       }
 
       return value;
 
     }
+
+    @Override
+    public int maxSize(Long value) {
+      return 8;
+    }
+
+    @Override
+    public void write(ByteBuffer out, Long value) {
+      out.putLong(value);
+    }
+
+    @Override
+    public Long read(ByteBuffer in) throws IOException {
+      need(in, 8);
+      return in.getLong();
+    }
   };
 
   public static final Serializer<byte[]> BYTES = new Serializer<byte[]>() {
@@ -101,33 +198,245 @@ public final class Serializers {
     public byte[] read(InputStream input) throws IOException {
 
       final int length = INTEGER.read(input);
-      final byte[] array = new byte[length];
 
-      for (int i = 0; i < length; i++) {
-        array[i] = (byte)input.read();
+      if (length < 0) {
+        throw new IOException(String.format("Invalid array length %d", length));
       }
 
-      return array;
+      return readFully(input, length);
 
     }
-  };
 
-  public static final Serializer<String> STRING = new Serializer<String>() {
+    @Override
+    public int maxSize(byte[] value) {
+      return 4 + value.length;
+    }
 
     @Override
-    public void write(OutputStream out, String value) throws IOException {
+    public void write(ByteBuffer out, byte[] value) {
+      out.putInt(value.length);
+      out.put(value);
+    }
 
-      BYTES.write(out, value.getBytes());
+    @Override
+    public byte[] read(ByteBuffer in) throws IOException {
+      final byte[] array = new byte[readLength(in)];
+      in.get(array);
+      return array;
+    }
+  };
 
+  public static final Serializer<String> STRING = string(false);
+
+  // INTERNED STRING
+  //
+  // The same encoding as STRING. Reading goes through the process's string
+  // table, if one has been installed with "internStrings", so that values
+  // which repeat (user names, conversation titles) share one String.
+  public static final Serializer<String> INTERNED_STRING = string(true);
+
+  // The table that INTERNED_STRING reads through, or null for none.
+  private static volatile StringTable strings = null;
+
+  // INTERN STRINGS
+  //
+  // Install "table" for INTERNED_STRING to read through, or pass null to go
+  // back to decoding every string afresh. Servers should leave this alone;
+  // it is meant for clients and relays that read the same names again and
+  // again.
+  public static void internStrings(StringTable table) {
+    strings = table;
+  }
+
+  private static Serializer<String> string(final boolean intern) {
+
+    return new Serializer<String>() {
+
+      // The string and its length are written as one array, unless the
+      // stream is compact and the length has to go as a varint.
+      @Override
+      public void write(OutputStream out, String value) throws IOException {
+
+        final int length = Utf8.length(value);
+
+        if (out instanceof Compact.Output) {
+          INTEGER.write(out, length);
+          final byte[] array = new byte[length];
+          Utf8.encode(value, array, 0);
+          out.write(array);
+        } else {
+          final byte[] array = new byte[4 + length];
+          array[0] = (byte)(length >>> 24);
+          array[1] = (byte)(length >>> 16);
+          array[2] = (byte)(length >>> 8);
+          array[3] = (byte)length;
+          Utf8.encode(value, array, 4);
+          out.write(array);
+        }
+
+      }
+
+      @Override
+      public String read(InputStream in) throws IOException {
+
+        final byte[] array = BYTES.read(in);
+        return decode(array, 0, array.length, intern);
+
+      }
+
+      @Override
+      public int maxSize(String value) {
+        return 4 + Utf8.length(value);
+      }
+
+      // Heap buffers are encoded straight into their array. Direct buffers
+      // have no array so the string is encoded into one first.
+      @Override
+      public void write(ByteBuffer out, String value) {
+
+        final int length = Utf8.length(value);
+
+        if (out.remaining() < 4 + length) {
+          throw new BufferOverflowException();
+        }
+
+        out.putInt(length);
+
+        if (out.hasArray()) {
+          Utf8.encode(value, out.array(), out.arrayOffset() + out.position());
+          out.position(out.position() + length);
+        } else {
+          final byte[] array = new byte[length];
+          Utf8.encode(value, array, 0);
+          out.put(array);
+        }
+
+      }
+
+      @Override
+      public String read(ByteBuffer in) throws IOException {
+
+        final int length = readLength(in);
+
+        if (in.hasArray()) {
+          final int start = in.position();
+          in.position(start + length);
+          return decode(in.array(), in.arrayOffset() + start, length, intern);
+        }
+
+        final byte[] array = new byte[length];
+        in.get(array);
+        return decode(array, 0, length, intern);
+
+      }
+    };
+  }
+
+  private static String decode(byte[] array, int offset, int length, boolean intern) {
+    final StringTable table = intern ? strings : null;
+    return table == null ?
+        new String(array, offset, length, StandardCharsets.UTF_8) :
+        table.decode(array, offset, length);
+  }
+
+  // Read exactly "length" bytes. A stream may hand back fewer bytes than asked
+  // for in one call (a socket gives whatever has arrived so far), so keep
+  // asking until there are enough or the stream ends.
+  private static byte[] readFully(InputStream in, int length) throws IOException {
+
+    final byte[] array = new byte[length];
+
+    int offset = 0;
+
+    while (offset < length) {
+      final int read = in.read(array, offset, length - offset);
+      if (read < 0) {
+        throw new EOFException(String.format("Expected %d bytes but the stream ended after %d", length, offset));
+      }
+      offset += read;
     }
 
-    @Override
-    public String read(InputStream input) throws IOException {
+    return array;
+  }
 
-      return new String(BYTES.read(input));
+  // Read one byte. Unlike "in.read", the end of the stream is an EOFException
+  // rather than -1, which callers would otherwise take for a value.
+  static int readByte(InputStream in) throws IOException {
+    final int value = in.read();
+    if (value < 0) {
+      throw new EOFException("Expected 1 byte but the stream ended");
+    }
+    return value;
+  }
 
+  // Make sure the buffer has at least "length" more bytes to read. Buffers
+  // would throw BufferUnderflowException on their own, but callers expect a
+  // short read to be an IOException just as it is for streams.
+  static void need(ByteBuffer in, int length) throws EOFException {
+    if (in.remaining() < length) {
+      throw new EOFException(String.format("Expected %d bytes but the buffer has %d", length, in.remaining()));
     }
-  };
+  }
+
+  // Read the length that comes before an array and check that the array is
+  // all there.
+  private static int readLength(ByteBuffer in) throws IOException {
+    final int length = INTEGER.read(in);
+    if (length < 0) {
+      throw new IOException(String.format("Invalid array length %d", length));
+    }
+    need(in, length);
+    return length;
+  }
+
+  // Read the number of elements that comes before a collection or map. A
+  // corrupt count is an IOException rather than whatever the list or map
+  // would throw when created with it.
+  private static int readCount(InputStream in) throws IOException {
+    final int count = INTEGER.read(in);
+    if (count < 0) {
+      throw new IOException(String.format("Invalid element count %d", count));
+    }
+    return count;
+  }
+
+  // As above, but every element takes at least one byte, so a count bigger
+  // than what is left in the buffer cannot be right either. This also stops
+  // a bad count from allocating a huge list up front.
+  private static int readCount(ByteBuffer in) throws IOException {
+    final int count = INTEGER.read(in);
+    if (count < 0) {
+      throw new IOException(String.format("Invalid element count %d", count));
+    }
+    if (count > in.remaining()) {
+      throw new EOFException(String.format("Expected %d elements but the buffer has %d bytes", count, in.remaining()));
+    }
+    return count;
+  }
+
+  // Collections and maps start a new scope for the compact encoding, which
+  // deltas each time and Uuid against the one before it in the same scope.
+  // Both are no-ops for other streams.
+
+  private static Compact.Scope enter(OutputStream out) {
+    return out instanceof Compact.Output ? ((Compact.Output) out).enter() : null;
+  }
+
+  private static void exit(OutputStream out, Compact.Scope outer) {
+    if (out instanceof Compact.Output) {
+      ((Compact.Output) out).exit(outer);
+    }
+  }
+
+  private static Compact.Scope enter(InputStream in) {
+    return in instanceof Compact.Input ? ((Compact.Input) in).enter() : null;
+  }
+
+  private static void exit(InputStream in, Compact.Scope outer) {
+    if (in instanceof Compact.Input) {
+      ((Compact.Input) in).exit(outer);
+    }
+  }
 
   public static <T> Serializer<Collection<T>> collection(final Serializer<T> serializer) {
 
@@ -136,14 +445,45 @@ public final class Serializers {
       @Override
       public void write(OutputStream out, Collection<T> value) throws IOException {
         INTEGER.write(out, value.size());
+        final Compact.Scope outer = enter(out);
         for (final T x : value) {
           serializer.write(out, x);
         }
+        exit(out, outer);
       }
 
       @Override
       public Collection<T> read(InputStream in) throws IOException {
-        final int size = INTEGER.read(in);
+        final int size = readCount(in);
+        final Compact.Scope outer = enter(in);
+        Collection<T> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+          list.add(serializer.read(in));
+        }
+        exit(in, outer);
+        return list;
+      }
+
+      @Override
+      public int maxSize(Collection<T> value) throws IOException {
+        int size = 4;
+        for (final T x : value) {
+          size += serializer.maxSize(x);
+        }
+        return size;
+      }
+
+      @Override
+      public void write(ByteBuffer out, Collection<T> value) throws IOException {
+        out.putInt(value.size());
+        for (final T x : value) {
+          serializer.write(out, x);
+        }
+      }
+
+      @Override
+      public Collection<T> read(ByteBuffer in) throws IOException {
+        final int size = readCount(in);
         Collection<T> list = new ArrayList<>(size);
         for (int i = 0; i < size; i++) {
           list.add(serializer.read(in));
@@ -159,19 +499,52 @@ public final class Serializers {
       @Override
       public void write(OutputStream out, Map<K, V> value) throws IOException {
         INTEGER.write(out, value.size());
+        final Compact.Scope outer = enter(out);
         for(final K k : value.keySet()){
           serializerKey.write(out, k);
           serializerValue.write(out, value.get(k));
         }
+        exit(out, outer);
       }
 
       @Override
       public Map<K, V> read(InputStream in) throws IOException {
-        final int size = INTEGER.read(in);
+        final int size = readCount(in);
+        final Compact.Scope outer = enter(in);
         Map<K, V> map = new HashMap<>(size);
         for(int i = 0; i < size; i++) {
           map.put(serializerKey.read(in), serializerValue.read(in));
         }
+        exit(in, outer);
+        return map;
+      }
+
+      @Override
+      public int maxSize(Map<K, V> value) throws IOException {
+        int size = 4;
+        for (final Map.Entry<K, V> entry : value.entrySet()) {
+          size += serializerKey.maxSize(entry.getKey());
+          size += serializerValue.maxSize(entry.getValue());
+        }
+        return size;
+      }
+
+      @Override
+      public void write(ByteBuffer out, Map<K, V> value) throws IOException {
+        out.putInt(value.size());
+        for (final Map.Entry<K, V> entry : value.entrySet()) {
+          serializerKey.write(out, entry.getKey());
+          serializerValue.write(out, entry.getValue());
+        }
+      }
+
+      @Override
+      public Map<K, V> read(ByteBuffer in) throws IOException {
+        final int size = readCount(in);
+        Map<K, V> map = new HashMap<>(size);
+        for (int i = 0; i < size; i++) {
+          map.put(serializerKey.read(in), serializerValue.read(in));
+        }
         return map;
       }
     };
@@ -196,9 +569,107 @@ public final class Serializers {
 
       @Override
       public T read(InputStream in) throws IOException {
-        return in.read() == NO_VALUE ? null : serializer.read(in);
+        return readByte(in) == NO_VALUE ? null : serializer.read(in);
+      }
+
+      @Override
+      public int maxSize(T value) throws IOException {
+        return value == null ? 1 : 1 + serializer.maxSize(value);
+      }
+
+      @Override
+      public void write(ByteBuffer out, T value) throws IOException {
+        if (value == null) {
+          out.put((byte) NO_VALUE);
+        } else {
+          out.put((byte) YES_VALUE);
+          serializer.write(out, value);
+        }
+      }
+
+      @Override
+      public T read(ByteBuffer in) throws IOException {
+        need(in, 1);
+        return (in.get() & 0xFF) == NO_VALUE ? null : serializer.read(in);
+      }
+    };
+  }
+
+  // TO BUFFER
+  //
+  // Encode a value into a new buffer that is ready to be read. Direct buffers
+  // suit values that are headed for a channel, as the channel can then write
+  // them without copying them first.
+  public static <T> ByteBuffer toBuffer(Serializer<T> serializer, T value, boolean direct) throws IOException {
+    final int size = serializer.maxSize(value);
+    final ByteBuffer buffer = direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+    serializer.write(buffer, value);
+    buffer.flip();
+    return buffer;
+  }
+
+  // The number of bytes the stream methods write for "value". This is what
+  // serializers that do not know their own size use for "maxSize".
+  static <T> int sizeOf(Serializer<T> serializer, T value) throws IOException {
+
+    final int[] count = { 0 };
+
+    serializer.write(new OutputStream() {
+      @Override
+      public void write(int b) {
+        count[0] += 1;
+      }
+
+      @Override
+      public void write(byte[] array, int offset, int length) {
+        count[0] += length;
+      }
+    }, value);
+
+    return count[0];
+  }
+
+  // Streams over a buffer, for serializers that only know how to use streams.
+  // Both move the buffer's position as they go.
+
+  static OutputStream asOutputStream(final ByteBuffer buffer) {
+    return new OutputStream() {
+      @Override
+      public void write(int b) {
+        buffer.put((byte) b);
+      }
+
+      @Override
+      public void write(byte[] array, int offset, int length) {
+        buffer.put(array, offset, length);
       }
     };
   }
-}
 
+  static InputStream asInputStream(final ByteBuffer buffer) {
+    return new InputStream() {
+      @Override
+      public int read() {
+        return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+      }
+
+      @Override
+      public int read(byte[] array, int offset, int length) {
+        if (length == 0) {
+          return 0;
+        }
+        if (!buffer.hasRemaining()) {
+          return -1;
+        }
+        final int count = Math.min(length, buffer.remaining());
+        buffer.get(array, offset, count);
+        return count;
+      }
+
+      @Override
+      public int available() {
+        return buffer.remaining();
+      }
+    };
+  }
+}
@@ -0,0 +1,108 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.nio.charset.StandardCharsets;
+
+// STRING TABLE
+//
+// Remembers recently decoded strings so that decoding the same bytes again
+// hands back the same String instead of a new copy. A client that refreshes
+// its list of users or conversations decodes the same names and titles over
+// and over; with a table installed (see Serializers.internStrings) each name
+// is held once no matter how many times it has been read.
+//
+// The table has a fixed number of slots and each slot holds one string,
+// chosen by a hash of its bytes. A new string simply replaces whatever was in
+// its slot, so the table never grows and needs no locks: the worst a race or
+// a collision can do is cost a decode. Only short strings are kept, as long
+// ones (message bodies) are rarely repeated.
+public final class StringTable {
+
+  // Strings with more bytes than this are decoded without the table.
+  public static final int MAX_LENGTH = 64;
+
+  // A slot's contents. Both fields are final, so a slot that another thread
+  // has just replaced is always seen whole.
+  private static final class Entry {
+
+    final int hash;
+    final byte[] bytes;
+    final String value;
+
+    Entry(int hash, byte[] bytes, String value) {
+      this.hash = hash;
+      this.bytes = bytes;
+      this.value = value;
+    }
+  }
+
+  private final Entry[] slots;
+  private final int mask;
+
+  // Create a table with at least "size" slots. The count is rounded up to a
+  // power of two.
+  public StringTable(int size) {
+    if (size < 1 || size > (1 << 30)) {
+      throw new IllegalArgumentException("Invalid string table size " + size);
+    }
+    final int slotCount = Integer.highestOneBit(size) == size ? size : Integer.highestOneBit(size) << 1;
+    this.slots = new Entry[slotCount];
+    this.mask = slotCount - 1;
+  }
+
+  // DECODE
+  //
+  // The string for the UTF-8 bytes in "array" from "offset" to "offset +
+  // length". If the table has seen the same bytes recently the string it
+  // returned then is returned again.
+  public String decode(byte[] array, int offset, int length) {
+
+    if (length > MAX_LENGTH) {
+      return new String(array, offset, length, StandardCharsets.UTF_8);
+    }
+
+    int hash = 1;
+    for (int i = offset; i < offset + length; i++) {
+      hash = 31 * hash + array[i];
+    }
+
+    final int slot = (hash ^ (hash >>> 16)) & mask;
+    final Entry entry = slots[slot];
+
+    if (entry != null && entry.hash == hash && matches(entry.bytes, array, offset, length)) {
+      return entry.value;
+    }
+
+    final byte[] bytes = new byte[length];
+    System.arraycopy(array, offset, bytes, 0, length);
+
+    final String value = new String(bytes, StandardCharsets.UTF_8);
+    slots[slot] = new Entry(hash, bytes, value);
+    return value;
+  }
+
+  private static boolean matches(byte[] bytes, byte[] array, int offset, int length) {
+    if (bytes.length != length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (bytes[i] != array[offset + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
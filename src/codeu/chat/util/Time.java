@@ -17,8 +17,10 @@ package codeu.chat.util;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 
 public final class Time implements Comparable<Time> {
 
@@ -27,6 +29,11 @@ public final class Time implements Comparable<Time> {
     @Override
     public void write(OutputStream out, Time value) throws IOException {
 
+      if (out instanceof Compact.Output) {
+        ((Compact.Output) out).writeTime(value.inMs());
+        return;
+      }
+
       Serializers.LONG.write(out, value.inMs());
 
     }
@@ -34,32 +41,100 @@ public final class Time implements Comparable<Time> {
     @Override
     public Time read(InputStream in) throws IOException {
 
+      if (in instanceof Compact.Input) {
+        return Time.fromMs(((Compact.Input) in).readTime());
+      }
+
       return Time.fromMs(Serializers.LONG.read(in));
 
     }
+
+    @Override
+    public int maxSize(Time value) {
+      return 8;
+    }
+
+    @Override
+    public void write(ByteBuffer out, Time value) {
+      out.putLong(value.inMs());
+    }
+
+    @Override
+    public Time read(ByteBuffer in) throws IOException {
+      return Time.fromMs(Serializers.LONG.read(in));
+    }
   };
 
-  private static final SimpleDateFormat formatter =
-      new SimpleDateFormat("dd-MMM-yyyy HH:mm:ss.SSS");
+  // FORMAT
+  //
+  // Times are printed as "dd-MMM-yyyy HH:mm:ss.SSS" in the local time zone.
+  // Log lines come in bursts within the same second, so the part up to the
+  // seconds is remembered along with the second it is for, and only the
+  // milliseconds are added each time. The remembered part is replaced as a
+  // whole, so threads can share it without locks: the worst a race can do is
+  // format the same second twice.
+  private static final DateTimeFormatter FORMAT =
+      DateTimeFormatter.ofPattern("dd-MMM-yyyy HH:mm:ss").withZone(ZoneId.systemDefault());
+
+  private static final class Second {
+
+    final long second;
+    final String text;
+
+    Second(long second, String text) {
+      this.second = second;
+      this.text = text;
+    }
+  }
 
-  private final Date date;
+  private static volatile Second lastSecond = new Second(Long.MIN_VALUE, "");
 
-  private Time(long totalMs) { this.date = new Date(totalMs); }
+  private final long ms;
 
-  public long inMs() { return date.getTime(); }
+  private Time(long totalMs) { this.ms = totalMs; }
+
+  public long inMs() { return ms; }
 
   @Override
   public int compareTo(Time other) {
-    return date.compareTo(other.date);
+    return Long.compare(ms, other.ms);
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    return other instanceof Time && ((Time) other).ms == ms;
+  }
+
+  @Override
+  public int hashCode() {
+    return Long.hashCode(ms);
   }
 
   public boolean inRange(Time start, Time end) {
-    return this.compareTo(start) >= 0 && this.compareTo(end) <= 0;
+    return ms >= start.ms && ms <= end.ms;
   }
 
   @Override
   public String toString() {
-    return formatter.format(date);
+
+    final long second = Math.floorDiv(ms, 1000);
+    final int millis = Math.floorMod(ms, 1000);
+
+    Second cached = lastSecond;
+    if (cached.second != second) {
+      cached = new Second(second, FORMAT.format(Instant.ofEpochSecond(second)));
+      lastSecond = cached;
+    }
+
+    final StringBuilder build = new StringBuilder(cached.text.length() + 4);
+    build.append(cached.text).append('.');
+    if (millis < 100) {
+      build.append('0');
+    }
+    if (millis < 10) {
+      build.append('0');
+    }
+    return build.append(millis).toString();
   }
 
   public static Time fromMs(long ms) { return new Time(ms); }
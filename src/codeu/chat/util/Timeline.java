@@ -14,9 +14,16 @@
 
 package codeu.chat.util;
 
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 // TIMELINE
 //
@@ -24,135 +31,377 @@ import java.util.concurrent.PriorityBlockingQueue;
 // when work needs to be ordered by time. The timeline manages its own threads
 // and there is no way to know outside of the code that is executed when the
 // code has been executed.
+//
+// Events that are already due go straight to the executors. Events for later
+// go into a hashed timing wheel: a ring of buckets, each covering one tick of
+// time. Adding an event is a single queue insert and a ticker thread moves
+// each bucket's due events to the executors as the wheel turns past it, so
+// no thread needs to be woken when an event is added. Events may run up to
+// one tick later than asked for.
+//
+// By default a timeline has one executor, so events that are due at the same
+// time run one after the other in the order they were added. A timeline with
+// more executors runs due events in parallel and makes no promise about order,
+// except for events that are given an ordering key. Events with the same key
+// run one at a time, in the order they became due, while events with
+// different keys run side by side. Keys take turns on the executors, so a key
+// with a long line of events cannot hold up the others.
+//
+// A timeline may be given a capacity. Events added with the "offer" methods
+// are turned away once that many events are waiting, so that a burst of work
+// is refused quickly instead of piling up without limit. Events added with
+// the "schedule" methods are always accepted; they are meant for work that
+// must not be lost, such as the timeline's own repeating events.
 public final class Timeline {
 
   private final static Logger.Log LOG = Logger.newLog(Timeline.class);
 
-  private static final class Event implements Comparable<Event> {
+  // The length of one tick and the number of buckets in the wheel. An event
+  // more than one turn of the wheel away (about five seconds) stays in its
+  // bucket for as many turns as it needs.
+  private static final long TICK_MS = 10;
+  private static final int WHEEL_SIZE = 512;  // must be a power of two
+
+  // HANDLE
+  //
+  // Returned for every scheduled event so that it can be cancelled before it
+  // runs. Cancelling a repeating event stops all of its future runs.
+  public interface Handle {
+
+    // Returns true if the event will not run (again) because of this call.
+    boolean cancel();
+
+    boolean isCancelled();
+  }
+
+  private static final int WAITING = 0;
+  private static final int RUNNING = 1;
+  private static final int CANCELLED = 2;
+
+  private final class Event implements Handle, Runnable {
 
-    public final long time;
+    public final Object key;  // null for events that need no ordering
     public final Runnable callback;
+    public final long periodMs;  // 0 for events that only run once
+
+    public long time;
+    public long tick;  // the tick the event is due on
+
+    private final AtomicInteger state = new AtomicInteger(WAITING);
 
-    public Event(long time, Runnable callback) {
+    public Event(Object key, long time, long periodMs, Runnable callback) {
+      this.key = key;
       this.time = time;
+      this.tick = ticksFor(time);
+      this.periodMs = periodMs;
       this.callback = callback;
     }
 
     @Override
-    public int compareTo(Event other) {
-      return Long.compare(time, other.time);
+    public boolean cancel() {
+      while (true) {
+        final int current = state.get();
+        if (current == CANCELLED) {
+          return false;
+        }
+        if (state.compareAndSet(current, CANCELLED)) {
+          // A waiting event was counted in "depth". A running event has
+          // already been taken off it.
+          if (current == WAITING) {
+            depth.decrementAndGet();
+          }
+          return current == WAITING || periodMs > 0;
+        }
+      }
     }
-  }
-
-  private final BlockingQueue<Event> backlog = new PriorityBlockingQueue<>();
-  private final BlockingQueue<Runnable> todo = new LinkedBlockingQueue<>();
 
-  private boolean running = true;
+    @Override
+    public boolean isCancelled() {
+      return state.get() == CANCELLED;
+    }
 
-  // This thread is used to track the time of events and moves events from the
-  // "backlog" queue to the "todo" queue when it is time to execute. They are
-  // separated to allow this thread to be safely interrupted.
-  private final Thread scheduler = new Thread() {
     @Override
     public void run() {
-      while (running) {
+      if (!state.compareAndSet(WAITING, RUNNING)) {
+        return;  // cancelled while it was waiting
+      }
 
-        Event next;
+      depth.decrementAndGet();
 
-        try {
-          next = backlog.take();
-        } catch (InterruptedException ex) {
-          // Rather than try to handle the exception here, set "next"
-          // to null and let the normal flow handle the case.
-          next = null;
+      try {
+        callback.run();
+      } finally {
+        if (periodMs > 0 && state.compareAndSet(RUNNING, WAITING)) {
+          reschedule();
         }
+      }
+    }
 
-        long sleep = 0;
+    // Repeating events run at a fixed rate. A run that would already be late
+    // because the last one ran long is skipped rather than run back to back.
+    private void reschedule() {
+      final long now = System.currentTimeMillis();
+      do {
+        time += periodMs;
+      } while (time <= now);
+      tick = ticksFor(time);
 
-        if (next != null) {
+      depth.incrementAndGet();
+      add(this);
+    }
+  }
 
-          final long now = System.currentTimeMillis();
+  // LANE
+  //
+  // The due events for one ordering key. A lane is in "lanes" for as long as
+  // it has events, and while it is in "lanes" it is either waiting in "todo"
+  // or being run, never both. A lane runs one event and then goes to the back
+  // of "todo" if it has more, so that all keys get a fair share.
+  private final class Lane implements Runnable {
 
-          // Check which queue the event should be added to. If it
-          // is time to execute, it should be added to the "todo"
-          // queue. If it is not time, it should be added back to the
-          // "backlog".
-          // If the item is added back to the backlog, we know how long
-          // it will be until it will be executed. That means we can sleep
-          // until then.
-          if (next.time <= now) {
-            forceAdd(todo, next.callback);
-            sleep = 0;
-          } else {
-            // Put it back (it's not time).
-            forceAdd(backlog, next);
-            sleep = next.time - now;
-          }
-        }
+    private final Object key;
+    private final Queue<Event> events = new ArrayDeque<>();  // guarded by "lanes"
+
+    public Lane(Object key) {
+      this.key = key;
+    }
+
+    @Override
+    public void run() {
+      final Event next;
+      synchronized (lanes) {
+        next = events.remove();
+      }
 
-        if (sleep > 0) {
-          try {
-            Thread.sleep(sleep);
-          } catch (InterruptedException ex) {
-            // There are two cases this will happen:
-            //  1. A new item was added and we are being woken to
-            //     check if we need to update the time.
-            //  2. It is time to exit and we need to wake-up so that
-            //     we can check that "running" is "false".
+      try {
+        next.run();
+      } finally {
+        synchronized (lanes) {
+          if (events.isEmpty()) {
+            lanes.remove(key);
+          } else {
+            todo.add(this);
           }
         }
       }
     }
-  };
+  }
+
+  // Events waiting for the ticker to put them in the wheel, the wheel itself
+  // and the events that are due and waiting for an executor. Only the ticker
+  // thread touches the wheel. None of the queues has a limit of its own, so
+  // adding to them never fails. The number of waiting events is limited by
+  // "capacity" instead.
+  private final Queue<Event> incoming = new ConcurrentLinkedQueue<>();
+  private final Queue<Event>[] wheel = newWheel();
+  private final BlockingQueue<Runnable> todo = new LinkedBlockingQueue<>();
+  private final Map<Object, Lane> lanes = new HashMap<>();
+
+  private final int capacity;
+
+  // The number of events that have been added but have not started to run,
+  // the most there have ever been and how many offers were turned away.
+  private final AtomicInteger depth = new AtomicInteger();
+  private final AtomicInteger peakDepth = new AtomicInteger();
+  private final AtomicLong rejected = new AtomicLong();
 
-  // This thread is used to run the code that was given to the time line. This
-  // worker does not need to know anything about the time. Once an event gets to
-  // here - it is considered "on time" and will be executed.
-  private final Thread executor = new Thread() {
+  private volatile boolean running = true;
+
+  // This thread turns the wheel. Every tick it takes newly added events into
+  // the wheel and hands every event in the current bucket that is due to the
+  // executors.
+  private final Thread ticker = new Thread("timeline-ticker") {
     @Override
     public void run() {
+
+      long tick = System.currentTimeMillis() / TICK_MS;
+
       while (running) {
+
+        final long now = System.currentTimeMillis() / TICK_MS;
+
+        // Catch up on every tick that has passed since the last turn, one
+        // bucket at a time, so that a late wake-up cannot skip a bucket.
+        for (; tick <= now; tick++) {
+          transferIncoming(tick);
+          expire(tick);
+        }
+
         try {
-          todo.take().run();
-        } catch (Exception ex) {
-          // Catch all exceptions here to stop any rogue action from
-          // take down the timeline.
-          LOG.warning(
-              "An exception was seen on the timeline (%s)",
-              ex.toString());
+          Thread.sleep(TICK_MS);
+        } catch (InterruptedException ex) {
+          // Woken by "stop" - check "running" again.
         }
       }
     }
   };
 
+  // These threads run the events once they are due. They do not need to know
+  // anything about time. Once an event gets to here it is considered "on
+  // time" and will be executed.
+  private final Thread[] executors;
+
   public Timeline() {
-    scheduler.start();
-    executor.start();
+    this(Integer.MAX_VALUE);
+  }
+
+  public Timeline(int capacity) {
+    this(capacity, 1);
+  }
+
+  public Timeline(int capacity, int executorCount) {
+    this.capacity = capacity;
+    this.executors = new Thread[executorCount];
+
+    for (int i = 0; i < executorCount; i++) {
+      executors[i] = new Thread("timeline-executor-" + i) {
+        @Override
+        public void run() {
+          while (running) {
+            try {
+              todo.take().run();
+            } catch (InterruptedException ex) {
+              // Woken by "stop" - check "running" again.
+            } catch (Exception ex) {
+              // Catch all exceptions here to stop any rogue action from
+              // take down the timeline.
+              LOG.warning(
+                  "An exception was seen on the timeline (%s)",
+                  ex.toString());
+            }
+          }
+        }
+      };
+    }
+
+    ticker.start();
+    for (final Thread executor : executors) {
+      executor.start();
+    }
   }
 
   // SCHEDULE NOW
   //
   // Add an event to the timeline so that it will occur as soon as possible.
-  public void scheduleNow(Runnable callback) {
-    scheduleAt(System.currentTimeMillis(), callback);
+  public Handle scheduleNow(Runnable callback) {
+    return scheduleAt(null, System.currentTimeMillis(), callback);
+  }
+
+  // Same as "scheduleNow" but the event will not run until every earlier
+  // event with the same key has finished.
+  public Handle scheduleNow(Object key, Runnable callback) {
+    return scheduleAt(key, System.currentTimeMillis(), callback);
   }
 
   // SCHEDULE IN
   //
   // Add an event to the timeline so that it will occur in approximately in a
   // set amount of milliseconds.
-  public void scheduleIn(long ms, Runnable callback) {
-    scheduleAt(System.currentTimeMillis() + ms, callback);
+  public Handle scheduleIn(long ms, Runnable callback) {
+    return scheduleAt(null, System.currentTimeMillis() + ms, callback);
   }
 
   // SCHEDULE AT
   //
   // Add an event to the timeline so that will occur approximately at a fixed
   // point in time.
-  public void scheduleAt(long timeMs, Runnable callback) {
-    final Event event = new Event(timeMs, callback);
-    forceAdd(backlog, event);
-    scheduler.interrupt();  // wake it up
+  public Handle scheduleAt(long timeMs, Runnable callback) {
+    return scheduleAt(null, timeMs, callback);
+  }
+
+  // Same as "scheduleAt" but once the event is due it will not run until
+  // every event with the same key that became due before it has finished.
+  public Handle scheduleAt(Object key, long timeMs, Runnable callback) {
+    final Event event = new Event(key, timeMs, 0, callback);
+    depth.incrementAndGet();
+    add(event);
+    return event;
+  }
+
+  // SCHEDULE EVERY
+  //
+  // Add an event to the timeline that will occur approximately every "ms"
+  // milliseconds, starting "ms" milliseconds from now, until it is cancelled.
+  // The next run is counted from when the last one was due, not from when it
+  // finished, so the rate does not drift.
+  public Handle scheduleEvery(long ms, Runnable callback) {
+    if (ms <= 0) {
+      throw new IllegalArgumentException("Period must be positive: " + ms);
+    }
+
+    final Event event = new Event(null, System.currentTimeMillis() + ms, ms, callback);
+    depth.incrementAndGet();
+    add(event);
+    return event;
+  }
+
+  // OFFER NOW
+  //
+  // Add an event to the timeline so that it will occur as soon as possible,
+  // unless the timeline is already full. Returns null if the event was turned
+  // away, in which case it will never run.
+  public Handle offerNow(Runnable callback) {
+    return offerAt(null, System.currentTimeMillis(), callback);
+  }
+
+  // Same as "offerNow" but the event will not run until every earlier event
+  // with the same key has finished.
+  public Handle offerNow(Object key, Runnable callback) {
+    return offerAt(key, System.currentTimeMillis(), callback);
+  }
+
+  // OFFER AT
+  //
+  // Add an event to the timeline so that it will occur approximately at a
+  // fixed point in time, unless the timeline is already full. Returns null if
+  // the event was turned away, in which case it will never run.
+  public Handle offerAt(long timeMs, Runnable callback) {
+    return offerAt(null, timeMs, callback);
+  }
+
+  // Same as "offerAt" but once the event is due it will not run until every
+  // event with the same key that became due before it has finished.
+  public Handle offerAt(Object key, long timeMs, Runnable callback) {
+    while (true) {
+      final int current = depth.get();
+      if (current >= capacity) {
+        rejected.incrementAndGet();
+        return null;
+      }
+      if (depth.compareAndSet(current, current + 1)) {
+        break;
+      }
+    }
+
+    final Event event = new Event(key, timeMs, 0, callback);
+    add(event);
+    return event;
+  }
+
+  // DEPTH
+  //
+  // The number of events that are waiting to run.
+  public int depth() {
+    return depth.get();
+  }
+
+  // PEAK DEPTH
+  //
+  // The most events that have been waiting to run at once.
+  public int peakDepth() {
+    return peakDepth.get();
+  }
+
+  // REJECTED
+  //
+  // The number of events that have been turned away because the timeline was
+  // full.
+  public long rejected() {
+    return rejected.get();
+  }
+
+  public int capacity() {
+    return capacity;
   }
 
   // STOP
@@ -164,16 +413,20 @@ public final class Timeline {
     // Interrupt does not force a thread to exit. It signals the
     // thead that it is time to stop execution. As the threads may
     // be sleeping, this will force them awake.
-    executor.interrupt();
-    scheduler.interrupt();
+    for (final Thread executor : executors) {
+      executor.interrupt();
+    }
+    ticker.interrupt();
   }
 
   // JOIN
   //
   // Wait for the timeline to shutdown. This is a blocking call.
   public void join() {
-    forceJoin(executor);
-    forceJoin(scheduler);
+    for (final Thread executor : executors) {
+      forceJoin(executor);
+    }
+    forceJoin(ticker);
   }
 
   private static void forceJoin(Thread thread) {
@@ -187,9 +440,73 @@ public final class Timeline {
     }
   }
 
-  private static <T> void forceAdd(BlockingQueue<T> queue, T value) {
-    while (!queue.offer(value)) {
-      LOG.warning("Failed to add to queue, trying again...");
+  // Events that are already due skip the wheel entirely.
+  private void add(Event event) {
+    peakDepth.accumulateAndGet(depth.get(), Math::max);
+
+    if (event.time <= System.currentTimeMillis()) {
+      dispatch(event);
+    } else {
+      incoming.add(event);
+    }
+  }
+
+  private void transferIncoming(long currentTick) {
+    for (Event event = incoming.poll(); event != null; event = incoming.poll()) {
+      if (event.isCancelled()) {
+        continue;
+      }
+      // An event that became due while waiting to be put in the wheel goes
+      // in the current bucket so that it is handed over on this turn.
+      final long tick = Math.max(event.tick, currentTick);
+      wheel[(int) (tick & (WHEEL_SIZE - 1))].add(event);
+    }
+  }
+
+  private void expire(long currentTick) {
+    final Iterator<Event> events = wheel[(int) (currentTick & (WHEEL_SIZE - 1))].iterator();
+
+    while (events.hasNext()) {
+      final Event event = events.next();
+      if (event.isCancelled()) {
+        events.remove();
+      } else if (event.tick <= currentTick) {
+        events.remove();
+        dispatch(event);
+      }
+    }
+  }
+
+  // Hand a due event to the executors, through its key's lane if it has one.
+  private void dispatch(Event event) {
+    if (event.key == null) {
+      todo.add(event);
+      return;
+    }
+
+    synchronized (lanes) {
+      Lane lane = lanes.get(event.key);
+      if (lane == null) {
+        lane = new Lane(event.key);
+        lanes.put(event.key, lane);
+        todo.add(lane);
+      }
+      lane.events.add(event);
+    }
+  }
+
+  // The first tick that starts at or after the given time, so that no event
+  // is handed over before it is due.
+  private static long ticksFor(long timeMs) {
+    return (timeMs + TICK_MS - 1) / TICK_MS;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Queue<Event>[] newWheel() {
+    final Queue<Event>[] wheel = (Queue<Event>[]) new Queue<?>[WHEEL_SIZE];
+    for (int i = 0; i < WHEEL_SIZE; i++) {
+      wheel[i] = new ArrayDeque<>();
     }
+    return wheel;
   }
 }
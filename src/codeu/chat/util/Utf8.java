@@ -0,0 +1,101 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+// UTF-8
+//
+// Strings are always sent as UTF-8, whatever the platform's default charset
+// is. Encoding is done by hand so that the exact size is known before any
+// bytes are written, which lets a string and its length go out as one array
+// (or straight into a buffer) without encoding twice or copying.
+//
+// Characters that cannot be encoded (a surrogate without its other half) are
+// written as '?', the same as String.getBytes does. Decoding is left to
+// String, which already takes the fast path for plain ASCII.
+final class Utf8 {
+
+  private Utf8() { }
+
+  // LENGTH
+  //
+  // The number of bytes "value" takes once encoded.
+  static int length(String value) {
+
+    final int chars = value.length();
+    int bytes = chars;
+
+    for (int i = 0; i < chars; i++) {
+      final char c = value.charAt(i);
+      if (c >= 0x80) {
+        if (c < 0x800) {
+          bytes += 1;
+        } else if (Character.isHighSurrogate(c) && i + 1 < chars && Character.isLowSurrogate(value.charAt(i + 1))) {
+          bytes += 2;  // four bytes for the pair of chars
+          i += 1;
+        } else if (!Character.isSurrogate(c)) {
+          bytes += 2;
+        }
+        // A lone surrogate is written as a single '?'.
+      }
+    }
+
+    return bytes;
+  }
+
+  // ENCODE
+  //
+  // Write "value" into "array" starting at "offset" and return the offset
+  // after the last byte. The array must have room for "length(value)" bytes.
+  static int encode(String value, byte[] array, int offset) {
+
+    final int chars = value.length();
+    int i = 0;
+
+    // Most strings are plain ASCII, so copy those characters without any
+    // further checks for as long as they last.
+    while (i < chars) {
+      final char c = value.charAt(i);
+      if (c >= 0x80) {
+        break;
+      }
+      array[offset++] = (byte) c;
+      i += 1;
+    }
+
+    for (; i < chars; i++) {
+      final char c = value.charAt(i);
+      if (c < 0x80) {
+        array[offset++] = (byte) c;
+      } else if (c < 0x800) {
+        array[offset++] = (byte) (0xC0 | (c >> 6));
+        array[offset++] = (byte) (0x80 | (c & 0x3F));
+      } else if (Character.isHighSurrogate(c) && i + 1 < chars && Character.isLowSurrogate(value.charAt(i + 1))) {
+        final int point = Character.toCodePoint(c, value.charAt(++i));
+        array[offset++] = (byte) (0xF0 | (point >> 18));
+        array[offset++] = (byte) (0x80 | ((point >> 12) & 0x3F));
+        array[offset++] = (byte) (0x80 | ((point >> 6) & 0x3F));
+        array[offset++] = (byte) (0x80 | (point & 0x3F));
+      } else if (Character.isSurrogate(c)) {
+        array[offset++] = (byte) '?';
+      } else {
+        array[offset++] = (byte) (0xE0 | (c >> 12));
+        array[offset++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+        array[offset++] = (byte) (0x80 | (c & 0x3F));
+      }
+    }
+
+    return offset;
+  }
+}
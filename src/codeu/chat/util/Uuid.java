@@ -18,7 +18,7 @@ import java.lang.StringBuilder;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.Objects;
+import java.nio.ByteBuffer;
 
 public final class Uuid {
 
@@ -29,6 +29,11 @@ public final class Uuid {
     @Override
     public void write(OutputStream out, Uuid value) throws IOException {
 
+      if (out instanceof Compact.Output) {
+        ((Compact.Output) out).writeUuid(value);
+        return;
+      }
+
       int length = 0;
       for (Uuid current = value; current != null; current = current.root()) {
         length += 1;
@@ -51,9 +56,13 @@ public final class Uuid {
     @Override
     public Uuid read(InputStream in) throws IOException {
 
-      // "input.read" can only return one by of data so there is no need
+      if (in instanceof Compact.Input) {
+        return ((Compact.Input) in).readUuid();
+      }
+
+      // "readByte" can only return one byte of data so there is no need
       // to check that the bounds of 0 to 255 is respected.
-      final int length = in.read();
+      final int length = Serializers.readByte(in);
       final int[] chain = new int[length];
 
       for (int i = 0; i < length; i++) {
@@ -63,9 +72,58 @@ public final class Uuid {
       Uuid head = null;
 
       for (int i = length - 1; i >= 0; i--) {
-        head = new Uuid(head, chain[i]);
+        head = intern(head, chain[i]);
+      }
+
+      return head;
+    }
+
+    @Override
+    public int maxSize(Uuid value) {
+      int length = 0;
+      for (Uuid current = value; current != null; current = current.root()) {
+        length += 1;
+      }
+      return 1 + 4 * length;
+    }
+
+    @Override
+    public void write(ByteBuffer out, Uuid value) throws IOException {
+
+      int length = 0;
+      for (Uuid current = value; current != null; current = current.root()) {
+        length += 1;
+      }
+
+      if (length > 255) {
+        throw new IOException("Max supported Uuid chain length is 255");
+      }
+
+      out.put((byte) length);
+
+      for (Uuid current = value; current != null; current = current.root()) {
+        out.putInt(current.id());
+      }
+    }
+
+    // The root comes last in the buffer but has to be built first, so the ids
+    // are read from the end without moving the position, then skipped over.
+    @Override
+    public Uuid read(ByteBuffer in) throws IOException {
+
+      Serializers.need(in, 1);
+      final int length = in.get() & 0xFF;
+      Serializers.need(in, 4 * length);
+
+      final int start = in.position();
+
+      Uuid head = null;
+
+      for (int i = length - 1; i >= 0; i--) {
+        head = intern(head, in.getInt(start + 4 * i));
       }
 
+      in.position(start + 4 * length);
       return head;
     }
   };
@@ -85,17 +143,33 @@ public final class Uuid {
     Uuid make();
   }
 
+  // The number of Uuids that "intern" remembers. Must be a power of two.
+  private static final int CACHE_SIZE = 4096;
+
+  // Recently read or parsed Uuids, each in the slot picked by its hash. A new
+  // Uuid replaces whatever was in its slot, so the cache never grows and needs
+  // no locks: every field of a Uuid is final, so a Uuid that another thread has
+  // just put in a slot is always seen whole, and the worst a race can do is
+  // cost an allocation.
+  private static final Uuid[] CACHE = new Uuid[CACHE_SIZE];
+
   private final Uuid root;
   private final int id;
 
+  // A mix of every id in the chain, in order, so that "1.2" and "2.1" hash
+  // differently. It is worked out once when the Uuid is made, as Uuids are
+  // mostly used as keys. With compressed references the field sits in what
+  // would otherwise be padding, so a Uuid is no bigger for having it.
+  private final int hash;
+
   public Uuid(Uuid root, int id) {
     this.root = root;
     this.id = id;
+    this.hash = mix(root == null ? 0 : root.hash, id);
   }
 
   public Uuid(int id) {
-    this.root = null;
-    this.id = id;
+    this(null, id);
   }
 
   public Uuid root() {
@@ -112,7 +186,7 @@ public final class Uuid {
   }
 
   @Override
-  public int hashCode() { return hash(this); }
+  public int hashCode() { return hash; }
 
   @Override
   public String toString() {
@@ -136,31 +210,61 @@ public final class Uuid {
       return true;
     }
 
-    if (a == null && b != null) {
+    if (a == null || b == null) {
       return false;
     }
 
-    if (a != null && b == null) {
+    // Different hashes mean different Uuids, which settles almost every
+    // comparison of two different Uuids without walking either chain.
+    if (a.hash != b.hash) {
       return false;
     }
 
-    // Check id before checking the root as the ids are more likely to differ
-    // and will short-circuit the logic preventing us from wasting time checking
-    // the full chain.
-    return a.id() == b.id() && equals(a.root(), b.root());
+    // Walk both chains together. Uuids made by the same generator share
+    // their root, so the walk usually ends at "a == b" after one link.
+    while (a != b) {
+      if (a == null || b == null || a.id != b.id) {
+        return false;
+      }
+      a = a.root;
+      b = b.root;
+    }
+
+    return true;
 
   }
 
-  // Compute a hash code for the Uuids by walking up the chain.
-  private static int hash(Uuid id) {
+  // INTERN
+  //
+  // The Uuid with "id" on the end of "root". If one was made recently (by
+  // reading or parsing) that one is returned rather than a new copy, so that
+  // the same id read many times is one object, and comparing two of them
+  // usually stops at "a == b".
+  static Uuid intern(Uuid root, int id) {
 
-    int hash = 0;
+    final int slot = mix(root == null ? 0 : root.hash, id) & (CACHE_SIZE - 1);
+    final Uuid cached = CACHE[slot];
 
-    for (Uuid current = id; current != null; current = current.root()) {
-      hash ^= Objects.hash(current.id());
+    if (cached != null && cached.id == id && equals(cached.root, root)) {
+      return cached;
     }
 
-    return hash;
+    final Uuid made = new Uuid(root, id);
+    CACHE[slot] = made;
+    return made;
+  }
+
+  // Combine a root's hash with the next id. The multiply and shifts are the
+  // finishing steps of MurmurHash3, which spread every input bit over the
+  // whole result.
+  private static int mix(int rootHash, int id) {
+    int h = rootHash * 0x9E3779B9 + id;
+    h ^= h >>> 16;
+    h *= 0x85EBCA6B;
+    h ^= h >>> 13;
+    h *= 0xC2B2AE35;
+    h ^= h >>> 16;
+    return h;
   }
 
   // Compute human-readable representation for Uuids
@@ -196,7 +300,7 @@ public final class Uuid {
           tokens[index]));
     }
 
-    final Uuid link = new Uuid(root, (int)(id & 0xFFFFFFFF));
+    final Uuid link = intern(root, (int)(id & 0xFFFFFFFF));
 
     final int nextIndex = index + 1;
 
@@ -0,0 +1,116 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.connections;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// BUFFER POOL
+//
+// Byte arrays that frames are read into and written from. Almost every frame
+// is small and short lived, so rather than allocate new arrays for each one
+// the arrays are handed back once the frame is done with and given to the
+// next frame that needs one.
+//
+// Arrays come in sizes that are powers of two, from MIN_SIZE to MAX_SIZE, and
+// each size is kept in its own list. Asking for a size gives an array that is
+// at least that big. Arrays bigger than MAX_SIZE are rare enough that they
+// are allocated each time and left to the garbage collector.
+//
+// Handing an array back is optional. An array that is never handed back is
+// simply collected, so code that loses track of an array on an error path
+// costs an allocation rather than a leak. An array must never be used after
+// it has been handed back.
+final class BufferPool {
+
+  static final int MIN_SIZE = 512;
+  static final int MAX_SIZE = 64 * 1024;
+
+  // The most arrays of each size that the pool will hold on to.
+  private static final int MAX_FREE_PER_SIZE = 256;
+
+  private static final int SIZES = Integer.numberOfTrailingZeros(MAX_SIZE) - Integer.numberOfTrailingZeros(MIN_SIZE) + 1;
+
+  // The pool shared by every connection source in the process. This must come
+  // after SIZES, which the constructor needs.
+  static final BufferPool SHARED = new BufferPool();
+
+  private final Queue<byte[]>[] free;
+  private final AtomicInteger[] counts = new AtomicInteger[SIZES];
+
+  @SuppressWarnings("unchecked")
+  BufferPool() {
+    free = (Queue<byte[]>[]) new Queue<?>[SIZES];
+    for (int i = 0; i < SIZES; i++) {
+      free[i] = new ConcurrentLinkedQueue<>();
+      counts[i] = new AtomicInteger();
+    }
+  }
+
+  // TAKE
+  //
+  // Get an array with room for at least "size" bytes.
+  byte[] take(int size) {
+    if (size > MAX_SIZE) {
+      return new byte[size];
+    }
+
+    final int index = indexFor(size);
+    final byte[] array = free[index].poll();
+
+    if (array == null) {
+      return new byte[MIN_SIZE << index];
+    }
+
+    counts[index].decrementAndGet();
+    return array;
+  }
+
+  // GIVE
+  //
+  // Hand back an array that was returned by "take".
+  void give(byte[] array) {
+    if (array.length < MIN_SIZE || array.length > MAX_SIZE || Integer.bitCount(array.length) != 1) {
+      return;  // not one of ours
+    }
+
+    final int index = indexFor(array.length);
+
+    if (counts[index].incrementAndGet() > MAX_FREE_PER_SIZE) {
+      counts[index].decrementAndGet();
+      return;
+    }
+
+    free[index].add(array);
+  }
+
+  // The number of arrays waiting to be reused. Only used by tests.
+  int free() {
+    int total = 0;
+    for (final AtomicInteger count : counts) {
+      total += count.get();
+    }
+    return total;
+  }
+
+  private static int indexFor(int size) {
+    if (size <= MIN_SIZE) {
+      return 0;
+    }
+    // The smallest power of two that holds "size", relative to MIN_SIZE.
+    return 32 - Integer.numberOfLeadingZeros(size - 1) - Integer.numberOfTrailingZeros(MIN_SIZE);
+  }
+}
@@ -14,6 +14,8 @@
 
 package codeu.chat.util.connections;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -44,21 +46,33 @@ public final class ClientConnectionSource implements ConnectionSource {
 
   private static Connection fromSocket(final Socket socket) throws IOException {
 
+    // The Serializers write a field at a time, so writing straight to the
+    // socket would cost a system call per field. Everything written is held
+    // back until the other side is expected to answer it (the first read
+    // after a write) or until the connection is closed.
+    final InputStream in = new BufferedInputStream(socket.getInputStream());
+    final OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+
     return new Connection() {
 
       @Override
       public InputStream in() throws IOException {
-        return socket.getInputStream();
+        out.flush();
+        return in;
       }
 
       @Override
       public OutputStream out() throws IOException {
-        return socket.getOutputStream();
+        return out;
       }
 
       @Override
       public void close() throws IOException {
-        socket.close();
+        try {
+          out.flush();
+        } finally {
+          socket.close();
+        }
       }
     };
   }
@@ -24,4 +24,12 @@ public interface Connection extends Closeable {
   InputStream in() throws IOException;
   OutputStream out() throws IOException;
 
+  // PUSHER
+  //
+  // A way to send events to the client that made this request after the
+  // response has gone out, or null if the connection cannot carry events.
+  default Pusher pusher() {
+    return null;
+  }
+
 }
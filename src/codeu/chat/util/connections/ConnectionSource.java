@@ -14,11 +14,59 @@
 
 package codeu.chat.util.connections;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
 
 public interface ConnectionSource extends Closeable {
 
   Connection connect() throws IOException;
 
+  // SEND
+  //
+  // Send a complete request and return a future for the complete response.
+  // Sources that can have many requests in flight at once override this so
+  // that a caller can send several requests before waiting on any of them.
+  //
+  // The default makes a normal blocking call and reads the response until
+  // the other side closes the connection, which is how servers that take one
+  // request per connection mark the end of a response.
+  default CompletableFuture<InputStream> send(byte[] request) {
+
+    final CompletableFuture<InputStream> response = new CompletableFuture<>();
+
+    try (final Connection connection = connect()) {
+
+      connection.out().write(request);
+      connection.out().flush();
+
+      final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+      final byte[] chunk = new byte[4096];
+      final InputStream in = connection.in();
+      for (int read = in.read(chunk); read >= 0; read = in.read(chunk)) {
+        buffer.write(chunk, 0, read);
+      }
+
+      response.complete(new ByteArrayInputStream(buffer.toByteArray()));
+
+    } catch (IOException ex) {
+      response.completeExceptionally(ex);
+    }
+
+    return response;
+  }
+
+  // SUBSCRIBE
+  //
+  // Send a request that asks the server to push events and hand every event
+  // that arrives afterwards to the listener. A null listener stops events from
+  // being delivered. Sources that cannot receive events fail the future.
+  default CompletableFuture<InputStream> subscribe(byte[] request, PushListener listener) {
+    final CompletableFuture<InputStream> response = new CompletableFuture<>();
+    response.completeExceptionally(new IOException("Connection source cannot receive events"));
+    return response;
+  }
 }
@@ -0,0 +1,112 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.connections;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+// FRAME OUTPUT STREAM
+//
+// Collects the payload of one frame in a pooled array. Room for the frame
+// header is kept at the front of the array so that, once the payload is
+// done, the header can be filled in and the whole frame sent with a single
+// write and without copying the payload again.
+//
+// Unlike ByteArrayOutputStream this is not synchronized. Each stream belongs
+// to one request and is only written by whoever is handling it.
+final class FrameOutputStream extends OutputStream {
+
+  private final BufferPool pool;
+
+  private byte[] array;
+  private int end = Frames.HEADER_SIZE;
+
+  FrameOutputStream(BufferPool pool) {
+    this.pool = pool;
+    this.array = pool.take(BufferPool.MIN_SIZE);
+  }
+
+  @Override
+  public void write(int b) {
+    ensure(1);
+    array[end++] = (byte) b;
+  }
+
+  @Override
+  public void write(byte[] source, int offset, int length) {
+    ensure(length);
+    System.arraycopy(source, offset, array, end, length);
+    end += length;
+  }
+
+  // The number of payload bytes written so far.
+  int size() {
+    return end - Frames.HEADER_SIZE;
+  }
+
+  // The first four payload bytes, which for a request are its type. Returns
+  // 0 if fewer than four have been written.
+  int type() {
+    if (size() < 4) {
+      return 0;
+    }
+    return Frames.getInt(array, Frames.HEADER_SIZE);
+  }
+
+  // WRITE TO
+  //
+  // Fill in the header and write the whole frame to "out" in one call.
+  void writeTo(OutputStream out, int id) throws IOException {
+    putHeader(id);
+    out.write(array, 0, end);
+    out.flush();
+  }
+
+  // TO BUFFER
+  //
+  // Fill in the header and wrap the whole frame for a channel to write. The
+  // buffer shares this stream's array, so "release" must not be called until
+  // the buffer has been written.
+  ByteBuffer toBuffer(int id) {
+    putHeader(id);
+    return ByteBuffer.wrap(array, 0, end);
+  }
+
+  // RELEASE
+  //
+  // Hand the array back to the pool. Nothing may be written afterwards.
+  void release() {
+    if (array != null) {
+      pool.give(array);
+      array = null;
+    }
+  }
+
+  private void putHeader(int id) {
+    Frames.putInt(array, 0, size());
+    Frames.putInt(array, 4, id);
+  }
+
+  private void ensure(int extra) {
+    final int needed = end + extra;
+    if (needed > array.length) {
+      final byte[] larger = pool.take(Math.max(needed, array.length * 2));
+      System.arraycopy(array, 0, larger, 0, end);
+      pool.give(array);
+      array = larger;
+    }
+  }
+}
@@ -0,0 +1,442 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.connections;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntPredicate;
+
+import codeu.chat.util.Logger;
+
+// FRAMED CLIENT CONNECTION SOURCE
+//
+// Implements the ConnectionSource interface for clients talking to a server
+// that expects length-framed requests (see NioServerConnectionSource).
+//
+// Everything written to a connection is collected in memory. The first call
+// to "in" sends the whole request as one frame and then reads the whole
+// response frame before returning, so callers can keep using the
+// Serializers exactly as they would on a plain socket.
+//
+// Sockets are not closed when a connection is closed. Instead they go back
+// into a small pool and the next call to "connect" reuses them, so a burst of
+// calls costs one TCP handshake rather than one per call. Each request carries
+// a new request id and the response must carry the same id. If a reused
+// socket turns out to be dead, the request is sent again on a new socket, but
+// only if it cannot have reached the server or is safe to run twice.
+//
+// Requests made with "send" are pipelined: they all share one socket, are
+// written as soon as they are made and are matched to their responses by
+// request id, so the server is free to answer them in any order. Events that
+// the server pushes after a call to "subscribe" arrive on the same socket.
+public final class FramedClientConnectionSource implements ConnectionSource {
+
+  private final static Logger.Log LOG = Logger.newLog(FramedClientConnectionSource.class);
+
+  // The most idle sockets that will be kept open at once.
+  private static final int MAX_IDLE_SOCKETS = 4;
+
+  // How long a socket may sit in the pool before it is thrown away. This is
+  // kept well under the server's idle timeout so that the client does not
+  // normally pick a socket that the server is about to close.
+  private static final long MAX_IDLE_MS = 30000;  // 30 seconds
+
+  private static final class PooledSocket {
+
+    public final Socket socket;
+    public long idleSince;
+
+    public PooledSocket(Socket socket) {
+      this.socket = socket;
+    }
+  }
+
+  private final String host;
+  private final int port;
+
+  private final Deque<PooledSocket> idle = new ArrayDeque<>();
+  private final AtomicInteger nextRequestId = new AtomicInteger(1);
+
+  // Given a request's type, says whether running the request twice does no
+  // harm, so that it can be sent again if its response never came.
+  private final IntPredicate resendable;
+
+  private Pipeline pipeline;  // guarded by "this"
+
+  // Create a source that only sends a request again if it failed to write it.
+  public FramedClientConnectionSource(String host, int port) {
+    this(host, port, new IntPredicate() {
+      @Override
+      public boolean test(int type) {
+        return false;
+      }
+    });
+  }
+
+  public FramedClientConnectionSource(String host, int port, IntPredicate resendable) {
+    this.host = host;
+    this.port = port;
+    this.resendable = resendable;
+  }
+
+  @Override
+  public Connection connect() throws IOException {
+    return new Exchange(nextRequestId());
+  }
+
+  // SEND
+  //
+  // Write the request on the shared pipeline socket without waiting for the
+  // responses to any earlier requests.
+  @Override
+  public CompletableFuture<InputStream> send(byte[] request) {
+
+    final Pipeline current;
+
+    try {
+      current = pipeline();
+    } catch (IOException ex) {
+      final CompletableFuture<InputStream> failed = new CompletableFuture<>();
+      failed.completeExceptionally(ex);
+      return failed;
+    }
+
+    return current.send(nextRequestId(), request);
+  }
+
+  // SUBSCRIBE
+  //
+  // Send the request on the pipeline socket and give every event pushed on
+  // that socket to the listener. The listener replaces any earlier one. If the
+  // socket closes the listener is told and a new socket will not carry events
+  // until the client subscribes again.
+  @Override
+  public CompletableFuture<InputStream> subscribe(byte[] request, PushListener listener) {
+
+    final Pipeline current;
+
+    try {
+      current = pipeline();
+    } catch (IOException ex) {
+      final CompletableFuture<InputStream> failed = new CompletableFuture<>();
+      failed.completeExceptionally(ex);
+      return failed;
+    }
+
+    current.listener = listener;
+    return current.send(nextRequestId(), request);
+  }
+
+  @Override
+  public void close() throws IOException {
+    synchronized (idle) {
+      while (!idle.isEmpty()) {
+        closeQuietly(idle.pop().socket);
+      }
+    }
+
+    synchronized (this) {
+      if (pipeline != null) {
+        pipeline.fail(new IOException("Connection source has been closed"));
+        pipeline = null;
+      }
+    }
+  }
+
+  // Request ids wrap around after a couple of billion requests. Skip the id
+  // that marks pushed events when they do.
+  private int nextRequestId() {
+    int id = nextRequestId.getAndIncrement();
+    while (id == Frames.PUSH_ID) {
+      id = nextRequestId.getAndIncrement();
+    }
+    return id;
+  }
+
+  // Get the pipeline socket, replacing it if it has failed or if it has sat
+  // idle long enough that the server may be about to close it.
+  private synchronized Pipeline pipeline() throws IOException {
+
+    if (pipeline != null && pipeline.isIdleFor(MAX_IDLE_MS)) {
+      pipeline.fail(new IOException("Pipeline closed after being idle"));
+      pipeline = null;
+    }
+
+    if (pipeline == null || !pipeline.isOpen()) {
+      pipeline = new Pipeline(open().socket);
+    }
+
+    return pipeline;
+  }
+
+  // Take the most recently used socket from the pool. Sockets that have sat
+  // for too long or were closed by the server are thrown away. Returns null if
+  // there is no socket that can be reused.
+  private PooledSocket takeIdle() {
+    final long now = System.currentTimeMillis();
+
+    synchronized (idle) {
+      while (!idle.isEmpty()) {
+        final PooledSocket pooled = idle.pop();
+        if (now - pooled.idleSince < MAX_IDLE_MS && !pooled.socket.isClosed()) {
+          return pooled;
+        }
+        closeQuietly(pooled.socket);
+      }
+    }
+
+    return null;
+  }
+
+  private void release(PooledSocket pooled) {
+    pooled.idleSince = System.currentTimeMillis();
+
+    synchronized (idle) {
+      if (idle.size() < MAX_IDLE_SOCKETS) {
+        idle.push(pooled);
+        return;
+      }
+    }
+
+    closeQuietly(pooled.socket);
+  }
+
+  private PooledSocket open() throws IOException {
+    final Socket socket = new Socket(host, port);
+    socket.setTcpNoDelay(true);
+    return new PooledSocket(socket);
+  }
+
+  private static void closeQuietly(Socket socket) {
+    try {
+      socket.close();
+    } catch (IOException ex) {
+      LOG.warning("Failed to close socket (%s)", ex.toString());
+    }
+  }
+
+  // EXCHANGE
+  //
+  // One request and its response. The socket is only borrowed from the pool
+  // when the request is sent and goes back to the pool on close, unless
+  // something went wrong part way through, in which case it is closed.
+  private final class Exchange implements Connection {
+
+    private final int id;
+    private final FrameOutputStream request = new FrameOutputStream(BufferPool.SHARED);
+
+    private PooledSocket socket;
+    private InputStream response;
+    private boolean reusable = false;
+
+    public Exchange(int id) {
+      this.id = id;
+    }
+
+    @Override
+    public InputStream in() throws IOException {
+      if (response == null) {
+        response = new ByteArrayInputStream(roundTrip());
+        reusable = true;
+      }
+      return response;
+    }
+
+    @Override
+    public OutputStream out() throws IOException {
+      return request;
+    }
+
+    @Override
+    public void close() throws IOException {
+      request.release();
+
+      if (socket == null) {
+        return;
+      }
+
+      if (reusable) {
+        release(socket);
+      } else {
+        closeQuietly(socket.socket);
+      }
+
+      socket = null;
+    }
+
+    private byte[] roundTrip() throws IOException {
+
+      socket = takeIdle();
+
+      if (socket != null) {
+        boolean written = false;
+        try {
+          request.writeTo(socket.socket.getOutputStream(), id);
+          written = true;
+          return receive(socket);
+        } catch (IOException ex) {
+          // The request is only sent again if the server cannot have run it:
+          // either it never got the whole request, or running it again does
+          // no harm. Otherwise a change could be made twice.
+          if (written && !resendable.test(request.type())) {
+            throw ex;
+          }
+          LOG.info("Pooled socket failed, retrying on a new socket (%s)", ex.toString());
+          closeQuietly(socket.socket);
+        }
+      }
+
+      socket = open();
+      request.writeTo(socket.socket.getOutputStream(), id);
+      return receive(socket);
+    }
+
+    private byte[] receive(PooledSocket pooled) throws IOException {
+
+      final Frames.Frame frame = Frames.read(pooled.socket.getInputStream());
+
+      if (frame.id != id) {
+        throw new IOException(String.format(
+            "Expected response for request %d but got response for request %d",
+            id,
+            frame.id));
+      }
+
+      return frame.payload;
+    }
+  }
+
+  // PIPELINE
+  //
+  // A socket that can have many requests in flight at once. Writers take
+  // turns writing whole frames and a single reader thread hands each response
+  // to the future of the request with the same id. If anything goes wrong
+  // with the socket, every request that is still waiting fails. Pushed
+  // events go to the listener, if there is one.
+  private static final class Pipeline {
+
+    private final Socket socket;
+    private final Map<Integer, CompletableFuture<InputStream>> pending = new ConcurrentHashMap<>();
+
+    private volatile boolean open = true;
+    private volatile long lastUsed = System.currentTimeMillis();
+    private volatile PushListener listener;
+
+    private final Thread reader = new Thread("pipeline-reader") {
+      @Override
+      public void run() {
+        try {
+          final InputStream in = socket.getInputStream();
+          while (open) {
+            final Frames.Frame frame = Frames.read(in);
+            if (frame.id == Frames.PUSH_ID) {
+              push(frame.payload);
+              continue;
+            }
+            final CompletableFuture<InputStream> response = pending.remove(frame.id);
+            if (response == null) {
+              LOG.warning("Dropping response for unknown request %d", frame.id);
+            } else {
+              response.complete(new ByteArrayInputStream(frame.payload));
+            }
+          }
+        } catch (IOException ex) {
+          fail(ex);
+        }
+      }
+    };
+
+    public Pipeline(Socket socket) {
+      this.socket = socket;
+      reader.setDaemon(true);
+      reader.start();
+    }
+
+    public boolean isOpen() {
+      return open;
+    }
+
+    // A pipeline that is waiting for events is never idle.
+    public boolean isIdleFor(long ms) {
+      return listener == null && pending.isEmpty() && System.currentTimeMillis() - lastUsed > ms;
+    }
+
+    public CompletableFuture<InputStream> send(int id, byte[] request) {
+
+      final CompletableFuture<InputStream> response = new CompletableFuture<>();
+      pending.put(id, response);
+      lastUsed = System.currentTimeMillis();
+
+      try {
+        synchronized (socket) {
+          Frames.write(socket.getOutputStream(), id, request, request.length);
+        }
+      } catch (IOException ex) {
+        fail(ex);
+      }
+
+      // The pipeline may have failed after the request was added but before
+      // "fail" looked at the pending requests.
+      if (!open && pending.remove(id) != null) {
+        response.completeExceptionally(new IOException("Pipeline closed"));
+      }
+
+      return response;
+    }
+
+    public void fail(IOException cause) {
+      open = false;
+      closeQuietly(socket);
+
+      final PushListener closed;
+      synchronized (this) {
+        closed = listener;
+        listener = null;
+      }
+      if (closed != null) {
+        closed.onClose();
+      }
+
+      for (final Integer id : pending.keySet()) {
+        final CompletableFuture<InputStream> response = pending.remove(id);
+        if (response != null) {
+          response.completeExceptionally(cause);
+        }
+      }
+    }
+
+    private void push(byte[] event) {
+      final PushListener current = listener;
+      if (current == null) {
+        LOG.info("Dropping event with no listener");
+        return;
+      }
+      try {
+        current.onPush(new ByteArrayInputStream(event));
+      } catch (Exception ex) {
+        LOG.error(ex, "Event listener failed.");
+      }
+    }
+  }
+}
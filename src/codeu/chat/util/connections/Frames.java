@@ -0,0 +1,133 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.connections;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+// FRAMES
+//
+// Every request and response sent over a framed connection is wrapped in a
+// frame. A frame is a four byte big-endian payload length, a four byte
+// request id and then the payload. The payload is whatever the Serializers
+// wrote for the request or response. Knowing the length up front lets the
+// server read a full request without blocking on a slow client and lets
+// either side send a message with a single write.
+//
+// The server copies the request id from each request into its response. As
+// a socket may carry many requests over its life, the id lets the client
+// check that the response it read belongs to the request it sent.
+//
+// Frames that the server sends without being asked (see Pusher) carry the
+// request id PUSH_ID, which clients never use for a request.
+final class Frames {
+
+  // The length of the header that comes before every payload.
+  static final int HEADER_SIZE = 8;
+
+  // The largest payload either side will accept. Anything larger is treated as
+  // a broken or hostile peer rather than risk allocating an unbounded buffer.
+  static final int MAX_PAYLOAD_SIZE = 16 * 1024 * 1024;
+
+  // The request id of every pushed frame.
+  static final int PUSH_ID = 0;
+
+  static final class Frame {
+
+    public final int id;
+    public final byte[] payload;
+    public final int length;  // the payload may be longer when it came from a pool
+
+    public Frame(int id, byte[] payload, int length) {
+      this.id = id;
+      this.payload = payload;
+      this.length = length;
+    }
+  }
+
+  private Frames() { }
+
+  static void write(OutputStream out, int id, byte[] payload, int length) throws IOException {
+    final byte[] frame = new byte[HEADER_SIZE + length];
+    putInt(frame, 0, length);
+    putInt(frame, 4, id);
+    System.arraycopy(payload, 0, frame, HEADER_SIZE, length);
+    out.write(frame);
+    out.flush();
+  }
+
+  static Frame read(InputStream in) throws IOException {
+    final byte[] header = new byte[HEADER_SIZE];
+    readFully(in, header, HEADER_SIZE);
+
+    final byte[] payload = new byte[checkLength(getInt(header, 0))];
+    readFully(in, payload, payload.length);
+
+    return new Frame(getInt(header, 4), payload, payload.length);
+  }
+
+  // Read a frame into an array taken from the pool. The caller should hand the
+  // payload back to the pool once it is done with it. The header array is
+  // only used while reading so callers can reuse one for every frame.
+  static Frame read(InputStream in, byte[] header, BufferPool pool) throws IOException {
+    readFully(in, header, HEADER_SIZE);
+
+    final int length = checkLength(getInt(header, 0));
+    final byte[] payload = pool.take(length);
+
+    try {
+      readFully(in, payload, length);
+    } catch (IOException ex) {
+      pool.give(payload);
+      throw ex;
+    }
+
+    return new Frame(getInt(header, 4), payload, length);
+  }
+
+  static void putInt(byte[] array, int offset, int value) {
+    array[offset] = (byte)(value >>> 24);
+    array[offset + 1] = (byte)(value >>> 16);
+    array[offset + 2] = (byte)(value >>> 8);
+    array[offset + 3] = (byte)(value);
+  }
+
+  static int getInt(byte[] array, int offset) {
+    return ((array[offset] & 0xFF) << 24) |
+           ((array[offset + 1] & 0xFF) << 16) |
+           ((array[offset + 2] & 0xFF) << 8) |
+           (array[offset + 3] & 0xFF);
+  }
+
+  static int checkLength(int length) throws IOException {
+    if (length < 0 || length > MAX_PAYLOAD_SIZE) {
+      throw new IOException(String.format("Invalid frame length %d", length));
+    }
+    return length;
+  }
+
+  private static void readFully(InputStream in, byte[] array, int length) throws IOException {
+    int offset = 0;
+    while (offset < length) {
+      final int read = in.read(array, offset, length - offset);
+      if (read < 0) {
+        throw new EOFException("Connection closed in the middle of a frame");
+      }
+      offset += read;
+    }
+  }
+}
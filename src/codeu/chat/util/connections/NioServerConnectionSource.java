@@ -0,0 +1,621 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.connections;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import codeu.chat.util.Logger;
+
+// NIO SERVER CONNECTION SOURCE
+//
+// Implements the ConnectionSource interface for servers using a single
+// selector thread and non-blocking socket channels. The selector thread
+// accepts clients, reads length-framed requests (see Frames) and writes
+// responses, so a slow client can never hold up anyone else.
+//
+// Each call to "connect" returns one fully read request. Reading from the
+// connection never touches the network and writing to it only fills a buffer.
+// Both buffers come from the BufferPool and go back to it once the response
+// has been written, so a busy server does not allocate new arrays for every
+// request.
+// Closing the connection hands the response back to the selector thread which
+// writes it out whenever the client is ready to receive it. The socket stays
+// open after the response so that the client may send more requests.
+//
+// Clients are expected to keep their sockets open between requests. To stop
+// abandoned sockets from piling up, a socket that has no request in progress
+// and has been quiet for longer than the idle timeout is closed. Sockets that
+// events are pushed to (see Connection.pusher) are expected to sit quiet for
+// long stretches and are never closed for being idle. A client that stops
+// reading its events is dropped once too many are waiting to be written to
+// it, rather than letting them pile up without end.
+//
+// Requests are only read while there is room for them. Once too many have
+// been read and not yet taken by "connect", the selector thread stops
+// reading from the clients that sent them until callers catch up. Those
+// clients wait and their requests stay in the network buffers rather than
+// in the server's memory.
+public final class NioServerConnectionSource implements ConnectionSource {
+
+  private final static Logger.Log LOG = Logger.newLog(NioServerConnectionSource.class);
+
+  private static final long DEFAULT_IDLE_TIMEOUT_MS = 60000;  // 1 minute
+  private static final int DEFAULT_MAX_QUEUED_EVENTS = 1024;
+  private static final int DEFAULT_MAX_QUEUED_REQUESTS = 1024;
+
+  // A peer is the selector thread's view of a single client socket. Only the
+  // selector thread may touch the buffers in a peer.
+  private static final class Peer {
+
+    public final SocketChannel channel;
+    public final ByteBuffer header = ByteBuffer.allocate(Frames.HEADER_SIZE);
+    public final Queue<Response> outgoing = new ArrayDeque<>();
+
+    public ByteBuffer payload;  // null while the header is being read
+    public int requestId;
+    public SelectionKey key;
+
+    // The number of requests that have been read but not yet answered and the
+    // last time anything was read from or written to the socket. These are
+    // used to decide when a socket is idle.
+    public int inFlight = 0;
+    public long lastActive = System.currentTimeMillis();
+
+    // Set while nothing is read from the socket because too many requests are
+    // waiting for "connect".
+    public boolean paused = false;
+
+    // Created the first time a request asks for it. Workers may read and set
+    // these so they are the only fields in a peer that they may touch. Events
+    // are counted from when they are pushed until they have been written.
+    public volatile Pusher pusher;
+    public final AtomicInteger queuedEvents = new AtomicInteger();
+    public volatile boolean overflowed = false;
+
+    public Peer(SocketChannel channel) {
+      this.channel = channel;
+    }
+  }
+
+  // A response that a worker has finished and is waiting for the selector
+  // thread to queue on its peer. Pushed events are sent the same way but do
+  // not answer a request.
+  private static final class Response {
+
+    public final Peer peer;
+    public final FrameOutputStream out;
+    public final ByteBuffer frame;
+    public final boolean answer;
+
+    public Response(Peer peer, FrameOutputStream out, int requestId, boolean answer) {
+      this.peer = peer;
+      this.out = out;
+      this.frame = out.toBuffer(requestId);
+      this.answer = answer;
+    }
+  }
+
+  // Handed to "connect" callers once the source has been closed so that they
+  // stop waiting for requests that will never come.
+  private static final Connection CLOSED = new Connection() {
+    @Override
+    public InputStream in() { return null; }
+    @Override
+    public OutputStream out() { return null; }
+    @Override
+    public void close() { }
+  };
+
+  private final Selector selector;
+  private final ServerSocketChannel serverChannel;
+  private final long idleTimeoutMs;
+  private final int maxQueuedEvents;
+  private final int maxQueuedRequests;
+  private final BufferPool pool;
+
+  // Only the selector thread adds requests, and it stops reading once there
+  // are "maxQueuedRequests" of them. The queue itself is not bounded so that
+  // "close" can always add CLOSED.
+  private final BlockingQueue<Connection> requests = new LinkedBlockingQueue<>();
+  private final Queue<Response> responses = new ConcurrentLinkedQueue<>();
+
+  // Clients that are not being read from until there is room for their
+  // requests. Only touched by the selector thread, which sets "readsPaused"
+  // so that "connect" knows to wake it once there is room again.
+  private final Queue<Peer> paused = new ArrayDeque<>();
+  private volatile boolean readsPaused = false;
+
+  // Clients that fell too far behind on their events, waiting for the
+  // selector thread to drop them.
+  private final Queue<Peer> overflowed = new ConcurrentLinkedQueue<>();
+
+  private volatile boolean running = true;
+
+  // Only touched by the selector thread. Reaping walks every socket so it is
+  // done a few times per timeout rather than on every wake-up.
+  private long nextReapMs = 0;
+
+  private final Thread selectorThread = new Thread("nio-selector") {
+    @Override
+    public void run() {
+      while (running) {
+        try {
+          selector.select(idleTimeoutMs);
+          resumeReads();
+          drainResponses();
+          handleSelectedKeys();
+          reapIdlePeers();
+        } catch (IOException ex) {
+          LOG.error(ex, "Unexpected error in the selector loop.");
+        }
+      }
+    }
+  };
+
+  private NioServerConnectionSource(ServerSocketChannel serverChannel,
+                                    long idleTimeoutMs,
+                                    int maxQueuedEvents,
+                                    int maxQueuedRequests,
+                                    BufferPool pool) throws IOException {
+    this.serverChannel = serverChannel;
+    this.idleTimeoutMs = idleTimeoutMs;
+    this.maxQueuedEvents = maxQueuedEvents;
+    this.maxQueuedRequests = maxQueuedRequests;
+    this.pool = pool;
+    this.selector = Selector.open();
+
+    serverChannel.configureBlocking(false);
+    serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+    selectorThread.setDaemon(true);
+    selectorThread.start();
+  }
+
+  // CONNECT
+  //
+  // Block until a client has sent a full request. The returned connection
+  // reads the request from memory and the response is sent when the
+  // connection is closed.
+  @Override
+  public Connection connect() throws IOException {
+
+    final Connection request;
+
+    try {
+      request = requests.take();
+    } catch (InterruptedException ex) {
+      throw new InterruptedIOException("Interrupted while waiting for a request");
+    }
+
+    if (request == CLOSED) {
+      requests.offer(CLOSED);  // leave it for anyone else who is waiting
+      throw new IOException("Connection source has been closed");
+    }
+
+    if (readsPaused) {
+      selector.wakeup();  // there is room for another request
+    }
+
+    return request;
+  }
+
+  @Override
+  public void close() throws IOException {
+    running = false;
+    selector.wakeup();
+
+    while (true) {
+      try {
+        selectorThread.join();
+        break;
+      } catch (InterruptedException ex) {
+        // Do nothing - allow this to try again.
+      }
+    }
+
+    for (final SelectionKey key : selector.keys()) {
+      key.channel().close();
+    }
+
+    selector.close();
+    serverChannel.close();
+    requests.offer(CLOSED);
+  }
+
+  // PORT
+  //
+  // The local port that the server is listening on. This is mostly useful when
+  // the source was created for port 0 and the system picked the port.
+  public int port() {
+    return serverChannel.socket().getLocalPort();
+  }
+
+  public static NioServerConnectionSource forPort(int port) throws IOException {
+    return forPort(port, DEFAULT_IDLE_TIMEOUT_MS);
+  }
+
+  public static NioServerConnectionSource forPort(int port, long idleTimeoutMs) throws IOException {
+    return forPort(port, idleTimeoutMs, DEFAULT_MAX_QUEUED_EVENTS);
+  }
+
+  public static NioServerConnectionSource forPort(int port,
+                                                  long idleTimeoutMs,
+                                                  int maxQueuedEvents) throws IOException {
+    return forPort(port, idleTimeoutMs, maxQueuedEvents, DEFAULT_MAX_QUEUED_REQUESTS);
+  }
+
+  public static NioServerConnectionSource forPort(int port,
+                                                  long idleTimeoutMs,
+                                                  int maxQueuedEvents,
+                                                  int maxQueuedRequests) throws IOException {
+    return forPort(port, idleTimeoutMs, maxQueuedEvents, maxQueuedRequests, BufferPool.SHARED);
+  }
+
+  // Tests use a pool of their own to see which arrays come back to it.
+  static NioServerConnectionSource forPort(int port,
+                                           long idleTimeoutMs,
+                                           int maxQueuedEvents,
+                                           int maxQueuedRequests,
+                                           BufferPool pool) throws IOException {
+    final ServerSocketChannel channel = ServerSocketChannel.open();
+    channel.socket().setReuseAddress(true);
+    channel.socket().bind(new InetSocketAddress(port));
+    return new NioServerConnectionSource(channel, idleTimeoutMs, maxQueuedEvents, maxQueuedRequests, pool);
+  }
+
+  // The number of requests waiting for "connect". Only used by tests.
+  int queuedRequests() {
+    return requests.size();
+  }
+
+  private void handleSelectedKeys() {
+
+    final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+
+    while (keys.hasNext()) {
+
+      final SelectionKey key = keys.next();
+      keys.remove();
+
+      if (!key.isValid()) {
+        continue;
+      }
+
+      if (key.isAcceptable()) {
+        accept();
+        continue;
+      }
+
+      final Peer peer = (Peer) key.attachment();
+
+      try {
+        if (key.isReadable()) {
+          read(peer);
+        }
+        if (key.isValid() && key.isWritable()) {
+          write(peer);
+        }
+      } catch (IOException ex) {
+        LOG.warning("Dropping client after error (%s)", ex.toString());
+        disconnect(peer);
+      }
+    }
+  }
+
+  private void accept() {
+    try {
+      final SocketChannel channel = serverChannel.accept();
+
+      if (channel != null) {
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+
+        final Peer peer = new Peer(channel);
+        peer.key = channel.register(selector, SelectionKey.OP_READ, peer);
+      }
+    } catch (IOException ex) {
+      LOG.error(ex, "Failed to accept client.");
+    }
+  }
+
+  // READ
+  //
+  // Read as much as the client has sent without blocking. Every time a full
+  // frame is read it is queued as a request. Partial frames stay in the peer
+  // until the rest arrives. Once too many requests are waiting, the peer is
+  // paused and the rest stays unread.
+  private void read(Peer peer) throws IOException {
+    while (true) {
+
+      if (requests.size() >= maxQueuedRequests) {
+        pause(peer);
+        return;
+      }
+
+      final ByteBuffer target = peer.payload == null ? peer.header : peer.payload;
+
+      final int read = peer.channel.read(target);
+
+      if (read < 0) {
+        disconnect(peer);
+        return;
+      }
+
+      if (read > 0) {
+        peer.lastActive = System.currentTimeMillis();
+      }
+
+      if (target.hasRemaining()) {
+        return;  // wait for the client to send more
+      }
+
+      if (peer.payload == null) {
+        peer.header.flip();
+        final int length = Frames.checkLength(peer.header.getInt());
+        peer.payload = ByteBuffer.wrap(pool.take(length), 0, length);
+        peer.requestId = peer.header.getInt();
+        peer.header.clear();
+      } else {
+        peer.inFlight += 1;
+        requests.offer(new Request(peer, peer.requestId, peer.payload.array(), peer.payload.limit()));
+        peer.payload = null;
+      }
+    }
+  }
+
+  // WRITE
+  //
+  // Write as many queued responses as the client will accept without
+  // blocking. If the client falls behind, ask the selector to tell us when
+  // there is room to write again.
+  private void write(Peer peer) throws IOException {
+
+    while (!peer.outgoing.isEmpty()) {
+
+      final Response next = peer.outgoing.peek();
+
+      if (peer.channel.write(next.frame) > 0) {
+        peer.lastActive = System.currentTimeMillis();
+      }
+
+      if (next.frame.hasRemaining()) {
+        peer.key.interestOps(readInterest(peer) | SelectionKey.OP_WRITE);
+        return;
+      }
+
+      peer.outgoing.remove();
+      next.out.release();
+
+      if (!next.answer) {
+        peer.queuedEvents.decrementAndGet();
+      }
+    }
+
+    peer.key.interestOps(readInterest(peer));
+  }
+
+  private static int readInterest(Peer peer) {
+    return peer.paused ? 0 : SelectionKey.OP_READ;
+  }
+
+  private void pause(Peer peer) {
+    if (!peer.paused) {
+      peer.paused = true;
+      peer.key.interestOps(peer.key.interestOps() & ~SelectionKey.OP_READ);
+      paused.add(peer);
+      readsPaused = true;
+    }
+  }
+
+  // RESUME READS
+  //
+  // Start reading from paused clients again, oldest first, for as long as
+  // there is room for their requests. A resumed client is read from the next
+  // time the selector sees it has something to read.
+  private void resumeReads() {
+
+    while (!paused.isEmpty() && requests.size() < maxQueuedRequests) {
+
+      final Peer peer = paused.remove();
+      peer.paused = false;
+
+      if (peer.key.isValid()) {
+        peer.key.interestOps(peer.key.interestOps() | SelectionKey.OP_READ);
+      }
+    }
+
+    readsPaused = !paused.isEmpty();
+  }
+
+  private void drainResponses() {
+
+    for (Peer peer = overflowed.poll(); peer != null; peer = overflowed.poll()) {
+      if (peer.key.isValid()) {
+        LOG.warning("Dropping client that is not reading its events.");
+        disconnect(peer);
+      }
+    }
+
+    for (Response response = responses.poll(); response != null; response = responses.poll()) {
+
+      final Peer peer = response.peer;
+
+      if (response.answer) {
+        peer.inFlight -= 1;
+      }
+
+      // The client may have gone away while its request was being handled.
+      if (!peer.key.isValid()) {
+        response.out.release();
+        continue;
+      }
+
+      peer.outgoing.add(response);
+
+      try {
+        write(peer);
+      } catch (IOException ex) {
+        LOG.warning("Dropping client after error (%s)", ex.toString());
+        disconnect(peer);
+      }
+    }
+  }
+
+  // REAP IDLE PEERS
+  //
+  // Close every socket that has nothing in progress and has not been used for
+  // longer than the idle timeout. A socket that is half way through sending a
+  // request is not idle, but one that stalls for the whole timeout is dropped.
+  private void reapIdlePeers() {
+
+    final long now = System.currentTimeMillis();
+
+    if (now < nextReapMs) {
+      return;
+    }
+
+    nextReapMs = now + idleTimeoutMs / 4;
+
+    for (final SelectionKey key : selector.keys()) {
+
+      final Peer peer = (Peer) key.attachment();
+
+      if (peer != null &&
+          key.isValid() &&
+          peer.inFlight == 0 &&
+          !peer.paused &&
+          peer.pusher == null &&
+          peer.outgoing.isEmpty() &&
+          now - peer.lastActive > idleTimeoutMs) {
+
+        LOG.info("Closing idle client.");
+        disconnect(peer);
+      }
+    }
+  }
+
+  private void disconnect(Peer peer) {
+    peer.key.cancel();
+    for (final Response response : peer.outgoing) {
+      response.out.release();
+    }
+    peer.outgoing.clear();
+    if (peer.payload != null) {
+      pool.give(peer.payload.array());  // the client left part way through a request
+      peer.payload = null;
+    }
+    try {
+      peer.channel.close();
+    } catch (IOException ex) {
+      LOG.error(ex, "Exception while closing client.");
+    }
+  }
+
+  private void respond(Peer peer, int requestId, FrameOutputStream out, boolean answer) {
+    responses.add(new Response(peer, out, requestId, answer));
+    selector.wakeup();
+  }
+
+  private Pusher pusherFor(final Peer peer) {
+    synchronized (peer) {
+      if (peer.pusher == null) {
+        peer.pusher = new Pusher() {
+          @Override
+          public boolean push(byte[] event) {
+            if (!peer.key.isValid() || peer.overflowed) {
+              return false;
+            }
+            if (peer.queuedEvents.incrementAndGet() > maxQueuedEvents) {
+              peer.overflowed = true;
+              overflowed.add(peer);
+              selector.wakeup();
+              return false;
+            }
+            final FrameOutputStream out = new FrameOutputStream(pool);
+            out.write(event, 0, event.length);
+            respond(peer, Frames.PUSH_ID, out, false);
+            return true;
+          }
+        };
+      }
+      return peer.pusher;
+    }
+  }
+
+  // REQUEST
+  //
+  // The connection handed out by "connect". The request has already been
+  // read in full and the response is collected in memory until "close".
+  // Closing also hands the request's array back to the pool, so nothing may
+  // be read from the connection afterwards.
+  private final class Request implements Connection {
+
+    private final Peer peer;
+    private final int id;
+    private final byte[] payload;
+    private final InputStream in;
+    private final FrameOutputStream out = new FrameOutputStream(pool);
+
+    private boolean closed = false;
+
+    public Request(Peer peer, int id, byte[] payload, int length) {
+      this.peer = peer;
+      this.id = id;
+      this.payload = payload;
+      this.in = new ByteArrayInputStream(payload, 0, length);
+    }
+
+    @Override
+    public InputStream in() {
+      return in;
+    }
+
+    @Override
+    public OutputStream out() {
+      return out;
+    }
+
+    @Override
+    public Pusher pusher() {
+      return pusherFor(peer);
+    }
+
+    @Override
+    public synchronized void close() {
+      if (!closed) {
+        closed = true;
+        pool.give(payload);
+        respond(peer, id, out, true);
+      }
+    }
+  }
+}
@@ -0,0 +1,33 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.connections;
+
+import java.io.InputStream;
+
+// PUSH LISTENER
+//
+// The client side of a Pusher. Both methods are called on the thread that
+// reads responses from the socket, so they must return quickly and must not
+// wait on another request.
+public interface PushListener {
+
+  // Called with the payload of each event the server pushes.
+  void onPush(InputStream event);
+
+  // Called once if the socket carrying the events closes. No more events will
+  // arrive, so a client that still wants them must subscribe again.
+  void onClose();
+
+}
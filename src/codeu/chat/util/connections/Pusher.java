@@ -0,0 +1,30 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.connections;
+
+// PUSHER
+//
+// Sends events to a client that it did not ask for, on the same socket that
+// carries its requests. Pushing never blocks: the event is queued and written
+// whenever the client is ready for it. A client that falls too far behind is
+// disconnected instead of having its events queue up without end.
+public interface Pusher {
+
+  // Queue an event for the client. Returns false if the client has gone away
+  // or was dropped for falling behind, in which case it will never accept
+  // another event.
+  boolean push(byte[] event);
+
+}
@@ -0,0 +1,329 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.connections;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import codeu.chat.util.Logger;
+
+// THREAD PER CONNECTION SERVER
+//
+// Serves framed requests (see Frames) with one thread per client socket. The
+// thread reads a request, hands it to the handler and writes the response
+// before reading the next one, so handlers may block as much as they like
+// and only hold up their own client.
+//
+// When the JVM supports virtual threads each socket gets a virtual thread,
+// which makes tens of thousands of open sockets cheap. Otherwise each socket
+// gets a normal thread.
+//
+// This speaks exactly the same protocol as NioServerConnectionSource, so the
+// same clients work with either. The difference is that a request is handled
+// on the socket's own thread as soon as it arrives, rather than being handed
+// out through "connect".
+public final class ThreadPerConnectionServer implements Closeable {
+
+  private final static Logger.Log LOG = Logger.newLog(ThreadPerConnectionServer.class);
+
+  private static final int DEFAULT_IDLE_TIMEOUT_MS = 60000;  // 1 minute
+  private static final int DEFAULT_MAX_QUEUED_EVENTS = 1024;
+
+  // HANDLER
+  //
+  // Called on the socket's thread with one full request. The handler must
+  // close the connection to send the response.
+  public interface Handler {
+    void handle(Connection connection);
+  }
+
+  private final ServerSocket serverSocket;
+  private final Handler handler;
+  private final int idleTimeoutMs;
+  private final int maxQueuedEvents;
+  private final ThreadFactory threads = newThreadFactory();
+  private final BufferPool pool = BufferPool.SHARED;
+
+  private volatile boolean running = true;
+
+  private ThreadPerConnectionServer(ServerSocket serverSocket,
+                                    Handler handler,
+                                    int idleTimeoutMs,
+                                    int maxQueuedEvents) {
+    this.serverSocket = serverSocket;
+    this.handler = handler;
+    this.idleTimeoutMs = idleTimeoutMs;
+    this.maxQueuedEvents = maxQueuedEvents;
+  }
+
+  public static ThreadPerConnectionServer forPort(int port, Handler handler) throws IOException {
+    return forPort(port, handler, DEFAULT_IDLE_TIMEOUT_MS);
+  }
+
+  public static ThreadPerConnectionServer forPort(int port, Handler handler, int idleTimeoutMs) throws IOException {
+    return forPort(port, handler, idleTimeoutMs, DEFAULT_MAX_QUEUED_EVENTS);
+  }
+
+  public static ThreadPerConnectionServer forPort(int port,
+                                                  Handler handler,
+                                                  int idleTimeoutMs,
+                                                  int maxQueuedEvents) throws IOException {
+    final ServerSocket serverSocket = new ServerSocket();
+    serverSocket.setReuseAddress(true);
+    serverSocket.bind(new InetSocketAddress(port));
+    return new ThreadPerConnectionServer(serverSocket, handler, idleTimeoutMs, maxQueuedEvents);
+  }
+
+  // PORT
+  //
+  // The local port that the server is listening on.
+  public int port() {
+    return serverSocket.getLocalPort();
+  }
+
+  // RUN
+  //
+  // Accept clients until the server is closed. Each client is served on its
+  // own thread, so this only ever blocks waiting for the next client.
+  public void run() {
+    while (running) {
+      try {
+        final Socket socket = serverSocket.accept();
+        socket.setTcpNoDelay(true);
+        threads.newThread(new Client(socket)).start();
+      } catch (IOException ex) {
+        if (running) {
+          LOG.error(ex, "Failed to accept client.");
+        }
+      }
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    running = false;
+    serverSocket.close();
+  }
+
+  // Use virtual threads when the JVM has them (Java 21 and later). They are
+  // looked up by name so that this still builds and runs on older JVMs, which
+  // get normal daemon threads instead.
+  private static ThreadFactory newThreadFactory() {
+    try {
+      final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+      final Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      builderClass.getMethod("name", String.class, long.class).invoke(builder, "connection-", 0L);
+      LOG.info("Serving each connection on a virtual thread.");
+      return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+    } catch (ReflectiveOperationException ex) {
+      LOG.info("Virtual threads are not available, serving each connection on a platform thread.");
+    }
+
+    final AtomicLong count = new AtomicLong();
+    return new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        final Thread thread = new Thread(runnable, "connection-" + count.getAndIncrement());
+        thread.setDaemon(true);
+        return thread;
+      }
+    };
+  }
+
+  // CLIENT
+  //
+  // The loop that serves one socket.
+  private final class Client implements Runnable {
+
+    private final Socket socket;
+    private final Object writeLock = new Object();
+
+    private OutputStream out;
+    private Pusher pusher;  // guarded by "this"
+    private Thread eventWriter;  // guarded by "this"
+
+    public Client(Socket socket) {
+      this.socket = socket;
+    }
+
+    @Override
+    public void run() {
+      try {
+        socket.setSoTimeout(idleTimeoutMs);
+
+        // Buffered so that a small request, header and payload, is read with
+        // one call to the socket rather than two.
+        final InputStream in = new BufferedInputStream(socket.getInputStream());
+        final byte[] header = new byte[Frames.HEADER_SIZE];
+        out = socket.getOutputStream();
+
+        while (running) {
+
+          final Frames.Frame frame;
+
+          try {
+            frame = Frames.read(in, header, pool);
+          } catch (SocketTimeoutException ex) {
+            LOG.info("Closing idle client.");
+            break;
+          } catch (EOFException ex) {
+            break;  // the client went away
+          }
+
+          handler.handle(new Request(frame.id, frame.payload, frame.length));
+        }
+      } catch (IOException ex) {
+        LOG.warning("Dropping client after error (%s)", ex.toString());
+      } finally {
+        try {
+          socket.close();
+        } catch (IOException ex) {
+          LOG.error(ex, "Exception while closing client.");
+        }
+        synchronized (this) {
+          if (eventWriter != null) {
+            eventWriter.interrupt();
+          }
+        }
+      }
+    }
+
+    private void write(int id, FrameOutputStream frame) throws IOException {
+      try {
+        synchronized (writeLock) {
+          frame.writeTo(out, id);
+        }
+      } finally {
+        frame.release();
+      }
+    }
+
+    // Events are pushed from whichever thread changed the model, which must
+    // not be made to wait on a slow client. They are queued and written by a
+    // thread of their own, started the first time a request asks for a pusher.
+    //
+    // Sockets that events are pushed to are expected to be quiet, so from
+    // then on they are never closed for being idle. A client that stops
+    // reading its events is dropped once too many are waiting for it.
+    private synchronized Pusher pusher() throws IOException {
+      if (pusher == null) {
+
+        socket.setSoTimeout(0);
+
+        final BlockingQueue<byte[]> events = new LinkedBlockingQueue<>(maxQueuedEvents);
+
+        eventWriter = threads.newThread(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              while (!socket.isClosed()) {
+                final byte[] event = events.take();
+                final FrameOutputStream frame = new FrameOutputStream(pool);
+                frame.write(event, 0, event.length);
+                write(Frames.PUSH_ID, frame);
+              }
+            } catch (InterruptedException | IOException ex) {
+              LOG.info("Stopped pushing events (%s)", ex.toString());
+            }
+          }
+        });
+        eventWriter.start();
+
+        pusher = new Pusher() {
+          @Override
+          public boolean push(byte[] event) {
+            if (socket.isClosed()) {
+              return false;
+            }
+            if (!events.offer(event)) {
+              LOG.warning("Dropping client that is not reading its events.");
+              try {
+                socket.close();
+              } catch (IOException ex) {
+                LOG.error(ex, "Exception while closing client.");
+              }
+              return false;
+            }
+            return true;
+          }
+        };
+      }
+      return pusher;
+    }
+
+    // REQUEST
+    //
+    // One request read from the socket. The response is collected in memory
+    // and written as one frame when the connection is closed. Both arrays go
+    // back to the pool at that point.
+    private final class Request implements Connection {
+
+      private final int id;
+      private final byte[] payload;
+      private final InputStream in;
+      private final FrameOutputStream out = new FrameOutputStream(pool);
+
+      private boolean closed = false;
+
+      public Request(int id, byte[] payload, int length) {
+        this.id = id;
+        this.payload = payload;
+        this.in = new ByteArrayInputStream(payload, 0, length);
+      }
+
+      @Override
+      public InputStream in() {
+        return in;
+      }
+
+      @Override
+      public OutputStream out() {
+        return out;
+      }
+
+      @Override
+      public Pusher pusher() {
+        try {
+          return Client.this.pusher();
+        } catch (IOException ex) {
+          LOG.warning("Cannot push events to client (%s)", ex.toString());
+          return null;
+        }
+      }
+
+      @Override
+      public void close() throws IOException {
+        if (!closed) {
+          closed = true;
+          pool.give(payload);
+          write(id, out);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,191 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.store;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+// CONCURRENT STORE
+//
+// The same ordered store as Store (values kept in key order, values with equal
+// keys kept in the order they were inserted) but safe to use from many threads
+// at once. Readers never lock or wait. Writers only wait for other writers
+// adding to the same key.
+//
+// The index is a concurrent skip list with one entry per distinct key. Each
+// entry holds that key's run of values as a linked list that only ever grows
+// at its tail. A new link is fully built before it is put on the end of a run,
+// so a reader that gets to it always sees it whole.
+//
+// Adding a value to a key that is already there only appends to the end of
+// its run. The run that was added to last is remembered, so a value with the
+// same key as the one before it (as with messages indexed by time, where a
+// busy millisecond has many) is added in constant time without searching the
+// index at all.
+//
+// Like the iterators of the concurrent collections, the iterables returned
+// here are weakly consistent: they never fail or show part of an insert, and
+// they may or may not show values inserted after they were made.
+public final class ConcurrentStore<KEY, VALUE> implements StoreAccessor<KEY, VALUE> {
+
+  private static final class Link<VALUE> {
+
+    final VALUE value;
+    volatile Link<VALUE> next;
+
+    Link(VALUE value) {
+      this.value = value;
+    }
+  }
+
+  // The values that share one key. "tail" is only used by writers, which take
+  // the run's lock. Readers start at "head" and follow "next".
+  private static final class Run<KEY, VALUE> {
+
+    final KEY key;
+    final Link<VALUE> head;
+    private Link<VALUE> tail;
+
+    Run(KEY key, VALUE value) {
+      this.key = key;
+      this.head = this.tail = new Link<>(value);
+    }
+
+    synchronized void append(VALUE value) {
+      final Link<VALUE> link = new Link<>(value);
+      tail.next = link;
+      tail = link;
+    }
+  }
+
+  private final ConcurrentNavigableMap<KEY, Run<KEY, VALUE>> index;
+
+  private final Comparator<KEY> comparator;
+
+  // The run that was added to last. Runs are never removed, so whatever this
+  // holds is still in the index, and a writer that reads it just as another
+  // changes it only misses the shortcut.
+  private volatile Run<KEY, VALUE> last;
+
+  public ConcurrentStore(Comparator<KEY> comparator) {
+    this.index = new ConcurrentSkipListMap<>(comparator);
+    this.comparator = comparator;
+  }
+
+  public void insert(KEY key, VALUE value) {
+
+    final Run<KEY, VALUE> previous = last;
+
+    if (previous != null && comparator.compare(previous.key, key) == 0) {
+      previous.append(value);
+      return;
+    }
+
+    Run<KEY, VALUE> run = index.get(key);
+
+    if (run == null) {
+      // Another writer may add the same key at the same time. Only one run can
+      // win; whoever loses adds to the winner's run instead.
+      final Run<KEY, VALUE> added = new Run<>(key, value);
+      run = index.putIfAbsent(key, added);
+      if (run == null) {
+        last = added;
+        return;
+      }
+    }
+
+    run.append(value);
+    last = run;
+  }
+
+  @Override
+  public VALUE first(KEY key) {
+    final Run<KEY, VALUE> run = index.get(key);
+    return run == null ? null : run.head.value;
+  }
+
+  @Override
+  public Iterable<VALUE> all() {
+    return values(index);
+  }
+
+  @Override
+  public Iterable<VALUE> at(KEY key) {
+    return values(index.subMap(key, true, key, true));
+  }
+
+  @Override
+  public Iterable<VALUE> after(KEY start) {
+    return values(index.tailMap(start, true));
+  }
+
+  @Override
+  public Iterable<VALUE> before(KEY end) {
+    return values(index.headMap(end, true));
+  }
+
+  @Override
+  public Iterable<VALUE> range(KEY start, KEY end) {
+    // The map refuses a range that ends before it starts, where Store just
+    // finds nothing.
+    return comparator.compare(start, end) > 0 ?
+        Collections.<VALUE>emptyList() :
+        values(index.subMap(start, true, end, true));
+  }
+
+  // Every value of every run in "runs", in key order and then insert order.
+  private static <KEY, VALUE> Iterable<VALUE> values(final ConcurrentNavigableMap<KEY, Run<KEY, VALUE>> runs) {
+
+    return new Iterable<VALUE>() {
+      @Override
+      public Iterator<VALUE> iterator() {
+
+        final Iterator<Run<KEY, VALUE>> remaining = runs.values().iterator();
+
+        return new Iterator<VALUE>() {
+
+          private Link<VALUE> next = null;
+
+          @Override
+          public boolean hasNext() {
+            while (next == null && remaining.hasNext()) {
+              next = remaining.next().head;
+            }
+            return next != null;
+          }
+
+          @Override
+          public VALUE next() {
+            if (!hasNext()) {
+              throw new NoSuchElementException();
+            }
+            final VALUE value = next.value;
+            next = next.next;
+            return value;
+          }
+
+          @Override
+          public void remove() {
+            // do nothing
+          }
+        };
+      }
+    };
+  }
+}
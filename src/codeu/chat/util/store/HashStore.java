@@ -0,0 +1,102 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.store;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+// HASH STORE
+//
+// A store for indexes where every key is unique, such as entities by id. A
+// look-up by key is one hash probe instead of a walk down a tree comparing
+// keys at every level, which for Uuids means comparing whole chains.
+//
+// Made with a comparator, the store also keeps the keys in order so that
+// "all", "after", "before" and "range" work as they do for Store. Made
+// without one, those throw UnsupportedOperationException and only "first"
+// and "at" can be used.
+//
+// Keys must have "equals" and "hashCode" that agree with the comparator.
+// Like ConcurrentStore, it is safe to read while another thread inserts.
+public final class HashStore<KEY, VALUE> implements StoreAccessor<KEY, VALUE> {
+
+  private final ConcurrentMap<KEY, VALUE> values = new ConcurrentHashMap<>();
+
+  private final ConcurrentStore<KEY, VALUE> ordered;  // null if ranges are not needed
+
+  public HashStore() {
+    this.ordered = null;
+  }
+
+  public HashStore(Comparator<KEY> comparator) {
+    this.ordered = new ConcurrentStore<>(comparator);
+  }
+
+  // INSERT
+  //
+  // Add a value under a key that is not in the store yet. A key can only be
+  // used once, so inserting it again throws IllegalArgumentException and the
+  // first value stays.
+  public void insert(KEY key, VALUE value) {
+
+    if (values.putIfAbsent(key, value) != null) {
+      throw new IllegalArgumentException("Key is already in the store: " + key);
+    }
+
+    if (ordered != null) {
+      ordered.insert(key, value);
+    }
+  }
+
+  @Override
+  public VALUE first(KEY key) {
+    return values.get(key);
+  }
+
+  @Override
+  public Iterable<VALUE> at(KEY key) {
+    final VALUE value = values.get(key);
+    return value == null ? Collections.<VALUE>emptyList() : Collections.singletonList(value);
+  }
+
+  @Override
+  public Iterable<VALUE> all() {
+    return ordered().all();
+  }
+
+  @Override
+  public Iterable<VALUE> after(KEY start) {
+    return ordered().after(start);
+  }
+
+  @Override
+  public Iterable<VALUE> before(KEY end) {
+    return ordered().before(end);
+  }
+
+  @Override
+  public Iterable<VALUE> range(KEY start, KEY end) {
+    return ordered().range(start, end);
+  }
+
+  private ConcurrentStore<KEY, VALUE> ordered() {
+    if (ordered == null) {
+      throw new UnsupportedOperationException("This store was made without a comparator and has no order");
+    }
+    return ordered;
+  }
+}
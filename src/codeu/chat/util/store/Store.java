@@ -26,7 +26,21 @@ public final class Store<KEY, VALUE> implements StoreAccessor<KEY, VALUE> {
   // the "next" value is used more than the "this" or "current" reference.
   private final StoreLink<KEY, VALUE> rootLink = new StoreLink<>(null, null, null);
 
-  private final NavigableMap<KEY, StoreLink<KEY, VALUE>> index;
+  // The first and last links of the values that share a key. Keeping the last
+  // one means a value for a key that is already in the store goes straight on
+  // the end of its run, rather than after a walk past every value before it.
+  private static final class Run<KEY, VALUE> {
+
+    final StoreLink<KEY, VALUE> first;
+    StoreLink<KEY, VALUE> last;
+
+    Run(StoreLink<KEY, VALUE> link) {
+      this.first = link;
+      this.last = link;
+    }
+  }
+
+  private final NavigableMap<KEY, Run<KEY, VALUE>> index;
 
   private final Comparator<KEY> comparator;
 
@@ -37,40 +51,30 @@ public final class Store<KEY, VALUE> implements StoreAccessor<KEY, VALUE> {
 
   public void insert(KEY key, VALUE value) {
 
-    final StoreLink<KEY, VALUE> closestLink = floor(key);
+    final Map.Entry<KEY, Run<KEY, VALUE>> closest = index.floorEntry(key);
 
-    // Assume that the new value can only come after the current position. Move
-    // through the chain of links until the next link is either the end (null)
-    // or will logically come after the new value.
-    StoreLink<KEY, VALUE> current = (closestLink == null) ? (rootLink) : (closestLink);
-    while(current.next != null && comparator.compare(current.next.key, key) <= 0) {
-      current = current.next;
-    }
+    // The new value goes after the last value with an equal or smaller key.
+    // That is the end of the closest run, or the root link if every key in the
+    // store is bigger. Either way the link after it (if any) has a bigger key.
+    final StoreLink<KEY, VALUE> previous = (closest == null) ? (rootLink) : (closest.getValue().last);
+
+    final StoreLink<KEY, VALUE> newLink = new StoreLink<>(key, value, previous.next);
+    previous.next = newLink;
 
-    // "current.next" may be null, but "current" can never be null. So it
-    // should always be safe to call to current.
-    final StoreLink<KEY, VALUE> newLink = new StoreLink<>(key, value, current.next);
-    current.next = newLink;
-
-    // Before adding the link to the index, first check if the hint has an
-    // equal key. If it does - do not add the index.
-    //
-    // There are two reasons for this:
-    //  1. The index class does not handle duplicate keys well (as stated in
-    //     the code for the index).
-    //  2. There is no advantage to having multiple equal keys in the index as
-    //     it would not help with the interators. As long as the key will map
-    //     to the first link, the other links will always be found. This is
-    //     why the insert is always put at the end of the series.
-    if (closestLink == null || comparator.compare(newLink.key, closestLink.key) != 0) {
-      index.put(key, newLink);
+    // Equal keys share one run in the index, as there is no advantage to
+    // having more: as long as the key maps to the first link, the other links
+    // will always be found.
+    if (closest != null && comparator.compare(key, closest.getKey()) == 0) {
+      closest.getValue().last = newLink;
+    } else {
+      index.put(key, new Run<>(newLink));
     }
   }
 
   @Override
   public VALUE first(KEY key) {
-    final StoreLink<KEY, VALUE> link = index.get(key);
-    return link == null ? null : link.value;
+    final Run<KEY, VALUE> run = index.get(key);
+    return run == null ? null : run.first.value;
   }
 
   @Override
@@ -114,7 +118,7 @@ public final class Store<KEY, VALUE> implements StoreAccessor<KEY, VALUE> {
     return extract(index.floorEntry(key));
   }
 
-  private StoreLink<KEY, VALUE> extract(Map.Entry<KEY, StoreLink<KEY, VALUE>> entry) {
-    return entry == null ? null : entry.getValue();
+  private StoreLink<KEY, VALUE> extract(Map.Entry<KEY, Run<KEY, VALUE>> entry) {
+    return entry == null ? null : entry.getValue().first;
   }
 }
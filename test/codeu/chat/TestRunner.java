@@ -24,13 +24,33 @@ public final class TestRunner {
          JUnitCore.runClasses(
              codeu.chat.common.SecretTest.class,
              codeu.chat.common.ServerInfoTest.class,
+             codeu.chat.common.EntitySerializersTest.class,
              codeu.chat.relay.ServerTest.class,
              codeu.chat.server.BasicControllerTest.class,
              codeu.chat.server.RawControllerTest.class,
+             codeu.chat.server.ViewTest.class,
+             codeu.chat.server.SubscriptionsTest.class,
+             codeu.chat.server.WriteAheadLogTest.class,
+             codeu.chat.server.LogRecordsTest.class,
+             codeu.chat.server.TextLogConverterTest.class,
+             codeu.chat.server.ModelSnapshotTest.class,
+             codeu.chat.server.LogReplayTest.class,
+             codeu.chat.server.ServerTest.class,
+             codeu.chat.util.SerializersTest.class,
+             codeu.chat.util.CompactTest.class,
+             codeu.chat.util.StringTableTest.class,
              codeu.chat.util.TimeTest.class,
+             codeu.chat.util.TimelineTest.class,
              codeu.chat.util.UuidTest.class,
              codeu.chat.util.store.StoreTest.class,
+             codeu.chat.util.store.ConcurrentStoreTest.class,
+             codeu.chat.util.store.HashStoreTest.class,
+             codeu.chat.util.connections.BufferPoolTest.class,
+             codeu.chat.util.connections.FramedClientConnectionSourceTest.class,
+             codeu.chat.util.connections.NioServerConnectionSourceTest.class,
+             codeu.chat.util.connections.ThreadPerConnectionServerTest.class,
              codeu.chat.util.TokenizerTest.class,
+             codeu.chat.client.core.ViewTest.class,
              codeu.chat.client.commandline.ChatTest.class
          );
       for (final Failure failure : result.getFailures()) {
@@ -9,9 +9,7 @@ import codeu.chat.util.Uuid;
 import codeu.chat.util.connections.ClientConnectionSource;
 import org.junit.Assert;
 import org.junit.Before;
-import org.junit.Rule;
 import org.junit.Test;
-import org.junit.rules.TemporaryFolder;
 import org.junit.runners.model.TestClass;
 
 import java.io.*;
@@ -138,20 +136,11 @@ public final class ChatTest {
     private TestView view = new TestView();
     private TestController controller = new TestController();
 
-    private File testLog;
-    private StringWriter sw_log;
-
-    @Rule
-    public TemporaryFolder temporaryFolder = new TemporaryFolder();
-
     @Before
     public void doBefore() throws IOException{
         view = new TestView();
         controller = new TestController();
 
-        testLog = temporaryFolder.newFile("transaction_log.txt");
-        sw_log = new StringWriter();
-
         serverInfo = new ServerInfo();
         user = new User(Uuid.NULL, "username", Time.now());
         convo = new ConversationHeader(Uuid.NULL, Uuid.NULL, Time.now(), "convo");
@@ -161,18 +150,15 @@ public final class ChatTest {
         convoContext = new ConversationContext(user, convo, view, this.controller);
         messageContext = new MessageContext(message, view);
 
-        chat = new Chat(new TestContext(view, controller), sw_log);
+        chat = new Chat(new TestContext(view, controller));
     }
 
     @Test
     public void addUserTest() throws Exception {
         boolean addUser = chat.handleCommand("u-add dita");
-
-        TimeUnit.SECONDS.sleep(35);
         chat.handleCommand("u-list");
 
         assertEquals(true, addUser);
-        assertEquals(true, sw_log.toString().contains("ADD-USER"));
     }
 
     @Test
@@ -180,7 +166,6 @@ public final class ChatTest {
         chat.handleCommand("u-sign-in username");
         boolean addConvo = chat.handleCommand("c-add convo");
         assertEquals(true, addConvo);
-        assertEquals(true, sw_log.toString().contains("ADD-CONVERSATION"));
     }
 
     @Test
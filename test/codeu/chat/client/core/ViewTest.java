@@ -0,0 +1,92 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.client.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import codeu.chat.common.NetworkCode;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Uuid;
+import codeu.chat.util.connections.Connection;
+import codeu.chat.util.connections.FramedClientConnectionSource;
+import codeu.chat.util.connections.NioServerConnectionSource;
+
+public final class ViewTest {
+
+  @Test
+  public void testAsyncResponsesMatchedOutOfOrder() throws Exception {
+
+    final int count = 8;
+    final Uuid conversation = new Uuid(100);
+
+    try (final NioServerConnectionSource server = NioServerConnectionSource.forPort(0);
+         final FramedClientConnectionSource source =
+             new FramedClientConnectionSource("localhost", server.port())) {
+
+      final View view = new View(source);
+
+      final List<CompletableFuture<Integer>> responses = new ArrayList<>();
+      for (int i = 0; i < count; i++) {
+        responses.add(view.getUserAccessControlAsync(conversation, new Uuid(i)));
+      }
+
+      // Only answer once every request has arrived, and answer the last
+      // request first. Each answer is the id of the user it was asked about.
+      final List<Connection> requests = new ArrayList<>();
+      for (int i = 0; i < count; i++) {
+        requests.add(server.connect());
+      }
+      for (int i = count - 1; i >= 0; i--) {
+        try (final Connection request = requests.get(i)) {
+          assertEquals(NetworkCode.GET_USER_ACCESS_CONTROL_REQUEST,
+                       (int) Serializers.INTEGER.read(request.in()));
+          assertEquals(conversation, Uuid.SERIALIZER.read(request.in()));
+          final Uuid user = Uuid.SERIALIZER.read(request.in());
+
+          Serializers.INTEGER.write(request.out(), NetworkCode.GET_USER_ACCESS_CONTROL_RESPONSE);
+          Serializers.INTEGER.write(request.out(), user.id());
+        }
+      }
+
+      for (int i = 0; i < count; i++) {
+        assertEquals(i, (int) responses.get(i).get());
+      }
+    }
+  }
+
+  @Test
+  public void testBusyServerFailsFuture() throws Exception {
+
+    try (final NioServerConnectionSource server = NioServerConnectionSource.forPort(0);
+         final FramedClientConnectionSource source =
+             new FramedClientConnectionSource("localhost", server.port())) {
+
+      final CompletableFuture<Integer> response =
+          new View(source).getUserAccessControlAsync(new Uuid(1), new Uuid(2));
+
+      try (final Connection request = server.connect()) {
+        Serializers.INTEGER.write(request.out(), NetworkCode.SERVER_BUSY);
+      }
+
+      assertTrue(response.handle((value, ex) -> ex != null).get());
+    }
+  }
+}
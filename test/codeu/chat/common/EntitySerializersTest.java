@@ -0,0 +1,105 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import codeu.chat.util.Serializer;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+// The buffer and stream halves of each serializer must produce the same bytes
+// and be able to read each other's output.
+public final class EntitySerializersTest {
+
+  private final Uuid id = new Uuid(new Uuid(100), 7);
+  private final Time time = Time.fromMs(1500000000123L);
+
+  @Test
+  public void testMessage() throws IOException {
+    final Message value = new Message(id, Uuid.NULL, new Uuid(3), time, new Uuid(4), "hello");
+    final Message read = check(Message.SERIALIZER, value);
+    assertEquals(value.id, read.id);
+    assertEquals(value.next, read.next);
+    assertEquals(value.previous, read.previous);
+    assertEquals(0, value.creation.compareTo(read.creation));
+    assertEquals(value.author, read.author);
+    assertEquals(value.content, read.content);
+  }
+
+  @Test
+  public void testUser() throws IOException {
+    final User value = new User(id, "alice", time);
+    final User read = check(User.SERIALIZER, value);
+    assertEquals(value.id, read.id);
+    assertEquals(value.name, read.name);
+    assertEquals(0, value.creation.compareTo(read.creation));
+  }
+
+  @Test
+  public void testConversationHeader() throws IOException {
+    final ConversationHeader value = new ConversationHeader(id, new Uuid(9), time, "");
+    final ConversationHeader read = check(ConversationHeader.SERIALIZER, value);
+    assertEquals(value.id, read.id);
+    assertEquals(value.owner, read.owner);
+    assertEquals(value.title, read.title);
+  }
+
+  @Test
+  public void testConversationPayload() throws IOException {
+    final ConversationPayload value = new ConversationPayload(id, new Uuid(1), new Uuid(2));
+    final ConversationPayload read = check(ConversationPayload.SERIALIZER, value);
+    assertEquals(value.id, read.id);
+    assertEquals(value.firstMessage, read.firstMessage);
+    assertEquals(value.lastMessage, read.lastMessage);
+  }
+
+  @Test
+  public void testSecret() throws IOException {
+    final Secret value = Secret.parse("ABCDEF");
+    assertEquals(value, check(Secret.SERIALIZER, value));
+  }
+
+  private static <T> T check(Serializer<T> serializer, T value) throws IOException {
+
+    final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    serializer.write(stream, value);
+    final byte[] expected = stream.toByteArray();
+
+    assertTrue(serializer.maxSize(value) >= expected.length);
+
+    final ByteBuffer heap = ByteBuffer.allocate(serializer.maxSize(value));
+    serializer.write(heap, value);
+    heap.flip();
+    assertArrayEquals(expected, Arrays.copyOf(heap.array(), heap.limit()));
+
+    // What the stream wrote can be read from a direct buffer...
+    final ByteBuffer direct = ByteBuffer.allocateDirect(expected.length);
+    direct.put(expected);
+    direct.flip();
+    serializer.read(direct);
+    assertFalse(direct.hasRemaining());
+
+    // ...and what the buffer wrote can be read from a stream.
+    return serializer.read(new ByteArrayInputStream(heap.array(), 0, heap.limit()));
+  }
+}
@@ -0,0 +1,165 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.ConversationPayload;
+import codeu.chat.common.Message;
+import codeu.chat.common.User;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+public final class LogRecordsTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private File file;
+
+  private Model model;
+  private Controller controller;
+
+  @Before
+  public void doBefore() throws IOException {
+    file = new File(folder.getRoot(), "transaction.log");
+    model = new Model();
+    controller = new Controller(Uuid.NULL, model);
+  }
+
+  @Test
+  public void testEveryRecordReplays() throws IOException {
+
+    final Uuid alice = new Uuid(1);
+    final Uuid bob = new Uuid(2);
+    final Uuid carol = new Uuid(3);
+    final Uuid room = new Uuid(10);
+
+    try (final WriteAheadLog log = new WriteAheadLog(file, WriteAheadLog.Sync.NONE, 0)) {
+
+      controller.setLog(log);
+
+      controller.newUser(alice, "alice", Time.fromMs(100));
+      controller.newUser(bob, "b\u00f6b", Time.fromMs(110));
+      controller.newUser(carol, "carol", Time.fromMs(120));
+      controller.newConversation(room, "room", alice, Time.fromMs(200));
+
+      controller.newMessage(new Uuid(20), alice, room, "first", Time.fromMs(300));
+      controller.newMessage(new Uuid(21), bob, room, "second", Time.fromMs(310));
+
+      controller.toggleCreatorBit(room, alice, true);
+      controller.toggleOwnerBit(room, bob, true);
+      controller.toggleOwnerBit(room, bob, false);
+      controller.toggleMemberBit(room, carol, true);
+      controller.toggleMemberBit(room, carol, false);
+      controller.toggleRemovedBit(room, carol);
+
+      controller.newUserInterest(alice, bob);
+      controller.newUserInterest(alice, carol);
+      controller.removeUserInterest(alice, carol);
+      controller.newConversationInterest(bob, room);
+      controller.newConversationInterest(carol, room);
+      controller.removeConversationInterest(carol, room);
+
+      controller.updateUsersUnseenMessagesCount(bob, room, 3);
+      controller.updateUsersLastStatusUpdate(bob, Time.fromMs(400));
+      controller.newUpdatedConversation(alice, room, Time.fromMs(500));
+    }
+
+    final Model replayed = replay(file);
+
+    assertEquals("alice", replayed.userById().first(alice).name);
+    assertEquals("b\u00f6b", replayed.userById().first(bob).name);
+    assertEquals(Time.fromMs(120), replayed.userById().first(carol).creation);
+
+    final ConversationHeader conversation = replayed.conversationById().first(room);
+    assertEquals("room", conversation.title);
+    assertEquals(alice, conversation.owner);
+    assertEquals(conversation.accessControls, model.conversationById().first(room).accessControls);
+    assertEquals(conversation.unseenMessages, model.conversationById().first(room).unseenMessages);
+
+    final ConversationPayload payload = replayed.conversationPayloadById().first(room);
+    assertEquals(new Uuid(20), payload.firstMessage);
+    assertEquals(new Uuid(21), payload.lastMessage);
+
+    final Message first = replayed.messageById().first(new Uuid(20));
+    assertEquals("first", first.content);
+    assertEquals(new Uuid(21), first.next);
+    assertEquals(bob, replayed.messageById().first(new Uuid(21)).author);
+
+    for (final Uuid id : new Uuid[] { alice, bob, carol }) {
+      final User expected = model.userById().first(id);
+      final User actual = replayed.userById().first(id);
+      assertEquals(expected.userInterests, actual.userInterests);
+      assertEquals(expected.conversationInterests, actual.conversationInterests);
+      assertEquals(expected.updatedConversations, actual.updatedConversations);
+      assertEquals(expected.lastStatusUpdate, actual.lastStatusUpdate);
+    }
+
+    assertEquals(Time.fromMs(400), replayed.userById().first(bob).lastStatusUpdate);
+  }
+
+  @Test
+  public void testFailedChangesAreNotRecorded() throws IOException {
+
+    try (final WriteAheadLog log = new WriteAheadLog(file, WriteAheadLog.Sync.NONE, 0)) {
+
+      controller.setLog(log);
+
+      assertNotNull(controller.newUser(new Uuid(1), "user", Time.fromMs(100)));
+      assertNull(controller.newUser(new Uuid(1), "again", Time.fromMs(200)));
+    }
+
+    final long[] count = { 0 };
+    WriteAheadLog.read(file, new WriteAheadLog.Reader() {
+      @Override
+      public void onRecord(ByteBuffer record) {
+        count[0] += 1;
+      }
+    });
+
+    assertEquals(1, count[0]);
+  }
+
+  @Test(expected = IOException.class)
+  public void testUnknownType() throws IOException {
+    LogRecords.apply(ByteBuffer.wrap(new byte[] { 127 }), controller);
+  }
+
+  static Model replay(File file) throws IOException {
+
+    final Model model = new Model();
+    final Controller controller = new Controller(Uuid.NULL, model);
+
+    WriteAheadLog.read(file, new WriteAheadLog.Reader() {
+      @Override
+      public void onRecord(ByteBuffer record) throws IOException {
+        LogRecords.apply(record, controller);
+      }
+    });
+
+    return model;
+  }
+}
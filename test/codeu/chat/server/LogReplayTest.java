@@ -0,0 +1,260 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.ConversationPayload;
+import codeu.chat.common.Message;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+public final class LogReplayTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static final int USERS = 5;
+  private static final int CONVERSATIONS = 20;
+  private static final int MESSAGES = 2000;
+
+  private LogFiles files;
+
+  private Model model;
+  private Controller controller;
+
+  @Before
+  public void doBefore() throws IOException {
+    files = new LogFiles(folder.getRoot());
+    model = new Model();
+    controller = new Controller(Uuid.NULL, model);
+  }
+
+  @Test
+  public void testMatchesSerialReplay() throws IOException {
+
+    try (final WriteAheadLog log = new WriteAheadLog(files.log(0), WriteAheadLog.Sync.NONE, 0)) {
+      controller.setLog(log);
+      populate(0);
+    }
+
+    final Model serial = LogRecordsTest.replay(files.log(0));
+
+    final Model parallel = new Model();
+    final LogReplay replay = new LogReplay(parallel, new Controller(Uuid.NULL, parallel), 4, new ReentrantLock());
+    WriteAheadLog.read(files.log(0), replay);
+    replay.finish();
+
+    assertEquals(USERS + CONVERSATIONS + MESSAGES + MESSAGES / 10 + USERS * 2, replay.records());
+
+    ModelSnapshotTest.assertSameModel(model, serial);
+    ModelSnapshotTest.assertSameModel(model, parallel);
+    assertLinked(parallel);
+  }
+
+  @Test
+  public void testSmallBatches() throws IOException {
+
+    try (final WriteAheadLog log = new WriteAheadLog(files.log(0), WriteAheadLog.Sync.NONE, 0)) {
+      controller.setLog(log);
+      populate(0);
+      populate(1000);
+    }
+
+    // Batches that end part way through every conversation's messages and
+    // between records of every kind.
+    final Model batched = new Model();
+    final LogReplay replay =
+        new LogReplay(batched, new Controller(Uuid.NULL, batched), 4, new ReentrantLock(), 37);
+    WriteAheadLog.read(files.log(0), replay);
+    replay.finish();
+
+    ModelSnapshotTest.assertSameModel(model, batched);
+    assertLinked(batched);
+  }
+
+  @Test
+  public void testContinuesSnapshot() throws IOException {
+
+    final WriteAheadLog log = new WriteAheadLog(files.log(0), WriteAheadLog.Sync.NONE, 0);
+    controller.setLog(log);
+
+    populate(0);
+
+    final ModelSnapshot snapshot = ModelSnapshot.capture(model);
+    log.rotate(files.log(1));
+
+    // More of everything, some of it in conversations the snapshot has.
+    populate(1000);
+
+    snapshot.write(files.snapshot(1));
+    log.close();
+
+    final Model recovered = new Model();
+    ModelSnapshot.read(files.snapshot(1), recovered, new ReentrantLock());
+
+    final LogReplay replay = new LogReplay(recovered, new Controller(Uuid.NULL, recovered), 4, new ReentrantLock());
+    WriteAheadLog.read(files.log(1), replay);
+    replay.finish();
+
+    ModelSnapshotTest.assertSameModel(model, recovered);
+    assertLinked(recovered);
+  }
+
+  @Test
+  public void testReadableBetweenSteps() throws IOException {
+
+    final WriteAheadLog log = new WriteAheadLog(files.log(0), WriteAheadLog.Sync.NONE, 0);
+    controller.setLog(log);
+
+    populate(0);
+
+    final ModelSnapshot snapshot = ModelSnapshot.capture(model);
+    log.rotate(files.log(1));
+
+    populate(1000);
+
+    snapshot.write(files.snapshot(1));
+    log.close();
+
+    final Model recovered = new Model();
+
+    // Every time the lock is taken, which is when a reader could get in, the
+    // model must be whole: every conversation's messages linked from first
+    // to last.
+    final int[] steps = { 0 };
+    final ReentrantLock checking = new ReentrantLock() {
+      @Override
+      public void lock() {
+        super.lock();
+        steps[0] += 1;
+        assertLinked(recovered);
+      }
+    };
+
+    ModelSnapshot.read(files.snapshot(1), recovered, checking);
+
+    final LogReplay replay = new LogReplay(recovered, new Controller(Uuid.NULL, recovered), 4, checking);
+    WriteAheadLog.read(files.log(1), replay);
+    replay.finish();
+
+    assertFalse(checking.isLocked());
+    assertTrue(steps[0] > USERS + CONVERSATIONS);
+    ModelSnapshotTest.assertSameModel(model, recovered);
+  }
+
+  @Test
+  public void testSkipsDuplicateMessageIds() throws IOException {
+
+    final Uuid author = new Uuid(1);
+    final Uuid[] conversations = { new Uuid(100), new Uuid(101), new Uuid(102) };
+
+    // The same message id logged in every conversation. The model's stores
+    // take an id once, so replay must keep one of them and skip the rest
+    // rather than fail.
+    try (final WriteAheadLog log = new WriteAheadLog(files.log(0), WriteAheadLog.Sync.NONE, 0)) {
+      controller.setLog(log);
+      controller.newUser(author, "user", Time.fromMs(0));
+      for (final Uuid conversation : conversations) {
+        controller.newConversation(conversation, "room", author, Time.fromMs(0));
+      }
+      for (int i = 0; i < 100; i++) {
+        for (final Uuid conversation : conversations) {
+          log.append(LogRecords.addMessage(
+              conversation, new Message(new Uuid(1000 + i), Uuid.NULL, Uuid.NULL, Time.fromMs(i), author, "hi")));
+        }
+      }
+    }
+
+    final Model recovered = new Model();
+    final LogReplay replay = new LogReplay(recovered, new Controller(Uuid.NULL, recovered), 4, new ReentrantLock());
+    WriteAheadLog.read(files.log(0), replay);
+    replay.finish();
+
+    int messages = 0;
+    for (final Uuid conversation : conversations) {
+      final ConversationPayload payload = recovered.conversationPayloadById().first(conversation);
+      for (Uuid id = payload.firstMessage; !Uuid.equals(id, Uuid.NULL); id = recovered.messageById().first(id).next) {
+        assertEquals(conversation, recovered.conversationByMessage().first(id));
+        messages += 1;
+      }
+    }
+
+    assertEquals(100, messages);
+    assertLinked(recovered);
+  }
+
+  // Users, conversations and messages with ids starting at "base", the
+  // messages spread over every conversation made so far, with access
+  // changes, interests and unseen counts in among them.
+  private void populate(int base) {
+
+    for (int i = 0; i < USERS; i++) {
+      controller.newUser(new Uuid(base + 1 + i), "user " + (base + i), Time.fromMs(base + i));
+    }
+
+    for (int i = 0; i < CONVERSATIONS; i++) {
+      controller.newConversation(
+          new Uuid(base + 100 + i), "room " + (base + i), new Uuid(base + 1 + i % USERS), Time.fromMs(base + i));
+    }
+
+    final int conversations = CONVERSATIONS * (base / 1000 + 1);
+
+    for (int i = 0; i < MESSAGES; i++) {
+
+      final Uuid author = new Uuid(base + 1 + i % USERS);
+      final Uuid conversation = new Uuid((i % conversations) / CONVERSATIONS * 1000 + 100 + i % CONVERSATIONS);
+
+      controller.newMessage(
+          new Uuid(1000000 + base * 10 + i), author, conversation, "message " + base + "/" + i, Time.fromMs(base + i));
+
+      if (i % 10 == 0) {
+        controller.toggleMemberBit(conversation, author, i % 20 == 0);
+      }
+    }
+
+    for (int i = 0; i < USERS; i++) {
+      final Uuid user = new Uuid(base + 1 + i);
+      final Uuid conversation = new Uuid(base + 100 + i);
+      controller.newConversationInterest(user, conversation);
+      controller.updateUsersUnseenMessagesCount(user, conversation, i);
+    }
+  }
+
+  // Every message's previous message is the one before it in its conversation.
+  private static void assertLinked(Model model) {
+    for (final ConversationHeader conversation : model.conversationById().all()) {
+      final ConversationPayload payload = model.conversationPayloadById().first(conversation.id);
+      Uuid previous = Uuid.NULL;
+      for (Uuid id = payload.firstMessage; !Uuid.equals(id, Uuid.NULL); ) {
+        final Message message = model.messageById().first(id);
+        assertEquals(previous, message.previous);
+        previous = id;
+        id = message.next;
+      }
+      assertEquals(payload.lastMessage, previous);
+    }
+  }
+}
@@ -0,0 +1,249 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.ConversationPayload;
+import codeu.chat.common.Message;
+import codeu.chat.common.User;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+public final class ModelSnapshotTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static final Uuid ALICE = new Uuid(1);
+  private static final Uuid BOB = new Uuid(2);
+  private static final Uuid ROOM = new Uuid(10);
+  private static final Uuid EMPTY_ROOM = new Uuid(11);
+
+  private Model model;
+  private Controller controller;
+
+  @Before
+  public void doBefore() {
+    model = new Model();
+    controller = new Controller(new Uuid(100), model);
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+
+    populate();
+
+    final File file = new File(folder.getRoot(), "snapshot.1");
+    ModelSnapshot.capture(model).write(file);
+
+    final Model loaded = new Model();
+    ModelSnapshot.read(file, loaded, new ReentrantLock());
+
+    assertSameModel(model, loaded);
+    assertFalse(new File(folder.getRoot(), "snapshot.1.partial").exists());
+  }
+
+  @Test
+  public void testSnapshotIsPointInTime() throws IOException {
+
+    populate();
+
+    final ModelSnapshot snapshot = ModelSnapshot.capture(model);
+
+    // Keep a copy of the model as it is now to compare against.
+    final File before = new File(folder.getRoot(), "before");
+    ModelSnapshot.capture(model).write(before);
+    final Model expected = new Model();
+    ModelSnapshot.read(before, expected, new ReentrantLock());
+
+    // Changes made between capturing and writing must not be in the snapshot.
+    controller.newMessage(new Uuid(30), BOB, ROOM, "late", Time.fromMs(900));
+    controller.newMessage(new Uuid(31), BOB, EMPTY_ROOM, "late too", Time.fromMs(901));
+    controller.newUser(new Uuid(3), "carol", Time.fromMs(902));
+    controller.toggleOwnerBit(ROOM, BOB, true);
+    controller.removeUserInterest(ALICE, BOB);
+    controller.newConversationInterest(ALICE, EMPTY_ROOM);
+    controller.updateUsersLastStatusUpdate(ALICE, Time.fromMs(903));
+
+    final File file = new File(folder.getRoot(), "snapshot.1");
+    snapshot.write(file);
+
+    final Model loaded = new Model();
+    ModelSnapshot.read(file, loaded, new ReentrantLock());
+
+    assertSameModel(expected, loaded);
+    assertNull(loaded.userById().first(new Uuid(3)));
+    assertNull(loaded.messageById().first(new Uuid(30)));
+    assertEquals(Uuid.NULL, loaded.messageById().first(new Uuid(21)).next);
+  }
+
+  @Test
+  public void testDamagedSnapshot() throws IOException {
+
+    populate();
+
+    final File file = new File(folder.getRoot(), "snapshot.1");
+    ModelSnapshot.capture(model).write(file);
+
+    try (final RandomAccessFile raw = new RandomAccessFile(file, "rw")) {
+      raw.seek(raw.length() / 2);
+      final int b = raw.read();
+      raw.seek(raw.length() / 2);
+      raw.write(b ^ 0x01);
+    }
+
+    try {
+      ModelSnapshot.read(file, new Model(), new ReentrantLock());
+      fail("A damaged snapshot should not load");
+    } catch (IOException ex) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testSnapshotAndTail() throws IOException {
+
+    final LogFiles files = new LogFiles(folder.getRoot());
+
+    final WriteAheadLog log = new WriteAheadLog(files.log(0), WriteAheadLog.Sync.NONE, 0);
+    controller.setLog(log);
+
+    populate();
+
+    // Start generation 1, as the server does.
+    final ModelSnapshot snapshot = ModelSnapshot.capture(model);
+    log.rotate(files.log(1));
+
+    controller.newMessage(new Uuid(30), BOB, ROOM, "after", Time.fromMs(900));
+    controller.toggleMemberBit(ROOM, ALICE, false);
+    controller.newUserInterest(BOB, ALICE);
+
+    snapshot.write(files.snapshot(1));
+    log.close();
+
+    assertEquals(Arrays.asList(0L, 1L), files.logs());
+    files.deleteBefore(1);
+    assertEquals(Arrays.asList(1L), files.logs());
+    assertEquals(Arrays.asList(1L), files.snapshots());
+
+    final Model recovered = new Model();
+    final Controller recovering = new Controller(Uuid.NULL, recovered);
+
+    ModelSnapshot.read(files.snapshot(1), recovered, new ReentrantLock());
+    final long records = WriteAheadLog.read(files.log(1), new WriteAheadLog.Reader() {
+      @Override
+      public void onRecord(ByteBuffer record) throws IOException {
+        LogRecords.apply(record, recovering);
+      }
+    });
+
+    assertEquals(3, records);
+    assertSameModel(model, recovered);
+  }
+
+  private void populate() {
+
+    controller.newUser(ALICE, "alice", Time.fromMs(100));
+    controller.newUser(BOB, "bob", Time.fromMs(110));
+    controller.newConversation(ROOM, "room", ALICE, Time.fromMs(200));
+    controller.newConversation(EMPTY_ROOM, "empty", BOB, Time.fromMs(210));
+
+    controller.newMessage(new Uuid(20), ALICE, ROOM, "one", Time.fromMs(300));
+    controller.newMessage(new Uuid(21), BOB, ROOM, "two", Time.fromMs(310));
+
+    controller.toggleCreatorBit(ROOM, ALICE, true);
+    controller.toggleMemberBit(ROOM, BOB, true);
+    controller.newUserInterest(ALICE, BOB);
+    controller.newConversationInterest(BOB, ROOM);
+    controller.updateUsersUnseenMessagesCount(BOB, ROOM, 2);
+    controller.updateUsersLastStatusUpdate(BOB, Time.fromMs(400));
+    controller.newUpdatedConversation(ALICE, ROOM, Time.fromMs(500));
+  }
+
+  static void assertSameModel(Model expected, Model actual) {
+
+    assertEquals(ids(expected.userById().all()), ids(actual.userById().all()));
+
+    for (final User user : expected.userById().all()) {
+      final User other = actual.userById().first(user.id);
+      assertEquals(user.name, other.name);
+      assertEquals(user.creation, other.creation);
+      assertEquals(user.conversationInterests, other.conversationInterests);
+      assertEquals(user.userInterests, other.userInterests);
+      assertEquals(user.updatedConversations, other.updatedConversations);
+      assertEquals(user.lastStatusUpdate, other.lastStatusUpdate);
+      assertSame(other, actual.userByText().first(user.name));
+      assertSame(other.userInterests, actual.userbyUserInterest().first(user.id));
+    }
+
+    assertEquals(ids(expected.conversationById().all()), ids(actual.conversationById().all()));
+
+    for (final ConversationHeader conversation : expected.conversationById().all()) {
+      final ConversationHeader other = actual.conversationById().first(conversation.id);
+      assertEquals(conversation.title, other.title);
+      assertEquals(conversation.owner, other.owner);
+      assertEquals(conversation.creation, other.creation);
+      assertEquals(conversation.accessControls, other.accessControls);
+      assertEquals(conversation.unseenMessages, other.unseenMessages);
+      assertSame(other.accessControls, actual.conversationByAccessControl().first(conversation.id));
+
+      final ConversationPayload payload = expected.conversationPayloadById().first(conversation.id);
+      final ConversationPayload otherPayload = actual.conversationPayloadById().first(conversation.id);
+      assertEquals(payload.firstMessage, otherPayload.firstMessage);
+      assertEquals(payload.lastMessage, otherPayload.lastMessage);
+      assertEquals(chain(expected, payload), chain(actual, otherPayload));
+    }
+  }
+
+  // The content of every message in the conversation, in order.
+  private static List<String> chain(Model model, ConversationPayload payload) {
+
+    final List<String> contents = new ArrayList<>();
+
+    for (Uuid id = payload.firstMessage; !Uuid.equals(id, Uuid.NULL); ) {
+      final Message message = model.messageById().first(id);
+      contents.add(message.content);
+      assertSame(message, model.messageByText().first(message.content));
+      id = message.next;
+    }
+
+    return contents;
+  }
+
+  private static HashSet<Uuid> ids(Iterable<?> values) {
+    final HashSet<Uuid> ids = new HashSet<>();
+    for (final Object value : values) {
+      ids.add(value instanceof User ? ((User) value).id : ((ConversationHeader) value).id);
+    }
+    return ids;
+  }
+}
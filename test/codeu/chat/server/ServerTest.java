@@ -0,0 +1,430 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.server;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.Message;
+import codeu.chat.common.NetworkCode;
+import codeu.chat.common.Secret;
+import codeu.chat.common.User;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Uuid;
+import codeu.chat.util.connections.Connection;
+import codeu.chat.util.connections.Pusher;
+
+public final class ServerTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  // Enough users that replaying them takes long enough to send reads while
+  // it runs.
+  private static final int USERS = 5000;
+
+  private Server server;
+
+  @After
+  public void doAfter() throws IOException {
+    if (server != null) {
+      server.close();
+    }
+  }
+
+  @Test
+  public void testChangeRejectedWhileRecovering() throws Exception {
+
+    server = newServer();
+
+    final TestConnection served = new TestConnection(newUser("served"));
+    server.serveConnection(served);
+    assertEquals(NetworkCode.RECOVERING, served.responseCode());
+
+    final TestConnection handled = new TestConnection(newUser("handled"));
+    server.handleConnection(handled);
+    assertEquals(NetworkCode.RECOVERING, handled.responseCode());
+  }
+
+  @Test
+  public void testReadsServedDuringRecovery() throws Exception {
+
+    final Model model = new Model();
+    final Controller controller = new Controller(Uuid.NULL, model);
+    try (final WriteAheadLog log = new WriteAheadLog(
+        new LogFiles(folder.getRoot()).log(0), WriteAheadLog.Sync.NONE, 0)) {
+      controller.setLog(log);
+      for (int i = 0; i < USERS; i++) {
+        controller.newUser("user " + i);
+      }
+    }
+
+    server = newServer();
+
+    final Thread recovery = new Thread("recovery") {
+      @Override
+      public void run() {
+        try {
+          server.recover();
+        } catch (IOException ex) {
+          fail(ex.toString());
+        }
+      }
+    };
+    recovery.start();
+
+    int readsDuringRecovery = 0;
+    while (recovery.isAlive()) {
+      final TestConnection read = new TestConnection(request(NetworkCode.SERVER_INFO_REQUEST));
+      server.handleConnection(read);
+      assertEquals(NetworkCode.SERVER_INFO_RESPONSE, read.responseCode());
+      if (recovery.isAlive()) {
+        readsDuringRecovery += 1;
+      }
+    }
+
+    recovery.join();
+    assertTrue(readsDuringRecovery > 0);
+
+    // Once recovery is done, changes are let in.
+    final TestConnection change = new TestConnection(newUser("after"));
+    server.handleConnection(change);
+    assertEquals(NetworkCode.NEW_USER_RESPONSE, change.responseCode());
+  }
+
+  @Test
+  public void testReadsSeeCommittedChanges() throws Exception {
+
+    server = newServer();
+    server.recover();
+
+    final TestConnection change = new TestConnection(newUser("alice"));
+    server.handleConnection(change);
+    assertEquals(NetworkCode.NEW_USER_RESPONSE, change.responseCode());
+
+    final TestConnection read = new TestConnection(request(NetworkCode.GET_USERS_REQUEST));
+    server.handleConnection(read);
+
+    final InputStream response = read.response();
+    assertEquals(NetworkCode.GET_USERS_RESPONSE, (int) Serializers.INTEGER.read(response));
+
+    final List<String> names = new ArrayList<>();
+    for (final User user : Serializers.collection(User.SERIALIZER).read(response)) {
+      names.add(user.name);
+    }
+    assertEquals(1, names.size());
+    assertEquals("alice", names.get(0));
+  }
+
+  @Test
+  public void testReadsShareTheModelAndChangesWait() throws Exception {
+
+    server = newServer();
+    server.recover();
+
+    // Each read stops part way through its request, while it holds the
+    // model's read lock, until both have got that far.
+    final CountDownLatch arrived = new CountDownLatch(2);
+    final CountDownLatch release = new CountDownLatch(1);
+
+    final TestConnection[] reads = new TestConnection[2];
+    final Thread[] readers = new Thread[2];
+
+    for (int i = 0; i < reads.length; i++) {
+      final TestConnection read = new TestConnection(
+          new HeldRequest(conversationsById(), arrived, release));
+      reads[i] = read;
+      readers[i] = new Thread("reader " + i) {
+        @Override
+        public void run() {
+          server.serveConnection(read);
+        }
+      };
+      readers[i].start();
+    }
+
+    // Only reads that run at the same time can both arrive.
+    assertTrue(arrived.await(10, TimeUnit.SECONDS));
+
+    // A change must wait for the reads so that they never see it half made.
+    final TestConnection change = new TestConnection(newUser("waiting"));
+    server.handleConnection(change);
+    assertFalse(change.isAnswered(200));
+
+    release.countDown();
+
+    for (int i = 0; i < reads.length; i++) {
+      readers[i].join();
+      assertEquals(NetworkCode.GET_CONVERSATIONS_BY_ID_RESPONSE, reads[i].responseCode());
+    }
+    assertEquals(NetworkCode.NEW_USER_RESPONSE, change.responseCode());
+  }
+
+  @Test
+  public void testCommittedChangesArePushed() throws Exception {
+
+    server = newServer();
+    server.recover();
+
+    final Uuid alice = createUser("alice");
+    final Uuid bob = createUser("bob");
+
+    final List<Integer> events = Collections.synchronizedList(new ArrayList<Integer>());
+    final Pusher pusher = new Pusher() {
+      @Override
+      public boolean push(byte[] event) {
+        try {
+          events.add(Serializers.INTEGER.read(new ByteArrayInputStream(event)));
+        } catch (IOException ex) {
+          events.add(-1);
+        }
+        return true;
+      }
+    };
+
+    final TestConnection subscription = new TestConnection(subscribe(bob), pusher);
+    server.serveConnection(subscription);
+    final InputStream subscribed = subscription.response();
+    assertEquals(NetworkCode.SUBSCRIBE_RESPONSE, (int) Serializers.INTEGER.read(subscribed));
+    assertTrue(Serializers.BOOLEAN.read(subscribed));
+
+    final TestConnection follow = new TestConnection(pair(NetworkCode.NEW_USER_INTEREST_REQUEST, bob, alice));
+    server.serveConnection(follow);
+    assertEquals(NetworkCode.NEW_USER_INTEREST_RESPONSE, follow.responseCode());
+
+    // The event is held until the change is committed, which is before the
+    // response is sent, so it is there once the request has been served.
+    final TestConnection change = new TestConnection(newConversation("room", alice));
+    server.serveConnection(change);
+    assertEquals(NetworkCode.NEW_CONVERSATION_RESPONSE, change.responseCode());
+
+    assertEquals(Collections.singletonList(NetworkCode.NEW_CONVERSATION_EVENT), events);
+  }
+
+  @Test
+  public void testChangesAppliedInArrivalOrder() throws Exception {
+
+    server = newServer();
+    server.recover();
+
+    final Uuid author = createUser("author");
+
+    final TestConnection created = new TestConnection(newConversation("room", author));
+    server.serveConnection(created);
+    final InputStream room = created.response();
+    assertEquals(NetworkCode.NEW_CONVERSATION_RESPONSE, (int) Serializers.INTEGER.read(room));
+    final Uuid conversation = Serializers.nullable(ConversationHeader.SERIALIZER).read(room).id;
+
+    // Queued faster than the log commits them, so later messages are made
+    // while earlier ones are still waiting.
+    final List<TestConnection> sent = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      final TestConnection message = new TestConnection(newMessage(author, conversation, "message " + i));
+      server.handleConnection(message);
+      sent.add(message);
+    }
+
+    Uuid previous = Uuid.NULL;
+    for (int i = 0; i < sent.size(); i++) {
+      final InputStream response = sent.get(i).response();
+      assertEquals(NetworkCode.NEW_MESSAGE_RESPONSE, (int) Serializers.INTEGER.read(response));
+      final Message message = Serializers.nullable(Message.SERIALIZER).read(response);
+      assertEquals("message " + i, message.content);
+      assertEquals(previous, message.previous);
+      previous = message.id;
+    }
+  }
+
+  private Uuid createUser(String name) throws Exception {
+    final TestConnection connection = new TestConnection(newUser(name));
+    server.serveConnection(connection);
+    final InputStream response = connection.response();
+    assertEquals(NetworkCode.NEW_USER_RESPONSE, (int) Serializers.INTEGER.read(response));
+    return Serializers.nullable(User.SERIALIZER).read(response).id;
+  }
+
+  private Server newServer() {
+    return new Server(new Uuid(1), new Secret((byte) 1), new NoOpRelay(), folder.getRoot());
+  }
+
+  private static byte[] newUser(String name) throws IOException {
+    final ByteArrayOutputStream request = new ByteArrayOutputStream();
+    Serializers.INTEGER.write(request, NetworkCode.NEW_USER_REQUEST);
+    Serializers.STRING.write(request, name);
+    return request.toByteArray();
+  }
+
+  private static byte[] newConversation(String title, Uuid owner) throws IOException {
+    final ByteArrayOutputStream request = new ByteArrayOutputStream();
+    Serializers.INTEGER.write(request, NetworkCode.NEW_CONVERSATION_REQUEST);
+    Serializers.STRING.write(request, title);
+    Uuid.SERIALIZER.write(request, owner);
+    return request.toByteArray();
+  }
+
+  private static byte[] newMessage(Uuid author, Uuid conversation, String content) throws IOException {
+    final ByteArrayOutputStream request = new ByteArrayOutputStream();
+    Serializers.INTEGER.write(request, NetworkCode.NEW_MESSAGE_REQUEST);
+    Uuid.SERIALIZER.write(request, author);
+    Uuid.SERIALIZER.write(request, conversation);
+    Serializers.STRING.write(request, content);
+    return request.toByteArray();
+  }
+
+  private static byte[] subscribe(Uuid user) throws IOException {
+    final ByteArrayOutputStream request = new ByteArrayOutputStream();
+    Serializers.INTEGER.write(request, NetworkCode.SUBSCRIBE_REQUEST);
+    Uuid.SERIALIZER.write(request, user);
+    return request.toByteArray();
+  }
+
+  private static byte[] pair(int type, Uuid first, Uuid second) throws IOException {
+    final ByteArrayOutputStream request = new ByteArrayOutputStream();
+    Serializers.INTEGER.write(request, type);
+    Uuid.SERIALIZER.write(request, first);
+    Uuid.SERIALIZER.write(request, second);
+    return request.toByteArray();
+  }
+
+  private static byte[] conversationsById() throws IOException {
+    final ByteArrayOutputStream request = new ByteArrayOutputStream();
+    Serializers.INTEGER.write(request, NetworkCode.GET_CONVERSATIONS_BY_ID_REQUEST);
+    final Collection<Uuid> ids = new ArrayList<>();
+    ids.add(new Uuid(7));
+    Serializers.collection(Uuid.SERIALIZER).write(request, ids);
+    return request.toByteArray();
+  }
+
+  private static byte[] request(int type) throws IOException {
+    final ByteArrayOutputStream request = new ByteArrayOutputStream();
+    Serializers.INTEGER.write(request, type);
+    return request.toByteArray();
+  }
+
+  // A whole request in memory, as the server's connection sources give it,
+  // and whatever the server writes back.
+  private static final class TestConnection implements Connection {
+
+    private final InputStream in;
+    private final Pusher pusher;
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private final CountDownLatch closed = new CountDownLatch(1);
+
+    public TestConnection(byte[] request) {
+      this(new ByteArrayInputStream(request));
+    }
+
+    public TestConnection(byte[] request, Pusher pusher) {
+      this(new ByteArrayInputStream(request), pusher);
+    }
+
+    public TestConnection(InputStream in) {
+      this(in, null);
+    }
+
+    public TestConnection(InputStream in, Pusher pusher) {
+      this.in = in;
+      this.pusher = pusher;
+    }
+
+    @Override
+    public InputStream in() {
+      return in;
+    }
+
+    @Override
+    public OutputStream out() {
+      return out;
+    }
+
+    @Override
+    public Pusher pusher() {
+      return pusher;
+    }
+
+    @Override
+    public void close() {
+      closed.countDown();
+    }
+
+    // Wait for the server to answer and close the connection, then read the
+    // code the response starts with.
+    public int responseCode() throws Exception {
+      return Serializers.INTEGER.read(response());
+    }
+
+    public InputStream response() throws Exception {
+      assertTrue(closed.await(10, TimeUnit.SECONDS));
+      return new ByteArrayInputStream(out.toByteArray());
+    }
+
+    public boolean isAnswered(long ms) throws InterruptedException {
+      return closed.await(ms, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  // A request that gives up its type right away, then stops before the rest
+  // until it is released. The type is read before the command runs, so the
+  // stop comes while the command holds the model lock.
+  private static final class HeldRequest extends InputStream {
+
+    private final InputStream request;
+    private final CountDownLatch arrived;
+    private final CountDownLatch release;
+
+    private int position = 0;
+
+    public HeldRequest(byte[] request, CountDownLatch arrived, CountDownLatch release) {
+      this.request = new ByteArrayInputStream(request);
+      this.arrived = arrived;
+      this.release = release;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (position == 4) {
+        arrived.countDown();
+        try {
+          if (!release.await(10, TimeUnit.SECONDS)) {
+            throw new IOException("Request was never released");
+          }
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          throw new IOException(ex);
+        }
+      }
+      position += 1;
+      return request.read();
+    }
+  }
+}
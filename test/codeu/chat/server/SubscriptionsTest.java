@@ -0,0 +1,200 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.junit.Before;
+
+import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.Message;
+import codeu.chat.common.NetworkCode;
+import codeu.chat.common.User;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Uuid;
+import codeu.chat.util.connections.Pusher;
+
+public final class SubscriptionsTest {
+
+  // Keeps the type of every event pushed to it.
+  private static final class RecordingPusher implements Pusher {
+
+    public final List<Integer> events = new ArrayList<>();
+    public boolean open = true;
+
+    @Override
+    public boolean push(byte[] event) {
+      if (!open) {
+        return false;
+      }
+      try {
+        events.add(Serializers.INTEGER.read(new ByteArrayInputStream(event)));
+      } catch (IOException ex) {
+        fail(ex.toString());
+      }
+      return true;
+    }
+  }
+
+  private Model model;
+  private Controller controller;
+  private Subscriptions subscriptions;
+
+  private User author;
+  private User reader;
+  private ConversationHeader conversation;
+
+  @Before
+  public void doBefore() {
+    model = new Model();
+    controller = new Controller(Uuid.NULL, model);
+    subscriptions = new Subscriptions(model);
+    controller.setListener(subscriptions);
+
+    author = controller.newUser("author");
+    reader = controller.newUser("reader");
+    conversation = controller.newConversation("conversation", author.id);
+  }
+
+  @Test
+  public void testUnknownUser() {
+    assertFalse(subscriptions.subscribe(new Uuid(12345), new RecordingPusher()));
+    assertEquals(0, subscriptions.size());
+  }
+
+  @Test
+  public void testNotInterested() {
+    final RecordingPusher pusher = new RecordingPusher();
+    assertTrue(subscriptions.subscribe(reader.id, pusher));
+
+    controller.newMessage(author.id, conversation.id, "hello");
+    controller.newConversation("another", author.id);
+
+    assertTrue(pusher.events.isEmpty());
+  }
+
+  @Test
+  public void testConversationInterest() {
+    final RecordingPusher pusher = new RecordingPusher();
+    subscriptions.subscribe(reader.id, pusher);
+    controller.newConversationInterest(reader.id, conversation.id);
+
+    controller.newMessage(author.id, conversation.id, "hello");
+
+    assertEquals(1, pusher.events.size());
+    assertEquals(NetworkCode.NEW_MESSAGE_EVENT, (int) pusher.events.get(0));
+  }
+
+  @Test
+  public void testUserInterest() {
+    final RecordingPusher pusher = new RecordingPusher();
+    subscriptions.subscribe(reader.id, pusher);
+    controller.newUserInterest(reader.id, author.id);
+
+    controller.newConversation("another", author.id);
+    controller.newMessage(author.id, conversation.id, "hello");
+
+    assertEquals(2, pusher.events.size());
+    assertEquals(NetworkCode.NEW_CONVERSATION_EVENT, (int) pusher.events.get(0));
+    assertEquals(NetworkCode.NEW_MESSAGE_EVENT, (int) pusher.events.get(1));
+  }
+
+  @Test
+  public void testInterestsBeforeSubscribing() {
+    controller.newConversationInterest(reader.id, conversation.id);
+    controller.newUserInterest(reader.id, author.id);
+
+    final RecordingPusher pusher = new RecordingPusher();
+    subscriptions.subscribe(reader.id, pusher);
+
+    // Interested both ways, but told once.
+    controller.newMessage(author.id, conversation.id, "hello");
+
+    assertEquals(1, pusher.events.size());
+    assertEquals(NetworkCode.NEW_MESSAGE_EVENT, (int) pusher.events.get(0));
+  }
+
+  @Test
+  public void testRemovedInterests() {
+    final RecordingPusher pusher = new RecordingPusher();
+    subscriptions.subscribe(reader.id, pusher);
+    controller.newConversationInterest(reader.id, conversation.id);
+    controller.newUserInterest(reader.id, author.id);
+
+    controller.removeConversationInterest(reader.id, conversation.id);
+    controller.removeUserInterest(reader.id, author.id);
+
+    controller.newMessage(author.id, conversation.id, "hello");
+    controller.newConversation("another", author.id);
+
+    assertTrue(pusher.events.isEmpty());
+  }
+
+  @Test
+  public void testResubscribeMovesInterests() {
+    final RecordingPusher pusher = new RecordingPusher();
+    controller.newConversationInterest(reader.id, conversation.id);
+    subscriptions.subscribe(reader.id, pusher);
+    subscriptions.subscribe(author.id, pusher);
+
+    // The reader's interests no longer reach this client.
+    controller.newMessage(author.id, conversation.id, "hello");
+    assertTrue(pusher.events.isEmpty());
+
+    // Changing them does not bring it back.
+    controller.newUserInterest(reader.id, author.id);
+    controller.newConversation("another", author.id);
+    assertTrue(pusher.events.isEmpty());
+  }
+
+  @Test
+  public void testOwnMessagesAreNotPushed() {
+    final RecordingPusher pusher = new RecordingPusher();
+    subscriptions.subscribe(author.id, pusher);
+    controller.newConversationInterest(author.id, conversation.id);
+
+    controller.newMessage(author.id, conversation.id, "hello");
+
+    assertTrue(pusher.events.isEmpty());
+  }
+
+  @Test
+  public void testClosedClientIsDropped() {
+    final RecordingPusher pusher = new RecordingPusher();
+    subscriptions.subscribe(reader.id, pusher);
+    controller.newConversationInterest(reader.id, conversation.id);
+
+    pusher.open = false;
+    controller.newMessage(author.id, conversation.id, "hello");
+
+    assertEquals(0, subscriptions.size());
+  }
+
+  @Test
+  public void testResubscribeReplacesUser() {
+    final RecordingPusher pusher = new RecordingPusher();
+    subscriptions.subscribe(reader.id, pusher);
+    subscriptions.subscribe(author.id, pusher);
+    assertEquals(1, subscriptions.size());
+
+    assertFalse(subscriptions.subscribe(Uuid.NULL, pusher));
+    assertEquals(0, subscriptions.size());
+  }
+}
@@ -0,0 +1,102 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.ConversationPayload;
+import codeu.chat.common.User;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+public final class TextLogConverterTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testConvert() throws IOException {
+
+    final File text = write(
+        "ADD-USER 100.1 \"alice\" 1000",
+        "ADD-USER 100.2 \"bob smith\" 1001",
+        "ADD-CONVERSATION 100.10 100.1 \"the room\" 2000",
+        "ADD-CONVO-CREATOR 100.10 100.1",
+        "ADD-MESSAGE 100.20 100.1 100.10 \"hello there\" 3000",
+        "ADD-MESSAGE 100.21 100.2 100.10 \"hi\" 3001",
+        "ADD-CONVO-MEMBER 100.10 100.2",
+        "ADD-INTEREST-USER 100.1 100.2",
+        "ADD-INTEREST-CONVERSATION 100.2 100.10",
+        "UPDATE-STATUS 100.2 5000",
+        "",
+        "REMOVE-CONVO-MEMBER-TOGGLE 100.10 100.2",
+        "ADD-USER not-an-id \"carol\" 1002");
+
+    final File binary = new File(folder.getRoot(), "transaction.log");
+
+    assertEquals(10, TextLogConverter.convert(text, binary));
+
+    final Model model = LogRecordsTest.replay(binary);
+
+    final User alice = model.userById().first(Uuid.parse("100.1"));
+    final User bob = model.userById().first(Uuid.parse("100.2"));
+    assertEquals("alice", alice.name);
+    assertEquals("bob smith", bob.name);
+    assertEquals(Time.fromMs(1000), alice.creation);
+    assertTrue(alice.userInterests.contains(bob.id));
+    assertEquals(Time.fromMs(5000), bob.lastStatusUpdate);
+
+    final ConversationHeader room = model.conversationById().first(Uuid.parse("100.10"));
+    assertEquals("the room", room.title);
+    assertEquals(alice.id, room.owner);
+    assertTrue(bob.conversationInterests.contains(room.id));
+    assertEquals(
+        ConversationHeader.CREATOR | ConversationHeader.OWNER | ConversationHeader.MEMBER,
+        (int) room.accessControls.get(alice.id));
+    assertEquals(ConversationHeader.MEMBER, (int) room.accessControls.get(bob.id));
+
+    final ConversationPayload payload = model.conversationPayloadById().first(room.id);
+    assertEquals(Uuid.parse("100.20"), payload.firstMessage);
+    assertEquals(Uuid.parse("100.21"), payload.lastMessage);
+    assertEquals("hello there", model.messageById().first(payload.firstMessage).content);
+  }
+
+  @Test
+  public void testUnknownLinesAreSkipped() throws IOException {
+    assertNull(TextLogConverter.toRecord(""));
+    assertNull(TextLogConverter.toRecord("REMOVE-CONVO-MEMBER-TOGGLE 100.10 100.2"));
+    assertNotNull(TextLogConverter.toRecord("REMOVE-CONVO-TOGGLE 100.10 100.2"));
+  }
+
+  private File write(String... lines) throws IOException {
+    final File file = folder.newFile("transaction_log.txt");
+    try (final FileOutputStream out = new FileOutputStream(file)) {
+      for (final String line : lines) {
+        out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+      }
+    }
+    return file;
+  }
+}
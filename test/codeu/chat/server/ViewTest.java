@@ -0,0 +1,101 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.junit.Before;
+
+import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.Message;
+import codeu.chat.common.User;
+import codeu.chat.util.Uuid;
+
+public final class ViewTest {
+
+  private Controller controller;
+  private View view;
+
+  private ConversationHeader conversation;
+
+  @Before
+  public void doBefore() {
+    final Model model = new Model();
+    controller = new Controller(Uuid.NULL, model);
+    view = new View(model);
+
+    final User user = controller.newUser("user");
+    conversation = controller.newConversation("conversation", user.id);
+
+    for (int i = 0; i < 10; i++) {
+      controller.newMessage(user.id, conversation.id, "message " + i);
+    }
+  }
+
+  @Test
+  public void testFirstPage() {
+    final List<Message> page = view.getMessagePage(conversation.id, Uuid.NULL, true, 4);
+    assertContents(page, 0, 1, 2, 3);
+  }
+
+  @Test
+  public void testNextPage() {
+    final List<Message> first = view.getMessagePage(conversation.id, Uuid.NULL, true, 4);
+    final List<Message> second = view.getMessagePage(conversation.id, first.get(3).id, true, 4);
+    assertContents(second, 4, 5, 6, 7);
+  }
+
+  @Test
+  public void testLastPartialPage() {
+    final List<Message> first = view.getMessagePage(conversation.id, Uuid.NULL, true, 8);
+    final List<Message> last = view.getMessagePage(conversation.id, first.get(7).id, true, 8);
+    assertContents(last, 8, 9);
+
+    assertTrue(view.getMessagePage(conversation.id, last.get(1).id, true, 8).isEmpty());
+  }
+
+  @Test
+  public void testBackward() {
+    final List<Message> newest = view.getMessagePage(conversation.id, Uuid.NULL, false, 3);
+    assertContents(newest, 9, 8, 7);
+
+    final List<Message> older = view.getMessagePage(conversation.id, newest.get(2).id, false, 3);
+    assertContents(older, 6, 5, 4);
+  }
+
+  @Test
+  public void testUnknownConversation() {
+    assertTrue(view.getMessagePage(new Uuid(12345), Uuid.NULL, true, 4).isEmpty());
+  }
+
+  @Test
+  public void testCursorFromAnotherConversation() {
+    final ConversationHeader other = controller.newConversation("other", conversation.owner);
+    final Message elsewhere = controller.newMessage(conversation.owner, other.id, "elsewhere");
+    controller.newMessage(conversation.owner, other.id, "after elsewhere");
+
+    assertTrue(view.getMessagePage(conversation.id, elsewhere.id, true, 4).isEmpty());
+    assertTrue(view.getMessagePage(conversation.id, elsewhere.id, false, 4).isEmpty());
+  }
+
+  private static void assertContents(List<Message> page, int... expected) {
+    assertEquals(expected.length, page.size());
+    for (int i = 0; i < expected.length; i++) {
+      assertEquals("message " + expected[i], page.get(i).content);
+    }
+  }
+}
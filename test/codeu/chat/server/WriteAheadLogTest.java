@@ -0,0 +1,378 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public final class WriteAheadLogTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private File file;
+  private WriteAheadLog log;
+
+  @Before
+  public void doBefore() throws IOException {
+    file = new File(folder.getRoot(), "transaction.log");
+    log = new WriteAheadLog(file, WriteAheadLog.Sync.BATCH, 0);
+  }
+
+  @After
+  public void doAfter() throws IOException {
+    log.close();
+  }
+
+  @Test
+  public void testAppendAndAwait() throws IOException {
+
+    final long first = log.append(record("first"));
+    final long second = log.append(record("second"));
+
+    assertTrue(second > first);
+    assertEquals(second, log.appended());
+
+    log.await(second);
+
+    assertEquals(list("first", "second"), read(file));
+  }
+
+  @Test
+  public void testAwaitNothing() throws IOException {
+    // Nothing has been appended, so there is nothing to wait for.
+    log.await(log.appended());
+    assertEquals(WriteAheadLog.HEADER_SIZE, file.length());
+    assertTrue(read(file).isEmpty());
+  }
+
+  @Test
+  public void testConcurrentAppenders() throws Exception {
+
+    final int threads = 8;
+    final int records = 200;
+
+    final Thread[] appenders = new Thread[threads];
+    final Throwable[] failures = new Throwable[threads];
+
+    for (int i = 0; i < threads; i++) {
+      final int thread = i;
+      appenders[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int j = 0; j < records; j++) {
+              log.await(log.append(record(thread + " " + j)));
+            }
+          } catch (Throwable ex) {
+            failures[thread] = ex;
+          }
+        }
+      };
+      appenders[i].start();
+    }
+
+    for (int i = 0; i < threads; i++) {
+      appenders[i].join();
+      assertNull(failures[i]);
+    }
+
+    final List<String> written = read(file);
+    assertEquals(threads * records, written.size());
+
+    // Each thread's records must be in the order that thread appended them.
+    final int[] next = new int[threads];
+    for (final String line : written) {
+      final String[] parts = line.split(" ");
+      final int thread = Integer.parseInt(parts[0]);
+      assertEquals(next[thread], Integer.parseInt(parts[1]));
+      next[thread] += 1;
+    }
+  }
+
+  @Test
+  public void testEverySyncPolicy() throws IOException {
+
+    for (final WriteAheadLog.Sync sync : WriteAheadLog.Sync.values()) {
+
+      final File other = new File(folder.getRoot(), sync.name());
+
+      try (final WriteAheadLog policyLog = new WriteAheadLog(other, sync, 50)) {
+        policyLog.append(record("one"));
+        policyLog.await(policyLog.append(record("two")));
+        assertEquals(sync.name(), list("one", "two"), read(other));
+      }
+    }
+  }
+
+  @Test
+  public void testIntervalForcesWithoutFollowingAppend() throws Exception {
+
+    final File other = new File(folder.getRoot(), "interval");
+
+    try (final WriteAheadLog intervalLog =
+             new WriteAheadLog(other, WriteAheadLog.Sync.INTERVAL, 100)) {
+
+      intervalLog.await(intervalLog.append(record("only")));
+      final long before = intervalLog.forces();
+
+      // Nothing else is appended, so only the interval running out can
+      // cause the force.
+      final long deadline = System.currentTimeMillis() + 2000;
+      while (intervalLog.forces() == before && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+
+      assertTrue(intervalLog.forces() > before);
+    }
+  }
+
+  @Test
+  public void testFailedLogRefusesRecords() throws IOException {
+
+    log.await(log.append(record("before")));
+    assertFalse(log.failed());
+
+    // A file in a folder that does not exist cannot be opened, which stops
+    // the log.
+    log.rotate(new File(new File(folder.getRoot(), "missing"), "next.log"));
+
+    try {
+      log.await(log.append(record("after")));
+      fail("Expected the log to have failed");
+    } catch (IOException ex) {
+      // expected
+    }
+
+    assertTrue(log.failed());
+
+    try {
+      log.await(log.append(record("later")));
+      fail("Expected the log to have failed");
+    } catch (IOException ex) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testCloseCommitsEverything() throws IOException {
+
+    for (int i = 0; i < 100; i++) {
+      log.append(record("record " + i));
+    }
+
+    log.close();
+
+    final List<String> written = read(file);
+    assertEquals(100, written.size());
+    assertEquals("record 99", written.get(99));
+  }
+
+  @Test
+  public void testReopenAppendsAfterExistingRecords() throws IOException {
+
+    log.await(log.append(record("before")));
+    log.close();
+
+    log = new WriteAheadLog(file, WriteAheadLog.Sync.BATCH, 0);
+    log.await(log.append(record("after")));
+
+    assertEquals(list("before", "after"), read(file));
+  }
+
+  @Test
+  public void testRotate() throws IOException {
+
+    final File next = new File(folder.getRoot(), "transaction.1.log");
+
+    log.append(record("a"));
+    log.append(record("b"));
+    log.rotate(next);
+    log.await(log.append(record("c")));
+
+    assertEquals(list("a", "b"), read(file));
+    assertEquals(list("c"), read(next));
+
+    log.close();
+
+    // The old file was closed by the rotation, so it can be read and
+    // reopened like any other.
+    log = new WriteAheadLog(next, WriteAheadLog.Sync.BATCH, 0);
+    log.await(log.append(record("d")));
+
+    assertEquals(list("c", "d"), read(next));
+  }
+
+  @Test
+  public void testRotateAtMark() throws Exception {
+
+    final File next = new File(folder.getRoot(), "transaction.1.log");
+
+    log.append(record("a"));
+    final long mark = log.mark();
+
+    // Appended after the mark but before the rotation, so held back until
+    // it comes and then written to the new file.
+    final long held = log.append(record("b"));
+    final Thread waiting = new Thread() {
+      @Override
+      public void run() {
+        try {
+          log.await(held);
+        } catch (IOException ex) {
+          // Checked below by reading the files.
+        }
+      }
+    };
+    waiting.start();
+    waiting.join(200);
+    assertTrue(waiting.isAlive());
+
+    log.rotate(next, mark);
+    log.await(log.append(record("c")));
+    waiting.join();
+
+    assertEquals(list("a"), read(file));
+    assertEquals(list("b", "c"), read(next));
+  }
+
+  @Test
+  public void testUnfinishedRecordIsCut() throws IOException {
+
+    log.await(log.append(record("whole")));
+    log.close();
+
+    final long good = file.length();
+
+    // The header of a record with only part of its bytes.
+    try (final FileOutputStream out = new FileOutputStream(file, true)) {
+      out.write(new byte[] { 0, 0, 0, 100, 1, 2, 3, 4, 5, 6 });
+    }
+
+    assertEquals(list("whole"), read(file));
+    assertEquals(good, file.length());
+
+    log = new WriteAheadLog(file, WriteAheadLog.Sync.BATCH, 0);
+    log.await(log.append(record("next")));
+
+    assertEquals(list("whole", "next"), read(file));
+  }
+
+  @Test
+  public void testDamagedRecordIsCut() throws IOException {
+
+    log.append(record("first"));
+    log.append(record("second"));
+    log.await(log.append(record("third")));
+    log.close();
+
+    // Change the last byte of "second" so that its checksum no longer matches.
+    final long secondEnd = WriteAheadLog.HEADER_SIZE +
+        2 * WriteAheadLog.RECORD_HEADER_SIZE + "first".length() + "second".length();
+
+    try (final RandomAccessFile raw = new RandomAccessFile(file, "rw")) {
+      raw.seek(secondEnd - 1);
+      raw.write('D');
+    }
+
+    assertEquals(list("first"), read(file));
+    assertEquals(secondEnd - WriteAheadLog.RECORD_HEADER_SIZE - "second".length(), file.length());
+  }
+
+  @Test
+  public void testUnfinishedHeaderIsCut() throws IOException {
+
+    log.close();
+
+    try (final FileOutputStream out = new FileOutputStream(file)) {
+      out.write(new byte[] { 0x43, 0x4C });
+    }
+
+    assertTrue(read(file).isEmpty());
+    assertEquals(0, file.length());
+
+    log = new WriteAheadLog(file, WriteAheadLog.Sync.BATCH, 0);
+    log.await(log.append(record("first")));
+
+    assertEquals(list("first"), read(file));
+  }
+
+  @Test
+  public void testTextFileIsNotALog() throws IOException {
+
+    final File text = folder.newFile("transaction_log.txt");
+
+    try (final FileOutputStream out = new FileOutputStream(text)) {
+      out.write("ADD-USER 100.101.7 \"alice\" 1497310000000\n".getBytes(StandardCharsets.UTF_8));
+    }
+
+    try {
+      read(text);
+      fail("Reading a text log should fail");
+    } catch (IOException ex) {
+      // expected
+    }
+
+    try {
+      new WriteAheadLog(text, WriteAheadLog.Sync.BATCH, 0).close();
+      fail("Adding to a text log should fail");
+    } catch (IOException ex) {
+      // expected
+    }
+  }
+
+  private static ByteBuffer record(String value) {
+    return ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static List<String> list(String... values) {
+    final List<String> list = new ArrayList<>();
+    for (final String value : values) {
+      list.add(value);
+    }
+    return list;
+  }
+
+  private static List<String> read(File file) throws IOException {
+
+    final List<String> records = new ArrayList<>();
+
+    final long count = WriteAheadLog.read(file, new WriteAheadLog.Reader() {
+      @Override
+      public void onRecord(ByteBuffer record) {
+        final byte[] bytes = new byte[record.remaining()];
+        record.get(bytes);
+        records.add(new String(bytes, StandardCharsets.UTF_8));
+      }
+    });
+
+    assertEquals(records.size(), count);
+    return records;
+  }
+}
@@ -0,0 +1,162 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.User;
+
+public final class CompactTest {
+
+  private static final int FLAG = 0x40000000;
+
+  @Test
+  public void testHeaderIsWrittenInFull() throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final OutputStream out = Compact.output(bytes, FLAG);
+    Serializers.INTEGER.write(out, 3);
+    Serializers.INTEGER.write(out, 3);
+
+    assertArrayEquals(new byte[] { 0x40, 0, 0, 3, 6 }, bytes.toByteArray());
+
+    // The reader sees the flag on the header, as the server does.
+    final InputStream in = Compact.input(new ByteArrayInputStream(bytes.toByteArray()), false);
+    assertEquals(FLAG | 3, (int) Serializers.INTEGER.read(in));
+    assertEquals(3, (int) Serializers.INTEGER.read(in));
+  }
+
+  @Test
+  public void testNumbers() throws IOException {
+    final int[] ints = { 0, 1, -1, 63, -64, 64, 1000000, Integer.MIN_VALUE, Integer.MAX_VALUE };
+    final long[] longs = { 0L, -1L, 1L << 40, Long.MIN_VALUE, Long.MAX_VALUE };
+
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final OutputStream out = Compact.output(bytes, 0);
+    Serializers.INTEGER.write(out, 0);  // header
+    for (final int value : ints) {
+      Serializers.INTEGER.write(out, value);
+    }
+    for (final long value : longs) {
+      Serializers.LONG.write(out, value);
+    }
+
+    final InputStream in = Compact.input(new ByteArrayInputStream(bytes.toByteArray()), false);
+    Serializers.INTEGER.read(in);
+    for (final int value : ints) {
+      assertEquals(value, (int) Serializers.INTEGER.read(in));
+    }
+    for (final long value : longs) {
+      assertEquals(value, (long) Serializers.LONG.read(in));
+    }
+    assertEquals(-1, in.read());
+  }
+
+  @Test
+  public void testUsersRoundTripAndShrink() throws IOException {
+
+    final Uuid server = new Uuid(new Uuid(100), 101);
+    final List<User> users = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      users.add(new User(new Uuid(server, 1000 + i * 7919), "user" + i, Time.fromMs(1500000000000L + i * 1234)));
+    }
+
+    final Serializer<Collection<User>> serializer = Serializers.collection(User.SERIALIZER);
+
+    final ByteArrayOutputStream normal = new ByteArrayOutputStream();
+    serializer.write(normal, users);
+
+    final byte[] compact = writeCompact(serializer, users);
+    final Collection<User> read = readCompact(serializer, compact);
+
+    assertEquals(users.size(), read.size());
+    final Iterator<User> expected = users.iterator();
+    for (final User user : read) {
+      final User original = expected.next();
+      assertEquals(original.id, user.id);
+      assertEquals(original.name, user.name);
+      assertEquals(original.creation.inMs(), user.creation.inMs());
+    }
+
+    assertTrue(
+        String.format("compact %d bytes, normal %d bytes", compact.length, normal.size()),
+        compact.length * 2 < normal.size());
+  }
+
+  @Test
+  public void testNestedScopes() throws IOException {
+
+    // A map of collections: each inner collection starts its own scope and the
+    // outer scope must carry on where it left off afterwards.
+    final Map<Uuid, Collection<ConversationHeader>> value = new HashMap<>();
+    for (int i = 0; i < 3; i++) {
+      final Collection<ConversationHeader> conversations = new ArrayList<>();
+      for (int j = 0; j < 4; j++) {
+        conversations.add(new ConversationHeader(
+            new Uuid(new Uuid(i), j),
+            new Uuid(new Uuid(new Uuid(7), i), -j),
+            Time.fromMs(1000L * (10 - j)),
+            "title " + j));
+      }
+      value.put(new Uuid(new Uuid(5), i), conversations);
+    }
+
+    final Serializer<Map<Uuid, Collection<ConversationHeader>>> serializer =
+        Serializers.map(Uuid.SERIALIZER, Serializers.collection(ConversationHeader.SERIALIZER));
+
+    final Map<Uuid, Collection<ConversationHeader>> read = readCompact(serializer, writeCompact(serializer, value));
+
+    assertEquals(value.keySet(), read.keySet());
+    for (final Uuid key : value.keySet()) {
+      final Iterator<ConversationHeader> expected = value.get(key).iterator();
+      for (final ConversationHeader header : read.get(key)) {
+        final ConversationHeader original = expected.next();
+        assertEquals(original.id, header.id);
+        assertEquals(original.owner, header.owner);
+        assertEquals(original.creation.inMs(), header.creation.inMs());
+        assertEquals(original.title, header.title);
+      }
+    }
+  }
+
+  private static <T> byte[] writeCompact(Serializer<T> serializer, T value) throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final OutputStream out = Compact.output(bytes, 0);
+    Serializers.INTEGER.write(out, 0);  // header
+    serializer.write(out, value);
+    return bytes.toByteArray();
+  }
+
+  private static <T> T readCompact(Serializer<T> serializer, byte[] bytes) throws IOException {
+    final InputStream in = Compact.input(new ByteArrayInputStream(bytes), false);
+    Serializers.INTEGER.read(in);
+    final T value = serializer.read(in);
+    assertEquals(-1, in.read());
+    return value;
+  }
+}
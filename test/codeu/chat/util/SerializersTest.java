@@ -0,0 +1,295 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public final class SerializersTest {
+
+  @Test
+  public void testNumbers() throws IOException {
+    final int[] ints = { 0, 1, -1, 255, 256, Integer.MIN_VALUE, Integer.MAX_VALUE };
+    for (final int value : ints) {
+      assertEquals(value, (int) roundTrip(Serializers.INTEGER, value));
+    }
+
+    final long[] longs = { 0L, 1L, -1L, 1L << 40, Long.MIN_VALUE, Long.MAX_VALUE };
+    for (final long value : longs) {
+      assertEquals(value, (long) roundTrip(Serializers.LONG, value));
+    }
+
+    assertTrue(roundTrip(Serializers.BOOLEAN, true));
+    assertFalse(roundTrip(Serializers.BOOLEAN, false));
+  }
+
+  @Test
+  public void testWireFormat() throws IOException {
+    // Other servers read these bytes, so the layout must not change.
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Serializers.INTEGER.write(out, 0x01020304);
+    Serializers.LONG.write(out, 0x05060708090A0B0CL);
+    assertArrayEquals(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12 }, out.toByteArray());
+  }
+
+  @Test
+  public void testLargeBytes() throws IOException {
+    final byte[] value = new byte[100000];
+    for (int i = 0; i < value.length; i++) {
+      value[i] = (byte) i;
+    }
+    assertArrayEquals(value, roundTrip(Serializers.BYTES, value));
+  }
+
+  @Test
+  public void testStreamThatTrickles() throws IOException {
+    // A socket may return fewer bytes than asked for. The serializers must
+    // keep reading until they have the whole value.
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Serializers.LONG.write(out, 123456789L);
+    Serializers.STRING.write(out, "one byte at a time");
+
+    final InputStream in = trickle(new ByteArrayInputStream(out.toByteArray()));
+
+    assertEquals(123456789L, (long) Serializers.LONG.read(in));
+    assertEquals("one byte at a time", Serializers.STRING.read(in));
+  }
+
+  @Test(expected = EOFException.class)
+  public void testTruncatedBytes() throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Serializers.BYTES.write(out, new byte[] { 1, 2, 3, 4 });
+    final byte[] truncated = Arrays.copyOf(out.toByteArray(), out.size() - 1);
+    Serializers.BYTES.read(new ByteArrayInputStream(truncated));
+  }
+
+  @Test(expected = EOFException.class)
+  public void testTruncatedInteger() throws IOException {
+    Serializers.INTEGER.read(new ByteArrayInputStream(new byte[] { 0, 0 }));
+  }
+
+  @Test(expected = EOFException.class)
+  public void testTruncatedBoolean() throws IOException {
+    Serializers.BOOLEAN.read(new ByteArrayInputStream(new byte[0]));
+  }
+
+  @Test(expected = EOFException.class)
+  public void testTruncatedNullable() throws IOException {
+    Serializers.nullable(Serializers.INTEGER).read(new ByteArrayInputStream(new byte[0]));
+  }
+
+  @Test
+  public void testBuffersMatchStreams() throws IOException {
+    final Map<Integer, String> map = new HashMap<>();
+    map.put(1, "one");
+    map.put(2, "two");
+
+    final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    Serializers.INTEGER.write(stream, -5);
+    Serializers.LONG.write(stream, 1L << 50);
+    Serializers.BOOLEAN.write(stream, true);
+    Serializers.STRING.write(stream, "cafe");
+    Serializers.map(Serializers.INTEGER, Serializers.STRING).write(stream, map);
+    Serializers.nullable(Serializers.STRING).write(stream, null);
+    Uuid.SERIALIZER.write(stream, new Uuid(new Uuid(1), 2));
+    Time.SERIALIZER.write(stream, Time.fromMs(12345));
+
+    final ByteBuffer buffer = ByteBuffer.allocate(1024);
+    Serializers.INTEGER.write(buffer, -5);
+    Serializers.LONG.write(buffer, 1L << 50);
+    Serializers.BOOLEAN.write(buffer, true);
+    Serializers.STRING.write(buffer, "cafe");
+    Serializers.map(Serializers.INTEGER, Serializers.STRING).write(buffer, map);
+    Serializers.nullable(Serializers.STRING).write(buffer, null);
+    Uuid.SERIALIZER.write(buffer, new Uuid(new Uuid(1), 2));
+    Time.SERIALIZER.write(buffer, Time.fromMs(12345));
+    buffer.flip();
+
+    assertArrayEquals(stream.toByteArray(), Arrays.copyOf(buffer.array(), buffer.limit()));
+
+    assertEquals(-5, (int) Serializers.INTEGER.read(buffer));
+    assertEquals(1L << 50, (long) Serializers.LONG.read(buffer));
+    assertTrue(Serializers.BOOLEAN.read(buffer));
+    assertEquals("cafe", Serializers.STRING.read(buffer));
+    assertEquals(map, Serializers.map(Serializers.INTEGER, Serializers.STRING).read(buffer));
+    assertNull(Serializers.nullable(Serializers.STRING).read(buffer));
+    assertEquals(new Uuid(new Uuid(1), 2), Uuid.SERIALIZER.read(buffer));
+    assertEquals(12345L, Time.SERIALIZER.read(buffer).inMs());
+    assertFalse(buffer.hasRemaining());
+  }
+
+  @Test
+  public void testDirectBuffer() throws IOException {
+    final Collection<String> values = Arrays.asList("a", "bb", "", "snow");
+    final Serializer<Collection<String>> serializer = Serializers.collection(Serializers.STRING);
+
+    final ByteBuffer buffer = Serializers.toBuffer(serializer, values, true);
+    assertTrue(buffer.isDirect());
+    assertEquals(values, serializer.read(buffer));
+  }
+
+  @Test
+  public void testMaxSizeIsEnough() throws IOException {
+    // Whatever the charset makes of these, including characters it cannot
+    // encode, the buffer must have room and match the stream.
+    final String value = "\ud83d\ude00\u2603\u00e9x";
+
+    final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    Serializers.STRING.write(stream, value);
+
+    final ByteBuffer buffer = ByteBuffer.allocate(Serializers.STRING.maxSize(value));
+    Serializers.STRING.write(buffer, value);
+    buffer.flip();
+
+    assertArrayEquals(stream.toByteArray(), Arrays.copyOf(buffer.array(), buffer.limit()));
+  }
+
+  @Test
+  public void testStringsAreUtf8() throws IOException {
+    final String value = "\ud83d\ude00\u2603\u00e9x";
+    final byte[] expected = value.getBytes(StandardCharsets.UTF_8);
+
+    final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    Serializers.STRING.write(stream, value);
+    final byte[] written = stream.toByteArray();
+
+    assertEquals(4 + expected.length, written.length);
+    assertArrayEquals(expected, Arrays.copyOfRange(written, 4, written.length));
+    assertEquals(value, Serializers.STRING.read(new ByteArrayInputStream(written)));
+    assertEquals(value, Serializers.STRING.read(Serializers.toBuffer(Serializers.STRING, value, true)));
+  }
+
+  @Test
+  public void testLoneSurrogate() throws IOException {
+    // Just as String.getBytes does, a half of a pair becomes '?'.
+    final String value = "a\ud800b\udc00";
+    assertEquals("a?b?", Serializers.STRING.read(Serializers.toBuffer(Serializers.STRING, value, false)));
+    assertEquals(value.getBytes(StandardCharsets.UTF_8).length + 4, Serializers.STRING.maxSize(value));
+  }
+
+  @Test
+  public void testInternedStrings() throws IOException {
+    final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    Serializers.STRING.write(stream, "alice");
+    final byte[] bytes = stream.toByteArray();
+
+    // Without a table every read is a new string.
+    assertNotSame(
+        Serializers.INTERNED_STRING.read(new ByteArrayInputStream(bytes)),
+        Serializers.INTERNED_STRING.read(new ByteArrayInputStream(bytes)));
+
+    Serializers.internStrings(new StringTable(16));
+    try {
+      final String first = Serializers.INTERNED_STRING.read(new ByteArrayInputStream(bytes));
+      assertEquals("alice", first);
+      assertSame(first, Serializers.INTERNED_STRING.read(new ByteArrayInputStream(bytes)));
+      assertSame(first, Serializers.INTERNED_STRING.read(ByteBuffer.wrap(bytes)));
+
+      // Plain STRING ignores the table.
+      assertNotSame(first, Serializers.STRING.read(new ByteArrayInputStream(bytes)));
+    } finally {
+      Serializers.internStrings(null);
+    }
+  }
+
+  @Test(expected = EOFException.class)
+  public void testTruncatedBuffer() throws IOException {
+    final ByteBuffer buffer = Serializers.toBuffer(Serializers.STRING, "truncated", false);
+    buffer.limit(buffer.limit() - 1);
+    Serializers.STRING.read(buffer);
+  }
+
+  @Test
+  public void testCorruptCountInBuffer() throws IOException {
+
+    final Serializer<Collection<Integer>> collection = Serializers.collection(Serializers.INTEGER);
+    final Serializer<Map<Integer, Integer>> map = Serializers.map(Serializers.INTEGER, Serializers.INTEGER);
+
+    for (final int count : new int[] { -1, Integer.MIN_VALUE, 1000, Integer.MAX_VALUE }) {
+
+      final ByteBuffer buffer = ByteBuffer.allocate(12);
+      buffer.putInt(count).putInt(1).putInt(2).flip();
+
+      try {
+        collection.read(buffer.duplicate());
+        fail("Collection with count " + count + " should not be read");
+      } catch (IOException ex) {
+        // expected
+      }
+
+      try {
+        map.read(buffer.duplicate());
+        fail("Map with count " + count + " should not be read");
+      } catch (IOException ex) {
+        // expected
+      }
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void testNegativeCountInStream() throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Serializers.INTEGER.write(out, -1);
+    Serializers.collection(Serializers.INTEGER).read(new ByteArrayInputStream(out.toByteArray()));
+  }
+
+  @Test
+  public void testDefaultBufferMethods() throws IOException {
+    // A serializer that only knows streams still works with buffers.
+    final Serializer<Integer> streamsOnly = new Serializer<Integer>() {
+      @Override
+      public void write(java.io.OutputStream out, Integer value) throws IOException {
+        Serializers.INTEGER.write(out, value);
+      }
+
+      @Override
+      public Integer read(InputStream in) throws IOException {
+        return Serializers.INTEGER.read(in);
+      }
+    };
+
+    assertEquals(4, streamsOnly.maxSize(77));
+    final ByteBuffer buffer = Serializers.toBuffer(streamsOnly, 77, false);
+    assertEquals(77, (int) streamsOnly.read(buffer));
+  }
+
+  private static <T> T roundTrip(Serializer<T> serializer, T value) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    serializer.write(out, value);
+    return serializer.read(new ByteArrayInputStream(out.toByteArray()));
+  }
+
+  private static InputStream trickle(InputStream in) {
+    return new FilterInputStream(in) {
+      @Override
+      public int read(byte[] array, int offset, int length) throws IOException {
+        return super.read(array, offset, Math.min(length, 1));
+      }
+    };
+  }
+}
@@ -0,0 +1,75 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public final class StringTableTest {
+
+  @Test
+  public void testSameBytesSameString() {
+    final StringTable table = new StringTable(8);
+    final byte[] bytes = "xxalicexx".getBytes(StandardCharsets.UTF_8);
+
+    final String first = table.decode(bytes, 2, 5);
+    assertEquals("alice", first);
+
+    // A different array with the same bytes still finds it.
+    assertSame(first, table.decode("alice".getBytes(StandardCharsets.UTF_8), 0, 5));
+  }
+
+  @Test
+  public void testArrayCanBeReused() {
+    final StringTable table = new StringTable(8);
+    final byte[] bytes = "alice".getBytes(StandardCharsets.UTF_8);
+
+    final String first = table.decode(bytes, 0, bytes.length);
+    bytes[0] = 'A';
+
+    // The table keeps its own copy of the bytes.
+    assertEquals("alice", first);
+    assertEquals("Alice", table.decode(bytes, 0, bytes.length));
+    assertEquals("alice", table.decode("alice".getBytes(StandardCharsets.UTF_8), 0, 5));
+  }
+
+  @Test
+  public void testCollisionsStayCorrect() {
+    // With one slot every string collides with the last.
+    final StringTable table = new StringTable(1);
+    for (int i = 0; i < 100; i++) {
+      final String value = "name" + (i % 7);
+      final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      assertEquals(value, table.decode(bytes, 0, bytes.length));
+    }
+  }
+
+  @Test
+  public void testLongStringsAreNotKept() {
+    final StringTable table = new StringTable(8);
+    final byte[] bytes = new byte[StringTable.MAX_LENGTH + 1];
+    Arrays.fill(bytes, (byte) 'a');
+
+    assertNotSame(table.decode(bytes, 0, bytes.length), table.decode(bytes, 0, bytes.length));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidSize() {
+    new StringTable(0);
+  }
+}
@@ -14,6 +14,10 @@
 
 package codeu.chat.util;
 
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicReference;
+
 import static org.junit.Assert.*;
 import org.junit.Test;
 import org.junit.Before;
@@ -25,4 +29,55 @@ public final class TimeTest {
     assertEquals(0, Time.fromMs(0).inMs());
     assertEquals(10, Time.fromMs(10).inMs());
   }
+
+  @Test
+  public void testCompare() {
+    assertTrue(Time.fromMs(1).compareTo(Time.fromMs(2)) < 0);
+    assertTrue(Time.fromMs(Long.MAX_VALUE).compareTo(Time.fromMs(Long.MIN_VALUE)) > 0);
+    assertEquals(0, Time.fromMs(7).compareTo(Time.fromMs(7)));
+    assertEquals(Time.fromMs(7), Time.fromMs(7));
+    assertEquals(Time.fromMs(7).hashCode(), Time.fromMs(7).hashCode());
+    assertNotEquals(Time.fromMs(7), Time.fromMs(8));
+    assertTrue(Time.fromMs(5).inRange(Time.fromMs(5), Time.fromMs(6)));
+    assertFalse(Time.fromMs(7).inRange(Time.fromMs(5), Time.fromMs(6)));
+  }
+
+  @Test
+  public void testToStringMatchesDateFormat() {
+    final SimpleDateFormat expected = new SimpleDateFormat("dd-MMM-yyyy HH:mm:ss.SSS");
+    final long[] values = { 0, 1, 999, 1000, 1001, 1500000000123L, 1500000000123L, 1500000000009L, 1500000001000L, -1, -1001 };
+    for (final long value : values) {
+      assertEquals(expected.format(new Date(value)), Time.fromMs(value).toString());
+    }
+  }
+
+  @Test
+  public void testToStringFromManyThreads() throws InterruptedException {
+
+    final AtomicReference<String> failure = new AtomicReference<>();
+    final Thread[] threads = new Thread[4];
+
+    for (int i = 0; i < threads.length; i++) {
+      final long base = 1500000000000L + i * 3600000L;
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          final SimpleDateFormat expected = new SimpleDateFormat("dd-MMM-yyyy HH:mm:ss.SSS");
+          for (long ms = base; ms < base + 20000; ms += 7) {
+            final String actual = Time.fromMs(ms).toString();
+            if (!actual.equals(expected.format(new Date(ms)))) {
+              failure.compareAndSet(null, actual);
+            }
+          }
+        }
+      };
+      threads[i].start();
+    }
+
+    for (final Thread thread : threads) {
+      thread.join();
+    }
+
+    assertNull(failure.get());
+  }
 }
@@ -0,0 +1,274 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Test;
+
+public final class TimelineTest {
+
+  private static final Runnable NOTHING = new Runnable() {
+    @Override
+    public void run() { }
+  };
+
+  private Timeline timeline;
+
+  @After
+  public void doAfter() {
+    timeline.stop();
+    timeline.join();
+  }
+
+  @Test
+  public void testOfferRuns() throws Exception {
+    timeline = new Timeline(4);
+
+    final CountDownLatch ran = new CountDownLatch(1);
+    assertNotNull(timeline.offerNow(new Runnable() {
+      @Override
+      public void run() {
+        ran.countDown();
+      }
+    }));
+
+    assertTrue(ran.await(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testOfferRejectedWhenFull() throws Exception {
+    timeline = new Timeline(2);
+
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+
+    // Hold the executor so that everything after this waits in the queue.
+    assertNotNull(timeline.offerNow(new Runnable() {
+      @Override
+      public void run() {
+        started.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException ex) { }
+      }
+    }));
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+
+    assertNotNull(timeline.offerNow(NOTHING));
+    assertNotNull(timeline.offerNow(NOTHING));
+    assertNull(timeline.offerNow(NOTHING));
+
+    assertEquals(2, timeline.depth());
+    assertEquals(1, timeline.rejected());
+
+    // Scheduled events are always accepted.
+    final CountDownLatch scheduled = new CountDownLatch(1);
+    timeline.scheduleNow(new Runnable() {
+      @Override
+      public void run() {
+        scheduled.countDown();
+      }
+    });
+    assertEquals(3, timeline.depth());
+    assertEquals(3, timeline.peakDepth());
+
+    release.countDown();
+    assertTrue(scheduled.await(5, TimeUnit.SECONDS));
+    assertEquals(0, timeline.depth());
+
+    assertNotNull(timeline.offerNow(NOTHING));
+  }
+
+  @Test
+  public void testFutureEventsCountTowardsCapacity() {
+    timeline = new Timeline(1);
+
+    assertNotNull(timeline.offerAt(System.currentTimeMillis() + 60000, NOTHING));
+    assertNull(timeline.offerNow(NOTHING));
+  }
+
+  @Test
+  public void testScheduleInIsNotEarly() throws Exception {
+    timeline = new Timeline();
+
+    final long start = System.currentTimeMillis();
+    final BlockingQueue<Long> ran = new LinkedBlockingQueue<>();
+    timeline.scheduleIn(50, new Runnable() {
+      @Override
+      public void run() {
+        ran.add(System.currentTimeMillis());
+      }
+    });
+
+    final Long time = ran.poll(5, TimeUnit.SECONDS);
+    assertNotNull(time);
+    assertTrue(time - start >= 50);
+  }
+
+  @Test
+  public void testOrderOfDueEvents() throws Exception {
+    timeline = new Timeline();
+
+    final BlockingQueue<Integer> order = new LinkedBlockingQueue<>();
+    for (int i = 0; i < 100; i++) {
+      final int value = i;
+      timeline.scheduleNow(new Runnable() {
+        @Override
+        public void run() {
+          order.add(value);
+        }
+      });
+    }
+
+    for (int i = 0; i < 100; i++) {
+      assertEquals(i, (int) order.poll(5, TimeUnit.SECONDS));
+    }
+  }
+
+  @Test
+  public void testCancel() throws Exception {
+    timeline = new Timeline();
+
+    final CountDownLatch ran = new CountDownLatch(1);
+    final Timeline.Handle handle = timeline.scheduleIn(100, new Runnable() {
+      @Override
+      public void run() {
+        ran.countDown();
+      }
+    });
+
+    assertEquals(1, timeline.depth());
+    assertTrue(handle.cancel());
+    assertFalse(handle.cancel());
+    assertEquals(0, timeline.depth());
+
+    assertFalse(ran.await(300, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void testScheduleEvery() throws Exception {
+    timeline = new Timeline();
+
+    final CountDownLatch ran = new CountDownLatch(3);
+    final Timeline.Handle handle = timeline.scheduleEvery(20, new Runnable() {
+      @Override
+      public void run() {
+        ran.countDown();
+      }
+    });
+
+    assertTrue(ran.await(5, TimeUnit.SECONDS));
+    assertTrue(handle.cancel());
+
+    // Give a run that was already handed over a chance to finish.
+    Thread.sleep(50);
+    assertEquals(0, timeline.depth());
+  }
+
+  @Test
+  public void testManyExecutors() throws Exception {
+    timeline = new Timeline(Integer.MAX_VALUE, 4);
+
+    // Every event waits for all of the others to start, which can only
+    // happen if they run at the same time.
+    final CountDownLatch started = new CountDownLatch(4);
+    final CountDownLatch finished = new CountDownLatch(4);
+    for (int i = 0; i < 4; i++) {
+      timeline.scheduleNow(new Runnable() {
+        @Override
+        public void run() {
+          started.countDown();
+          try {
+            if (started.await(5, TimeUnit.SECONDS)) {
+              finished.countDown();
+            }
+          } catch (InterruptedException ex) { }
+        }
+      });
+    }
+
+    assertTrue(finished.await(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testSameKeyRunsInOrder() throws Exception {
+    timeline = new Timeline(Integer.MAX_VALUE, 4);
+
+    final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger overlaps = new AtomicInteger();
+    final CountDownLatch done = new CountDownLatch(200);
+
+    for (int i = 0; i < 200; i++) {
+      final int value = i;
+      timeline.scheduleNow("key", new Runnable() {
+        @Override
+        public void run() {
+          if (running.incrementAndGet() > 1) {
+            overlaps.incrementAndGet();
+          }
+          order.add(value);
+          running.decrementAndGet();
+          done.countDown();
+        }
+      });
+    }
+
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertEquals(0, overlaps.get());
+    for (int i = 0; i < 200; i++) {
+      assertEquals(i, (int) order.get(i));
+    }
+  }
+
+  @Test
+  public void testBusyKeyDoesNotBlockOtherKeys() throws Exception {
+    timeline = new Timeline(Integer.MAX_VALUE, 2);
+
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch otherRan = new CountDownLatch(1);
+
+    // Fill one key with events that wait, then add an event for another key.
+    for (int i = 0; i < 10; i++) {
+      timeline.scheduleNow("busy", new Runnable() {
+        @Override
+        public void run() {
+          try {
+            release.await();
+          } catch (InterruptedException ex) { }
+        }
+      });
+    }
+    timeline.scheduleNow("other", new Runnable() {
+      @Override
+      public void run() {
+        otherRan.countDown();
+      }
+    });
+
+    assertTrue(otherRan.await(5, TimeUnit.SECONDS));
+    release.countDown();
+  }
+}
@@ -14,7 +14,10 @@
 
 package codeu.chat.util;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import static org.junit.Assert.*;
 import org.junit.Test;
 
@@ -149,4 +152,46 @@ public final class UuidTest {
 
     assertEquals(start, end);
   }
+
+  @Test
+  public void testReversedIdsHashDifferently() {
+    // Swapping the ids of a chain gives a different Uuid, and should give a
+    // different hash too.
+    for (int a = 1; a < 50; a++) {
+      for (int b = a + 1; b < 50; b++) {
+        assertNotEquals(new Uuid(new Uuid(a), b).hashCode(), new Uuid(new Uuid(b), a).hashCode());
+      }
+    }
+  }
+
+  @Test
+  public void testEqualsLongChains() {
+    final Uuid a = new Uuid(new Uuid(new Uuid(new Uuid(1), 2), 3), 4);
+    final Uuid b = new Uuid(new Uuid(new Uuid(new Uuid(1), 2), 3), 4);
+    final Uuid c = new Uuid(new Uuid(new Uuid(new Uuid(9), 2), 3), 4);
+
+    assertEquals(a, b);
+    assertEquals(a.hashCode(), b.hashCode());
+    assertNotEquals(a, c);
+
+    // Same last two ids, different lengths.
+    assertNotEquals(new Uuid(new Uuid(3), 4), new Uuid(new Uuid(new Uuid(0), 3), 4));
+  }
+
+  @Test
+  public void testReadsAreInterned() throws IOException {
+
+    final Uuid id = new Uuid(new Uuid(100), 12345);
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Uuid.SERIALIZER.write(out, id);
+    final byte[] bytes = out.toByteArray();
+
+    final Uuid first = Uuid.SERIALIZER.read(new ByteArrayInputStream(bytes));
+
+    assertEquals(id, first);
+    assertSame(first, Uuid.SERIALIZER.read(new ByteArrayInputStream(bytes)));
+    assertSame(first, Uuid.SERIALIZER.read(ByteBuffer.wrap(bytes)));
+    assertSame(first, Uuid.parse("100.12345"));
+  }
 }
@@ -0,0 +1,82 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.connections;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public final class BufferPoolTest {
+
+  @Test
+  public void testSizes() {
+    final BufferPool pool = new BufferPool();
+    assertEquals(BufferPool.MIN_SIZE, pool.take(0).length);
+    assertEquals(BufferPool.MIN_SIZE, pool.take(BufferPool.MIN_SIZE).length);
+    assertEquals(BufferPool.MIN_SIZE * 2, pool.take(BufferPool.MIN_SIZE + 1).length);
+    assertEquals(BufferPool.MAX_SIZE, pool.take(BufferPool.MAX_SIZE).length);
+    assertEquals(BufferPool.MAX_SIZE + 1, pool.take(BufferPool.MAX_SIZE + 1).length);
+  }
+
+  @Test
+  public void testReuse() {
+    final BufferPool pool = new BufferPool();
+    final byte[] array = pool.take(1000);
+    pool.give(array);
+    assertEquals(1, pool.free());
+    assertSame(array, pool.take(600));
+    assertEquals(0, pool.free());
+  }
+
+  @Test
+  public void testForeignArraysAreDropped() {
+    final BufferPool pool = new BufferPool();
+    pool.give(new byte[1000]);
+    pool.give(new byte[BufferPool.MAX_SIZE * 2]);
+    assertEquals(0, pool.free());
+  }
+
+  @Test
+  public void testFrameOutputStream() throws IOException {
+    final BufferPool pool = new BufferPool();
+    final FrameOutputStream frame = new FrameOutputStream(pool);
+
+    // Write enough to make the stream swap its array for a larger one.
+    final byte[] payload = new byte[BufferPool.MIN_SIZE * 3];
+    for (int i = 0; i < payload.length; i++) {
+      payload[i] = (byte) i;
+    }
+    frame.write(payload[0]);
+    frame.write(payload, 1, payload.length - 1);
+    assertEquals(payload.length, frame.size());
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    frame.writeTo(out, 42);
+    frame.release();
+
+    final byte[] written = out.toByteArray();
+    assertEquals(Frames.HEADER_SIZE + payload.length, written.length);
+    assertEquals(payload.length, Frames.getInt(written, 0));
+    assertEquals(42, Frames.getInt(written, 4));
+    for (int i = 0; i < payload.length; i++) {
+      assertEquals(payload[i], written[Frames.HEADER_SIZE + i]);
+    }
+
+    // Both the first array and the one that replaced it were handed back.
+    assertEquals(2, pool.free());
+  }
+}
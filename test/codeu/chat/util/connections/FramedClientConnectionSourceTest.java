@@ -0,0 +1,156 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.util.connections;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntPredicate;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import codeu.chat.util.Serializers;
+
+public final class FramedClientConnectionSourceTest {
+
+  private static final int READ_TYPE = 1;
+  private static final int CHANGE_TYPE = 2;
+
+  private final IntPredicate readsOnly = new IntPredicate() {
+    @Override
+    public boolean test(int type) {
+      return type == READ_TYPE;
+    }
+  };
+
+  private ServerSocket listener;
+  private FramedClientConnectionSource client;
+
+  private final AtomicInteger accepted = new AtomicInteger();
+  private final AtomicInteger requests = new AtomicInteger();
+
+  // When set, the server reads the next request and then closes its socket
+  // without answering, as a server that went away part way through would.
+  private final AtomicBoolean dropNext = new AtomicBoolean();
+
+  // Echoes every request frame back as its response.
+  private final Thread acceptor = new Thread() {
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          final Socket socket = listener.accept();
+          accepted.incrementAndGet();
+          final Thread echo = new Thread() {
+            @Override
+            public void run() {
+              echo(socket);
+            }
+          };
+          echo.setDaemon(true);
+          echo.start();
+        }
+      } catch (IOException ex) {
+        // The listener was closed.
+      }
+    }
+  };
+
+  @Before
+  public void doBefore() throws IOException {
+    listener = new ServerSocket(0);
+    client = new FramedClientConnectionSource("localhost", listener.getLocalPort(), readsOnly);
+    acceptor.start();
+  }
+
+  @After
+  public void doAfter() throws Exception {
+    client.close();
+    listener.close();
+    acceptor.join();
+  }
+
+  @Test
+  public void testPooledSocketIsReused() throws IOException {
+    assertEquals(READ_TYPE, call(READ_TYPE));
+    assertEquals(CHANGE_TYPE, call(CHANGE_TYPE));
+    assertEquals(READ_TYPE, call(READ_TYPE));
+    assertEquals(1, accepted.get());
+    assertEquals(3, requests.get());
+  }
+
+  @Test
+  public void testReadIsResentOnNewSocket() throws IOException {
+
+    assertEquals(READ_TYPE, call(READ_TYPE));
+
+    dropNext.set(true);
+    assertEquals(READ_TYPE, call(READ_TYPE));
+
+    // The dropped read was sent again on a second socket.
+    assertEquals(2, accepted.get());
+    assertEquals(3, requests.get());
+  }
+
+  @Test
+  public void testChangeIsNotResent() throws IOException {
+
+    assertEquals(CHANGE_TYPE, call(CHANGE_TYPE));
+
+    dropNext.set(true);
+    try {
+      call(CHANGE_TYPE);
+      fail("Expected the dropped change to fail");
+    } catch (IOException ex) {
+      // expected
+    }
+
+    // The server got the change once and it was not sent again.
+    assertEquals(1, accepted.get());
+    assertEquals(2, requests.get());
+  }
+
+  private int call(int type) throws IOException {
+    try (final Connection connection = client.connect()) {
+      Serializers.INTEGER.write(connection.out(), type);
+      return Serializers.INTEGER.read(connection.in());
+    }
+  }
+
+  private void echo(Socket socket) {
+    try (final Socket open = socket) {
+      final InputStream in = open.getInputStream();
+      final OutputStream out = open.getOutputStream();
+      while (true) {
+        final Frames.Frame frame = Frames.read(in);
+        requests.incrementAndGet();
+        if (dropNext.getAndSet(false)) {
+          return;
+        }
+        Frames.write(out, frame.id, frame.payload, frame.length);
+      }
+    } catch (IOException ex) {
+      // The client closed the socket.
+    }
+  }
+}
@@ -0,0 +1,318 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.connections;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntPredicate;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import codeu.chat.util.Serializers;
+
+public final class NioServerConnectionSourceTest {
+
+  private static final long IDLE_TIMEOUT_MS = 400;
+
+  private NioServerConnectionSource server;
+  private ConnectionSource client;
+
+  private final Thread echo = new Thread() {
+    @Override
+    public void run() {
+      while (true) {
+        try (final Connection connection = server.connect()) {
+          final String value = Serializers.STRING.read(connection.in());
+          Serializers.STRING.write(connection.out(), value.toUpperCase());
+        } catch (IOException ex) {
+          return;  // the source was closed
+        }
+      }
+    }
+  };
+
+  @Before
+  public void doBefore() throws IOException {
+    server = NioServerConnectionSource.forPort(0, IDLE_TIMEOUT_MS);
+    // Upper-casing changes nothing, so every request is safe to send again.
+    client = new FramedClientConnectionSource("localhost", server.port(), new IntPredicate() {
+      @Override
+      public boolean test(int type) {
+        return true;
+      }
+    });
+    echo.start();
+  }
+
+  @After
+  public void doAfter() throws Exception {
+    client.close();
+    server.close();
+    echo.join();
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    assertEquals("HELLO", call("hello"));
+  }
+
+  @Test
+  public void testManyRequests() throws IOException {
+    for (int i = 0; i < 50; i++) {
+      assertEquals("VALUE " + i, call("value " + i));
+    }
+  }
+
+  @Test
+  public void testSlowClientDoesNotBlockOthers() throws IOException {
+
+    // Send only half a frame header and leave the socket open. The server must
+    // keep serving other clients while it waits for the rest.
+    try (final Socket slow = new Socket("localhost", server.port())) {
+      final OutputStream out = slow.getOutputStream();
+      out.write(new byte[] { 0, 0 });
+      out.flush();
+
+      assertEquals("STILL SERVING", call("still serving"));
+    }
+  }
+
+  @Test
+  public void testIdleSocketIsClosed() throws Exception {
+    try (final Socket idle = new Socket("localhost", server.port())) {
+      idle.setSoTimeout((int) (IDLE_TIMEOUT_MS * 10));
+      final InputStream in = idle.getInputStream();
+      assertEquals(-1, in.read());
+    }
+  }
+
+  @Test
+  public void testReusedSocketClosedByServer() throws Exception {
+    assertEquals("BEFORE", call("before"));
+
+    // Let the server drop the pooled socket. The next call must notice and
+    // retry on a new socket.
+    Thread.sleep(IDLE_TIMEOUT_MS * 3);
+
+    assertEquals("AFTER", call("after"));
+  }
+
+  @Test
+  public void testPipelinedResponsesOutOfOrder() throws Exception {
+
+    final int count = 8;
+
+    try (final NioServerConnectionSource reverse = NioServerConnectionSource.forPort(0);
+         final ConnectionSource pipelined = new FramedClientConnectionSource("localhost", reverse.port())) {
+
+      final List<CompletableFuture<InputStream>> responses = new ArrayList<>();
+      for (int i = 0; i < count; i++) {
+        responses.add(pipelined.send(request("value " + i)));
+      }
+
+      // Only answer once every request has arrived, and answer the last
+      // request first.
+      final List<Connection> requests = new ArrayList<>();
+      for (int i = 0; i < count; i++) {
+        requests.add(reverse.connect());
+      }
+      for (int i = count - 1; i >= 0; i--) {
+        final Connection connection = requests.get(i);
+        final String value = Serializers.STRING.read(connection.in());
+        Serializers.STRING.write(connection.out(), value.toUpperCase());
+        connection.close();
+      }
+
+      for (int i = 0; i < count; i++) {
+        assertEquals("VALUE " + i, Serializers.STRING.read(responses.get(i).get()));
+      }
+    }
+  }
+
+  @Test
+  public void testPushedEvents() throws Exception {
+
+    final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+    final CountDownLatch closed = new CountDownLatch(1);
+
+    try (final NioServerConnectionSource pushing = NioServerConnectionSource.forPort(0, IDLE_TIMEOUT_MS);
+         final ConnectionSource subscriber = new FramedClientConnectionSource("localhost", pushing.port())) {
+
+      final CompletableFuture<InputStream> response = subscriber.subscribe(request("subscribe"), new PushListener() {
+        @Override
+        public void onPush(InputStream event) {
+          try {
+            events.add(Serializers.STRING.read(event));
+          } catch (IOException ex) {
+            events.add(ex.toString());
+          }
+        }
+
+        @Override
+        public void onClose() {
+          closed.countDown();
+        }
+      });
+
+      final Connection connection = pushing.connect();
+      assertEquals("subscribe", Serializers.STRING.read(connection.in()));
+      final Pusher pusher = connection.pusher();
+      Serializers.STRING.write(connection.out(), "SUBSCRIBED");
+      connection.close();
+
+      assertEquals("SUBSCRIBED", Serializers.STRING.read(response.get()));
+
+      assertTrue(pusher.push(request("event 1")));
+      assertEquals("event 1", events.poll(5, TimeUnit.SECONDS));
+
+      // A socket that events are pushed to must outlive the idle timeout.
+      Thread.sleep(IDLE_TIMEOUT_MS * 3);
+
+      assertTrue(pusher.push(request("event 2")));
+      assertEquals("event 2", events.poll(5, TimeUnit.SECONDS));
+    }
+
+    assertTrue(closed.await(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testClientNotReadingEventsIsDropped() throws Exception {
+
+    try (final NioServerConnectionSource pushing = NioServerConnectionSource.forPort(0, IDLE_TIMEOUT_MS, 4);
+         final Socket subscriber = new Socket("localhost", pushing.port())) {
+
+      final byte[] subscribe = request("subscribe");
+      Frames.write(subscriber.getOutputStream(), 1, subscribe, subscribe.length);
+
+      final Pusher pusher;
+      try (final Connection connection = pushing.connect()) {
+        pusher = connection.pusher();
+        Serializers.STRING.write(connection.out(), "SUBSCRIBED");
+      }
+
+      // The subscriber never reads, so once the socket's buffers are full the
+      // events queue up until there are too many and the client is dropped.
+      final byte[] event = new byte[64 * 1024];
+      boolean dropped = false;
+      for (int i = 0; i < 10000 && !dropped; i++) {
+        dropped = !pusher.push(event);
+      }
+
+      assertTrue(dropped);
+      assertFalse(pusher.push(event));
+      assertClosedByServer(subscriber);
+    }
+  }
+
+  @Test
+  public void testReadsPausedWhileRequestsWait() throws Exception {
+
+    final int count = 5;
+
+    try (final NioServerConnectionSource limited = NioServerConnectionSource.forPort(0, IDLE_TIMEOUT_MS, 4, 2);
+         final Socket sender = new Socket("localhost", limited.port())) {
+
+      for (int i = 0; i < count; i++) {
+        final byte[] value = request("value " + i);
+        Frames.write(sender.getOutputStream(), i + 1, value, value.length);
+      }
+
+      // Nothing takes the requests, so only two are read and the rest wait
+      // in the socket.
+      final long deadline = System.currentTimeMillis() + 5000;
+      while (limited.queuedRequests() < 2 && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      Thread.sleep(200);
+      assertEquals(2, limited.queuedRequests());
+
+      // Taking requests makes room and the rest are read, in order.
+      for (int i = 0; i < count; i++) {
+        try (final Connection connection = limited.connect()) {
+          assertEquals("value " + i, Serializers.STRING.read(connection.in()));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testPartialRequestReturnedToPool() throws Exception {
+
+    final BufferPool pool = new BufferPool();
+
+    try (final NioServerConnectionSource pooled = NioServerConnectionSource.forPort(0, IDLE_TIMEOUT_MS, 4, 2, pool)) {
+
+      // Say a request of 1000 bytes is coming, send only part of it, and leave.
+      try (final Socket sender = new Socket("localhost", pooled.port())) {
+        final DataOutputStream out = new DataOutputStream(sender.getOutputStream());
+        out.writeInt(1000);
+        out.writeInt(1);
+        out.write(new byte[10]);
+        out.flush();
+        Thread.sleep(200);
+      }
+
+      // The array the request was being read into comes back to the pool.
+      final long deadline = System.currentTimeMillis() + 5000;
+      while (pool.free() == 0 && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      assertEquals(1, pool.free());
+    }
+  }
+
+  // Read everything the server sends until it closes the socket. Fails if
+  // the socket is still open after a few seconds.
+  private static void assertClosedByServer(Socket socket) throws IOException {
+    socket.setSoTimeout(5000);
+    final InputStream in = socket.getInputStream();
+    final byte[] buffer = new byte[64 * 1024];
+    try {
+      while (in.read(buffer) >= 0) { }
+    } catch (SocketTimeoutException ex) {
+      fail("Socket was not closed");
+    } catch (IOException ex) {
+      // Reset by the server, which is as closed as it gets.
+    }
+  }
+
+  private static byte[] request(String value) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Serializers.STRING.write(out, value);
+    return out.toByteArray();
+  }
+
+  private String call(String value) throws IOException {
+    try (final Connection connection = client.connect()) {
+      Serializers.STRING.write(connection.out(), value);
+      return Serializers.STRING.read(connection.in());
+    }
+  }
+}
@@ -0,0 +1,214 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.connections;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import codeu.chat.util.Serializers;
+
+public final class ThreadPerConnectionServerTest {
+
+  private static final int IDLE_TIMEOUT_MS = 400;
+
+  private ThreadPerConnectionServer server;
+  private ConnectionSource client;
+
+  // The pusher from the most recent "subscribe" request.
+  private final BlockingQueue<Pusher> pushers = new LinkedBlockingQueue<>();
+
+  // The handler runs on the server's threads, where a failed assertion would
+  // never reach JUnit, so the first error is kept and checked afterwards.
+  private final AtomicReference<Exception> handlerError = new AtomicReference<>();
+
+  private final ThreadPerConnectionServer.Handler upperCase = new ThreadPerConnectionServer.Handler() {
+    @Override
+    public void handle(Connection connection) {
+      Pusher pusher = null;
+      try (final Connection request = connection) {
+        final String value = Serializers.STRING.read(request.in());
+        if ("subscribe".equals(value)) {
+          pusher = request.pusher();
+        }
+        Serializers.STRING.write(request.out(), value.toUpperCase());
+      } catch (IOException | RuntimeException ex) {
+        handlerError.compareAndSet(null, ex);
+      }
+      // The response is only sent when the connection is closed, so the
+      // pusher is handed out after that. A test that gets the subscriber
+      // dropped cannot then close the socket while the response is written.
+      if (pusher != null) {
+        pushers.add(pusher);
+      }
+    }
+  };
+
+  private final Thread acceptor = new Thread() {
+    @Override
+    public void run() {
+      server.run();
+    }
+  };
+
+  @Before
+  public void doBefore() throws IOException {
+    server = ThreadPerConnectionServer.forPort(0, upperCase, IDLE_TIMEOUT_MS);
+    client = new FramedClientConnectionSource("localhost", server.port());
+    acceptor.start();
+  }
+
+  @After
+  public void doAfter() throws Exception {
+    client.close();
+    server.close();
+    acceptor.join();
+
+    final Exception error = handlerError.get();
+    if (error != null) {
+      throw new AssertionError("Handler failed: " + error, error);
+    }
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    assertEquals("HELLO", call("hello"));
+    assertEquals("AGAIN", call("again"));
+  }
+
+  @Test
+  public void testPipelined() throws Exception {
+    final List<CompletableFuture<InputStream>> responses = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      responses.add(client.send(request("value " + i)));
+    }
+    for (int i = 0; i < 20; i++) {
+      assertEquals("VALUE " + i, Serializers.STRING.read(responses.get(i).get()));
+    }
+  }
+
+  @Test
+  public void testIdleSocketIsClosed() throws Exception {
+    try (final Socket idle = new Socket("localhost", server.port())) {
+      idle.setSoTimeout(IDLE_TIMEOUT_MS * 10);
+      assertEquals(-1, idle.getInputStream().read());
+    }
+  }
+
+  @Test
+  public void testPushedEvents() throws Exception {
+
+    final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+
+    final CompletableFuture<InputStream> response = client.subscribe(request("subscribe"), new PushListener() {
+      @Override
+      public void onPush(InputStream event) {
+        try {
+          events.add(Serializers.STRING.read(event));
+        } catch (IOException ex) {
+          events.add(ex.toString());
+        }
+      }
+
+      @Override
+      public void onClose() { }
+    });
+
+    assertEquals("SUBSCRIBE", Serializers.STRING.read(response.get()));
+    final Pusher pusher = pushers.poll(5, TimeUnit.SECONDS);
+
+    // The socket must stay open past the idle timeout once it carries events.
+    Thread.sleep(IDLE_TIMEOUT_MS * 3);
+
+    assertTrue(pusher.push(request("event")));
+    assertEquals("event", events.poll(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testClientNotReadingEventsIsDropped() throws Exception {
+
+    try (final ThreadPerConnectionServer pushing =
+             ThreadPerConnectionServer.forPort(0, upperCase, IDLE_TIMEOUT_MS, 4);
+         final Socket subscriber = new Socket("localhost", pushing.port())) {
+
+      final Thread accepting = new Thread() {
+        @Override
+        public void run() {
+          pushing.run();
+        }
+      };
+      accepting.setDaemon(true);
+      accepting.start();
+
+      final byte[] subscribe = request("subscribe");
+      Frames.write(subscriber.getOutputStream(), 1, subscribe, subscribe.length);
+      final Pusher pusher = pushers.poll(5, TimeUnit.SECONDS);
+
+      // The subscriber never reads, so once the socket's buffers are full the
+      // events queue up until there are too many and the client is dropped.
+      final byte[] event = new byte[64 * 1024];
+      boolean dropped = false;
+      for (int i = 0; i < 10000 && !dropped; i++) {
+        dropped = !pusher.push(event);
+      }
+
+      assertTrue(dropped);
+      assertFalse(pusher.push(event));
+      assertClosedByServer(subscriber);
+    }
+  }
+
+  // Read everything the server sends until it closes the socket. Fails if
+  // the socket is still open after a few seconds.
+  private static void assertClosedByServer(Socket socket) throws IOException {
+    socket.setSoTimeout(5000);
+    final InputStream in = socket.getInputStream();
+    final byte[] buffer = new byte[64 * 1024];
+    try {
+      while (in.read(buffer) >= 0) { }
+    } catch (SocketTimeoutException ex) {
+      fail("Socket was not closed");
+    } catch (IOException ex) {
+      // Reset by the server, which is as closed as it gets.
+    }
+  }
+
+  private static byte[] request(String value) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Serializers.STRING.write(out, value);
+    return out.toByteArray();
+  }
+
+  private String call(String value) throws IOException {
+    try (final Connection connection = client.connect()) {
+      Serializers.STRING.write(connection.out(), value);
+      return Serializers.STRING.read(connection.in());
+    }
+  }
+}
@@ -0,0 +1,254 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.store;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.junit.Before;
+
+public final class ConcurrentStoreTest {
+
+  private static final Comparator<Integer> COMPARATOR = new Comparator<Integer>() {
+    @Override
+    public int compare(Integer a, Integer b) { return a.compareTo(b); }
+  };
+
+  private ConcurrentStore<Integer, Integer> store;
+
+  @Before
+  public void doBefore() {
+    store = new ConcurrentStore<>(COMPARATOR);
+  }
+
+  @Test
+  public void testOrderInOrderInsert() {
+
+    store.insert(0, 0);
+    store.insert(1, 10);
+    store.insert(2, 20);
+    store.insert(3, 30);
+    store.insert(4, 40);
+
+    final int[] order = { 0, 10, 20, 30, 40 };
+    assertOrder(store.all(), order);
+  }
+
+  @Test
+  public void testOrderReverseOrderInsert() {
+
+    store.insert(4, 40);
+    store.insert(3, 30);
+    store.insert(2, 20);
+    store.insert(1, 10);
+    store.insert(0, 0);
+
+    final int[] order = { 0, 10, 20, 30, 40 };
+    assertOrder(store.all(), order);
+  }
+
+  @Test
+  public void testOrderPingPongOrderInsert() {
+
+    store.insert(0, 0);
+    store.insert(4, 40);
+    store.insert(1, 10);
+    store.insert(3, 30);
+    store.insert(2, 20);
+
+    final int[] order = { 0, 10, 20, 30, 40 };
+    assertOrder(store.all(), order);
+  }
+
+  @Test
+  public void testBefore() {
+    store.insert(0, 0);
+    store.insert(1, 10);
+    store.insert(2, 20);
+    store.insert(3, 30);
+    store.insert(4, 40);
+
+    final int[] order = { 0, 10, 20 };
+    assertOrder(store.before(2), order);
+  }
+
+  @Test
+  public void testAfter() {
+    store.insert(0, 0);
+    store.insert(1, 10);
+    store.insert(2, 20);
+    store.insert(3, 30);
+    store.insert(4, 40);
+
+    final int[] order = { 20, 30, 40 };
+    assertOrder(store.after(2), order);
+  }
+
+  @Test
+  public void testRange() {
+    store.insert(0, 0);
+    store.insert(1, 10);
+    store.insert(2, 20);
+    store.insert(3, 30);
+    store.insert(4, 40);
+
+    final int[] order = { 10, 20, 30 };
+    assertOrder(store.range(1, 3), order);
+  }
+
+  @Test
+  public void testAt() {
+    store.insert(0, 0);
+    store.insert(1, 10);
+    store.insert(2, 20);
+    store.insert(2, 21);
+    store.insert(2, 22);
+    store.insert(3, 30);
+    store.insert(4, 40);
+
+    final int[] order = { 20, 21, 22 };
+    assertOrder(store.at(2), order);
+  }
+
+  @Test
+  public void testFirst() {
+    store.insert(0, 0);
+    store.insert(0, 1);
+
+    store.insert(1, 10);
+    store.insert(1, 11);
+
+    store.insert(2, 20);
+    store.insert(2, 21);
+
+    store.insert(3, 30);
+    store.insert(3, 31);
+
+    store.insert(4, 40);
+    store.insert(4, 41);
+
+    assertTrue(store.first(0) == 0);
+    assertTrue(store.first(1) == 10);
+    assertTrue(store.first(2) == 20);
+    assertTrue(store.first(3) == 30);
+    assertTrue(store.first(4) == 40);
+  }
+
+  @Test
+  public void testDuplicatesBetweenOtherKeys() {
+
+    // Going back to a key after others were added must still find its run,
+    // not add to whichever run was added to last.
+    store.insert(1, 10);
+    store.insert(1, 11);
+    store.insert(2, 20);
+    store.insert(1, 12);
+    store.insert(0, 0);
+    store.insert(2, 21);
+    store.insert(2, 22);
+    store.insert(1, 13);
+
+    assertOrder(store.at(1), new int[] { 10, 11, 12, 13 });
+    assertOrder(store.all(), new int[] { 0, 10, 11, 12, 13, 20, 21, 22 });
+  }
+
+  @Test
+  public void testEmptyRanges() {
+    store.insert(5, 50);
+
+    assertOrder(store.at(4), new int[] { });
+    assertOrder(store.before(4), new int[] { });
+    assertOrder(store.after(6), new int[] { });
+    assertOrder(store.range(3, 1), new int[] { });
+    assertTrue(store.first(4) == null);
+  }
+
+  @Test
+  public void testConcurrentWriters() throws InterruptedException {
+
+    // Every writer adds to the same few keys, and a reader checks while they
+    // do that each key's values stay in the order that writer added them.
+    final int writers = 4;
+    final int inserts = 20000;
+    final AtomicReference<String> failure = new AtomicReference<>();
+
+    final Thread[] threads = new Thread[writers + 1];
+
+    for (int w = 0; w < writers; w++) {
+      final int writer = w;
+      threads[w] = new Thread() {
+        @Override
+        public void run() {
+          for (int i = 0; i < inserts; i++) {
+            store.insert(i % 10, writer * inserts + i);
+          }
+        }
+      };
+    }
+
+    threads[writers] = new Thread() {
+      @Override
+      public void run() {
+        for (int pass = 0; pass < 50; pass++) {
+          final int[] last = new int[writers];
+          Arrays.fill(last, -1);
+          for (final Integer value : store.at(3)) {
+            final int writer = value / inserts;
+            if (value % inserts <= last[writer]) {
+              failure.compareAndSet(null, "out of order at " + value);
+            }
+            last[writer] = value % inserts;
+          }
+        }
+      }
+    };
+
+    for (final Thread thread : threads) {
+      thread.start();
+    }
+    for (final Thread thread : threads) {
+      thread.join();
+    }
+
+    assertNull(failure.get());
+
+    int count = 0;
+    for (final Integer value : store.all()) {
+      count += 1;
+    }
+    assertEquals(writers * inserts, count);
+
+    count = 0;
+    for (final Integer value : store.at(3)) {
+      count += 1;
+    }
+    assertEquals(writers * inserts / 10, count);
+  }
+
+  private static void assertOrder(Iterable<Integer> actual, int[] expected) {
+
+    int at = 0;
+
+    for (final Integer i : actual) {
+      assertTrue(i == expected[at]);
+      at += 1;
+    }
+
+    assertTrue(at == expected.length);
+  }
+}
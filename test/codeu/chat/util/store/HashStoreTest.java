@@ -0,0 +1,102 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.store;
+
+import java.util.Comparator;
+
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+public final class HashStoreTest {
+
+  private static final Comparator<Integer> COMPARATOR = new Comparator<Integer>() {
+    @Override
+    public int compare(Integer a, Integer b) { return a.compareTo(b); }
+  };
+
+  private HashStore<Integer, Integer> store;
+
+  @Before
+  public void doBefore() {
+    store = new HashStore<>(COMPARATOR);
+  }
+
+  @Test
+  public void testFirst() {
+    store.insert(3, 30);
+    store.insert(1, 10);
+
+    assertTrue(store.first(1) == 10);
+    assertTrue(store.first(3) == 30);
+    assertNull(store.first(2));
+  }
+
+  @Test
+  public void testAt() {
+    store.insert(1, 10);
+
+    assertOrder(store.at(1), new int[] { 10 });
+    assertOrder(store.at(2), new int[] { });
+  }
+
+  @Test
+  public void testOrdered() {
+    store.insert(4, 40);
+    store.insert(0, 0);
+    store.insert(2, 20);
+    store.insert(3, 30);
+    store.insert(1, 10);
+
+    assertOrder(store.all(), new int[] { 0, 10, 20, 30, 40 });
+    assertOrder(store.after(3), new int[] { 30, 40 });
+    assertOrder(store.before(1), new int[] { 0, 10 });
+    assertOrder(store.range(1, 3), new int[] { 10, 20, 30 });
+  }
+
+  @Test
+  public void testDuplicateKey() {
+    store.insert(1, 10);
+    try {
+      store.insert(1, 11);
+      fail("Duplicate key was accepted");
+    } catch (IllegalArgumentException ex) {
+      // expected
+    }
+
+    assertTrue(store.first(1) == 10);
+    assertOrder(store.all(), new int[] { 10 });
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testUnorderedHasNoRanges() {
+    final HashStore<Integer, Integer> unordered = new HashStore<>();
+    unordered.insert(1, 10);
+    assertTrue(unordered.first(1) == 10);
+    unordered.all();
+  }
+
+  private static void assertOrder(Iterable<Integer> actual, int[] expected) {
+
+    int at = 0;
+
+    for (final Integer i : actual) {
+      assertTrue(i == expected[at]);
+      at += 1;
+    }
+
+    assertTrue(at == expected.length);
+  }
+}
@@ -147,6 +147,41 @@ public final class StoreTest {
     assertTrue(store.first(4) == 40);
   }
 
+  @Test
+  public void testDuplicatesAfterLaterKeys() {
+    // Values for a key that is already in the store go on the end of that
+    // key's run, even when bigger keys have been added since.
+    store.insert(1, 10);
+    store.insert(3, 30);
+    store.insert(1, 11);
+    store.insert(2, 20);
+    store.insert(1, 12);
+    store.insert(3, 31);
+    store.insert(0, 0);
+
+    assertOrder(store.all(), new int[] { 0, 10, 11, 12, 20, 30, 31 });
+    assertOrder(store.at(1), new int[] { 10, 11, 12 });
+    assertOrder(store.after(3), new int[] { 30, 31 });
+    assertTrue(store.first(1) == 10);
+  }
+
+  @Test
+  public void testManyDuplicates() {
+    // Each insert is constant time once its key is in the store, so this
+    // would take minutes if duplicates were appended by walking the run.
+    final int count = 200000;
+    for (int i = 0; i < count; i++) {
+      store.insert(i % 2, i);
+    }
+
+    int expected = 0;
+    for (final Integer value : store.at(0)) {
+      assertTrue(value == expected);
+      expected += 2;
+    }
+    assertTrue(expected == count);
+  }
+
   private static void assertOrder(Iterable<Integer> actual, int[] expected) {
 
     int at = 0;